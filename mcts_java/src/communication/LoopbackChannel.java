@@ -0,0 +1,360 @@
+package communication;
+
+import communication.messages.Message;
+import communication.messages.MessageCodec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Channel to an agent running in another process, backed by a non-blocking socket over
+ * localhost. It keeps the interface of the simulated channel: messages wait in a priority
+ * queue and leave it at the transmission speed (counted in message lengths), a message whose
+ * transmission finished is encoded (MessageCodec) and written to the socket. Frames are read whenever
+ * the receiving side is queried, nothing blocks and no thread of its own is needed.
+ *
+ * Every frame carries the epoch (the tick) of its sender. Frames of older epochs are dropped
+ * on reception, frames of newer ones are held back until the receiver gets to the epoch.
+ *
+ * Reliability is given by TCP, no reliability model is applied.
+ */
+public class LoopbackChannel extends Channel {
+    private final static int FRAME_HEADER_LENGTH = 12; /* int payload length, long epoch */
+    private final static int INITIAL_BUFFER_SIZE = 1<<16;
+
+    private static class Frame {
+        final long epoch;
+        final Message message;
+
+        Frame(long epoch, Message message) {
+            this.epoch = epoch;
+            this.message = message;
+        }
+    }
+
+    private SocketChannel socket;
+    private PrioritySendingQueue sendingQueue;
+    private Message transmittedMessage = null;
+    private long queueMillibytesTransmitted;
+    private long lastTransmissionTime;
+    private MessageCodec codec = new MessageCodec();
+    private ByteBuffer outgoing = ByteBuffer.allocate(INITIAL_BUFFER_SIZE); /* frames not written to the socket yet */
+    private ByteBuffer incoming = ByteBuffer.allocate(INITIAL_BUFFER_SIZE); /* bytes read from the socket, not decoded yet */
+    private LinkedList<Frame> receivedQueue = new LinkedList<Frame>();
+    private long epoch = 0;
+    private boolean closed = false;
+
+    private long transmittedTotal = 0;
+    private long transmittedSuccessfully = 0;
+    private long messagesSent = 0;
+    private long messagesReceived = 0;
+    private long bytesWritten = 0;
+    private long bytesRead = 0;
+    private long encodingNanos = 0;
+    private long decodingNanos = 0;
+
+    protected LoopbackChannel(Network network, String name, SocketChannel socket, long transmissionSpeed, long bufferSize) throws IOException {
+        super(network, name, transmissionSpeed, bufferSize, null);
+        this.socket = socket;
+        this.sendingQueue = new PrioritySendingQueue(bufferSize);
+        this.lastTransmissionTime = System.currentTimeMillis();
+        socket.configureBlocking(false);
+        socket.socket().setTcpNoDelay(true);
+    }
+
+    /**
+     * @return The buffer with at least the bytes remaining, the content is kept.
+     */
+    private static ByteBuffer ensureRemaining(ByteBuffer buffer, int bytes) {
+        if (buffer.remaining()>=bytes) {
+            return buffer;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(2*buffer.capacity(), buffer.position()+bytes));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    private void writeFrame(Message message) {
+        int length = (int)message.length();
+        outgoing = ensureRemaining(outgoing, FRAME_HEADER_LENGTH+length);
+        outgoing.putInt(length);
+        outgoing.putLong(epoch);
+
+        long start = System.nanoTime();
+        int position = outgoing.position();
+        codec.encode(message, outgoing);
+        encodingNanos += System.nanoTime()-start;
+        assert outgoing.position()-position==length;
+
+        messagesSent++;
+    }
+
+    private void writeOutgoing() throws IOException {
+        if (outgoing.position()==0) {
+            return;
+        }
+        outgoing.flip();
+        bytesWritten += socket.write(outgoing);
+        outgoing.compact();
+    }
+
+    private void readIncoming() throws IOException {
+        int read;
+        while ((read = socket.read(incoming))>0) {
+            bytesRead += read;
+            if (!incoming.hasRemaining()) {
+                incoming = ensureRemaining(incoming, incoming.capacity());
+            }
+        }
+        if (read==-1) {
+            closed = true;
+        }
+
+        incoming.flip();
+        while (incoming.remaining()>=FRAME_HEADER_LENGTH) {
+            int start = incoming.position();
+            int length = incoming.getInt(start);
+            if (incoming.remaining()<FRAME_HEADER_LENGTH+length) {
+                break;
+            }
+            long frameEpoch = incoming.getLong(start+4);
+            incoming.position(start+FRAME_HEADER_LENGTH);
+
+            long decodingStart = System.nanoTime();
+            Message message = codec.decode(incoming);
+            decodingNanos += System.nanoTime()-decodingStart;
+            assert incoming.position()==start+FRAME_HEADER_LENGTH+length;
+            incoming.position(start+FRAME_HEADER_LENGTH+length);
+
+            messagesReceived++;
+            if (frameEpoch>=epoch) {
+                receivedQueue.add(new Frame(frameEpoch, message));
+            }
+        }
+        incoming.compact();
+        incoming = ensureRemaining(incoming, FRAME_HEADER_LENGTH);
+    }
+
+    private void doTransmission() {
+        long currentTime = System.currentTimeMillis();
+        queueMillibytesTransmitted += (currentTime-lastTransmissionTime)*getTransmissionSpeed();
+
+        if (transmittedMessage==null) {
+            transmittedMessage = sendingQueue.removeFirst();
+            if (transmittedMessage!=null) {
+                transmittedMessage.onSendingStarted();
+            }
+        }
+
+        while (transmittedMessage!=null&&1000*transmittedMessage.length()<=queueMillibytesTransmitted) {
+            queueMillibytesTransmitted -= 1000*transmittedMessage.length();
+            transmittedTotal += transmittedMessage.length();
+            writeFrame(transmittedMessage);
+
+            transmittedMessage = sendingQueue.removeFirst();
+            if (transmittedMessage!=null) {
+                transmittedMessage.onSendingStarted();
+            }
+        }
+
+        if (transmittedMessage==null) {
+            queueMillibytesTransmitted = 0;
+        }
+
+        lastTransmissionTime = currentTime;
+
+        if (!closed) {
+            try {
+                writeOutgoing();
+                readIncoming();
+            } catch (IOException ex) {
+                closed = true;
+            }
+        }
+    }
+
+    /**
+     * @return The first received frame of the current epoch, frames of older epochs are dropped.
+     */
+    private Frame firstCurrent() {
+        for (Iterator<Frame> it = receivedQueue.iterator(); it.hasNext(); ) {
+            Frame frame = it.next();
+            if (frame.epoch<epoch) {
+                it.remove();
+            } else if (frame.epoch==epoch) {
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Moves the channel to the epoch. The messages of the former epochs not sent yet are dropped
+     * (they would be stamped by the new epoch), as are the ones not received yet.
+     */
+    public synchronized void setEpoch(long epoch) {
+        assert epoch>=this.epoch;
+        sendQueueFlush();
+        this.epoch = epoch;
+        firstCurrent();
+    }
+
+    public synchronized long epoch() {
+        return epoch;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    synchronized public boolean sendQueueEmpty() {
+        doTransmission();
+        return transmittedMessage==null;
+    }
+
+    @Override
+    synchronized public boolean receiveQueueEmpty() {
+        doTransmission();
+        return firstCurrent()==null;
+    }
+
+    @Override
+    synchronized public long receiveQueueItemsCount() {
+        doTransmission();
+        firstCurrent();
+
+        long count = 0;
+        for (Frame frame: receivedQueue) {
+            if (frame.epoch==epoch) count++;
+        }
+        return count;
+    }
+
+    @Override
+    synchronized public long receiveQueueLength() {
+        doTransmission();
+        firstCurrent();
+
+        long size = 0;
+        for (Frame frame: receivedQueue) {
+            if (frame.epoch==epoch) size += frame.message.length();
+        }
+        return size;
+    }
+
+    @Override
+    synchronized public Message receive() {
+        doTransmission();
+        Frame frame = firstCurrent();
+        if (frame==null) {
+            return null;
+        }
+        receivedQueue.remove(frame);
+        transmittedSuccessfully += frame.message.length();
+        return frame.message;
+    }
+
+    synchronized private long sendQueueMillisLength() {
+        doTransmission();
+        long size = 0;
+        if (transmittedMessage!=null) size += transmittedMessage.length();
+        size += sendingQueue.length();
+        return 1000*size-queueMillibytesTransmitted;
+    }
+
+    @Override
+    synchronized public long sendQueueItemsCount() {
+        doTransmission();
+        return transmittedMessage==null? 0: 1+sendingQueue.itemsCount();
+    }
+
+    @Override
+    synchronized public long sendQueueLength() {
+        return (long)Math.ceil(sendQueueMillisLength()/1000.0);
+    }
+
+    @Override
+    synchronized public double secondsToSendAll() {
+        return 0.001*sendQueueMillisLength()/getTransmissionSpeed();
+    }
+
+    @Override
+    synchronized public void send(Priority priority, Message message) {
+        if (sendingQueue.isEmpty()) lastTransmissionTime = System.currentTimeMillis(); /* flush transmission if queue is empty */
+        sendingQueue.add(priority, message);
+        doTransmission();
+    }
+
+    @Override
+    synchronized public void sendFirst(Priority priority, Message message) {
+        if (sendingQueue.isEmpty()) lastTransmissionTime = System.currentTimeMillis(); /* flush transmission if queue is empty */
+        sendingQueue.addFirst(priority, message);
+        doTransmission();
+    }
+
+    /**
+     * Drops the received messages of former epochs only, the ones of the current epoch
+     * were sent after the sender had flushed its queue for the epoch.
+     */
+    @Override
+    public synchronized void receiveQueueFlush() {
+        doTransmission();
+        firstCurrent();
+    }
+
+    /**
+     * The frames already passed to the socket are completed, the stream could not be read otherwise.
+     */
+    @Override
+    public synchronized void sendQueueFlush() {
+        sendingQueue.flush();
+        transmittedMessage = null;
+        queueMillibytesTransmitted = 0;
+    }
+
+    @Override
+    public synchronized void sendQueueFlushUnsent() {
+        sendingQueue.flush();
+    }
+
+    @Override
+    public synchronized void sendQueueFlushUnsent(Class messageClass) {
+        sendingQueue.flush(messageClass);
+    }
+
+    @Override
+    public synchronized void flushUnsent() {
+        receiveQueueFlush();
+        sendQueueFlushUnsent();
+    }
+
+    @Override
+    public synchronized void flush() {
+        receiveQueueFlush();
+        sendQueueFlush();
+    }
+
+    public synchronized void close() {
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            /* closed anyway */
+        }
+    }
+
+    @Override public synchronized long transmittedTotal() { return transmittedTotal; }
+    @Override public synchronized long transmittedSuccessfully() { return transmittedSuccessfully; }
+    public synchronized long messagesSent() { return messagesSent; }
+    public synchronized long messagesReceived() { return messagesReceived; }
+    /** @return Bytes written to the socket (frame headers included). */
+    public synchronized long bytesWritten() { return bytesWritten; }
+    /** @return Bytes read from the socket (frame headers included). */
+    public synchronized long bytesRead() { return bytesRead; }
+    public synchronized long encodingNanos() { return encodingNanos; }
+    public synchronized long decodingNanos() { return decodingNanos; }
+}
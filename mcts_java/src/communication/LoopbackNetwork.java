@@ -0,0 +1,147 @@
+package communication;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Endpoint of one process in a network of processes connected by LoopbackChannels. The
+ * endpoint listens on an ephemeral localhost port, one channel is opened to every peer either
+ * by connecting to its port or by accepting its connection. The connecting side introduces
+ * itself by its name, channels are named "local$peer" as those of the simulated Network.
+ */
+public class LoopbackNetwork {
+    private final static Charset NAME_CHARSET = Charset.forName("UTF-8");
+    private final static long CONNECT_RETRY_MILLIS = 50;
+    private final static int CONNECT_ATTEMPTS = 200;
+
+    private final String name;
+    private final Network network = new Network(); /* gives the channels their timer */
+    private final ServerSocketChannel server;
+    private final Map<String, LoopbackChannel> channels = new HashMap<String, LoopbackChannel>();
+    private long channelTransmissionSpeed;
+    private long bufferSize;
+
+    public LoopbackNetwork(String name, long channelTransmissionSpeed, long bufferSize) throws IOException {
+        this.name = name;
+        this.channelTransmissionSpeed = channelTransmissionSpeed;
+        this.bufferSize = bufferSize;
+        this.server = ServerSocketChannel.open();
+        this.server.socket().bind(new InetSocketAddress(InetAddress.getByName(null), 0));
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return The port the peers connect to.
+     */
+    public int port() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Connects to the peer listening on the port, waits for the peer to start listening.
+     */
+    public LoopbackChannel connect(String peer, int port) throws IOException {
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getByName(null), port);
+        SocketChannel socket = null;
+
+        for (int attempt=1; socket==null; attempt++) {
+            try {
+                socket = SocketChannel.open(address);
+            } catch (IOException ex) {
+                if (attempt==CONNECT_ATTEMPTS) {
+                    throw ex;
+                }
+                try {
+                    Thread.sleep(CONNECT_RETRY_MILLIS);
+                } catch (InterruptedException ie) {
+                    throw new IOException("Interrupted while connecting to "+peer);
+                }
+            }
+        }
+
+        byte[] introduction = name.getBytes(NAME_CHARSET);
+        ByteBuffer buffer = ByteBuffer.allocate(4+introduction.length);
+        buffer.putInt(introduction.length);
+        buffer.put(introduction);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            socket.write(buffer);
+        }
+
+        return open(peer, socket);
+    }
+
+    /**
+     * Accepts a connection of any peer.
+     */
+    public LoopbackChannel accept() throws IOException {
+        SocketChannel socket = server.accept();
+
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(socket, length);
+        ByteBuffer introduction = ByteBuffer.allocate(length.getInt());
+        readFully(socket, introduction);
+
+        return open(new String(introduction.array(), NAME_CHARSET), socket);
+    }
+
+    private static void readFully(SocketChannel socket, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (socket.read(buffer)==-1) {
+                throw new IOException("Connection closed by peer");
+            }
+        }
+        buffer.flip();
+    }
+
+    private LoopbackChannel open(String peer, SocketChannel socket) throws IOException {
+        LoopbackChannel channel = new LoopbackChannel(network, String.format("%s$%s", name, peer), socket, channelTransmissionSpeed, bufferSize);
+        channels.put(peer, channel);
+        return channel;
+    }
+
+    /**
+     * @return Channels keyed by the names of the peers.
+     */
+    public Map<String, LoopbackChannel> getChannels() {
+        return channels;
+    }
+
+    public void setEpoch(long epoch) {
+        for (LoopbackChannel channel: channels.values()) {
+            channel.setEpoch(epoch);
+        }
+    }
+
+    public long getChannelTransmissionSpeed() {
+        return channelTransmissionSpeed;
+    }
+
+    public void setChannelTransmissionSpeed(long channelTransmissionSpeed) {
+        this.channelTransmissionSpeed = channelTransmissionSpeed;
+        for (Channel channel: channels.values()) {
+            channel.setTransmissionSpeed(channelTransmissionSpeed);
+        }
+    }
+
+    public void close() {
+        for (LoopbackChannel channel: channels.values()) {
+            channel.close();
+        }
+        try {
+            server.close();
+        } catch (IOException ex) {
+            /* closed anyway */
+        }
+    }
+}
@@ -0,0 +1,483 @@
+package communication.messages;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import mcts.Action;
+import mcts.GhostAction;
+import mcts.PacmanAction;
+import pacman.game.Constants.GHOST;
+import pacman.game.Constants.MOVE;
+
+/**
+ * Binary encoding of the messages, the size of a message (Message.length()) is the size of its
+ * encoding. Every message starts by a 3 bit type and is padded to whole bytes. Fields are written
+ * most significant bit first:
+ *
+ * path: for every action 1 bit set, 1 bit type (0 pacman, 1 ghosts) and the move, 1 bit clear at the end;
+ *   pacman move 2 bits (pacman never plays MOVE.NEUTRAL in the tree),
+ *   ghosts moves 10 bits (moves of the ghosts in GHOST order as a base 5 number, MOVE.NEUTRAL included);
+ * value: 32 bits float;
+ * visit count: 16 bits unsigned, 0xffff followed by 32 bits for higher counts.
+ *
+ * MoveMessage: ghosts moves.
+ * RootMessage: 3 bits roots count, every root: 3 bits pacman move, 8 bits records count,
+ *   every record: ghosts moves, 32 bits unsigned value.
+ * SimulationResultMessage: value, path.
+ * TreeNodeMessage: value, visit count, path.
+ * TreeCutMessage: pre-order walk of the trie of the nodes' paths, so that every edge is written once.
+ *   Every trie node starts by 1 bit, set for a node of the cut (a leaf), clear for an inner one;
+ *   leaf: 16 bits value quantised in [0,1], 5 bits bit length L of the visit count, its L-1 bits below the leading 1;
+ *   inner: 1 bit type of the children's actions, children count in Elias gamma code, every child: move and subtree.
+ *   The nodes have to be in depth-first order (as kept by TreeCut), i.e. all nodes under a path next to each other.
+ * TreeCutDeltaMessage: 32 bits version, 32 bits base version, 16 bits updated nodes count,
+ *   every updated node as TreeNodeMessage (without the type), 16 bits removed paths count, every path.
+ * TreeCutAckMessage: 32 bits version.
+ *
+ * An encoder writes into a ByteBuffer given without allocating, a decoder creates only the message.
+ * Instances keep the state of the bit stream, they must not be shared by threads.
+ */
+public final class MessageCodec {
+    private final static int TYPE_BITS = 3;
+    private final static int MOVE_TYPE = 0;
+    private final static int ROOT_TYPE = 1;
+    private final static int SIMULATION_RESULT_TYPE = 2;
+    private final static int TREE_NODE_TYPE = 3;
+    private final static int TREE_CUT_TYPE = 4;
+    private final static int TREE_CUT_DELTA_TYPE = 5;
+    private final static int TREE_CUT_ACK_TYPE = 6;
+
+    private final static int PACMAN_MOVE_BITS = 2;
+    private final static int MOVE_BITS = 3;
+    private final static int GHOSTS_MOVES_BITS = 10;
+    private final static int VALUE_BITS = 32;
+    private final static int COUNT_BITS = 16;
+    private final static int COUNT_ESCAPE = (1<<COUNT_BITS)-1;
+    private final static int LONG_COUNT_BITS = 32;
+    private final static int ROOTS_COUNT_BITS = 3;
+    private final static int RECORDS_COUNT_BITS = 8;
+    private final static int ROOT_VALUE_BITS = 32;
+    private final static int NODES_COUNT_BITS = 16;
+    private final static int VERSION_BITS = 32;
+    private final static int CUT_VALUE_BITS = 16;
+    private final static int CUT_VALUE_MAX = (1<<CUT_VALUE_BITS)-1;
+    private final static int CUT_COUNT_LENGTH_BITS = 5;
+
+    private final static MOVE[] MOVES = MOVE.values();
+    private final static GHOST[] GHOSTS = GHOST.values();
+    private final static int MOVES_BASE = MOVES.length;
+    private final static PacmanAction[] PACMAN_ACTIONS = new PacmanAction[MOVES.length];
+    static {
+        for (MOVE move: MOVES) {
+            PACMAN_ACTIONS[move.ordinal()] = new PacmanAction(move);
+        }
+    }
+
+    private ByteBuffer buffer;
+    private long bits; /* bits not yet written to or already read from the buffer */
+    private int bitsCount;
+
+    /**
+     * @return Size of the encoding of the message in bytes.
+     */
+    public static long byteLength(Message message) {
+        return (bitLength(message)+7)/8;
+    }
+
+    /**
+     * @return Size of the encoding of the message in bits (without padding).
+     */
+    public static long bitLength(Message message) {
+        long length = TYPE_BITS;
+
+        if (message instanceof MoveMessage) {
+            length += GHOSTS_MOVES_BITS;
+        } else if (message instanceof RootMessage) {
+            length += ROOTS_COUNT_BITS;
+            for (Map<EnumMap<GHOST, MOVE>, Long> root: ((RootMessage)message).getRoots().values()) {
+                length += MOVE_BITS+RECORDS_COUNT_BITS+root.size()*(GHOSTS_MOVES_BITS+ROOT_VALUE_BITS);
+            }
+        } else if (message instanceof SimulationResultMessage) {
+            length += VALUE_BITS+pathBitLength(((SimulationResultMessage)message).treeMoves());
+        } else if (message instanceof TreeNodeMessage) {
+            length += treeNodeBitLength((TreeNodeMessage)message);
+        } else if (message instanceof TreeCutMessage) {
+            List<TreeNodeMessage> nodes = ((TreeCutMessage)message).nodeMessages();
+            length += cutBitLength(nodes, 0, nodes.size(), 0);
+        } else if (message instanceof TreeCutDeltaMessage) {
+            TreeCutDeltaMessage delta = (TreeCutDeltaMessage)message;
+            length += 2*VERSION_BITS+2*NODES_COUNT_BITS;
+            for (TreeNodeMessage node: delta.updated()) {
+                length += treeNodeBitLength(node);
+            }
+            for (List<Action> path: delta.removed()) {
+                length += pathBitLength(path);
+            }
+        } else if (message instanceof TreeCutAckMessage) {
+            length += VERSION_BITS;
+        } else {
+            throw new IllegalArgumentException("No encoding of "+message.getClass().getName());
+        }
+
+        return length;
+    }
+
+    private static long treeNodeBitLength(TreeNodeMessage message) {
+        return VALUE_BITS+(message.count()<COUNT_ESCAPE? COUNT_BITS: COUNT_BITS+LONG_COUNT_BITS)+pathBitLength(message.treeMoves());
+    }
+
+    private static long cutBitLength(List<TreeNodeMessage> nodes, int from, int to, int depth) {
+        List<Action> path = nodes.get(from).treeMoves();
+        if (path.size()==depth) {
+            assert to-from==1: "cut nodes are not an antichain";
+            return cutLeafBitLength(nodes.get(from).count());
+        }
+
+        Action.Type type = path.get(depth).type();
+        long length = cutInnerBitLength(type, childrenCount(nodes, from, to, depth));
+        for (int start=from, end; start<to; start=end) {
+            end = childEnd(nodes, start, to, depth);
+            length += cutBitLength(nodes, start, end, depth+1);
+        }
+        return length;
+    }
+
+    /**
+     * @return Bits of a node of a cut in the encoding of TreeCutMessage.
+     */
+    public static long cutLeafBitLength(int count) {
+        int countLength = 32-Integer.numberOfLeadingZeros(count);
+        return 1+CUT_VALUE_BITS+CUT_COUNT_LENGTH_BITS+Math.max(countLength-1, 0);
+    }
+
+    /**
+     * @return Bits of an inner trie node (its children's moves included) in the encoding of TreeCutMessage.
+     */
+    public static long cutInnerBitLength(Action.Type type, int childrenCount) {
+        assert childrenCount>0;
+        int moveBits = type==Action.Type.PACMAN? PACMAN_MOVE_BITS: GHOSTS_MOVES_BITS;
+        return 2+gammaBitLength(childrenCount)+childrenCount*moveBits;
+    }
+
+    private static int gammaBitLength(int value) {
+        return 2*(31-Integer.numberOfLeadingZeros(value))+1;
+    }
+
+    /**
+     * @return End of the run of nodes going through the same child as the node at start.
+     */
+    private static int childEnd(List<TreeNodeMessage> nodes, int start, int to, int depth) {
+        Action action = nodes.get(start).treeMoves().get(depth);
+        int end = start+1;
+        while (end<to&&sameAction(action, nodes.get(end).treeMoves().get(depth))) {
+            end++;
+        }
+        return end;
+    }
+
+    private static int childrenCount(List<TreeNodeMessage> nodes, int from, int to, int depth) {
+        int count = 0;
+        for (int start=from; start<to; start=childEnd(nodes, start, to, depth)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static boolean sameAction(Action a, Action b) {
+        assert a.type()==b.type(): "children of a node of different types";
+        return a.type()==Action.Type.PACMAN? a.pacmanMove()==b.pacmanMove(): a.ghostMove().equals(b.ghostMove());
+    }
+
+    private static long pathBitLength(List<Action> path) {
+        long length = 1;
+        for (Action action: path) {
+            length += 2+(action.type()==Action.Type.PACMAN? PACMAN_MOVE_BITS: GHOSTS_MOVES_BITS);
+        }
+        return length;
+    }
+
+    /**
+     * Writes the message at the position of the buffer, which has to have byteLength(message) bytes remaining.
+     */
+    public void encode(Message message, ByteBuffer buffer) {
+        this.buffer = buffer;
+        bits = 0;
+        bitsCount = 0;
+
+        if (message instanceof MoveMessage) {
+            write(MOVE_TYPE, TYPE_BITS);
+            writeGhostsMoves(((MoveMessage)message).moves());
+        } else if (message instanceof RootMessage) {
+            write(ROOT_TYPE, TYPE_BITS);
+            EnumMap<MOVE, Map<EnumMap<GHOST, MOVE>, Long>> roots = ((RootMessage)message).getRoots();
+            write(roots.size(), ROOTS_COUNT_BITS);
+            for (Map.Entry<MOVE, Map<EnumMap<GHOST, MOVE>, Long>> root: roots.entrySet()) {
+                assert root.getValue().size()<(1<<RECORDS_COUNT_BITS);
+                write(root.getKey().ordinal(), MOVE_BITS);
+                write(root.getValue().size(), RECORDS_COUNT_BITS);
+                for (Map.Entry<EnumMap<GHOST, MOVE>, Long> record: root.getValue().entrySet()) {
+                    assert record.getValue()>=0&&record.getValue()<=0xffffffffL;
+                    writeGhostsMoves(record.getKey());
+                    write(record.getValue().intValue(), ROOT_VALUE_BITS);
+                }
+            }
+        } else if (message instanceof SimulationResultMessage) {
+            SimulationResultMessage result = (SimulationResultMessage)message;
+            write(SIMULATION_RESULT_TYPE, TYPE_BITS);
+            write(Float.floatToIntBits((float)result.simulationResult()), VALUE_BITS);
+            writePath(result.treeMoves());
+        } else if (message instanceof TreeNodeMessage) {
+            write(TREE_NODE_TYPE, TYPE_BITS);
+            writeTreeNode((TreeNodeMessage)message);
+        } else if (message instanceof TreeCutMessage) {
+            List<TreeNodeMessage> nodes = ((TreeCutMessage)message).nodeMessages();
+            write(TREE_CUT_TYPE, TYPE_BITS);
+            writeCut(nodes, 0, nodes.size(), 0);
+        } else if (message instanceof TreeCutDeltaMessage) {
+            TreeCutDeltaMessage delta = (TreeCutDeltaMessage)message;
+            assert delta.updated().size()<(1<<NODES_COUNT_BITS)&&delta.removed().size()<(1<<NODES_COUNT_BITS);
+            write(TREE_CUT_DELTA_TYPE, TYPE_BITS);
+            write(delta.version(), VERSION_BITS);
+            write(delta.baseVersion(), VERSION_BITS);
+            write(delta.updated().size(), NODES_COUNT_BITS);
+            for (TreeNodeMessage node: delta.updated()) {
+                writeTreeNode(node);
+            }
+            write(delta.removed().size(), NODES_COUNT_BITS);
+            for (List<Action> path: delta.removed()) {
+                writePath(path);
+            }
+        } else if (message instanceof TreeCutAckMessage) {
+            write(TREE_CUT_ACK_TYPE, TYPE_BITS);
+            write(((TreeCutAckMessage)message).version(), VERSION_BITS);
+        } else {
+            throw new IllegalArgumentException("No encoding of "+message.getClass().getName());
+        }
+
+        if (bitsCount>0) {
+            write(0, 8-bitsCount); /* align */
+        }
+        this.buffer = null;
+    }
+
+    /**
+     * Reads a message from the position of the buffer, the position is moved after the message.
+     */
+    public Message decode(ByteBuffer buffer) {
+        this.buffer = buffer;
+        bits = 0;
+        bitsCount = 0;
+
+        Message message;
+        int type = read(TYPE_BITS);
+        switch (type) {
+            case MOVE_TYPE:
+                message = new MoveMessage(readGhostsMoves());
+                break;
+            case ROOT_TYPE:
+                EnumMap<MOVE, Map<EnumMap<GHOST, MOVE>, Long>> roots = new EnumMap<MOVE, Map<EnumMap<GHOST, MOVE>, Long>>(MOVE.class);
+                int rootsCount = read(ROOTS_COUNT_BITS);
+                for (int i=0; i<rootsCount; i++) {
+                    MOVE move = MOVES[read(MOVE_BITS)];
+                    int recordsCount = read(RECORDS_COUNT_BITS);
+                    Map<EnumMap<GHOST, MOVE>, Long> root = new HashMap<EnumMap<GHOST, MOVE>, Long>();
+                    for (int j=0; j<recordsCount; j++) {
+                        EnumMap<GHOST, MOVE> ghostsMoves = readGhostsMoves();
+                        root.put(ghostsMoves, read(ROOT_VALUE_BITS)&0xffffffffL);
+                    }
+                    roots.put(move, root);
+                }
+                message = new RootMessage(roots);
+                break;
+            case SIMULATION_RESULT_TYPE:
+                double result = Float.intBitsToFloat(read(VALUE_BITS));
+                message = new SimulationResultMessage(readPath(), result);
+                break;
+            case TREE_NODE_TYPE:
+                message = readTreeNode();
+                break;
+            case TREE_CUT_TYPE:
+                List<TreeNodeMessage> nodes = new ArrayList<TreeNodeMessage>();
+                readCut(nodes, new ArrayList<Action>());
+                message = new TreeCutMessage(nodes);
+                break;
+            case TREE_CUT_DELTA_TYPE:
+                int version = read(VERSION_BITS);
+                int baseVersion = read(VERSION_BITS);
+                int updatedCount = read(NODES_COUNT_BITS);
+                List<TreeNodeMessage> updated = new ArrayList<TreeNodeMessage>(updatedCount);
+                for (int i=0; i<updatedCount; i++) {
+                    updated.add(readTreeNode());
+                }
+                int removedCount = read(NODES_COUNT_BITS);
+                List<List<Action>> removed = new ArrayList<List<Action>>(removedCount);
+                for (int i=0; i<removedCount; i++) {
+                    removed.add(readPath());
+                }
+                message = new TreeCutDeltaMessage(version, baseVersion, updated, removed);
+                break;
+            case TREE_CUT_ACK_TYPE:
+                message = new TreeCutAckMessage(read(VERSION_BITS));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown message type "+type);
+        }
+
+        this.buffer = null;
+        return message;
+    }
+
+    private void writeTreeNode(TreeNodeMessage message) {
+        write(Float.floatToIntBits((float)message.simulationResult()), VALUE_BITS);
+        if (message.count()<COUNT_ESCAPE) {
+            write(message.count(), COUNT_BITS);
+        } else {
+            write(COUNT_ESCAPE, COUNT_BITS);
+            write(message.count(), LONG_COUNT_BITS);
+        }
+        writePath(message.treeMoves());
+    }
+
+    private TreeNodeMessage readTreeNode() {
+        double value = Float.intBitsToFloat(read(VALUE_BITS));
+        int count = read(COUNT_BITS);
+        if (count==COUNT_ESCAPE) {
+            count = read(LONG_COUNT_BITS);
+        }
+        return new TreeNodeMessage(readPath(), value, count);
+    }
+
+    private void writeCut(List<TreeNodeMessage> nodes, int from, int to, int depth) {
+        TreeNodeMessage node = nodes.get(from);
+        if (node.treeMoves().size()==depth) {
+            double value = node.simulationResult();
+            write(1, 1);
+            write((int)Math.round((value>0? Math.min(value, 1): 0)*CUT_VALUE_MAX), CUT_VALUE_BITS);
+            int countLength = 32-Integer.numberOfLeadingZeros(node.count());
+            write(countLength, CUT_COUNT_LENGTH_BITS);
+            if (countLength>1) {
+                write(node.count(), countLength-1);
+            }
+            return;
+        }
+
+        Action.Type type = node.treeMoves().get(depth).type();
+        write(0, 1);
+        write(type==Action.Type.PACMAN? 0: 1, 1);
+        writeGamma(childrenCount(nodes, from, to, depth));
+        for (int start=from, end; start<to; start=end) {
+            end = childEnd(nodes, start, to, depth);
+            Action action = nodes.get(start).treeMoves().get(depth);
+            if (type==Action.Type.PACMAN) {
+                assert action.pacmanMove()!=MOVE.NEUTRAL;
+                write(action.pacmanMove().ordinal(), PACMAN_MOVE_BITS);
+            } else {
+                writeGhostsMoves(action.ghostMove());
+            }
+            writeCut(nodes, start, end, depth+1);
+        }
+    }
+
+    private void readCut(List<TreeNodeMessage> nodes, List<Action> path) {
+        if (read(1)==1) {
+            double value = read(CUT_VALUE_BITS)/(double)CUT_VALUE_MAX;
+            int countLength = read(CUT_COUNT_LENGTH_BITS);
+            int count = countLength==0? 0: (1<<(countLength-1))|read(countLength-1);
+            nodes.add(new TreeNodeMessage(new ArrayList<Action>(path), value, count));
+            return;
+        }
+
+        boolean pacman = read(1)==0;
+        int childrenCount = readGamma();
+        for (int i=0; i<childrenCount; i++) {
+            path.add(pacman? PACMAN_ACTIONS[read(PACMAN_MOVE_BITS)]: new GhostAction(readGhostsMoves()));
+            readCut(nodes, path);
+            path.remove(path.size()-1);
+        }
+    }
+
+    private void writeGamma(int value) {
+        int length = 31-Integer.numberOfLeadingZeros(value);
+        write(0, length);
+        write(value, length+1);
+    }
+
+    private int readGamma() {
+        int length = 0;
+        while (read(1)==0) {
+            length++;
+        }
+        return length==0? 1: (1<<length)|read(length);
+    }
+
+    private void writePath(List<Action> path) {
+        for (Action action: path) {
+            if (action.type()==Action.Type.PACMAN) {
+                assert action.pacmanMove()!=MOVE.NEUTRAL;
+                write(2, 2);
+                write(action.pacmanMove().ordinal(), PACMAN_MOVE_BITS);
+            } else {
+                write(3, 2);
+                writeGhostsMoves(action.ghostMove());
+            }
+        }
+        write(0, 1);
+    }
+
+    private List<Action> readPath() {
+        List<Action> path = new ArrayList<Action>();
+        while (read(1)==1) {
+            if (read(1)==0) {
+                path.add(PACMAN_ACTIONS[read(PACMAN_MOVE_BITS)]);
+            } else {
+                path.add(new GhostAction(readGhostsMoves()));
+            }
+        }
+        return path;
+    }
+
+    private void writeGhostsMoves(EnumMap<GHOST, MOVE> ghostsMoves) {
+        int code = 0;
+        for (int i=GHOSTS.length-1; i>=0; i--) {
+            code = code*MOVES_BASE+ghostsMoves.get(GHOSTS[i]).ordinal();
+        }
+        write(code, GHOSTS_MOVES_BITS);
+    }
+
+    private EnumMap<GHOST, MOVE> readGhostsMoves() {
+        int code = read(GHOSTS_MOVES_BITS);
+        EnumMap<GHOST, MOVE> ghostsMoves = new EnumMap<GHOST, MOVE>(GHOST.class);
+        for (GHOST ghost: GHOSTS) {
+            ghostsMoves.put(ghost, MOVES[code%MOVES_BASE]);
+            code /= MOVES_BASE;
+        }
+        return ghostsMoves;
+    }
+
+    /**
+     * Writes the lowest count bits of the value (count<=32).
+     */
+    private void write(int value, int count) {
+        bits = (bits<<count)|(value&((1L<<count)-1));
+        bitsCount += count;
+        while (bitsCount>=8) {
+            bitsCount -= 8;
+            buffer.put((byte)(bits>>>bitsCount));
+        }
+    }
+
+    /**
+     * @return Next count bits (count<=32).
+     */
+    private int read(int count) {
+        while (bitsCount<count) {
+            bits = (bits<<8)|(buffer.get()&0xff);
+            bitsCount += 8;
+        }
+        bitsCount -= count;
+        return (int)((bits>>>bitsCount)&((1L<<count)-1));
+    }
+}
@@ -6,6 +6,7 @@ import pacman.game.Constants.MOVE;
 
 public class MoveMessage extends Message {
     EnumMap<GHOST, MOVE> moves;
+    private long length = -1;
 
     public MoveMessage(EnumMap<GHOST, MOVE> moves) {
         super("moves");
@@ -14,7 +15,10 @@ public class MoveMessage extends Message {
 
     @Override
     public long length() {
-        return 1; /* 4x2 bits for moves */
+        if (length==-1) {
+            length = MessageCodec.byteLength(this);
+        }
+        return length;
     }
 
     public EnumMap<GHOST, MOVE> moves() {
@@ -6,20 +6,10 @@ import mcts.GhostsTree;
 import pacman.game.Constants.GHOST;
 import pacman.game.Constants.MOVE;
 
-/* Message format:
- * Records (1-4) of:
- * 3 bits ghost move (Left, up, down, right, neutral)
- * 2 bits number (1-4) of ghost moves records
- * Set of ghost moves records
- * 3 bits align
- *
- * Ghost move records consist of:
- * Ghost moves (4x2 bits - for ghosts, four actions), if ghost is not at turn, value is interpreted as GHOST.NEUTRAL
- * Move value - 32bits (int) //XXX: some prefix code?
- *
- */
+/* Encoded by MessageCodec: pacman move and records of ghosts moves and their values of every root. */
 public class RootMessage extends Message {
     EnumMap<MOVE, Map<EnumMap<GHOST, MOVE>, Long>> valued_moves;
+    private long length = -1;
 
     public RootMessage(EnumMap<MOVE, Map<EnumMap<GHOST, MOVE>, Long>> valued_moves) {
         super("roots");
@@ -28,12 +18,10 @@ public class RootMessage extends Message {
 
     @Override
     public long length() {
-        long bit_length = 0;
-
-        for (Map<EnumMap<GHOST, MOVE>, Long> root: valued_moves.values()) {
-            bit_length += 1 + root.size()*5;
+        if (length==-1) {
+            length = MessageCodec.byteLength(this);
         }
-        return bit_length;
+        return length;
     }
 
     public EnumMap<MOVE, Map<EnumMap<GHOST, MOVE>, Long>> getRoots() {
@@ -2,7 +2,6 @@ package communication.messages;
 
 import java.util.*;
 import mcts.Action;
-import mcts.Utils;
 import pacman.game.Constants.*;
 
 public class SimulationResultMessage extends Message {
@@ -22,13 +21,7 @@ public class SimulationResultMessage extends Message {
     @Override
     public long length() {
         if (length==-1) {
-            long bitsLength = 32; /* size of double */
-
-            for (Action action: treeMoves) {
-                bitsLength += action.type().bitLength();
-            }
-
-            length = Utils.bitsToBytes(bitsLength);
+            length = MessageCodec.byteLength(this);
         }
         return length;
     }
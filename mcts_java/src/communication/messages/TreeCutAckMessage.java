@@ -0,0 +1,26 @@
+package communication.messages;
+
+/**
+ * Acknowledges the tree cut of the version applied by the receiver, 0 if the receiver does
+ * not have the base of a delta it received (the next cut has to be sent whole).
+ */
+public class TreeCutAckMessage extends Message {
+    private int version;
+
+    public TreeCutAckMessage(int version) {
+        super("tree_cut_ack");
+        this.version = version;
+    }
+
+    public int version() { return version; }
+
+    @Override
+    public long length() {
+        return MessageCodec.byteLength(this);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%s]", name, version);
+    }
+}
@@ -0,0 +1,44 @@
+package communication.messages;
+
+import java.util.List;
+import mcts.Action;
+
+/**
+ * Changes of a tree cut relative to a former cut (the base) sent to the same ally: nodes
+ * added or with changed statistics and paths of the nodes removed. Versions number the cuts
+ * of a sender, version 0 is the empty cut (the base of a cut sent whole).
+ */
+public class TreeCutDeltaMessage extends Message {
+    private int version;
+    private int baseVersion;
+    private List<TreeNodeMessage> updated;
+    private List<List<Action>> removed;
+    private long length = -1;
+
+    public TreeCutDeltaMessage(int version, int baseVersion, List<TreeNodeMessage> updated, List<List<Action>> removed) {
+        super("tree_cut_delta");
+        this.version = version;
+        this.baseVersion = baseVersion;
+        this.updated = updated;
+        this.removed = removed;
+    }
+
+    public int version() { return version; }
+    public int baseVersion() { return baseVersion; }
+    public List<TreeNodeMessage> updated() { return updated; }
+    public List<List<Action>> removed() { return removed; }
+    public boolean isEmpty() { return updated.isEmpty()&&removed.isEmpty(); }
+
+    @Override
+    public long length() {
+        if (length==-1) {
+            length = MessageCodec.byteLength(this);
+        }
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%s<-%s] updated: %d, removed: %d, bytes: %s", name, version, baseVersion, updated.size(), removed.size(), length());
+    }
+}
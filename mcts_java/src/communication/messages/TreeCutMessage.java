@@ -6,12 +6,11 @@ import mcts.distributed.TreeCut;
 import mcts.distributed.TreeCutNode;
 
 public class TreeCutMessage extends Message {
-    long length;
+    private long length = -1;
     List<TreeNodeMessage> messages = new ArrayList<TreeNodeMessage>();
 
     public TreeCutMessage(TreeCut cut) {
         super("tree_cut");
-        this.length = cut.aggregatedByteSize();
         TreeCutNode node = cut.nodes();
         do {
             messages.add(node.toMessage());
@@ -19,10 +18,18 @@ public class TreeCutMessage extends Message {
         } while(node!=cut.nodes());
     }
 
+    TreeCutMessage(List<TreeNodeMessage> messages) {
+        super("tree_cut");
+        this.messages = messages;
+    }
+
     public List<TreeNodeMessage> nodeMessages() { return messages; }
 
     @Override
     public long length() {
+        if (length==-1) {
+            length = MessageCodec.byteLength(this);
+        }
         return length;
     }
 }
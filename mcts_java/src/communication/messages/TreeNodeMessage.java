@@ -2,7 +2,6 @@ package communication.messages;
 
 import java.util.*;
 import mcts.Action;
-import mcts.Utils;
 import pacman.game.Constants.*;
 
 public class TreeNodeMessage extends Message {
@@ -25,13 +24,7 @@ public class TreeNodeMessage extends Message {
     @Override
     public long length() {
         if (length==-1) {
-            long bitsLength = 48; /* size of single + sizeof short */
-
-            for (Action action: treeMoves) {
-                bitsLength += action.type().bitLength();
-            }
-
-            length = Utils.bitsToBytes(bitsLength);
+            length = MessageCodec.byteLength(this);
         }
         return length;
     }
@@ -0,0 +1,80 @@
+package exec;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import pacman.game.internal.Maze;
+import pacman.game.internal.NavigationTable;
+import pacman.game.internal.Node;
+
+import static pacman.game.Constants.*;
+
+/**
+ * Converts the text mazes (data/mazes/*.txt and data/distances/d*) to the binary maze files
+ * loaded by Maze through a memory-mapped buffer. Run once from the project directory,
+ * a binary file newer than its text files and with (or without) the navigation table as
+ * requested is kept (--force rewrites it). The files include the navigation tables of the
+ * mazes unless --no-navigation is given.
+ */
+public class ExecConvertMazes
+{
+    /* usage:
+     * java exec.ExecConvertMazes [--force] [--no-navigation]
+     */
+    public static void main(String[] args) throws IOException {
+        List<String> options = Arrays.asList(args);
+        boolean force = options.contains("--force");
+        boolean navigation = !options.contains("--no-navigation");
+
+        for (int i=0; i<NUM_MAZES; i++) {
+            File binary = Maze.binaryFile(i);
+            if (!force&&Maze.binaryUpToDate(i)&&(new Maze(i).navigation!=null)==navigation) {
+                System.out.printf("%s is up to date\n", binary);
+                continue;
+            }
+
+            /* the text files are loaded if there is no binary file */
+            if (binary.exists()&&!binary.delete()) {
+                throw new IOException("Cannot replace "+binary);
+            }
+            Maze maze = new Maze(i);
+            if (navigation) {
+                maze.navigation = NavigationTable.build(maze);
+            }
+            maze.writeBinary(binary);
+
+            Maze loaded = new Maze(i);
+            if (!maze.distances.sameAs(loaded.distances)
+                    ||!Arrays.equals(maze.pillIndices, loaded.pillIndices)
+                    ||!Arrays.equals(maze.powerPillIndices, loaded.powerPillIndices)
+                    ||!Arrays.equals(maze.junctionIndices, loaded.junctionIndices)
+                    ||!sameGraph(maze.graph, loaded.graph)
+                    ||(navigation? !maze.navigation.sameAs(loaded.navigation): loaded.navigation!=null)) {
+                binary.delete();
+                throw new IOException("Binary maze "+binary+" does not match the text files");
+            }
+            System.out.printf("%s: %d nodes, %d bytes\n", binary, maze.graph.length, binary.length());
+        }
+    }
+
+    /**
+     * @return True if the graphs have the same nodes, the binary file does not store node indices
+     * so the text nodes must be numbered by their position.
+     */
+    private static boolean sameGraph(Node[] graph, Node[] other) {
+        if (graph.length!=other.length) {
+            return false;
+        }
+        for (int i=0; i<graph.length; i++) {
+            Node node = graph[i];
+            Node other_node = other[i];
+            if (node.nodeIndex!=i||other_node.nodeIndex!=i||node.x!=other_node.x||node.y!=other_node.y
+                    ||node.pillIndex!=other_node.pillIndex||node.powerPillIndex!=other_node.powerPillIndex
+                    ||!node.neighbourhood.equals(other_node.neighbourhood)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -7,12 +7,21 @@ import gnu.getopt.LongOpt;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.EnumMap;
+import java.util.List;
 import mcts.Constants;
+import mcts.Decision;
+import mcts.DecisionCache;
 import mcts.MCTSController;
+import mcts.PlainMCTSController;
+import mcts.TranspositionTable;
 import mcts.distributed.DistributedMCTSController;
+import mcts.distributed.GhostAgentProcess;
+import mcts.distributed.ProcessGhostsController;
+import mcts.distributed.TreeCutSnapshot;
 import mcts.distributed.entries.RootExchangingGhosts;
 import mcts.distributed.entries.SimulationResultsPassingGhosts;
 import mcts.distributed.entries.TreeCutExchangingGhosts;
+import mcts.distributed.entries.TreeCutExchangingGhosts2;
 import pacman.controllers.Controller;
 import pacman.controllers.examples.StarterGhosts;
 import pacman.controllers.examples.StarterPacMan;
@@ -38,12 +47,23 @@ enum Option {
     GHOST_DEATH_WEIGHT("ghost-death-weight"),
     CHANNEL_SPEED("channel-speed"),
     CUTS_PER_TICK("cuts-per-tick"),
+    DELTA_CUTS("delta-cuts", LongOpt.NO_ARGUMENT), /* TreeCutExchangingGhosts2 send cuts as deltas against the last acknowledged cut */
     GAME_LENGTH("game-length"),
     UNRELIABLE("unreliable"), /* if not given, 100% reliability granted, otherwise HMMReliability used
                                * with probability of falling to unreliable state equal to given parameters.
                                * other parameters are defined in Constants. */
     MULTITHREADED("multithreaded", LongOpt.NO_ARGUMENT),
     TRIAL_NO("trial-no"),
+    SEARCH_THREADS("search-threads"), /* threads iterating a single tree of MCTS controllers (tree-parallel search) */
+    VIRTUAL_LOSS("virtual-loss"),
+    ROOT_TREES("root-trees"), /* independently searched trees of MCTS controllers (root-parallel search) */
+    LEAF_BATCH("leaf-batch"), /* simulations run at once from a leaf by MCTS controllers (leaf-parallel simulation) */
+    ROLLOUT_BATCH("rollout-batch"), /* leaves simulated together in lockstep by single-threaded MCTS controllers (batched simulation) */
+    NODE_STORE("node-store", LongOpt.NO_ARGUMENT), /* MCTS controllers keep tree nodes in primitive arrays (NodeStore) */
+    TRANSPOSITION_TABLE("transposition-table"), /* capacity of transposition tables of MCTS controllers, 0 for none */
+    DECISION_CACHE("decision-cache"), /* capacity of the per-thread caches of next decisions (Decision.nextDecision()), 0 for none */
+    AGENT_PROCESSES("agent-processes", LongOpt.NO_ARGUMENT), /* agents of distributed ghosts run in processes of their own (ProcessGhostsController) */
+    AGENT("agent"), /* GHOST:control_port, runs the agent of a distributed ghosts controller (given by ProcessGhostsController) */
     PESIMISTIC_TURNS("pesimistic-turns", LongOpt.NO_ARGUMENT),
     VISUAL("visual", LongOpt.NO_ARGUMENT),
     VERBOSE("verbose", LongOpt.NO_ARGUMENT),
@@ -154,15 +174,39 @@ public class ExecExperiment {
         return controller;
     }
 
+    private static void configureSearch(Controller controller, int searchThreads, int virtualLoss, int rootTrees, int leafBatch, int rolloutBatch,
+                                        boolean nodeStore, int transpositionTableSize) {
+        if (controller instanceof PlainMCTSController) {
+            PlainMCTSController plainController = (PlainMCTSController)controller;
+            plainController.setSearchThreads(searchThreads);
+            plainController.setVirtualLoss(virtualLoss);
+            plainController.setRootParallelTrees(rootTrees);
+            plainController.setLeafParallelBatch(leafBatch);
+            plainController.setRolloutBatch(rolloutBatch);
+            plainController.setNodeStore(nodeStore);
+            plainController.setTranspositionTableSize(transpositionTableSize);
+        }
+    }
+
+    private static boolean usesTranspositionTable(Controller controller) {
+        return controller instanceof PlainMCTSController&&((PlainMCTSController)controller).getTranspositionTableSize()>0;
+    }
+
     private static void printControllerHeader(String prefix, Controller controller) {
         System.out.printf("%sclass\t%stime\t", prefix, prefix);
         if (controller instanceof MCTSController) {
             System.out.printf("%sreal_time\t%ssim_depth\t%sucb_coef\t%sdeath_weight\t%savg_decision_sims\t%ssims_per_sec\t%soptimistic_turns\t",
                               prefix, prefix, prefix, prefix, prefix, prefix, prefix);
         }
+        if (usesTranspositionTable(controller)) {
+            System.out.printf("%stt_hit_rate\t%stt_transition_hit_rate\t%stt_occupancy\t", prefix, prefix, prefix);
+        }
         if (controller instanceof DistributedMCTSController) {
             System.out.printf("sims_per_sec_calculated\tsims_per_sec_total\tchannel_speed\ttransmitted_per_second_total\ttransmitted_per_second_successfully\tsynchronization_ratio\t");
         }
+        if (controller instanceof ProcessGhostsController) {
+            System.out.printf("sims_per_sec_calculated\tsims_per_sec_total\tsynchronization_ratio\tbytes_written_per_second\tmessages_sent_per_second\tcoding_micros_per_message\tgc_count\tgc_millis\t");
+        }
         if (controller instanceof SimulationResultsPassingGhosts) {
             System.out.printf("average_simulation_message_length\ttransmitted_simulations_ratio\t");
         }
@@ -172,6 +216,9 @@ public class ExecExperiment {
         if (controller instanceof TreeCutExchangingGhosts) {
             System.out.printf("cuts_per_tick\tcuts_per_tick_real\taverage_cut_size\t");
         }
+        if (controller instanceof TreeCutExchangingGhosts2) {
+            System.out.printf("delta_cuts\tdeltas_per_second\taverage_delta_size\t");
+        }
     }
 
     private static void printHmmReliabilityHeader(HMMReliability hmmReliability) {
@@ -185,6 +232,9 @@ public class ExecExperiment {
         printControllerHeader("pacman_", pacmanController);
         printControllerHeader("ghost_", ghostController);
         printHmmReliabilityHeader(hmmReliability);
+        if (Decision.getCacheCapacity()>0) {
+            System.out.printf("decision_cache_hit_rate\t");
+        }
         System.out.printf("score\n");
     }
 
@@ -197,6 +247,11 @@ public class ExecExperiment {
                              mctsController.getDeathWeight(), mctsController.averageDecisionSimulations(),
                              mctsController.simulationsPerSecond(), (mctsController.getOptimisticTurns()? "true": "false"));
         }
+        if (usesTranspositionTable(controller)) {
+            TranspositionTable table = ((PlainMCTSController)controller).getTranspositionTable();
+            System.out.printf("%s\t%s\t%s\t", table==null? 0: table.hitRate(), table==null? 0: table.transitionHitRate(),
+                              table==null? 0: table.occupancy());
+        }
         if (controller instanceof DistributedMCTSController) {
             DistributedMCTSController dmctsController = (DistributedMCTSController)controller;
             System.out.printf("%s\t%s\t%s\t%s\t%s\t%s\t", dmctsController.calculatedSimulationsPerSecond(), dmctsController.totalSimulationsPerSecond(),
@@ -204,6 +259,12 @@ public class ExecExperiment {
                     dmctsController.transmittedTotalPerSecond(), dmctsController.transmittedSuccessfullyPerSecond(),
                     dmctsController.coordinatedDecisionsRatio());
         }
+        if (controller instanceof ProcessGhostsController) {
+            ProcessGhostsController processController = (ProcessGhostsController)controller;
+            System.out.printf("%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t", processController.simulationsPerSecond(), processController.totalSimulationsPerSecond(),
+                    processController.coordinatedDecisionsRatio(), processController.bytesWrittenPerSecond(), processController.messagesSentPerSecond(),
+                    processController.codingMicrosPerMessage(), processController.gcCount(), processController.gcMillis());
+        }
         if (controller instanceof SimulationResultsPassingGhosts) {
             SimulationResultsPassingGhosts ghostsController = (SimulationResultsPassingGhosts)controller;
             System.out.printf("%s\t%s\t", ghostsController.averageSimulatonResultsMessageLength(), ghostsController.transmittedSimulationsRatio());
@@ -216,6 +277,10 @@ public class ExecExperiment {
             TreeCutExchangingGhosts cutGhosts = (TreeCutExchangingGhosts)controller;
             System.out.printf("%s\t%s\t%s\t", cutsPerTick, cutGhosts.cutsTransmittedPerSecond(), cutGhosts.averageCutByteSize());
         }
+        if (controller instanceof TreeCutExchangingGhosts2) {
+            TreeCutExchangingGhosts2 cutGhosts = (TreeCutExchangingGhosts2)controller;
+            System.out.printf("%s\t%s\t%s\t", cutGhosts.deltaCuts()? "true": "false", cutGhosts.deltasSentPerSecond(), cutGhosts.averageDeltaByteSize());
+        }
     }
 
     private static void printHmmReliabilityInfo(HMMReliability hmmReliability) {
@@ -234,6 +299,9 @@ public class ExecExperiment {
         printControllerInfo(pacmanController, experiment.getPacmanDelay(), cutsPerTick);
         printControllerInfo(ghostController, experiment.getGhostDelay(), cutsPerTick);
         printHmmReliabilityInfo(hmmReliability);
+        if (Decision.getCacheCapacity()>0) {
+            System.out.printf("%s\t", DecisionCache.totalHitRate());
+        }
         System.out.printf("%s\n", result.getScore());
     }
 
@@ -260,6 +328,16 @@ public class ExecExperiment {
         double cutsPerTick = Constants.DEFAULT_CUTS_PER_TICK;
         HMMReliability hmmReliability = null;
         boolean optimisticTurns = true;
+        int searchThreads = Constants.DEFAULT_SEARCH_THREADS;
+        int virtualLoss = Constants.DEFAULT_VIRTUAL_LOSS;
+        int rootTrees = Constants.DEFAULT_ROOT_PARALLEL_TREES;
+        int leafBatch = Constants.DEFAULT_LEAF_PARALLEL_BATCH;
+        int rolloutBatch = Constants.DEFAULT_ROLLOUT_BATCH;
+        boolean nodeStore = false;
+        int transpositionTableSize = 0;
+        boolean deltaCuts = false;
+        boolean agentProcesses = false;
+        String agent = null;
         VerboseLevel verboseLevel = VerboseLevel.QUIET;
 
         Getopt getopt = new Getopt(ExecExperiment.class.getSimpleName(), args, "", Option.LONG_OPTIONS);
@@ -321,6 +399,9 @@ public class ExecExperiment {
                 case CUTS_PER_TICK:
                     cutsPerTick = Double.parseDouble(getopt.getOptarg());
                     break;
+                case DELTA_CUTS:
+                    deltaCuts = true;
+                    break;
                 case GAME_LENGTH:
                     game.setGameLength(Integer.parseInt(getopt.getOptarg()));
                     break;
@@ -353,6 +434,36 @@ public class ExecExperiment {
                 case TRIAL_NO:
                     trialNo = Integer.parseInt(getopt.getOptarg());
                     break;
+                case SEARCH_THREADS:
+                    searchThreads = Integer.parseInt(getopt.getOptarg());
+                    break;
+                case VIRTUAL_LOSS:
+                    virtualLoss = Integer.parseInt(getopt.getOptarg());
+                    break;
+                case ROOT_TREES:
+                    rootTrees = Integer.parseInt(getopt.getOptarg());
+                    break;
+                case LEAF_BATCH:
+                    leafBatch = Integer.parseInt(getopt.getOptarg());
+                    break;
+                case ROLLOUT_BATCH:
+                    rolloutBatch = Integer.parseInt(getopt.getOptarg());
+                    break;
+                case NODE_STORE:
+                    nodeStore = true;
+                    break;
+                case TRANSPOSITION_TABLE:
+                    transpositionTableSize = Integer.parseInt(getopt.getOptarg());
+                    break;
+                case DECISION_CACHE:
+                    Decision.setCacheCapacity(Integer.parseInt(getopt.getOptarg()));
+                    break;
+                case AGENT_PROCESSES:
+                    agentProcesses = true;
+                    break;
+                case AGENT:
+                    agent = getopt.getOptarg();
+                    break;
                 case SHORT_LAIR_TIME:
                     game.setShortLairTimes();
                     break;
@@ -363,9 +474,47 @@ public class ExecExperiment {
             }
         }
 
+        if (nodeStore&&transpositionTableSize>0) {
+            /* nodes kept in a NodeStore do not share statistics through a transposition table */
+            System.err.printf("--%s cannot be combined with --%s\n", Option.TRANSPOSITION_TABLE.getLongopt().getName(), Option.NODE_STORE.getLongopt().getName());
+            System.exit(1);
+        }
+
         Controller<MOVE> pacmanController = buildController(pacmanClass, pacmanSimulationDepth, pacmanUcbCoef, pacmanRandomProb, pacmanDeathWeight);
         Controller<EnumMap<GHOST,MOVE>> ghostController = buildController(ghostClass, ghostSimulationDepth, ghostUcbCoef, ghostRandomProb, ghostDeathWeight, experiment.getGhostDelay(),
                 channelSpeed, cutsPerTick, hmmReliability, multithreaded, optimisticTurns, verboseLevel);
+        configureSearch(pacmanController, searchThreads, virtualLoss, rootTrees, leafBatch, rolloutBatch, nodeStore, transpositionTableSize);
+        configureSearch(ghostController, searchThreads, virtualLoss, rootTrees, leafBatch, rolloutBatch, nodeStore, transpositionTableSize);
+        if (ghostController instanceof TreeCutExchangingGhosts2) {
+            TreeCutExchangingGhosts2 cutGhosts = (TreeCutExchangingGhosts2)ghostController;
+            cutGhosts.setDeltaCuts(deltaCuts);
+            cutGhosts.setDeltasSentByTick(cutsPerTick, experiment.getGhostDelay(), channelSpeed);
+            long tickBytes = (long)Math.floor(0.001*cutGhosts.virtualMillis(experiment.getGhostDelay())*channelSpeed);
+            if (deltaCuts&&tickBytes<TreeCutSnapshot.MIN_DELTA_BYTE_SIZE) {
+                System.err.printf("Warning: a channel carries %d B per tick, less than the smallest delta (%d B)\n",
+                        tickBytes, TreeCutSnapshot.MIN_DELTA_BYTE_SIZE);
+            }
+        }
+
+        if ((agent!=null||agentProcesses)&&!(ghostController instanceof DistributedMCTSController)) {
+            System.err.printf("%s is not a distributed ghosts controller\n", ghostClass.getSimpleName());
+            System.exit(1);
+        }
+        if (agent!=null) {
+            String spec[] = agent.split(":");
+            new GhostAgentProcess((DistributedMCTSController)ghostController, GHOST.valueOf(spec[0]), Integer.parseInt(spec[1])).run();
+            return;
+        }
+        if (agentProcesses) {
+            List<String> agentCommand = ProcessGhostsController.javaCommand(ExecExperiment.class);
+            for (String arg: args) {
+                if (!arg.equals("--"+Option.AGENT_PROCESSES.getLongopt().getName())) {
+                    agentCommand.add(arg);
+                }
+            }
+            agentCommand.add("--"+Option.AGENT.getLongopt().getName());
+            ghostController = new ProcessGhostsController(agentCommand);
+        }
 
         if (!dontRun) {
             experiment.setPacmanController(pacmanController);
@@ -374,6 +523,15 @@ public class ExecExperiment {
             experiment.setGame(game);
 
             Game result = experiment.execute();
+            if (ghostController instanceof ProcessGhostsController) {
+                ((ProcessGhostsController)ghostController).close();
+            }
+            if (pacmanController instanceof PlainMCTSController) {
+                ((PlainMCTSController)pacmanController).close();
+            }
+            if (ghostController instanceof PlainMCTSController) {
+                ((PlainMCTSController)ghostController).close();
+            }
             if (header) {
                 printHeader(pacmanController, ghostController, hmmReliability);
             }
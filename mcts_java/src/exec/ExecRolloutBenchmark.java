@@ -0,0 +1,99 @@
+package exec;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.EnumMap;
+import java.util.Random;
+import mcts.Constants;
+import mcts.GuidedSimulator;
+import mcts.Utils;
+import pacman.game.Constants.GHOST;
+import pacman.game.Constants.MOVE;
+import pacman.game.SimplifiedGame;
+
+/**
+ * Compares the object rollouts of GuidedSimulator (a game copy per rollout, EnumMaps per tick)
+ * with the allocation-free rollouts (per-thread scratch game, int-coded moves): rollouts per
+ * second and bytes allocated per rollout. Both run from the same set of game states.
+ */
+public class ExecRolloutBenchmark
+{
+    private static final int START_STATES = 64;
+
+    /* usage:
+     * java exec.ExecRolloutBenchmark [MILLIS [SIMULATION_DEPTH [SEED]]]
+     * allocated bytes are measured by the HotSpot thread allocation counter (n/a elsewhere).
+     */
+    public static void main(String[] args) {
+        long millis = args.length>0? Long.parseLong(args[0]): 5000;
+        int simulation_depth = args.length>1? Integer.parseInt(args[1]): Constants.DEFAULT_SIMULATION_DEPTH;
+        long seed = args.length>2? Long.parseLong(args[2]): 0;
+
+        SimplifiedGame[] states = startStates(seed);
+
+        /* warm up JIT of both kernels */
+        run(false, states, millis/5, simulation_depth, seed, false);
+        run(true, states, millis/5, simulation_depth, seed, false);
+
+        System.out.printf("kernel\trollouts\trollouts_per_sec\tbytes_per_rollout\talloc_mb_per_sec\tavg_reward\n");
+        run(false, states, millis, simulation_depth, seed, true);
+        run(true, states, millis, simulation_depth, seed, true);
+    }
+
+    /**
+     * @return Games advanced by random moves to various points of the first level.
+     */
+    private static SimplifiedGame[] startStates(long seed) {
+        Random random = new Random(seed);
+        SimplifiedGame[] states = new SimplifiedGame[START_STATES];
+        SimplifiedGame game = new SimplifiedGame(seed);
+        for (int i=0; i<states.length; i++) {
+            for (int ticks=random.nextInt(20); ticks>=0||game.wasPacManEaten(); ticks--) {
+                if (game.gameOver()) {
+                    game = new SimplifiedGame(seed+i);
+                }
+                EnumMap<GHOST, MOVE> ghosts_moves = Utils.randomGhostsMoves(game, random);
+                game.advanceGameWithPowerPillReverseOnly(Utils.randomPacmanMove(game, random), ghosts_moves);
+            }
+            states[i] = game.copy();
+        }
+        return states;
+    }
+
+    private static void run(boolean primitive, SimplifiedGame[] states, long millis, int simulation_depth, long seed, boolean print) {
+        GuidedSimulator simulator = new GuidedSimulator(new Random(seed));
+        simulator.setMaxDepth(simulation_depth);
+        simulator.setPrimitiveRollouts(primitive);
+
+        long allocated_before = allocatedBytes();
+        long rollouts = 0;
+        double reward = 0;
+        long start = System.currentTimeMillis();
+        long time_due = start+millis;
+        while (System.currentTimeMillis()<time_due) {
+            reward += simulator.simulate(states[(int)(rollouts%states.length)], 0);
+            rollouts++;
+        }
+        long elapsed = System.currentTimeMillis()-start;
+        long allocated = allocatedBytes()-allocated_before;
+
+        if (print) {
+            System.out.printf("%s\t%d\t%.1f\t%s\t%s\t%.4f\n", primitive? "primitive": "objects", rollouts,
+                              1000.0*rollouts/elapsed,
+                              allocated<0? "n/a": String.format("%.1f", allocated/(double)rollouts),
+                              allocated<0? "n/a": String.format("%.2f", 1000.0*allocated/elapsed/(1024*1024)),
+                              reward/rollouts);
+        }
+    }
+
+    /**
+     * @return Bytes allocated by the current thread so far, -1 if the JVM does not count them.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,86 @@
+package exec;
+
+import java.util.Random;
+import mcts.AvgBackpropagator;
+import mcts.Constants;
+import mcts.GuidedSimulator;
+import mcts.MCNode;
+import mcts.MCTree;
+import mcts.NodeStore;
+import mcts.PacmanTree;
+import mcts.UCBSelector;
+import pacman.game.SimplifiedGame;
+
+/**
+ * Compares the object MC-tree with the tree kept in a NodeStore: iterations per second
+ * and nodes per MB of heap (unvisited children are counted as nodes too).
+ */
+public class ExecTreeBenchmark
+{
+    /* usage:
+     * java exec.ExecTreeBenchmark [MILLIS [SIMULATION_DEPTH [SEED]]]
+     * short simulations make the tree operations dominate the iteration time.
+     */
+    public static void main(String[] args) {
+        long millis = args.length>0? Long.parseLong(args[0]): 5000;
+        int simulation_depth = args.length>1? Integer.parseInt(args[1]): Constants.DEFAULT_SIMULATION_DEPTH;
+        long seed = args.length>2? Long.parseLong(args[2]): 0;
+
+        /* warm up JIT of both backends */
+        run(false, millis/5, simulation_depth, seed, false);
+        run(true, millis/5, simulation_depth, seed, false);
+
+        System.out.printf("backend\titerations\titerations_per_sec\tnodes\theap_mb\tnodes_per_mb\n");
+        run(false, millis, simulation_depth, seed, true);
+        run(true, millis, simulation_depth, seed, true);
+    }
+
+    private static void run(boolean use_store, long millis, int simulation_depth, long seed, boolean print) {
+        long heap_before = usedHeap();
+
+        SimplifiedGame game = new SimplifiedGame(seed);
+        GuidedSimulator simulator = new GuidedSimulator(new Random(seed));
+        simulator.setMaxDepth(simulation_depth);
+        NodeStore store = use_store? new NodeStore(): null;
+        MCTree<?> tree = new PacmanTree(game, new UCBSelector(simulator), simulator, AvgBackpropagator.getInstance(),
+                                        Constants.DEFAULT_UCB_COEF, store);
+
+        long iterations = 0;
+        long start = System.currentTimeMillis();
+        long time_due = start+millis;
+        while (System.currentTimeMillis()<time_due) {
+            tree.iterate();
+            iterations++;
+        }
+        long elapsed = System.currentTimeMillis()-start;
+
+        long heap_used = usedHeap()-heap_before;
+        long nodes = use_store? store.nodes(): countNodes(tree.root());
+        if (print) {
+            double heap_mb = heap_used/(1024.0*1024.0);
+            System.out.printf("%s\t%d\t%.1f\t%d\t%.2f\t%.1f\n", use_store? "store": "objects", iterations,
+                              1000.0*iterations/elapsed, nodes, heap_mb, nodes/heap_mb);
+        }
+        if (tree.root()==null) {
+            System.out.println(); /* keeps the tree reachable until the heap is measured */
+        }
+    }
+
+    private static long countNodes(MCNode node) {
+        long count = 1;
+        if (node.expanded()) {
+            for (MCNode child: node.children()) {
+                count += countNodes(child);
+            }
+        }
+        return count;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i=0; i<3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory()-runtime.freeMemory();
+    }
+}
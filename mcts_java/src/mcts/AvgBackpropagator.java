@@ -6,20 +6,37 @@ public class AvgBackpropagator implements Backpropagator {
     private static AvgBackpropagator instance = new AvgBackpropagator();
 
     private void update(MCNode node, double reward, int count, boolean received) {
-        if (node.visit_count+count>0) {
-            node.value = Utils.addToAvg(node.value, node.visit_count, reward, count);
+        if (node.id!=NodeStore.NONE) {
+            node.tree.store.update(node.id, reward, count, received);
+            return;
+        }
+        MCNode.Statistics statistics = node.statistics();
+        if (statistics.visit_count+count>0) {
+            statistics.value = Utils.addToAvg(statistics.value, statistics.visit_count, reward, count);
             if (!received) {
-                node.calculated_value = Utils.addToAvg(node.calculated_value, node.calculated_visit_count, reward, count);
+                statistics.calculated_value = Utils.addToAvg(statistics.calculated_value, statistics.calculated_visit_count, reward, count);
             }
         }
-        node.visit_count += count;
+        statistics.visit_count += count;
         if (!received) {
-            node.calculated_visit_count += count;
+            statistics.calculated_visit_count += count;
+            if (node.transposition!=null) {
+                node.transposition.update(reward, count);
+            }
         }
     }
 
     @Override
     public void backpropagate(MCNode node, double reward, int count) {
+        if (node.id!=NodeStore.NONE) {
+            /* walk parent ids, the store does not need the node objects */
+            NodeStore store = node.tree.store;
+            for (int id=node.id; id!=NodeStore.NONE; id=store.parent(id)) {
+                store.update(id, reward, count, false);
+            }
+            return;
+        }
+
         update(node, reward, count, false);
 
         if (!node.isRoot()) {
@@ -27,6 +44,17 @@ public class AvgBackpropagator implements Backpropagator {
         }
     }
 
+    @Override
+    public void backpropagateConcurrently(MCNode node, double reward, int count, int virtual_loss) {
+        while (node!=null) {
+            synchronized (node) {
+                update(node, reward, count, false);
+                node.addVirtualLoss(-virtual_loss);
+            }
+            node = node.parent;
+        }
+    }
+
     public long backpropagateReceived(MCNode node, GHOST from, double reward, int count) {
         return backpropagateReceived(node, from, reward, count, false);
     }
@@ -40,7 +68,7 @@ public class AvgBackpropagator implements Backpropagator {
         if (previously_received>0) {
             /* drop previously received simulations found on path */
             update(node, previously_received_value, -previously_received, true);
-            node.received_visit_count.put(from, 0);
+            node.received_visit_count[from.ordinal()] = 0;
         }
 //        int orig_count = node.visit_count;
 //        double orig_value = node.value;
@@ -53,7 +81,7 @@ public class AvgBackpropagator implements Backpropagator {
             count = count - previously_received;
             if (count==0) return previously_received;
             reward = (count*reward - previously_received*previously_received_value)/count;
-            assert(node.visit_count>=0);
+            assert(node.visitCount()>=0);
             assert(!Double.isNaN(reward));
         }
 
@@ -5,4 +5,6 @@ import pacman.game.Constants.GHOST;
 public interface Backpropagator {
     public void backpropagate(MCNode node, double reward, int count);
     public long backpropagateReceived(MCNode node, GHOST from, double reward, int count);
+    /** Thread-safe backpropagation which also takes back the virtual loss left by MCNode.selectConcurrently() */
+    public void backpropagateConcurrently(MCNode node, double reward, int count, int virtual_loss);
 }
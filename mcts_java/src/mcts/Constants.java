@@ -16,4 +16,12 @@ public class Constants {
     public static final double DEFAULT_U_RELIABILITY = 0.05;
     public static final double DEFAULT_RU_PROB = 0.02;
     public static final double DEFAULT_UR_PROB = 0.01;
+    public static final int DEFAULT_SEARCH_THREADS = 1;
+    public static final int DEFAULT_VIRTUAL_LOSS = 1;
+    public static final int DEFAULT_ROOT_PARALLEL_TREES = 1;
+    public static final int DEFAULT_LEAF_PARALLEL_BATCH = 1;
+    public static final int DEFAULT_ROLLOUT_BATCH = 1;
+    public static final boolean DEFAULT_PRIMITIVE_ROLLOUTS = true;
+    public static final boolean DEFAULT_ROAD_JUMPS = true;
+    public static final int DEFAULT_DECISION_CACHE_CAPACITY = 0;
 }
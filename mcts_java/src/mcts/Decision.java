@@ -5,10 +5,49 @@ import pacman.game.Constants.GHOST;
 import pacman.game.Constants.MOVE;
 import pacman.game.Game;
 import pacman.game.GameView;
+import pacman.game.SimplifiedGame;
 
 public class Decision {
     public static final int PACMAN_DECISION_GAP = 8;
 
+    /* advance SimplifiedGames several ticks at once between decisions, see roadJump() */
+    private static boolean road_jumps = Constants.DEFAULT_ROAD_JUMPS;
+
+    public static void setRoadJumps(boolean road_jumps) {
+        Decision.road_jumps = road_jumps;
+    }
+
+    public static boolean getRoadJumps() {
+        return road_jumps;
+    }
+
+    /* decisions cached per thread by nextDecision(), 0 for none */
+    private static int cache_capacity = Constants.DEFAULT_DECISION_CACHE_CAPACITY;
+    private static final ThreadLocal<DecisionCache> CACHE = new ThreadLocal<DecisionCache>();
+
+    public static void setCacheCapacity(int cache_capacity) {
+        Decision.cache_capacity = cache_capacity;
+    }
+
+    public static int getCacheCapacity() {
+        return cache_capacity;
+    }
+
+    /**
+     * @return The decision cache of the current thread, null if decisions are not cached.
+     */
+    public static DecisionCache cache() {
+        if (cache_capacity<=0) {
+            return null;
+        }
+        DecisionCache cache = CACHE.get();
+        if (cache==null||cache.getCapacity()!=cache_capacity) {
+            cache = new DecisionCache(cache_capacity);
+            CACHE.set(cache);
+        }
+        return cache;
+    }
+
     public enum DecisionCause {
         CROSSROAD_REACHED("xrd"),
         MAX_GAP("gap"),
@@ -48,6 +87,14 @@ public class Decision {
     public int pacman_decision_gap;
     public DecisionCause pacman_decision_cause;
 
+    /**
+     * @return New decision with the same values (the possible moves shared) but the game.
+     */
+    Decision copyWithGame(Game game) {
+        return new Decision(ticks, game, pacman_possible_moves, ghosts_possible_moves, decision_needed_from,
+                            pacman_decision_gap, pacman_decision_cause);
+    }
+
     public boolean pacmansDecision() {
         return decision_needed_from==DecisionNeededFrom.PACMAN_ONLY
                 ||decision_needed_from==DecisionNeededFrom.BOTH;
@@ -69,7 +116,8 @@ public class Decision {
         }
 
         Game game;
-        EnumMap<GHOST, MOVE> ghosts_moves = new EnumMap<GHOST, MOVE>(GHOST.class);
+        SimplifiedGame undoable = null; /* set if the game is stepped by advance() and undone afterwards */
+        int ghosts_moves = GhostsMovesCodec.NEUTRAL;
         MOVE[] pacman_possible_moves = null;
         EnumMap<GHOST, MOVE[]> ghosts_possible_moves = new EnumMap<GHOST, MOVE[]>(GHOST.class);
         int pacman_decision_gap = 0;
@@ -163,34 +211,110 @@ public class Decision {
         if (decision_data.decision_needed_from==DecisionNeededFrom.NOBODY) {
             for (GHOST ghost: GHOST.values()) {
                 MOVE ghost_move = decision_data.ghosts_possible_moves.get(ghost)[0];
-                decision_data.ghosts_moves.put(ghost, ghost_move);
+                decision_data.ghosts_moves = GhostsMovesCodec.withMove(decision_data.ghosts_moves, ghost, ghost_move);
             }
 
-            MOVE pacman_move = Utils.getPacmansPossibleMoves(decision_data.game, Utils.PACMAN_REVERSAL.NEVER)[0];
-            game.advanceGameWithPowerPillReverseOnly(pacman_move, decision_data.ghosts_moves/*.clone() not necessary*/);
+            int pacman_move = Utils.getPacmansPossibleMoves(decision_data.game, Utils.PACMAN_REVERSAL.NEVER)[0].ordinal();
+            if (decision_data.undoable!=null) {
+                decision_data.undoable.advance(pacman_move, decision_data.ghosts_moves);
+            } else {
+                game.advanceGameWithPowerPillReverseOnly(pacman_move, decision_data.ghosts_moves);
+            }
             decision_data.ticks++;
         }
 
         return decision_data.decision_needed_from;
     }
 
+    /**
+     * Advances a SimplifiedGame by the ticks in which everybody just follows the roads
+     * (SimplifiedGame.roadTicks()) at once. Those ticks are no decisions as long as the pacman's
+     * decision gap does not run out, so the result equals that of single decisionStep() calls.
+     */
+    private static void roadJump(DecisionStepData decision_data) {
+        if (!road_jumps||!(decision_data.game instanceof SimplifiedGame)
+                ||decision_data.pacman_decision_gap<0||decision_data.pacman_decision_gap>=PACMAN_DECISION_GAP) {
+            return;
+        }
+        SimplifiedGame game = (SimplifiedGame)decision_data.game;
+        int ticks = game.roadTicks(PACMAN_DECISION_GAP-decision_data.pacman_decision_gap);
+        if (ticks>0) {
+            game.advanceAlongRoads(ticks, decision_data.undoable!=null);
+            decision_data.pacman_decision_gap += ticks;
+            decision_data.ticks += ticks;
+        }
+    }
+
     public static Decision nextDecision(Game game, int pacman_decision_gap) {
         return nextDecision(game, pacman_decision_gap, false);
     }
 
 
+    /**
+     * With a decision cache (see setCacheCapacity()) a decision in a later tick is taken from
+     * the cache if the state was expanded before, its game is then shared and must not be changed.
+     */
     public static Decision nextDecision(Game game, int pacman_decision_gap, boolean game_copied) {
+        DecisionCache cache = cache();
+        if (cache==null) {
+            return searchDecision(game, pacman_decision_gap, game_copied);
+        }
+
+        long key = DecisionCache.key(game, pacman_decision_gap);
+        Decision cached = cache.lookup(key);
+        if (cached==null) {
+            Decision decision = searchDecision(game, pacman_decision_gap, game_copied);
+            /* a decision in the current tick holds the (caller's) game itself, it is not kept */
+            cache.insert(key, decision.copyWithGame(decision.ticks==0? null: decision.game));
+            return decision;
+        }
+
+        Game decision_game = cached.game;
+        if (cached.ticks==0) {
+            decision_game = game_copied||game instanceof SimplifiedGame? game: game.copy();
+        }
+        return cached.copyWithGame(decision_game);
+    }
+
+    private static Decision searchDecision(Game game, int pacman_decision_gap, boolean game_copied) {
+        if (!game_copied&&game instanceof SimplifiedGame) {
+            return nextDecisionInPlace((SimplifiedGame)game, pacman_decision_gap);
+        }
         game = game_copied? game: game.copy();
         DecisionStepData decision_data = new DecisionStepData(game, pacman_decision_gap);
 
-        while (decisionStep(decision_data)==DecisionNeededFrom.NOBODY) {/*login is in decisionStep()*/}
+        do {
+            roadJump(decision_data);
+        } while (decisionStep(decision_data)==DecisionNeededFrom.NOBODY);
 
         return new Decision(decision_data.ticks, decision_data.game, decision_data.pacman_possible_moves, decision_data.ghosts_possible_moves, decision_data.decision_needed_from, decision_data.pacman_decision_gap, decision_data.pacman_decision_cause);
     }
 
+    /**
+     * Steps the game itself to the decision and undoes the steps afterwards, the game is copied
+     * only if the decision is not in the current time step (otherwise the decision holds the game
+     * itself). The game must not be read by other threads meanwhile.
+     */
+    private static Decision nextDecisionInPlace(SimplifiedGame game, int pacman_decision_gap) {
+        int undo_depth = game.undoDepth();
+        DecisionStepData decision_data = new DecisionStepData(game, pacman_decision_gap);
+        decision_data.undoable = game;
+
+        do {
+            roadJump(decision_data);
+        } while (decisionStep(decision_data)==DecisionNeededFrom.NOBODY);
+
+        Game decision_game = game;
+        if (decision_data.ticks>0) {
+            decision_game = game.copy();
+            game.undoTo(undo_depth);
+        }
+        return new Decision(decision_data.ticks, decision_game, decision_data.pacman_possible_moves, decision_data.ghosts_possible_moves, decision_data.decision_needed_from, decision_data.pacman_decision_gap, decision_data.pacman_decision_cause);
+    }
+
     public static Decision nextDecisionAfterMove(Game game, int pacman_decison_gap, MOVE pacman_move, EnumMap<GHOST, MOVE> ghosts_moves) {
         Game advanced = game.copy();
-        advanced.advanceGameWithPowerPillReverseOnly(pacman_move, ghosts_moves.clone());
+        advanced.advanceGameWithPowerPillReverseOnly(pacman_move, ghosts_moves);
         Decision decision = nextDecision(advanced, pacman_decison_gap, true);
         decision.ticks++;
         return decision;
@@ -0,0 +1,117 @@
+package mcts;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import pacman.game.Constants.GHOST;
+import pacman.game.Game;
+import pacman.game.SimplifiedGame;
+
+/**
+ * Cache of Decision.nextDecision() results of one thread, keyed by the state of the game and
+ * the pacman's decision gap. Expanding a state again (unvisited siblings reaching it, trees
+ * rebuilt by updateTree()) reuses the decision instead of stepping the game to it again.
+ * The cache is bounded and evicts the least recently used entries.
+ *
+ * The cached games are shared by everybody getting the decision, they must never be changed
+ * (as the games of tree nodes are not).
+ */
+public class DecisionCache {
+    private static final AtomicLong total_hits = new AtomicLong();
+    private static final AtomicLong total_misses = new AtomicLong();
+
+    private final int capacity;
+    private final Map<Long, Decision> decisions;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param capacity Maximal number of decisions kept.
+     */
+    public DecisionCache(final int capacity) {
+        assert capacity>0;
+        this.capacity = capacity;
+        this.decisions = new LinkedHashMap<Long, Decision>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Decision> eldest) {
+                return size()>capacity;
+            }
+        };
+    }
+
+    /**
+     * @return The cached decision of the key, null if there is none.
+     */
+    Decision lookup(long key) {
+        Decision decision = decisions.get(key);
+        if (decision!=null) {
+            hits++;
+            total_hits.incrementAndGet();
+        } else {
+            misses++;
+            total_misses.incrementAndGet();
+        }
+        return decision;
+    }
+
+    void insert(long key, Decision decision) {
+        decisions.put(key, decision);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return decisions.size();
+    }
+
+    public long hits() {
+        return hits;
+    }
+
+    public long misses() {
+        return misses;
+    }
+
+    public double hitRate() {
+        return hits+misses==0? 0: hits/(double)(hits+misses);
+    }
+
+    /**
+     * @return Hits of the caches of all threads.
+     */
+    public static long totalHits() {
+        return total_hits.get();
+    }
+
+    /**
+     * @return Misses of the caches of all threads.
+     */
+    public static long totalMisses() {
+        return total_misses.get();
+    }
+
+    public static double totalHitRate() {
+        long hits = totalHits();
+        long lookups = hits+totalMisses();
+        return lookups==0? 0: hits/(double)lookups;
+    }
+
+    /**
+     * The state hash does not include the events of the last tick, which the first decision
+     * step depends on (power pill or ghost eaten), so they are added.
+     */
+    static long key(Game game, int pacman_decision_gap) {
+        long events = game.wasPowerPillEaten()? 1: 0;
+        for (GHOST ghost: GHOST.values()) {
+            if (game.wasGhostEaten(ghost)) {
+                events |= 2<<ghost.ordinal();
+            }
+        }
+        if (game instanceof SimplifiedGame) {
+            events |= 1<<(GHOST.values().length+1);
+        }
+        return TranspositionTable.stateHash(TranspositionTable.mix(game.stateHash(), events), pacman_decision_gap);
+    }
+}
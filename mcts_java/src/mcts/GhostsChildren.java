@@ -0,0 +1,108 @@
+package mcts;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Iterator;
+import pacman.game.Constants.GHOST;
+import pacman.game.Constants.MOVE;
+import pacman.game.Game;
+
+/**
+ * Children of a node with ghosts on turn kept in a dense array. Every ghost has a list
+ * of its grounded moves (see Utils.decisionMoves()), index of a child is the mixed-radix
+ * number made of the positions of the ghosts' moves in these lists. A child is thus found
+ * by a few comparisons instead of hashing an EnumMap.
+ */
+class GhostsChildren implements Iterable<GhostsNode> {
+    private static final GHOST[] GHOSTS = GHOST.values();
+    private static final MOVE[] NEUTRAL_ONLY = new MOVE[]{MOVE.NEUTRAL};
+
+    private final MOVE[][] ghost_moves = new MOVE[GHOSTS.length][];
+    private final int[] strides = new int[GHOSTS.length];
+    private final GhostsNode[] nodes;
+
+    /**
+     * @param possible_ghosts_moves Possible moves of the ghosts.
+     * @param game Game the moves are grounded in, ghosts not requiring an action play only MOVE.NEUTRAL.
+     */
+    GhostsChildren(EnumMap<GHOST, MOVE[]> possible_ghosts_moves, Game game) {
+        int size = 1;
+        for (GHOST ghost: GHOSTS) {
+            MOVE[] moves = Utils.ghostNeedAction(game, ghost)? possible_ghosts_moves.get(ghost): NEUTRAL_ONLY;
+            ghost_moves[ghost.ordinal()] = moves;
+            strides[ghost.ordinal()] = size;
+            size *= moves.length;
+        }
+        nodes = new GhostsNode[size];
+    }
+
+    int size() {
+        return nodes.length;
+    }
+
+    /**
+     * @return Moves (GhostsMovesCodec) of the child at the index.
+     */
+    int code(int index) {
+        int code = 0;
+        for (GHOST ghost: GHOSTS) {
+            MOVE[] moves = ghost_moves[ghost.ordinal()];
+            code = GhostsMovesCodec.withMove(code, ghost, moves[(index/strides[ghost.ordinal()])%moves.length]);
+        }
+        return code;
+    }
+
+    /**
+     * @return Index of the child reached by the moves (GhostsMovesCodec), -1 if there is no such child.
+     */
+    int index(int code) {
+        int index = 0;
+        for (GHOST ghost: GHOSTS) {
+            int digit = digit(ghost, GhostsMovesCodec.move(code, ghost));
+            if (digit<0) {
+                return -1;
+            }
+            index += digit*strides[ghost.ordinal()];
+        }
+        return index;
+    }
+
+    int index(EnumMap<GHOST, MOVE> ghosts_moves) {
+        int index = 0;
+        for (GHOST ghost: GHOSTS) {
+            int digit = digit(ghost, ghosts_moves.get(ghost));
+            if (digit<0) {
+                return -1;
+            }
+            index += digit*strides[ghost.ordinal()];
+        }
+        return index;
+    }
+
+    private int digit(GHOST ghost, MOVE move) {
+        MOVE[] moves = ghost_moves[ghost.ordinal()];
+        for (int i=0; i<moves.length; i++) {
+            if (moves[i]==move) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    GhostsNode child(int index) {
+        return index<0? null: nodes[index];
+    }
+
+    void setChild(int index, GhostsNode child) {
+        nodes[index] = child;
+    }
+
+    GhostsNode first() {
+        return nodes[0];
+    }
+
+    @Override
+    public Iterator<GhostsNode> iterator() {
+        return Arrays.asList(nodes).iterator();
+    }
+}
@@ -0,0 +1,64 @@
+package mcts;
+
+import java.util.EnumMap;
+import pacman.game.Constants.GHOST;
+import pacman.game.Constants.MOVE;
+
+/**
+ * Joint move of the ghosts packed in an int: BITS_PER_GHOST bits per ghost (by ghost
+ * ordinal) holding the ordinal of the ghost's move. Used inside the tree instead of
+ * EnumMap<GHOST,MOVE>, public APIs convert at the boundary by encode() and decode().
+ */
+public final class GhostsMovesCodec {
+    public static final int NONE = -1;
+    public static final int BITS_PER_GHOST = 3;
+    private static final int MOVE_MASK = (1<<BITS_PER_GHOST)-1;
+    private static final MOVE[] MOVES = MOVE.values();
+    private static final GHOST[] GHOSTS = GHOST.values();
+
+    /* all ghosts play MOVE.NEUTRAL */
+    public static final int NEUTRAL;
+    static {
+        int code = 0;
+        for (GHOST ghost: GHOSTS) {
+            code = withMove(code, ghost, MOVE.NEUTRAL);
+        }
+        NEUTRAL = code;
+    }
+
+    private GhostsMovesCodec() {}
+
+    public static int encode(EnumMap<GHOST, MOVE> ghosts_moves) {
+        int code = 0;
+        for (GHOST ghost: GHOSTS) {
+            code = withMove(code, ghost, ghosts_moves.get(ghost));
+        }
+        return code;
+    }
+
+    /**
+     * @return New map with the moves, null for NONE.
+     */
+    public static EnumMap<GHOST, MOVE> decode(int code) {
+        if (code==NONE) {
+            return null;
+        }
+        EnumMap<GHOST, MOVE> ghosts_moves = new EnumMap<GHOST, MOVE>(GHOST.class);
+        for (GHOST ghost: GHOSTS) {
+            ghosts_moves.put(ghost, move(code, ghost));
+        }
+        return ghosts_moves;
+    }
+
+    public static MOVE move(int code, GHOST ghost) {
+        return MOVES[(code>>>(BITS_PER_GHOST*ghost.ordinal()))&MOVE_MASK];
+    }
+
+    /**
+     * @return Code with the move of the ghost replaced.
+     */
+    public static int withMove(int code, GHOST ghost, MOVE move) {
+        int shift = BITS_PER_GHOST*ghost.ordinal();
+        return (code&~(MOVE_MASK<<shift))|(move.ordinal()<<shift);
+    }
+}
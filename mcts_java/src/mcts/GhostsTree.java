@@ -1,6 +1,7 @@
 package mcts;
 
 import java.util.EnumMap;
+import java.util.List;
 import mcts.Utils;
 import pacman.game.Constants.GHOST;
 import pacman.game.Constants.MOVE;
@@ -13,19 +14,28 @@ public class GhostsTree extends MCTree<EnumMap<GHOST, MOVE>> implements Cloneabl
         root = PacmanNode.createRoot(this, game);
     }
 
+    /**
+     * @param store Storage of node values and links, null to keep them in the node objects.
+     */
+    public GhostsTree(Game game, Selector selector, GuidedSimulator simulator, Backpropagator backpropagator, double ucbCoef, NodeStore store) {
+        super(game, selector, simulator, backpropagator, ucbCoef, store);
+        root = PacmanNode.createRoot(this, game);
+    }
+
     @Override
-    public EnumMap<GHOST, MOVE> bestMove(Game currentGame) {
+    public EnumMap<GHOST, MOVE> bestMove(Game currentGame, List<MCNode> counterparts) {
         MCNode node = root;
 
         /* skip pacman decisions */
         while (node!=null&&node.pacmanOnTurn()&&node.ticksToGo==0) {
-            node = node.bestMove();
+            node = node.bestMove(counterparts);
+            counterparts = MCNode.counterpartChildren(counterparts, node);
         }
 
         if (node==null) {
             return Utils.NEUTRAL_GHOSTS_MOVES;
         } else if (node.ghostsOnTurn()&&node.ticksToGo==0) {
-            return ((GhostsNode)node.bestMove()).ghostsMoves();
+            return ((GhostsNode)node.bestMove(counterparts)).ghostsMoves();
         } else {
             return Utils.ghostsFollowRoads(currentGame);
         }
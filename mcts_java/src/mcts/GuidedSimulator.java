@@ -1,16 +1,24 @@
 package mcts;
 
+import java.util.ArrayList;
 import java.util.EnumMap;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import mcts.Moves;
 import mcts.Utils;
 import mcts.Utils.PACMAN_REVERSAL;
+import pacman.game.BatchGame;
 import pacman.game.Constants.DM;
 import pacman.game.Constants.GHOST;
 import pacman.game.Constants.MOVE;
 import pacman.game.FullGame;
 import pacman.game.Game;
 import pacman.game.GameView;
+import pacman.game.SimplifiedGame;
 import utils.Pair;
 
 /**
@@ -26,6 +34,8 @@ public class GuidedSimulator {
     public final static int[] MAX_SCORES = new int[4];
     public final static int[] MAX_PILLS = new int[4];
 
+    private final static GHOST[] GHOSTS = GHOST.values();
+
     static {
         for (int i=0; i<4; i++) {
             Game game = new FullGame(0, i);
@@ -36,8 +46,22 @@ public class GuidedSimulator {
     private double randomMoveProb = Constants.DEFAULT_RANDOM_PROB;
     private int simulationDepth = Constants.DEFAULT_SIMULATION_DEPTH;
     private double deathWeight = Constants.DEFAULT_DEATH_WEIGHT;
+    private int batchSize = Constants.DEFAULT_LEAF_PARALLEL_BATCH;
+    private boolean primitiveRollouts = Constants.DEFAULT_PRIMITIVE_ROLLOUTS;
 
     private Random random;
+    /* simulators of the other rollouts of a batch, each one with its own random generator */
+    private GuidedSimulator[] batchSimulators = null;
+    /* runs the other rollouts of a batch, owned by the controller, null to run them in the calling thread */
+    private ExecutorService batchExecutor = null;
+
+    /* random generators of the slots of simulate(Game[], ...), one per simulation run together */
+    private Random[] slotRandoms = new Random[0];
+
+    /* game the simulations of the thread run in, reloaded by copyFrom() instead of copying the game */
+    private final static ThreadLocal<SimplifiedGame> SCRATCH_GAME = new ThreadLocal<SimplifiedGame>();
+    /* games the batched simulations of the thread run in, see simulate(Game[], ...) */
+    private final static ThreadLocal<BatchGame> BATCH_GAME = new ThreadLocal<BatchGame>();
 
     public static double sigm(double x) {
         return 1/(1+Math.exp(-x));
@@ -48,6 +72,21 @@ public class GuidedSimulator {
         this.random = random;
     }
 
+    /**
+     * @return Simulator with the same settings using the given random generator,
+     * e.g. for another thread.
+     */
+    public GuidedSimulator copy(Random random) {
+        GuidedSimulator copy = new GuidedSimulator(random);
+        copy.randomMoveProb = randomMoveProb;
+        copy.simulationDepth = simulationDepth;
+        copy.deathWeight = deathWeight;
+        copy.batchSize = batchSize;
+        copy.batchExecutor = batchExecutor;
+        copy.primitiveRollouts = primitiveRollouts;
+        return copy;
+    }
+
     private MOVE choosePacmanMove(Game game) {
         /* Simplified strategy of StarterPacMan:
          * 1. if a ghost is too close, then pacman tries to flee
@@ -70,7 +109,7 @@ public class GuidedSimulator {
 
         /* If any ghost is too close, try to flee */
         int pacman_position=game.getPacmanCurrentNodeIndex();
-        for (GHOST ghost: GHOST.values()) {
+        for (GHOST ghost: GHOSTS) {
             if (!game.isGhostEdible(ghost) && game.getGhostLairTime(ghost)==0) {
                 int ghost_position = game.getGhostCurrentNodeIndex(ghost);
                 if (game.getShortestPathDistance(pacman_position, ghost_position)<MIN_DISTANCE) {
@@ -82,7 +121,7 @@ public class GuidedSimulator {
         /* Hunt blue ghosts */
         int min_distance = Integer.MAX_VALUE;
         int closest_edible_ghost_position = -1;
-        for (GHOST ghost: GHOST.values()) {
+        for (GHOST ghost: GHOSTS) {
             if (game.isGhostEdible(ghost)) {
                 int ghost_position = game.getGhostCurrentNodeIndex(ghost);
                 int distance = game.getShortestPathDistance(pacman_position, ghost_position);
@@ -103,10 +142,10 @@ public class GuidedSimulator {
     private boolean pacmanNearPowerPill(Game game)
     {
     	int pacmanIndex=game.getPacmanCurrentNodeIndex();
-    	int[] powerPillIndices=game.getActivePowerPillsIndices();
+    	int[] powerPillIndices=game.getPowerPillIndices();
 
     	for(int i=0;i<powerPillIndices.length;i++)
-    		if(game.getShortestPathDistance(powerPillIndices[i],pacmanIndex)<PILL_PROXIMITY)
+    		if(game.isPowerPillStillAvailable(i)&&game.getShortestPathDistance(powerPillIndices[i],pacmanIndex)<PILL_PROXIMITY)
     			return true;
 
         return false;
@@ -131,6 +170,33 @@ public class GuidedSimulator {
     }
 
     private EnumMap<GHOST, MOVE> chooseGhostsMoves(Game game) {
+        EnumMap<GHOST, MOVE> ghosts_moves = new EnumMap<GHOST, MOVE>(GHOST.class);
+        int pacman_position = game.getPacmanCurrentNodeIndex();
+        boolean danger = pacmanNearPowerPill(game);
+
+        for (GHOST ghost: GHOSTS) {
+            ghosts_moves.put(ghost, chooseGhostMove(game, ghost, pacman_position, danger));
+        }
+
+        return ghosts_moves;
+    }
+
+    /**
+     * @return Moves of chooseGhostsMoves() packed by GhostsMovesCodec, without allocating a map.
+     */
+    private int chooseGhostsMovesCode(Game game) {
+        int ghosts_moves = 0;
+        int pacman_position = game.getPacmanCurrentNodeIndex();
+        boolean danger = pacmanNearPowerPill(game);
+
+        for (GHOST ghost: GHOSTS) {
+            ghosts_moves = GhostsMovesCodec.withMove(ghosts_moves, ghost, chooseGhostMove(game, ghost, pacman_position, danger));
+        }
+
+        return ghosts_moves;
+    }
+
+    private MOVE chooseGhostMove(Game game, GHOST ghost, int pacman_position, boolean danger) {
         /* Ghost strategy:
          * 1. If a ghost is edible or pacman is close to the power pill, run away
          * 2. Follow the midified Legacy strategy (no random moves for SUE, see getLegacyMove())
@@ -138,36 +204,25 @@ public class GuidedSimulator {
          * With probability of randomMoveProb ghost does random move.
          */
 
-        EnumMap<GHOST, MOVE> ghosts_moves = new EnumMap<GHOST, MOVE>(GHOST.class);
-        int pacman_position = game.getPacmanCurrentNodeIndex();
-        boolean danger = pacmanNearPowerPill(game);
-
-        for (GHOST ghost: GHOST.values()) {
-            /* skip if move is not required */
-            if (!game.doesGhostRequireAction(ghost)) {
-                ghosts_moves.put(ghost, MOVE.NEUTRAL);
-                continue;
-            }
-
-            /* with probability of randomMoveProb, play a random move */
-            if (random.nextDouble()<getRandomMoveProb()) {
-                ghosts_moves.put(ghost, Utils.randomGhostsMove(game, ghost, random));
-                continue;
-            }
+        /* skip if move is not required */
+        if (!game.doesGhostRequireAction(ghost)) {
+            return MOVE.NEUTRAL;
+        }
 
-            int ghost_position = game.getGhostCurrentNodeIndex(ghost);
-            MOVE last_ghost_move = game.getGhostLastMoveMade(ghost);
-            /* if ghost is edible or pacman is close to power pill, run away */
-            if (danger||game.isGhostEdible(ghost)) {
-                ghosts_moves.put(ghost, game.getApproximateNextMoveAwayFromTarget(ghost_position, pacman_position, last_ghost_move, DM.PATH));
-                continue;
-            }
+        /* with probability of randomMoveProb, play a random move */
+        if (random.nextDouble()<getRandomMoveProb()) {
+            return Utils.randomGhostsMove(game, ghost, random);
+        }
 
-            /* follow the Legacy strategy */
-            ghosts_moves.put(ghost, legacyMove(game, ghost));
+        int ghost_position = game.getGhostCurrentNodeIndex(ghost);
+        MOVE last_ghost_move = game.getGhostLastMoveMade(ghost);
+        /* if ghost is edible or pacman is close to power pill, run away */
+        if (danger||game.isGhostEdible(ghost)) {
+            return game.getApproximateNextMoveAwayFromTarget(ghost_position, pacman_position, last_ghost_move, DM.PATH);
         }
 
-        return ghosts_moves;
+        /* follow the Legacy strategy */
+        return legacyMove(game, ghost);
     }
 
     private Moves chooseMoves(Game game) {
@@ -192,24 +247,301 @@ public class GuidedSimulator {
     }
 
     public void gameStep(Game game) {
-        Moves moves = chooseMoves(game);
-        game.advanceGameWithPowerPillReverseOnly(moves.pacmans, moves.ghosts.clone());
+        int pacman_move = choosePacmanMove(game).ordinal();
+        game.advanceGameWithPowerPillReverseOnly(pacman_move, chooseGhostsMovesCode(game));
     }
 
     public double simulate(Game game, long startDepth) {
         int max_score = MAX_SCORES[game.getCurrentLevel()%4];
 
-        Game simulation = game.copy();
         int current_level = game.getCurrentLevel();
         long depth = startDepth;
 
+        if (primitiveRollouts) {
+            /* int-coded moves, allocation-free in a per-thread scratch game if it is a SimplifiedGame */
+            Game simulation = game instanceof SimplifiedGame? scratchGame((SimplifiedGame)game): game.copy();
+            while (!simulation.wasPacManEaten()&&simulation.getCurrentLevel()==current_level&&depth<getMaxDepth()) {
+                int pacman_move = choosePacmanMove(simulation).ordinal();
+                simulation.advanceGameWithPowerPillReverseOnly(pacman_move, chooseGhostsMovesCode(simulation));
+                depth++;
+            }
+            return reward(simulation, max_score);
+        }
+
+        Game simulation = game.copy();
         while (!simulation.wasPacManEaten()&&simulation.getCurrentLevel()==current_level&&depth<getMaxDepth()) {
             Moves moves = chooseMoves(simulation);
-            simulation.advanceGameWithPowerPillReverseOnly(moves.pacmans, moves.ghosts.clone());
+            simulation.advanceGameWithPowerPillReverseOnly(moves.pacmans, moves.ghosts);
             depth++;
         }
+        return reward(simulation, max_score);
+    }
+
+    private double reward(Game simulation, int max_score) {
+        return reward(simulation.getScore(), simulation.wasPacManEaten(), max_score);
+    }
+
+    private double reward(int score, boolean pacman_eaten, int max_score) {
+        return (1-getDeathWeight())*(score / (double)max_score) + getDeathWeight()*(pacman_eaten? 0: 1);
+    }
+
+    /**
+     * Batched simulation: runs one simulation from each of the games in lockstep in a BatchGame
+     * (struct-of-arrays states stepped together), each one with its own random generator. A game that
+     * cannot join the batch (not a SimplifiedGame, another maze, primitive rollouts off) is simulated
+     * by simulate(Game, long) on its own.
+     * @param games Games to simulate from, the first count ones are used.
+     * @param startDepths Depths of the games (as startDepth of simulate(Game, long)).
+     * @param rewards Filled by the reward of the simulation of every game.
+     */
+    public void simulate(Game[] games, long[] startDepths, int count, double[] rewards) {
+        simulate(games, startDepths, count, rewards, slotRandoms(count));
+    }
+
+    void simulate(Game[] games, long[] startDepths, int count, double[] rewards, Random[] randoms) {
+        BatchGame batch = batchGame(count);
+        int[] slots = new int[count];
+        long[] depths = new long[count];
+        int running = 0;
+
+        for (int i=0; i<count; i++) {
+            slots[i] = primitiveRollouts&&games[i] instanceof SimplifiedGame? batch.add((SimplifiedGame)games[i]): -1;
+            if (slots[i]==-1) {
+                rewards[i] = simulate(games[i], startDepths[i]);
+            } else if (batch.wasPacManEaten(slots[i])||startDepths[i]>=getMaxDepth()) {
+                batch.stop(slots[i]);
+            } else {
+                depths[slots[i]] = startDepths[i];
+                running++;
+            }
+        }
+
+        /* the level of a SimplifiedGame never changes (finishing it ends the game), only death and depth end a simulation */
+        int[] pacman_moves = new int[batch.size()];
+        int[] ghosts_moves = new int[batch.size()];
+        while (running>0) {
+            for (int slot=0; slot<batch.size(); slot++) {
+                if (batch.isRunning(slot)) {
+                    pacman_moves[slot] = choosePacmanMove(batch, slot, randoms[slot]).ordinal();
+                    ghosts_moves[slot] = chooseGhostsMovesCode(batch, slot, randoms[slot]);
+                }
+            }
+            batch.advance(pacman_moves, ghosts_moves);
+            for (int slot=0; slot<batch.size(); slot++) {
+                if (batch.isRunning(slot)&&(batch.wasPacManEaten(slot)||++depths[slot]>=getMaxDepth())) {
+                    batch.stop(slot);
+                    running--;
+                }
+            }
+        }
+
+        for (int i=0; i<count; i++) {
+            if (slots[i]!=-1) {
+                int max_score = MAX_SCORES[games[i].getCurrentLevel()%4];
+                rewards[i] = reward(batch.getScore(slots[i]), batch.wasPacManEaten(slots[i]), max_score);
+            }
+        }
+    }
+
+    /* choosePacmanMove() of a slot of the batch */
+    private MOVE choosePacmanMove(BatchGame batch, int slot, Random random) {
+        int pacman_position = batch.getPacmanCurrentNodeIndex(slot);
+
+        /* pacman is not at crossroad => follow the path */
+        if (batch.getPossibleMoves(pacman_position).length<=2) {
+            return batch.getPossibleMoves(pacman_position, batch.getPacmanLastMoveMade(slot))[0];
+        }
+
+        /* at a crossroad any move is possible, reversal included */
+        if (random.nextDouble()<getRandomMoveProb()) {
+            MOVE[] possible_moves = batch.getPossibleMoves(pacman_position);
+            return possible_moves[random.nextInt(possible_moves.length)];
+        }
+
+        for (GHOST ghost: GHOSTS) {
+            if (!batch.isGhostEdible(slot, ghost)&&batch.getGhostLairTime(slot, ghost)==0) {
+                int ghost_position = batch.getGhostCurrentNodeIndex(slot, ghost);
+                if (batch.getShortestPathDistance(pacman_position, ghost_position)<MIN_DISTANCE) {
+                    return batch.getNextMoveAwayFromTarget(pacman_position, ghost_position, DM.PATH);
+                }
+            }
+        }
+
+        int min_distance = Integer.MAX_VALUE;
+        int closest_edible_ghost_position = -1;
+        for (GHOST ghost: GHOSTS) {
+            if (batch.isGhostEdible(slot, ghost)) {
+                int ghost_position = batch.getGhostCurrentNodeIndex(slot, ghost);
+                int distance = batch.getShortestPathDistance(pacman_position, ghost_position);
+                if (distance<min_distance) {
+                    min_distance = distance;
+                    closest_edible_ghost_position = ghost_position;
+                }
+            }
+        }
+        if (closest_edible_ghost_position!=-1) {
+            return batch.getNextMoveTowardsTarget(pacman_position, closest_edible_ghost_position, DM.PATH);
+        }
 
-        return (1-getDeathWeight())*((simulation.getScore()) / (double)max_score) + getDeathWeight()*(simulation.wasPacManEaten()? 0: 1);
+        MOVE[] possible_moves = batch.getPossibleMoves(pacman_position);
+        return possible_moves[random.nextInt(possible_moves.length)];
+    }
+
+    /* chooseGhostsMovesCode() of a slot of the batch */
+    private int chooseGhostsMovesCode(BatchGame batch, int slot, Random random) {
+        int ghosts_moves = 0;
+        int pacman_position = batch.getPacmanCurrentNodeIndex(slot);
+        boolean danger = false;
+
+        int[] power_pills = batch.getPowerPillIndices();
+        for (int i=0; i<power_pills.length&&!danger; i++) {
+            danger = batch.isPowerPillStillAvailable(slot, i)&&batch.getShortestPathDistance(power_pills[i], pacman_position)<PILL_PROXIMITY;
+        }
+
+        for (GHOST ghost: GHOSTS) {
+            ghosts_moves = GhostsMovesCodec.withMove(ghosts_moves, ghost, chooseGhostMove(batch, slot, random, ghost, pacman_position, danger));
+        }
+
+        return ghosts_moves;
+    }
+
+    /* chooseGhostMove() of a slot of the batch */
+    private MOVE chooseGhostMove(BatchGame batch, int slot, Random random, GHOST ghost, int pacman_position, boolean danger) {
+        if (!batch.doesGhostRequireAction(slot, ghost)) {
+            return MOVE.NEUTRAL;
+        }
+
+        int ghost_position = batch.getGhostCurrentNodeIndex(slot, ghost);
+        MOVE last_ghost_move = batch.getGhostLastMoveMade(slot, ghost);
+
+        if (random.nextDouble()<getRandomMoveProb()) {
+            /* as Utils.randomGhostsMove(), which draws from a single move after a power pill or at a dead end */
+            MOVE[] possible_moves = batch.getPossibleMoves(ghost_position, last_ghost_move);
+            if (batch.wasPowerPillEaten(slot)||possible_moves.length==0) {
+                random.nextInt(1);
+                return batch.wasPowerPillEaten(slot)? last_ghost_move.opposite(): MOVE.NEUTRAL;
+            }
+            return possible_moves[random.nextInt(possible_moves.length)];
+        }
+
+        if (danger||batch.isGhostEdible(slot, ghost)) {
+            return batch.getApproximateNextMoveAwayFromTarget(ghost_position, pacman_position, last_ghost_move, DM.PATH);
+        }
+
+        /* the Legacy strategy, see legacyMove() */
+        DM dm = DM.PATH;
+        switch (ghost) {
+            case INKY:
+                dm = DM.MANHATTAN;
+                break;
+            case PINKY:
+                dm = DM.EUCLID;
+                break;
+        }
+        return batch.getApproximateNextMoveAwayFromTarget(ghost_position, pacman_position, last_ghost_move, dm);
+    }
+
+    /**
+     * @return Batch of the thread with at least the given capacity, emptied.
+     */
+    private static BatchGame batchGame(int capacity) {
+        BatchGame batch = BATCH_GAME.get();
+        if (batch==null||batch.capacity()<capacity) {
+            batch = new BatchGame(capacity);
+            BATCH_GAME.set(batch);
+        }
+        batch.clear();
+        return batch;
+    }
+
+    private Random[] slotRandoms(int count) {
+        if (slotRandoms.length<count) {
+            Random[] randoms = new Random[count];
+            for (int i=0; i<count; i++) {
+                randoms[i] = i<slotRandoms.length? slotRandoms[i]: new Random(random.nextLong());
+            }
+            slotRandoms = randoms;
+        }
+        return slotRandoms;
+    }
+
+    /**
+     * @return Scratch game of the thread set to the state of the game.
+     */
+    private static SimplifiedGame scratchGame(SimplifiedGame game) {
+        SimplifiedGame scratch = SCRATCH_GAME.get();
+        if (scratch==null) {
+            scratch = game.copy();
+            SCRATCH_GAME.set(scratch);
+        } else {
+            scratch.copyFrom(game);
+        }
+        return scratch;
+    }
+
+    private GuidedSimulator[] batchSimulators() {
+        if (batchSimulators==null||batchSimulators.length!=batchSize-1) {
+            batchSimulators = new GuidedSimulator[batchSize-1];
+            for (int i=0; i<batchSimulators.length; i++) {
+                batchSimulators[i] = copy(new Random(random.nextLong()));
+                batchSimulators[i].batchSize = 1;
+            }
+        }
+        return batchSimulators;
+    }
+
+    /**
+     * Leaf-parallel simulation: runs getBatchSize() simulations from the same game at once,
+     * all but one on the threads of the batch executor. Every simulation uses an independent random
+     * generator. The result should be backpropagated with the count of getBatchSize().
+     * @return Average reward of the simulations, NaN if the thread was interrupted while waiting
+     * for them (the iteration is to be skipped then).
+     */
+    public double simulateBatch(final Game game, final long startDepth) {
+        if (batchSize<=1) {
+            return simulate(game, startDepth);
+        }
+
+        if (batchExecutor==null) {
+            double reward = simulate(game, startDepth);
+            for (GuidedSimulator simulator: batchSimulators()) {
+                reward += simulator.simulate(game, startDepth);
+            }
+            return reward/batchSize;
+        }
+
+        List<Future<Double>> results = new ArrayList<Future<Double>>(batchSize-1);
+        for (final GuidedSimulator simulator: batchSimulators()) {
+            results.add(batchExecutor.submit(new Callable<Double>() {
+                @Override
+                public Double call() {
+                    return simulator.simulate(game, startDepth);
+                }
+            }));
+        }
+
+        double reward = simulate(game, startDepth);
+        try {
+            for (Future<Double> result: results) {
+                reward += result.get();
+            }
+        } catch (InterruptedException ex) {
+            /* a partial sum would bias the value */
+            for (Future<Double> result: results) {
+                result.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            return Double.NaN;
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)ex.getCause();
+            } else if (ex.getCause() instanceof Error) {
+                throw (Error)ex.getCause();
+            }
+            throw new RuntimeException(ex.getCause());
+        }
+
+        return reward/batchSize;
     }
 
     /**
@@ -224,6 +556,7 @@ public class GuidedSimulator {
      */
     public void setRandomMoveProb(double randomMoveProb) {
         this.randomMoveProb = randomMoveProb;
+        batchSimulators = null;
     }
 
     /**
@@ -238,6 +571,7 @@ public class GuidedSimulator {
      */
     public void setMaxDepth(int maxDepth) {
         this.simulationDepth = maxDepth;
+        batchSimulators = null;
     }
 
     /**
@@ -252,5 +586,52 @@ public class GuidedSimulator {
      */
     public void setDeathWeight(double deathWeight) {
         this.deathWeight = deathWeight;
+        batchSimulators = null;
+    }
+
+    /**
+     * @return whether simulations of a SimplifiedGame run allocation-free (scratch game and int-coded moves)
+     */
+    public boolean getPrimitiveRollouts() {
+        return primitiveRollouts;
+    }
+
+    /**
+     * @param primitiveRollouts whether simulations of a SimplifiedGame run allocation-free,
+     * otherwise every simulation copies the game and every tick allocates the moves
+     */
+    public void setPrimitiveRollouts(boolean primitiveRollouts) {
+        this.primitiveRollouts = primitiveRollouts;
+        batchSimulators = null;
+    }
+
+    /**
+     * @return the number of simulations run from a leaf at once
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize the number of simulations run from a leaf at once (leaf-parallel simulation if more than 1)
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+        batchSimulators = null;
+    }
+
+    /**
+     * @return the executor running the other simulations of a leaf-parallel batch, null if they run in the calling thread
+     */
+    public ExecutorService getBatchExecutor() {
+        return batchExecutor;
+    }
+
+    /**
+     * @param batchExecutor the executor running the other simulations of a leaf-parallel batch (shared by the copies
+     * of this simulator, the caller shuts it down), null to run them in the calling thread
+     */
+    public void setBatchExecutor(ExecutorService batchExecutor) {
+        this.batchExecutor = batchExecutor;
     }
 }
@@ -1,5 +1,7 @@
 package mcts;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -19,21 +21,22 @@ import pacman.game.GameView;
 import utils.Pair;
 
 public abstract class MCNode implements UCBNode {
-    /* MCTS values */
-    int visit_count;
-    int calculated_visit_count;
-    double value;
-    double calculated_value;
-
-    Map<GHOST,Integer> received_visit_count = new EnumMap<GHOST,Integer>(GHOST.class);
-    Map<GHOST,Double> received_value = new EnumMap<GHOST,Double>(GHOST.class);
-    {
-        for (GHOST ghost: GHOST.values()) {
-            received_visit_count.put(ghost, 0);
-            received_value.put(ghost, 0.0);
-        }
+    /* MCTS values of a node of the object tree, allocated by the first update (unvisited children hold only the null) */
+    static final class Statistics {
+        int visit_count;
+        int calculated_visit_count;
+        double value;
+        double calculated_value;
+        int virtual_loss; /* simulations running below the node in tree-parallel search */
     }
 
+    Statistics statistics = null;
+    int id = NodeStore.NONE; /* id in tree.store, the values are kept only there if set */
+
+    /* simulations received from other agents indexed by ghost ordinal, allocated by setReceived() */
+    int[] received_visit_count = null;
+    double[] received_value = null;
+
     int ticksToGo;
     long totalTicks; /* ticks from original root (before any updateTree() call */
 
@@ -44,13 +47,15 @@ public abstract class MCNode implements UCBNode {
     MCTree tree;
     MCNode parent;
     Map<MOVE, PacmanNode> pacman_children = null;
-    Map<EnumMap<GHOST, MOVE>, GhostsNode> ghosts_children = null;
+    GhostsChildren ghosts_children = null;
     int pacman_decision_gap; /* before how mant ticks happened last pacman decision */
     DecisionCause decision_cause = DecisionCause.NONE; /* NONE for "not set" */
     boolean terminal = false;
 
     /* current game state */
     Game game; /* set only iff expanded()||isRoot() */
+    long game_hash = 0; /* TranspositionTable.gameHash(game), 0 if not calculated yet */
+    TranspositionTable.Entry transposition = null; /* statistics shared with nodes in the same state */
 
 //    protected MCNode copy(MCTree tree, MCNode parent) {
 //        return copy(tree, parent, -1);
@@ -88,10 +93,11 @@ public abstract class MCNode implements UCBNode {
         this.pacman_decision_gap = pacman_decision_gap;
         this.decision_cause = DecisionCause.NONE;
         this.totalTicks = totalTicks;
+        tree.nodeCreated();
     }
 
     public boolean expanded() {
-        return pacman_children!=null||ghosts_children!=null;
+        return pacman_children!=null||ghosts_children!=null||(id!=NodeStore.NONE&&tree.store.childCount(id)>0);
     }
 
     public long getTotalTicks() {
@@ -100,11 +106,11 @@ public abstract class MCNode implements UCBNode {
 
     /* Returns true if expanded() and next move is Pacman's */
     public boolean pacmanOnTurn() {
-        return pacman_children!=null;
+        return pacman_children!=null||(id!=NodeStore.NONE&&tree.store.childrenType(id)==NodeStore.PACMAN_CHILDREN);
     }
 
     public boolean ghostsOnTurn() {
-        return ghosts_children!=null;
+        return ghosts_children!=null||(id!=NodeStore.NONE&&tree.store.childrenType(id)==NodeStore.GHOSTS_CHILDREN);
     }
 
     public int ticksToGo() {
@@ -112,7 +118,15 @@ public abstract class MCNode implements UCBNode {
     }
 
     public double simulate() {
-        return tree.simulator.simulate(game, totalTicks);
+        return simulate(tree.simulator);
+    }
+
+    /**
+     * Runs simulator.getBatchSize() simulations from the node.
+     * @return Average reward of the simulations.
+     */
+    public double simulate(GuidedSimulator simulator) {
+        return simulator.simulateBatch(game, totalTicks);
     }
 
 
@@ -129,6 +143,9 @@ public abstract class MCNode implements UCBNode {
     }
 
     public PacmanNode child(MOVE next_pacman_move) {
+        if (id!=NodeStore.NONE) {
+            return pacmanOnTurn()? (PacmanNode)storedChild(tree.store.findChild(id, next_pacman_move.ordinal())): null;
+        }
         if (pacman_children==null) {
             return null;
         }
@@ -136,20 +153,64 @@ public abstract class MCNode implements UCBNode {
     }
 
     public GhostsNode child(EnumMap<GHOST, MOVE> next_ghosts_moves) {
-        if (ghosts_children==null) {
+        if (!ghostsOnTurn()) {
             return null;
         }
-        GhostsNode node = ghosts_children.get(next_ghosts_moves);
+        GhostsNode node = ghostsChild(next_ghosts_moves);
         if (node==null) {
             /* power pill was eaten while some ghost is on crossroad, all ghosts
              * forced to reverse so all branches are the same. */
             assert game.wasPowerPillEaten();
             assert Utils.ghostOnCrossroad(game);
-            node = ghosts_children.values().iterator().next();
+            node = id!=NodeStore.NONE? (GhostsNode)storedChild(tree.store.firstChild(id)): ghosts_children.first();
         }
         return node;
     }
 
+    /**
+     * @return Child reached by exactly the moves, null if not found.
+     */
+    private GhostsNode ghostsChild(EnumMap<GHOST, MOVE> ghosts_moves) {
+        if (id!=NodeStore.NONE) {
+            return (GhostsNode)storedChild(tree.store.findChild(id, GhostsMovesCodec.encode(ghosts_moves)));
+        }
+        return ghosts_children.child(ghosts_children.index(ghosts_moves));
+    }
+
+    /**
+     * @param ghosts_moves Moves packed by GhostsMovesCodec.
+     * @return Child reached by exactly the moves, null if not found.
+     */
+    GhostsNode ghostsChild(int ghosts_moves) {
+        if (id!=NodeStore.NONE) {
+            return (GhostsNode)storedChild(tree.store.findChild(id, ghosts_moves));
+        }
+        return ghosts_children.child(ghosts_children.index(ghosts_moves));
+    }
+
+    /**
+     * Object of the child kept in tree.store, created if the child has been only a slot so far.
+     * @return null for NodeStore.NONE.
+     */
+    MCNode storedChild(int child_id) {
+        if (child_id==NodeStore.NONE) {
+            return null;
+        }
+        NodeStore store = tree.store;
+        MCNode child = store.node(child_id);
+        if (child==null) {
+            if (store.childrenType(id)==NodeStore.PACMAN_CHILDREN) {
+                child = PacmanNode.createUnvisitedNode(tree, this, MOVE.values()[store.move(child_id)],
+                                                       store.childrenGap(id), store.childrenTotalTicks(id));
+            } else {
+                child = GhostsNode.createUnvisitedNode(tree, this, store.move(child_id),
+                                                       store.childrenGap(id), store.childrenTotalTicks(id));
+            }
+            store.attach(child_id, child);
+        }
+        return child;
+    }
+
     public MCNode child(Action action) {
         if (action.type()==Action.Type.PACMAN) {
             return child(action.pacmanMove());
@@ -169,7 +230,7 @@ public abstract class MCNode implements UCBNode {
     }
 
     public MCNode select() {
-        if (visit_count==0||terminal) {
+        if (visitCount()==0||terminal) {
             return this;
         } else {
             return selectNext().select();
@@ -177,7 +238,7 @@ public abstract class MCNode implements UCBNode {
     }
 
     public MCNode select(List<Action> action_list) {
-        if (visit_count==0||terminal) {
+        if (visitCount()==0||terminal) {
             return this;
         } else {
             Pair<MCNode,Action> selected = selectNextNodeActionPair();
@@ -187,12 +248,76 @@ public abstract class MCNode implements UCBNode {
         }
     }
 
+    /**
+     * Selection used by tree-parallel search. Every step is done under the lock of the
+     * node and leaves a virtual loss on it, so that concurrent selections spread over
+     * different branches. The loss is taken back by Backpropagator.backpropagateConcurrently().
+     */
+    MCNode selectConcurrently(Selector selector, int virtual_loss) {
+        MCNode node = this;
+        while (true) {
+            MCNode next;
+            synchronized (node) {
+                node.addVirtualLoss(virtual_loss);
+                if (node.visitCount()==0||node.terminal) {
+                    return node;
+                }
+                next = selector.select(node).first;
+            }
+            node = next;
+        }
+    }
+
+    /**
+     * @return Values of the node of the object tree, allocated on the first call.
+     */
+    Statistics statistics() {
+        if (statistics==null) {
+            statistics = new Statistics();
+        }
+        return statistics;
+    }
+
     public double value() {
-        return value;
+        if (id!=NodeStore.NONE) {
+            return tree.store.value(id);
+        }
+        return statistics==null? 0: statistics.value;
     }
 
     public double calculatedValue() {
-        return calculated_value;
+        if (id!=NodeStore.NONE) {
+            return tree.store.calculatedValue(id);
+        }
+        return statistics==null? 0: statistics.calculated_value;
+    }
+
+    int virtualLoss() {
+        if (id!=NodeStore.NONE) {
+            return tree.store.virtualLoss(id);
+        }
+        return statistics==null? 0: statistics.virtual_loss;
+    }
+
+    void addVirtualLoss(int virtual_loss) {
+        if (id==NodeStore.NONE) {
+            statistics().virtual_loss += virtual_loss;
+        } else {
+            tree.store.addVirtualLoss(id, virtual_loss);
+        }
+    }
+
+    /**
+     * Root is created as visited, so that the first selection expands it.
+     */
+    protected void initRoot() {
+        if (tree.store!=null) {
+            tree.store.addRoot(this);
+            tree.store.setVisitCounts(id, 1, 1);
+        } else {
+            statistics().visit_count = 1;
+            statistics().calculated_visit_count = 1;
+        }
     }
 
 //    public Pair<Double,Integer> calculated() {
@@ -210,6 +335,11 @@ public abstract class MCNode implements UCBNode {
     }
 
     public boolean halfstepFollows() {
+        if (id!=NodeStore.NONE) {
+            /* halfstep nodes come from joint expansions, whose children are adopted as objects */
+            MCNode first = expanded()? tree.store.node(tree.store.firstChild(id)): null;
+            return first!=null&&first.halfstep;
+        }
         Iterator<? extends MCNode> it = children().iterator();
         return it.hasNext()&&it.next().halfstep;
     }
@@ -233,6 +363,10 @@ public abstract class MCNode implements UCBNode {
     public MCNode bestMove() {
         MCNode best = null;
 
+        if (id!=NodeStore.NONE) {
+            return storedChild(tree.store.mostVisitedChild(id));
+        }
+
         if (children()==null) {
             return null;
         }
@@ -246,36 +380,187 @@ public abstract class MCNode implements UCBNode {
         return best;
     }
 
+    /**
+     * UCB1 value from the point of view of the player choosing this node. Simulations
+     * still running below the node (tree-parallel search only) count as losses. The value
+     * may be shared with transpositions, the exploration term uses the visits of this edge
+     * and of its parent only, so that both counts are of the same kind.
+     * @param player_value Value of the node for the player.
+     * @param player_loss The worst reward for the player.
+     */
+    protected double ucbValue(double player_value, double player_loss) {
+        int parent_visits = parent.visitCount()+parent.virtualLoss();
+        int visit_count = visitCount();
+        int pending = virtualLoss();
+        if (pending==0) {
+            return Utils.UCB1(player_value, parent_visits, visit_count, tree.ucb1_coef);
+        }
+
+        int visits = visit_count+pending;
+        return Utils.UCB1((player_value*visit_count+player_loss*pending)/visits, parent_visits, visits, tree.ucb1_coef);
+    }
+
+    /**
+     * Node best to play by the player, visit counts are summed over this node
+     * and its counterparts (nodes in the same state in other trees, root-parallel search).
+     */
+    public MCNode bestMove(List<MCNode> counterparts) {
+        if (counterparts.isEmpty()) {
+            return bestMove();
+        }
+
+        if (id!=NodeStore.NONE) {
+            /* only the best child needs an object */
+            NodeStore store = tree.store;
+            boolean pacman_moves = pacmanOnTurn();
+            int best = NodeStore.NONE;
+            long best_visit_count = 0;
+            int first = store.firstChild(id);
+            for (int child=first; child<first+store.childCount(id); child++) {
+                long child_visit_count = store.visitCount(child);
+                for (MCNode counterpart: counterparts) {
+                    child_visit_count += counterpart.childVisitCount(pacman_moves, store.move(child));
+                }
+                if (best==NodeStore.NONE||child_visit_count>best_visit_count) {
+                    best = child;
+                    best_visit_count = child_visit_count;
+                }
+            }
+            return storedChild(best);
+        }
+
+        if (children()==null) {
+            return null;
+        }
+
+        MCNode best = null;
+        long best_visit_count = 0;
+        for (MCNode child: children()) {
+            long child_visit_count = child.visitCount();
+            for (MCNode counterpart: counterparts) {
+                MCNode same_child = counterpart.sameChild(child);
+                if (same_child!=null) {
+                    child_visit_count += same_child.visitCount();
+                }
+            }
+            if (best==null||child_visit_count>best_visit_count) {
+                best = child;
+                best_visit_count = child_visit_count;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * @return Child of this node reached by the same move as the child of another node, null if
+     * not found.
+     */
+    MCNode sameChild(MCNode child) {
+        if (child.isPacmanNode()) {
+            return pacmanOnTurn()? child(((PacmanNode)child).pacman_move): null;
+        } else {
+            return ghostsOnTurn()? ghostsChild(((GhostsNode)child).ghosts_moves): null;
+        }
+    }
+
+    /**
+     * @param move Pacman move ordinal or ghosts moves packed by GhostsMovesCodec.
+     * @return Visit count of the child reached by the move, 0 if not found.
+     */
+    int childVisitCount(boolean pacman_move, int move) {
+        if (pacman_move? !pacmanOnTurn(): !ghostsOnTurn()) {
+            return 0;
+        }
+        if (id!=NodeStore.NONE) {
+            int child = tree.store.findChild(id, move);
+            return child==NodeStore.NONE? 0: tree.store.visitCount(child);
+        }
+        MCNode child = pacman_move? child(MOVE.values()[move]): ghostsChild(move);
+        return child==null? 0: child.visitCount();
+    }
+
+    /**
+     * @return Counterparts of child (the same children of counterparts).
+     */
+    static List<MCNode> counterpartChildren(List<MCNode> counterparts, MCNode child) {
+        if (counterparts.isEmpty()||child==null) {
+            return Collections.<MCNode>emptyList();
+        }
+
+        List<MCNode> result = new ArrayList<MCNode>(counterparts.size());
+        for (MCNode counterpart: counterparts) {
+            MCNode same_child = counterpart.sameChild(child);
+            if (same_child!=null) {
+                result.add(same_child);
+            }
+        }
+        return result;
+    }
+
     public boolean isRoot() {
         return parent==null;
     }
 
     @Override
     public int visitCount() {
-        return this.visit_count;
+        if (id!=NodeStore.NONE) {
+            return tree.store.visitCount(id);
+        }
+        return statistics==null? 0: statistics.visit_count;
     }
 
     public int calculatedVisitCount() {
-        return this.calculated_visit_count;
+        if (id!=NodeStore.NONE) {
+            return tree.store.calculatedVisitCount(id);
+        }
+        return statistics==null? 0: statistics.calculated_visit_count;
     }
 
     public Iterable<? extends MCNode> children() {
-        if (pacmanOnTurn()) {
+        if (id!=NodeStore.NONE) {
+            if (!expanded()) {
+                return null;
+            }
+            int first = tree.store.firstChild(id);
+            List<MCNode> children = new ArrayList<MCNode>(tree.store.childCount(id));
+            for (int child=first; child<first+tree.store.childCount(id); child++) {
+                children.add(storedChild(child));
+            }
+            return children;
+        } else if (pacmanOnTurn()) {
             return pacman_children.values();
 
         } else if (ghostsOnTurn()) {
-            return ghosts_children.values();
+            return ghosts_children;
         } else {
             return null;
         }
     }
 
     public Map<MOVE, PacmanNode> pacmanChildren() {
+        if (id!=NodeStore.NONE&&pacmanOnTurn()) {
+            Map<MOVE, PacmanNode> children = new EnumMap<MOVE, PacmanNode>(MOVE.class);
+            for (MCNode child: children()) {
+                children.put(((PacmanNode)child).pacman_move, (PacmanNode)child);
+            }
+            return children;
+        }
         return pacman_children;
     }
 
+    /**
+     * @return New map of the children, null if ghosts are not on turn.
+     */
     public Map<EnumMap<GHOST,MOVE>, GhostsNode> ghostsChildren() {
-        return ghosts_children;
+        if (!ghostsOnTurn()) {
+            return null;
+        }
+        Map<EnumMap<GHOST,MOVE>, GhostsNode> children = new HashMap<EnumMap<GHOST,MOVE>, GhostsNode>();
+        for (MCNode child: children()) {
+            children.put(((GhostsNode)child).ghostsMoves(), (GhostsNode)child);
+        }
+        return children;
     }
 
     public Game game() {
@@ -289,9 +574,17 @@ public abstract class MCNode implements UCBNode {
     protected void pacmanExpand(Decision decision) {
         MOVE[] possible_pacman_moves = decision.pacman_possible_moves;
         assert !expanded();
+        decision_cause = decision.pacman_decision_cause;
+        if (tree.store!=null) {
+            int[] moves = new int[possible_pacman_moves.length];
+            for (int i=0; i<moves.length; i++) {
+                moves[i] = possible_pacman_moves[i].ordinal();
+            }
+            tree.store.addChildren(id, NodeStore.PACMAN_CHILDREN, moves, moves.length, decision.pacman_decision_gap, totalTicks+decision.ticks);
+            return;
+        }
         pacman_children = new EnumMap<MOVE, PacmanNode>(MOVE.class);
         MOVE[] pacman_moves = possible_pacman_moves;
-        decision_cause = decision.pacman_decision_cause;
         for (MOVE possible_pacman_move: pacman_moves) {
             pacman_children.put(possible_pacman_move, PacmanNode.createUnvisitedNode(tree, this,
                                 possible_pacman_move, decision.pacman_decision_gap, totalTicks+decision.ticks));
@@ -299,31 +592,22 @@ public abstract class MCNode implements UCBNode {
     }
 
     protected void ghostsExpand(Decision decision) {
-        EnumMap<GHOST, MOVE[]> possible_ghosts_moves = decision.ghosts_possible_moves;
         assert !expanded();
-        ghosts_children = new HashMap<EnumMap<GHOST, MOVE>, GhostsNode>();
         decision_cause = DecisionCause.CROSSROAD_REACHED;
-        MOVE[] blinky_moves = possible_ghosts_moves.get(GHOST.BLINKY);
-        MOVE[] inky_moves = possible_ghosts_moves.get(GHOST.INKY);
-        MOVE[] pinky_moves = possible_ghosts_moves.get(GHOST.PINKY);
-        MOVE[] sue_moves = possible_ghosts_moves.get(GHOST.SUE);
-        EnumMap<GHOST, MOVE> ghosts_moves = new EnumMap<GHOST, MOVE>(GHOST.class);
-        for (MOVE blinky_move: blinky_moves) {
-            ghosts_moves.put(GHOST.BLINKY, blinky_move);
-            for (MOVE inky_move: inky_moves) {
-                ghosts_moves.put(GHOST.INKY, inky_move);
-                for (MOVE pinky_move: pinky_moves) {
-                    ghosts_moves.put(GHOST.PINKY, pinky_move);
-                    for (MOVE sue_move: sue_moves) {
-                        ghosts_moves.put(GHOST.SUE, sue_move);
-                        EnumMap<GHOST, MOVE> ground_ghosts_moves = ghosts_moves.clone();
-                        Utils.decisionMoves(ground_ghosts_moves, decision.game);
-                        ghosts_children.put(ground_ghosts_moves, GhostsNode.createUnvisitedNode(tree, this, ground_ghosts_moves, decision.pacman_decision_gap,
-                                                                                                this.totalTicks+decision.ticks));
-                    }
-                }
+        GhostsChildren children = new GhostsChildren(decision.ghosts_possible_moves, decision.game);
+        if (tree.store!=null) {
+            int[] moves = new int[children.size()];
+            for (int i=0; i<moves.length; i++) {
+                moves[i] = children.code(i);
             }
+            tree.store.addChildren(id, NodeStore.GHOSTS_CHILDREN, moves, moves.length, decision.pacman_decision_gap, totalTicks+decision.ticks);
+            return;
         }
+        for (int i=0; i<children.size(); i++) {
+            children.setChild(i, GhostsNode.createUnvisitedNode(tree, this, children.code(i), decision.pacman_decision_gap,
+                                                                this.totalTicks+decision.ticks));
+        }
+        ghosts_children = children;
     }
 
     private void pacmanGhostsExpand(Decision decision) {
@@ -339,33 +623,15 @@ public abstract class MCNode implements UCBNode {
     }
 
     private void ghostsPacmanExpand(Decision decision) {
-        EnumMap<GHOST, MOVE[]> possible_ghosts_moves = decision.ghosts_possible_moves;
         MOVE[] possible_pacman_moves = decision.pacman_possible_moves;
         assert !expanded();
-        ghosts_children = new HashMap<EnumMap<GHOST, MOVE>, GhostsNode>();
         decision_cause = DecisionCause.CROSSROAD_REACHED;
-        MOVE[] blinky_moves = possible_ghosts_moves.get(GHOST.BLINKY);
-        MOVE[] inky_moves = possible_ghosts_moves.get(GHOST.INKY);
-        MOVE[] pinky_moves = possible_ghosts_moves.get(GHOST.PINKY);
-        MOVE[] sue_moves = possible_ghosts_moves.get(GHOST.SUE);
-        EnumMap<GHOST, MOVE> ghosts_moves = new EnumMap<GHOST, MOVE>(GHOST.class);
-        for (MOVE blinky_move: blinky_moves) {
-            ghosts_moves.put(GHOST.BLINKY, blinky_move);
-            for (MOVE inky_move: inky_moves) {
-                ghosts_moves.put(GHOST.INKY, inky_move);
-                for (MOVE pinky_move: pinky_moves) {
-                    ghosts_moves.put(GHOST.PINKY, pinky_move);
-                    for (MOVE sue_move: sue_moves) {
-                        ghosts_moves.put(GHOST.SUE, sue_move);
-                        EnumMap<GHOST, MOVE> ground_ghosts_moves = ghosts_moves.clone();
-                        Utils.decisionMoves(ground_ghosts_moves, game);
-                        ghosts_children.put(ground_ghosts_moves,
-                                GhostsNode.createJointNode(tree, this, ground_ghosts_moves, possible_pacman_moves,
-                                                           decision.pacman_decision_gap, decision.pacman_decision_cause, totalTicks+decision.ticks));
-                    }
-                }
-            }
+        GhostsChildren children = new GhostsChildren(decision.ghosts_possible_moves, game);
+        for (int i=0; i<children.size(); i++) {
+            children.setChild(i, GhostsNode.createJointNode(tree, this, children.code(i), possible_pacman_moves,
+                                                            decision.pacman_decision_gap, decision.pacman_decision_cause, totalTicks+decision.ticks));
         }
+        ghosts_children = children;
     }
 
     protected void jointExpand(Decision decision) {
@@ -382,6 +648,9 @@ public abstract class MCNode implements UCBNode {
                 ghostsPacmanExpand(decision);
             }
         }
+        if (tree.store!=null) {
+            tree.store.adoptChildren(this);
+        }
     }
 
     /* Advances game accordingly to the direction of all agents.
@@ -390,13 +659,82 @@ public abstract class MCNode implements UCBNode {
      */
     abstract protected void advanceGame(Game game);
 
+    /* Advances game of the parent (a halfstep node) by the joint move of the parent and the node. */
+    abstract protected void advanceJointGame(Game game);
+
+    /**
+     * Sets the game of a child of a halfstep node, created without it by the joint expansion: the
+     * parent's game is advanced by the joint move to the next decision. Children never selected
+     * thus cost neither the copy nor the decision search.
+     */
+    private void materialize() {
+        Game advanced = parent.game.copy();
+        advanceJointGame(advanced);
+        Decision decision = Decision.nextDecision(advanced, pacman_decision_gap, true);
+        decision.ticks++; /* +1 for advanceJointGame(game) */
+        game = decision.game;
+        ticksToGo = decision.ticks;
+        pacman_decision_gap = decision.pacman_decision_gap;
+        totalTicks += decision.ticks;
+    }
+
+    /**
+     * Advances the game of the parent using the transposition table of the tree: the decision is
+     * reused if the same transition was expanded before and the node shares statistics with the
+     * other nodes in the same state.
+     */
+    private Decision transposedDecision() {
+        int gap = (pacman_decision_gap+1)%Decision.PACMAN_DECISION_GAP;
+        long transition = TranspositionTable.transitionKey(parent.gameHash(), isPacmanNode(), moveCode(), gap);
+        TranspositionTable.Entry entry = tree.transpositions.lookup(transition);
+        if (entry==null) {
+            Game advanced = parent.game.copy();
+            advanceGame(advanced);
+            Decision decision = Decision.nextDecision(advanced, gap, true);
+            decision.ticks++; /* +1 for advanceGame(game) */
+            entry = tree.transpositions.insert(transition, TranspositionTable.gameHash(decision.game), decision);
+        }
+
+        transposition = entry;
+        game_hash = entry.game_hash;
+        game = entry.decision.game; /* shared, never changed */
+        ticksToGo = entry.decision.ticks;
+        return entry.decision;
+    }
+
+    long gameHash() {
+        if (game_hash==0) {
+            game_hash = TranspositionTable.gameHash(game);
+        }
+        return game_hash;
+    }
+
+    /**
+     * @return Move of the node, pacman move ordinal or GhostsMovesCodec.
+     */
+    abstract int moveCode();
+
+    /**
+     * @return Value of the node, shared with the nodes in the same state if there is a transposition table.
+     */
+    double sharedValue() {
+        return transposition==null? value(): transposition.value();
+    }
+
     public final void expand() {
         if (expanded()) {
             return;
         }
 
         Decision decision;
-        if (game==null) {
+        if (game==null&&parent.halfstep) {
+            /* Child of a joint node (created by createJointNode()), its game is set now */
+            materialize();
+            decision = Decision.nextDecision(game, pacman_decision_gap, true);
+        } else if (game==null&&tree.transpositions!=null&&tree.store==null) {
+            assert halfstep==false;
+            decision = transposedDecision();
+        } else if (game==null) {
             /* Game not set => create game by advancing game until decision is required */
             assert halfstep==false;
             game = parent.game.copy();
@@ -405,13 +743,11 @@ public abstract class MCNode implements UCBNode {
             game = decision.game;
             decision.ticks++; /* +1 for advanceGame(game) */
             ticksToGo = decision.ticks;
-        } else if (isRoot()) {
-            decision = Decision.nextDecision(game, pacman_decision_gap, false);
         } else {
             /* Game already set => calculate possible moves using Decision object
-             * This case happens only if node is created using createJointNode() */
-            assert parent.halfstep;
-            decision = Decision.nextDecision(game, pacman_decision_gap, true);
+             * This case happens only for the root, children of joint nodes are materialized above */
+            assert isRoot();
+            decision = Decision.nextDecision(game, pacman_decision_gap, false);
         }
 
         if (decision.jointDecision()) {
@@ -453,18 +789,18 @@ public abstract class MCNode implements UCBNode {
 
         StringBuilder rec = new StringBuilder();
 
-        for (GHOST ghost: received_visit_count.keySet()) {
-            Integer vc = received_visit_count.get(ghost);
+        for (GHOST ghost: GHOST.values()) {
+            int vc = getReceivedVisitCount(ghost);
             if (vc>0) {
-                rec.append(" ").append(ghost.toString().charAt(0)).append("{").append(vc).append("/").append(received_value.get(ghost)).append("}");
+                rec.append(" ").append(ghost.toString().charAt(0)).append("{").append(vc).append("/").append(getReceivedValue(ghost)).append("}");
             }
         }
 
-        result.append(" c=").append(this.visit_count)
-                .append("(").append(this.calculated_visit_count).append(")")
+        result.append(" c=").append(this.visitCount())
+                .append("(").append(this.calculatedVisitCount()).append(")")
                 .append(" t=").append(this.ticksToGo)
                 .append(" v=").append(this.value())
-                .append("(").append(this.calculated_value).append(")");
+                .append("(").append(this.calculatedValue()).append(")");
         result.append(rec);
 
         movesToString(result);
@@ -502,13 +838,26 @@ public abstract class MCNode implements UCBNode {
      * @return the received_visit_count
      */
     public int getReceivedVisitCount(GHOST from) {
-        return received_visit_count.get(from);
+        return received_visit_count==null? 0: received_visit_count[from.ordinal()];
     }
 
     /**
      * @return the received_value
      */
     public double getReceivedValue(GHOST from) {
-        return received_value.get(from);
+        return received_value==null? 0: received_value[from.ordinal()];
+    }
+
+    /**
+     * Stores simulations received from the ghost, statistics are allocated on the first call.
+     */
+    void setReceived(GHOST from, double value, int visit_count) {
+        if (received_visit_count==null) {
+            received_visit_count = new int[GHOST.values().length];
+            received_value = new double[GHOST.values().length];
+            tree.receivedStatisticsAllocated();
+        }
+        received_value[from.ordinal()] = value;
+        received_visit_count[from.ordinal()] = visit_count;
     }
 }
@@ -1,7 +1,9 @@
 package mcts;
 
+import java.util.Collections;
 import java.util.EnumMap;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import mcts.exceptions.InvalidActionListException;
 import pacman.game.Constants.GHOST;
 import pacman.game.Constants.MOVE;
@@ -13,8 +15,13 @@ public abstract class MCTree<M> {
     GuidedSimulator simulator;
     Backpropagator backpropagator;
     double ucb1_coef;
+    NodeStore store; /* null if the nodes keep their values themselves */
+    TranspositionTable transpositions = null;
     MCNode root;
+    MCNode last_iterated = null; /* node the last iterate() simulated from */
     boolean optimisticTurns = true;
+    private final AtomicLong nodes = new AtomicLong();
+    private final AtomicLong received_nodes = new AtomicLong();
 
     public MCNode root() {
         return root;
@@ -22,21 +29,111 @@ public abstract class MCTree<M> {
 
     public double iterate() { return iterate(null); }
 
+    /**
+     * @return Node the last iterate() simulated from (or found terminal), null before the first one.
+     */
+    public MCNode lastIterated() {
+        return last_iterated;
+    }
+
+    /**
+     * @return Number of simulations done by a successful iterate()
+     */
+    public int simulationsPerIteration() {
+        return simulator.getBatchSize();
+    }
+
     public double iterate(List<Action> action_list) {
         MCNode node = action_list==null? root.select(): root.select(action_list);
+        last_iterated = node;
         if (node.isRoot()||!node.parent().game.wasPacManEaten()) {
             node.expand();
             double reward = node.simulate();
-            node.backpropagate(reward);
+            if (!Double.isNaN(reward)) {
+                node.backpropagate(reward, simulator.getBatchSize());
+            }
             return reward;
         } else {
             /* do not extend subtree if pacman was eaten */
             node.terminal = true;
-            node.backpropagate(node.value);
+            node.backpropagate(node.value());
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Iteration of tree-parallel search, may run in several threads sharing the tree.
+     * Every thread has to use its own selector and simulator (their random generators
+     * are not shared).
+     * @param virtual_loss Number of losses temporarily added to every node on the selected path.
+     */
+    public double iterateConcurrently(Selector selector, GuidedSimulator simulator, int virtual_loss) {
+        MCNode node = root.selectConcurrently(selector, virtual_loss);
+        if (node.isRoot()||!node.parent().game.wasPacManEaten()) {
+            synchronized (node) {
+                node.expand();
+            }
+            double reward = node.simulate(simulator);
+            if (Double.isNaN(reward)) {
+                /* interrupted simulation, only the virtual loss is taken back */
+                for (MCNode path_node = node; path_node!=null; path_node = path_node.parent) {
+                    synchronized (path_node) {
+                        path_node.addVirtualLoss(-virtual_loss);
+                    }
+                }
+            } else {
+                backpropagator.backpropagateConcurrently(node, reward, simulator.getBatchSize(), virtual_loss);
+            }
+            return reward;
+        } else {
+            /* do not extend subtree if pacman was eaten */
+            double value;
+            synchronized (node) {
+                node.terminal = true;
+                value = node.value();
+            }
+            backpropagator.backpropagateConcurrently(node, value, 1, virtual_loss);
             return Double.NaN;
         }
     }
 
+    /**
+     * Iteration with batched simulation: selects several leaves (with virtual loss, so that they spread
+     * over different branches), runs one simulation from each of them in lockstep by
+     * GuidedSimulator.simulate(Game[], ...) and backpropagates every reward. The leaf-parallel batch
+     * size of the simulator is not used.
+     * @param leaves Number of leaves selected.
+     * @return Number of simulations done (selected leaves which are not terminal).
+     */
+    public int iterateBatch(Selector selector, GuidedSimulator simulator, int leaves, int virtual_loss) {
+        MCNode[] nodes = new MCNode[leaves];
+        Game[] games = new Game[leaves];
+        long[] depths = new long[leaves];
+        int count = 0;
+
+        for (int i=0; i<leaves; i++) {
+            MCNode node = root.selectConcurrently(selector, virtual_loss);
+            if (node.isRoot()||!node.parent().game.wasPacManEaten()) {
+                node.expand();
+                nodes[count] = node;
+                games[count] = node.game;
+                depths[count] = node.totalTicks;
+                count++;
+            } else {
+                /* do not extend subtree if pacman was eaten */
+                node.terminal = true;
+                backpropagator.backpropagateConcurrently(node, node.value(), 1, virtual_loss);
+            }
+        }
+
+        double[] rewards = new double[count];
+        simulator.simulate(games, depths, count, rewards);
+        for (int i=0; i<count; i++) {
+            backpropagator.backpropagateConcurrently(nodes[i], rewards[i], 1, virtual_loss);
+        }
+        return count;
+    }
+
     private MCNode getNode(List<Action> action_list) throws InvalidActionListException {
         MCNode node = root;
         for (Action action: action_list) {
@@ -59,11 +156,95 @@ public abstract class MCTree<M> {
     public long applyTreeNode(GHOST from, List<Action> action_list, double simulation_result, int visit_count) throws InvalidActionListException {
         MCNode node = getNode(action_list);
         long res = node.backpropagateReceived(from, simulation_result, visit_count);
-        node.received_value.put(from, simulation_result);
-        node.received_visit_count.put(from, visit_count);
+        node.setReceived(from, simulation_result, visit_count);
         return res;
     }
 
+    void nodeCreated() {
+        nodes.incrementAndGet();
+    }
+
+    void receivedStatisticsAllocated() {
+        received_nodes.incrementAndGet();
+    }
+
+    /**
+     * @return Number of nodes created in the tree (including dropped ones).
+     */
+    public long nodesCreated() {
+        return nodes.get();
+    }
+
+    /**
+     * @return Number of nodes the received statistics were allocated for.
+     */
+    public long receivedNodes() {
+        return received_nodes.get();
+    }
+
+    /**
+     * @return Heap in bytes saved per created node by allocating received statistics only in the
+     * nodes which received simulations: the measured cost of the statistics every node used to
+     * allocate times the created nodes, less the measured cost of the lazy ones times the nodes
+     * which allocated them.
+     */
+    public double receivedHeapSavedPerNode() {
+        long created = nodesCreated();
+        if (created==0) {
+            return 0;
+        }
+        return (created*ReceivedStatisticsCost.EAGER-receivedNodes()*ReceivedStatisticsCost.LAZY)/(double)created;
+    }
+
+    /* heap of the received statistics of a node, measured on the first use */
+    private static class ReceivedStatisticsCost {
+        private static final int INSTANCES = 20000;
+        static final double EAGER = measure(true);
+        static final double LAZY = measure(false);
+
+        private static long usedHeap() {
+            Runtime runtime = Runtime.getRuntime();
+            for (int i=0; i<3; i++) {
+                System.gc();
+            }
+            return runtime.totalMemory()-runtime.freeMemory();
+        }
+
+        /**
+         * @param eager Two EnumMaps of boxed zeros for all ghosts, as every node allocated them
+         * formerly, or the int[] and double[] setReceived() allocates.
+         */
+        private static double measure(boolean eager) {
+            Object[] counts = new Object[INSTANCES];
+            Object[] values = new Object[INSTANCES];
+            long before = usedHeap();
+            for (int i=0; i<INSTANCES; i++) {
+                if (eager) {
+                    EnumMap<GHOST, Integer> count = new EnumMap<GHOST, Integer>(GHOST.class);
+                    EnumMap<GHOST, Double> value = new EnumMap<GHOST, Double>(GHOST.class);
+                    for (GHOST ghost: GHOST.values()) {
+                        count.put(ghost, 0);
+                        value.put(ghost, 0.0);
+                    }
+                    counts[i] = count;
+                    values[i] = value;
+                } else {
+                    counts[i] = new int[GHOST.values().length];
+                    values[i] = new double[GHOST.values().length];
+                }
+            }
+            long bytes = usedHeap()-before;
+            /* keeps the instances reachable till measured */
+            return counts[INSTANCES-1]!=values[INSTANCES-1]? Math.max(bytes, 0)/(double)INSTANCES: 0;
+        }
+    }
+
+    /**
+     * @param transpositions Table shared by the nodes expanded from now on, null for none (ignored with NodeStore).
+     */
+    public void setTranspositionTable(TranspositionTable transpositions) { this.transpositions = transpositions; }
+    public TranspositionTable getTranspositionTable() { return transpositions; }
+
     public boolean getOptimisticTurns() { return optimisticTurns; }
     public void setOptimisticTurns(boolean optimisticTurns) { this.optimisticTurns = optimisticTurns; }
 
@@ -76,18 +257,38 @@ public abstract class MCTree<M> {
 //    }
 
     public MCTree(Game game, Selector selector, GuidedSimulator simulator, Backpropagator backpropagator, double ucb1_coef) {
+        this(game, selector, simulator, backpropagator, ucb1_coef, null);
+    }
+
+    /**
+     * @param store Storage of node values and links, null to keep them in the node objects.
+     */
+    public MCTree(Game game, Selector selector, GuidedSimulator simulator, Backpropagator backpropagator, double ucb1_coef, NodeStore store) {
+        this.store = store;
         this.selector = selector;
         this.simulator = simulator;
         this.backpropagator = backpropagator;
         this.ucb1_coef = ucb1_coef;
     }
 
-    public abstract M bestMove(Game game);
+    public M bestMove(Game game) {
+        return bestMove(game, Collections.<MCNode>emptyList());
+    }
+
+    /**
+     * Best move summing visit counts with the same nodes of other trees
+     * searched from the same state (root-parallel search).
+     * @param counterparts Roots of the other trees.
+     */
+    public abstract M bestMove(Game game, List<MCNode> counterparts);
     public abstract M bestDecisionMove();
     public abstract boolean decisionNeeded();
 
     public void moveToNode(MCNode node) {
         assert node.parent==root;
+        if (store!=null) {
+            store.makeRoot(node.id);
+        }
         node.parent = null;
         root = node;
     }
@@ -107,6 +308,9 @@ public abstract class MCTree<M> {
             next_node.expand();
             root = next_node;
             root.ticksToGo += -1; /* propagate -1 delay */
+            if (store!=null) {
+                store.makeRoot(root.id);
+            }
             root.parent = null; /* drop unreachable paths */
             steps++;
         }
@@ -0,0 +1,373 @@
+package mcts;
+
+import java.util.Arrays;
+
+/**
+ * Struct-of-arrays storage of an MC-tree. Statistics, links and moves of the nodes
+ * are kept in primitive arrays indexed by int node ids, children of a node occupy
+ * consecutive ids, so UCB scan reads a few adjacent array cells instead of chasing
+ * node objects. Arrays grow in chunks created when their first slot is allocated,
+ * already allocated chunks are never moved. Statistics of the nodes are kept only
+ * here, the node objects of a store have none.
+ *
+ * MCNode objects exist only for the nodes really visited by selection (they are
+ * created on demand by MCNode.storedChild()), unvisited children are just slots.
+ */
+public class NodeStore {
+    public static final int NONE = -1;
+
+    static final byte NO_CHILDREN = 0;
+    static final byte PACMAN_CHILDREN = 1;
+    static final byte GHOSTS_CHILDREN = 2;
+
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1<<CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE-1;
+
+    private static class Chunk {
+        final int[] visit_count = new int[CHUNK_SIZE];
+        final int[] calculated_visit_count = new int[CHUNK_SIZE];
+        final double[] value = new double[CHUNK_SIZE];
+        final double[] calculated_value = new double[CHUNK_SIZE];
+        final int[] virtual_loss = new int[CHUNK_SIZE];
+        final int[] parent = new int[CHUNK_SIZE];
+        final int[] first_child = new int[CHUNK_SIZE];
+        final byte[] child_count = new byte[CHUNK_SIZE];
+        final byte[] children_type = new byte[CHUNK_SIZE];
+        final int[] move = new int[CHUNK_SIZE]; /* pacman move ordinal or GhostsMovesCodec */
+        final int[] children_gap = new int[CHUNK_SIZE]; /* pacman_decision_gap of unvisited children */
+        final long[] children_total_ticks = new long[CHUNK_SIZE]; /* totalTicks of unvisited children */
+        final MCNode[] node = new MCNode[CHUNK_SIZE];
+    }
+
+    private volatile Chunk[] chunks = new Chunk[0];
+    private int size = 0;
+    private int released = 0; /* slots of subtrees dropped by makeRoot() */
+    private int skipped = 0; /* slots left empty at the ends of chunks */
+
+    /* Chunks are read without locking, a new chunk is published by writing the directory to the volatile field. */
+    private Chunk chunk(int id) {
+        return chunks[id>>>CHUNK_BITS];
+    }
+
+    private synchronized int allocate(int count) {
+        if (((size+count-1)>>>CHUNK_BITS)!=(size>>>CHUNK_BITS)&&(size&CHUNK_MASK)!=0) {
+            /* keep siblings in one chunk */
+            skipped += CHUNK_SIZE-(size&CHUNK_MASK);
+            size = (size|CHUNK_MASK)+1;
+        }
+        int first = size;
+        size += count;
+        int last = (size-1)>>>CHUNK_BITS;
+        Chunk[] directory = chunks;
+        if (last>=directory.length) {
+            /* only the directory grows ahead, chunks are created when their first slot is allocated */
+            directory = Arrays.copyOf(directory, Math.max(last+1, 2*directory.length));
+        }
+        if (directory[last]==null) {
+            directory[last] = new Chunk();
+            chunks = directory;
+        }
+        return first;
+    }
+
+    /**
+     * @return Id of a new parentless node.
+     */
+    int addRoot(MCNode node) {
+        int id = allocate(1);
+        Chunk c = chunk(id);
+        int o = id&CHUNK_MASK;
+        c.parent[o] = NONE;
+        c.first_child[o] = NONE;
+        c.move[o] = NONE;
+        c.node[o] = node;
+        node.id = id;
+        return id;
+    }
+
+    /**
+     * Adds unvisited children of the node, they are stored in consecutive ids.
+     * @param moves Moves of the children (pacman move ordinals or GhostsMovesCodec).
+     * @param gap pacman_decision_gap of the children.
+     * @param total_ticks totalTicks of the children.
+     * @return Id of the first child.
+     */
+    int addChildren(int parent, byte type, int[] moves, int count, int gap, long total_ticks) {
+        assert count>0&&count<=Byte.MAX_VALUE;
+        int first = allocate(count);
+        Chunk c = chunk(first);
+        for (int i=0; i<count; i++) {
+            int o = (first+i)&CHUNK_MASK;
+            c.parent[o] = parent;
+            c.first_child[o] = NONE;
+            c.move[o] = moves[i];
+        }
+        Chunk pc = chunk(parent);
+        int po = parent&CHUNK_MASK;
+        pc.children_gap[po] = gap;
+        pc.children_total_ticks[po] = total_ticks;
+        pc.first_child[po] = first;
+        pc.children_type[po] = type;
+        pc.child_count[po] = (byte)count; /* written last, childCount()>0 means expanded */
+        return first;
+    }
+
+    /**
+     * Moves children of the node (created as objects, e.g. by joint expansion) into the store,
+     * recursively with their own children.
+     */
+    void adoptChildren(MCNode node) {
+        MCNode[] children;
+        int[] moves;
+        byte type;
+        int i = 0;
+        if (node.pacman_children!=null) {
+            type = PACMAN_CHILDREN;
+            children = new MCNode[node.pacman_children.size()];
+            moves = new int[children.length];
+            for (PacmanNode child: node.pacman_children.values()) {
+                children[i] = child;
+                moves[i++] = child.pacman_move.ordinal();
+            }
+        } else {
+            type = GHOSTS_CHILDREN;
+            children = new MCNode[node.ghosts_children.size()];
+            moves = new int[children.length];
+            for (GhostsNode child: node.ghosts_children) {
+                children[i] = child;
+                moves[i++] = child.ghosts_moves;
+            }
+        }
+
+        int first = addChildren(node.id, type, moves, children.length, 0, 0);
+        for (i=0; i<children.length; i++) {
+            children[i].id = first+i;
+            chunk(first+i).node[(first+i)&CHUNK_MASK] = children[i];
+            if (children[i].pacman_children!=null||children[i].ghosts_children!=null) {
+                adoptChildren(children[i]);
+            }
+        }
+        node.pacman_children = null;
+        node.ghosts_children = null;
+    }
+
+    /**
+     * The node becomes a root of the tree, its former parent and the subtrees of its siblings are released.
+     * The store is compacted when most of its slots are released.
+     */
+    void makeRoot(int id) {
+        int parent = parent(id);
+        if (parent!=NONE) {
+            int first = firstChild(parent);
+            for (int child=first; child<first+childCount(parent); child++) {
+                if (child!=id) {
+                    release(child);
+                }
+            }
+            chunk(parent).node[parent&CHUNK_MASK] = null;
+            released++;
+        }
+        chunk(id).parent[id&CHUNK_MASK] = NONE;
+
+        if (2*released>size) {
+            compact(id);
+        }
+    }
+
+    private void release(int id) {
+        Chunk c = chunk(id);
+        int o = id&CHUNK_MASK;
+        c.node[o] = null;
+        released++;
+        int first = c.first_child[o];
+        for (int child=first; child<first+c.child_count[o]; child++) {
+            release(child);
+        }
+    }
+
+    /**
+     * Copies the subtree of the root to new chunks (breadth-first, so that siblings stay consecutive)
+     * and renumbers the attached node objects. Must not run concurrently with a search.
+     */
+    private synchronized void compact(int root) {
+        Chunk[] old_chunks = chunks;
+        chunks = new Chunk[0];
+        size = 0;
+        released = 0;
+        skipped = 0;
+
+        int[] old_ids = new int[CHUNK_SIZE];
+        Arrays.fill(old_ids, NONE); /* slots skipped by allocate() stay NONE */
+        old_ids[allocate(1)] = root;
+        chunk(0).parent[0] = NONE;
+        for (int id=0; id<size; id++) {
+            int old_id = old_ids[id];
+            if (old_id==NONE) {
+                continue;
+            }
+            Chunk oc = old_chunks[old_id>>>CHUNK_BITS];
+            int oo = old_id&CHUNK_MASK;
+            Chunk c = chunk(id);
+            int o = id&CHUNK_MASK;
+            c.visit_count[o] = oc.visit_count[oo];
+            c.calculated_visit_count[o] = oc.calculated_visit_count[oo];
+            c.value[o] = oc.value[oo];
+            c.calculated_value[o] = oc.calculated_value[oo];
+            c.virtual_loss[o] = oc.virtual_loss[oo];
+            c.child_count[o] = oc.child_count[oo];
+            c.children_type[o] = oc.children_type[oo];
+            c.move[o] = oc.move[oo];
+            c.children_gap[o] = oc.children_gap[oo];
+            c.children_total_ticks[o] = oc.children_total_ticks[oo];
+            c.node[o] = oc.node[oo];
+            if (c.node[o]!=null) {
+                c.node[o].id = id;
+            }
+
+            int count = oc.child_count[oo];
+            if (count==0) {
+                c.first_child[o] = NONE;
+                continue;
+            }
+            int old_first = oc.first_child[oo];
+            int first = allocate(count);
+            c.first_child[o] = first;
+            Chunk fc = chunk(first);
+            if (first+count>old_ids.length) {
+                int length = old_ids.length;
+                old_ids = Arrays.copyOf(old_ids, Math.max(first+count, 2*length));
+                Arrays.fill(old_ids, length, old_ids.length, NONE);
+            }
+            for (int i=0; i<count; i++) {
+                old_ids[first+i] = old_first+i;
+                fc.parent[(first+i)&CHUNK_MASK] = id;
+            }
+        }
+    }
+
+    void attach(int id, MCNode node) {
+        node.id = id;
+        chunk(id).node[id&CHUNK_MASK] = node;
+    }
+
+    MCNode node(int id) { return chunk(id).node[id&CHUNK_MASK]; }
+    int parent(int id) { return chunk(id).parent[id&CHUNK_MASK]; }
+    int firstChild(int id) { return chunk(id).first_child[id&CHUNK_MASK]; }
+    int childCount(int id) { return chunk(id).child_count[id&CHUNK_MASK]; }
+    byte childrenType(int id) { return chunk(id).children_type[id&CHUNK_MASK]; }
+    int move(int id) { return chunk(id).move[id&CHUNK_MASK]; }
+    int childrenGap(int id) { return chunk(id).children_gap[id&CHUNK_MASK]; }
+    long childrenTotalTicks(int id) { return chunk(id).children_total_ticks[id&CHUNK_MASK]; }
+
+    int visitCount(int id) { return chunk(id).visit_count[id&CHUNK_MASK]; }
+    int calculatedVisitCount(int id) { return chunk(id).calculated_visit_count[id&CHUNK_MASK]; }
+    double value(int id) { return chunk(id).value[id&CHUNK_MASK]; }
+    double calculatedValue(int id) { return chunk(id).calculated_value[id&CHUNK_MASK]; }
+    int virtualLoss(int id) { return chunk(id).virtual_loss[id&CHUNK_MASK]; }
+
+    void addVirtualLoss(int id, int virtual_loss) {
+        chunk(id).virtual_loss[id&CHUNK_MASK] += virtual_loss;
+    }
+
+    void setVisitCounts(int id, int visit_count, int calculated_visit_count) {
+        Chunk c = chunk(id);
+        int o = id&CHUNK_MASK;
+        c.visit_count[o] = visit_count;
+        c.calculated_visit_count[o] = calculated_visit_count;
+    }
+
+    /**
+     * The same update as AvgBackpropagator does on node objects.
+     */
+    void update(int id, double reward, int count, boolean received) {
+        Chunk c = chunk(id);
+        int o = id&CHUNK_MASK;
+        if (c.visit_count[o]+count>0) {
+            c.value[o] = Utils.addToAvg(c.value[o], c.visit_count[o], reward, count);
+            if (!received) {
+                c.calculated_value[o] = Utils.addToAvg(c.calculated_value[o], c.calculated_visit_count[o], reward, count);
+            }
+        }
+        c.visit_count[o] += count;
+        if (!received) {
+            c.calculated_visit_count[o] += count;
+        }
+    }
+
+    /**
+     * UCB1 scan over the children, the same values as MCNode.ucbValue() of the child objects.
+     * @return Id of the child with the highest value.
+     */
+    int bestUcbChild(int id, double ucb1_coef) {
+        Chunk pc = chunk(id);
+        int po = id&CHUNK_MASK;
+        int first = pc.first_child[po];
+        int count = pc.child_count[po];
+        boolean opponent = pc.children_type[po]==GHOSTS_CHILDREN;
+        double player_loss = opponent? -1: 0;
+        int parent_visits = pc.visit_count[po]+pc.virtual_loss[po];
+
+        Chunk c = chunk(first);
+        int best = NONE;
+        double best_val = Double.NEGATIVE_INFINITY;
+        for (int o=first&CHUNK_MASK, end=o+count; o<end; o++) {
+            double player_value = opponent? -c.value[o]: c.value[o];
+            int visits = c.visit_count[o];
+            int pending = c.virtual_loss[o];
+            double curr_val;
+            if (pending==0) {
+                curr_val = Utils.UCB1(player_value, parent_visits, visits, ucb1_coef);
+            } else {
+                curr_val = Utils.UCB1((player_value*visits+player_loss*pending)/(visits+pending), parent_visits, visits+pending, ucb1_coef);
+            }
+
+            if (curr_val>best_val) {
+                best_val = curr_val;
+                best = first+o-(first&CHUNK_MASK);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return Id of the most visited child, NONE if the node is not expanded.
+     */
+    int mostVisitedChild(int id) {
+        int first = firstChild(id);
+        int best = NONE;
+        for (int child=first; child<first+childCount(id); child++) {
+            if (best==NONE||visitCount(child)>visitCount(best)) {
+                best = child;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return Id of the child reached by the move, NONE if not found.
+     */
+    int findChild(int id, int move) {
+        int first = firstChild(id);
+        for (int child=first; child<first+childCount(id); child++) {
+            if (move(child)==move) {
+                return child;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * @return Number of allocated node slots.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return Number of nodes of the tree, the slots skipped or released are not counted.
+     */
+    public synchronized int nodes() {
+        return size-skipped-released;
+    }
+}
@@ -28,35 +28,13 @@ public class PacmanNode extends MCNode {
 
     protected PacmanNode(MCTree tree, MCNode parent, Game parent_game, MOVE pacman_move, EnumMap<GHOST, MOVE[]> possible_ghosts_moves,
                          Game game, int pacman_decision_gap, long totalTicks) {
-        this(tree, parent, parent_game.copy(), pacman_move, 0, pacman_decision_gap, totalTicks);
+        this(tree, parent, parent_game /* never changed, shared with the parent */, pacman_move, 0, pacman_decision_gap, totalTicks);
         this.halfstep = true;
         decision_cause = DecisionCause.CROSSROAD_REACHED;
-        ghosts_children = new HashMap<EnumMap<GHOST, MOVE>, GhostsNode>();
-        MOVE[] blinky_moves = possible_ghosts_moves.get(Constants.GHOST.BLINKY);
-        MOVE[] pinky_moves = possible_ghosts_moves.get(Constants.GHOST.PINKY);
-        MOVE[] inky_moves = possible_ghosts_moves.get(Constants.GHOST.INKY);
-        MOVE[] sue_moves = possible_ghosts_moves.get(Constants.GHOST.SUE);
-        EnumMap<GHOST, MOVE> ghosts_moves = new EnumMap<GHOST, MOVE>(GHOST.class);
-        for (Constants.MOVE blinky_move: blinky_moves) {
-            ghosts_moves.put(GHOST.BLINKY, blinky_move);
-            for (Constants.MOVE inky_move: inky_moves) {
-                ghosts_moves.put(GHOST.INKY, inky_move);
-                for (Constants.MOVE pinky_move: pinky_moves) {
-                    ghosts_moves.put(GHOST.PINKY, pinky_move);
-                    for (Constants.MOVE sue_move: sue_moves) {
-                        ghosts_moves.put(GHOST.SUE, sue_move);
-                        EnumMap<GHOST, MOVE> ground_ghosts_moves = ghosts_moves.clone();
-                        Utils.decisionMoves(ground_ghosts_moves, game);
-                        Game child_game = parent_game.copy();
-                        child_game.advanceGameWithPowerPillReverseOnly(pacman_move, ground_ghosts_moves.clone());
-                        Decision decision = Decision.nextDecision(child_game, pacman_decision_gap);
-                        decision.ticks++;
-                        ghosts_children.put(ground_ghosts_moves,
-                                GhostsNode.createUnvisitedNode(tree, this, ground_ghosts_moves,decision.game,
-                                                               decision.ticks, decision.pacman_decision_gap, totalTicks+decision.ticks));
-                    }
-                }
-            }
+        ghosts_children = new GhostsChildren(possible_ghosts_moves, game);
+        for (int i=0; i<ghosts_children.size(); i++) {
+            /* the game of the child is set when it is expanded first, see MCNode.materialize() */
+            ghosts_children.setChild(i, GhostsNode.createUnvisitedNode(tree, this, ghosts_children.code(i), pacman_decision_gap, totalTicks));
         }
     }
 
@@ -69,17 +47,17 @@ public class PacmanNode extends MCNode {
     }
 
     static PacmanNode createRoot(MCTree tree, Game game) {
-        Decision decision = Decision.nextDecision(game, 0);
+        Decision decision = Decision.nextDecision(game.copy(), 0, true);
         PacmanNode root = new PacmanNode(tree, null, decision.game, null, decision.ticks, decision.pacman_decision_gap, 0);
-        root.visit_count = 1;
-        root.calculated_visit_count = 1;
+        root.initRoot();
         root.expand();
         return root;
     }
 
     /**
      * Joint node means that the node has children with moves played simultaneously in game (but move in the node
-     * is played first (before children turns) for selection purposes. The node is immediately expanded
+     * is played first (before children turns) for selection purposes. The node is immediately expanded, its
+     * children get their games when they are expanded first.
      * @param pacmans_moves Moves for node's children.
      * @param game For purposes of decisionMoves only.
      */
@@ -111,14 +89,23 @@ public class PacmanNode extends MCNode {
 
     @Override
     protected void advanceGame(Game game) {
-        EnumMap<GHOST, MOVE> ghosts_moves = Utils.ghostsFollowRoads(game);
-        game.advanceGameWithPowerPillReverseOnly(pacman_move, ghosts_moves/*.clone() not necessary*/);
+        game.advanceGameWithPowerPillReverseOnly(pacman_move.ordinal(), Utils.ghostsFollowRoadsCode(game));
+    }
+
+    @Override
+    protected void advanceJointGame(Game game) {
+        game.advanceGameWithPowerPillReverseOnly(pacman_move.ordinal(), ((GhostsNode)parent).ghosts_moves);
     }
 
     @Override
     public double ucbValue() {
         assert !isRoot();
 
-        return Utils.UCB1(this.value(), parent.visit_count, this.visit_count, tree.ucb1_coef);
+        return ucbValue(this.sharedValue(), 0);
+    }
+
+    @Override
+    int moveCode() {
+        return pacman_move.ordinal();
     }
 }
@@ -2,6 +2,7 @@ package mcts;
 
 import java.io.IOException;
 import java.util.EnumMap;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import mcts.Utils;
@@ -16,21 +17,30 @@ public class PacmanTree extends MCTree<MOVE> {
         root = GhostsNode.createRoot(this, game);
     }
 
+    /**
+     * @param store Storage of node values and links, null to keep them in the node objects.
+     */
+    public PacmanTree(Game game, Selector selector, GuidedSimulator simulator, Backpropagator backpropagator, double ucb1_coef, NodeStore store) {
+        super(game, selector, simulator, backpropagator, ucb1_coef, store);
+        root = GhostsNode.createRoot(this, game);
+    }
+
 
 
     @Override
-    public MOVE bestMove(Game currentGame) {
+    public MOVE bestMove(Game currentGame, List<MCNode> counterparts) {
         MCNode node = root;
 
         /* skip ghosts decisions */
         while (node!=null&&node.ghostsOnTurn()&&node.ticksToGo==0) {
-            node = node.bestMove();
+            node = node.bestMove(counterparts);
+            counterparts = MCNode.counterpartChildren(counterparts, node);
         }
 
         if (node==null) {
             return MOVE.NEUTRAL;
         } else if (node.ghostsOnTurn()&&node.ticksToGo==0) {
-            return ((PacmanNode)node.bestMove()).pacmanMove();
+            return ((PacmanNode)node.bestMove(counterparts)).pacmanMove();
         } else {
             return Utils.pacmanFollowRoad(currentGame);
         }
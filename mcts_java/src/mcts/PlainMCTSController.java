@@ -1,10 +1,21 @@
 package mcts;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import pacman.controllers.Controller;
+import pacman.game.Constants.GHOST;
+import pacman.game.Constants.MOVE;
 import pacman.game.Game;
+import utils.DaemonThreadFactory;
 import utils.VerboseLevel;
 
 public abstract class PlainMCTSController<T extends MCTree<M>, M>
@@ -24,6 +35,19 @@ public abstract class PlainMCTSController<T extends MCTree<M>, M>
     protected long totalTimeMillis = 0;
     protected long decisions = 0;
     protected boolean optimisticTurns = true;
+    protected int searchThreads = Constants.DEFAULT_SEARCH_THREADS;
+    protected int virtualLoss = Constants.DEFAULT_VIRTUAL_LOSS;
+    private TreeParallelSearch treeParallelSearch = null;
+    protected int rootParallelTrees = Constants.DEFAULT_ROOT_PARALLEL_TREES;
+    protected int rolloutBatch = Constants.DEFAULT_ROLLOUT_BATCH;
+    protected List<T> helperTrees = new ArrayList<T>();
+    private ForkJoinPool rootParallelPool = null;
+    private ExecutorService leafParallelPool = null; /* shared by the simulators of all the trees */
+    private long[] rootParallelSimulations = new long[0];
+    protected boolean nodeStore = false;
+    protected int transpositionTableSize = 0;
+    private TranspositionTable transpositionTable = null;
+    private List<TranspositionTable> helperTranspositionTables = new ArrayList<TranspositionTable>();
 
     private VerboseLevel verboseLevel = VerboseLevel.QUIET;
     private double ucbCoef = 0.3;
@@ -94,11 +118,254 @@ public abstract class PlainMCTSController<T extends MCTree<M>, M>
         guidedSimulator.setRandomMoveProb(randomSimulationMoveProbability);
     }
 
+    /**
+     * @return the number of threads iterating the tree
+     */
+    public int getSearchThreads() {
+        return searchThreads;
+    }
+
+    /**
+     * @param searchThreads the number of threads iterating the tree (tree-parallel search if more than 1)
+     */
+    public void setSearchThreads(int searchThreads) {
+        this.searchThreads = searchThreads;
+    }
+
+    /**
+     * @return the virtualLoss
+     */
+    public int getVirtualLoss() {
+        return virtualLoss;
+    }
+
+    /**
+     * @param virtualLoss the number of losses temporarily added to the selected path in tree-parallel search
+     */
+    public void setVirtualLoss(int virtualLoss) {
+        this.virtualLoss = virtualLoss;
+    }
+
+    /**
+     * @return the number of simulations run from a selected leaf at once
+     */
+    public int getLeafParallelBatch() {
+        return guidedSimulator.getBatchSize();
+    }
+
+    /**
+     * @param leafParallelBatch the number of simulations run from a selected leaf at once on worker threads
+     * (leaf-parallel simulation if more than 1)
+     */
+    public void setLeafParallelBatch(int leafParallelBatch) {
+        guidedSimulator.setBatchSize(leafParallelBatch);
+        if (leafParallelPool!=null) {
+            leafParallelPool.shutdown();
+            leafParallelPool = null;
+        }
+        if (leafParallelBatch>1) {
+            /* the searching thread runs one simulation of its batch itself */
+            leafParallelPool = Executors.newFixedThreadPool(leafParallelBatch-1, new DaemonThreadFactory("leaf-parallel-rollouts"));
+        }
+        guidedSimulator.setBatchExecutor(leafParallelPool);
+    }
+
+    /**
+     * @return the number of leaves selected and simulated together by a single search thread
+     */
+    public int getRolloutBatch() {
+        return rolloutBatch;
+    }
+
+    /**
+     * Batched simulation: a single search thread selects several leaves and runs their simulations
+     * in lockstep (see MCTree.iterateBatch()). Not used by tree- and root-parallel search.
+     * @param rolloutBatch the number of leaves simulated together (batched simulation if more than 1)
+     */
+    public void setRolloutBatch(int rolloutBatch) {
+        this.rolloutBatch = rolloutBatch;
+    }
+
+    /**
+     * @return the number of independently searched trees
+     */
+    public int getRootParallelTrees() {
+        return rootParallelTrees;
+    }
+
+    /**
+     * Root-parallel search: every tree is searched by its own thread using its own simulator,
+     * visit counts of the root children are summed when the move is chosen. Takes precedence
+     * over tree-parallel search (every tree is searched by a single thread).
+     * @param rootParallelTrees the number of independently searched trees (root-parallel search if more than 1)
+     */
+    public void setRootParallelTrees(int rootParallelTrees) {
+        this.rootParallelTrees = rootParallelTrees;
+    }
+
+    /**
+     * @return true if values and links of the tree nodes are kept in a NodeStore
+     */
+    public boolean getNodeStore() {
+        return nodeStore;
+    }
+
+    /**
+     * @param nodeStore true to keep values and links of the tree nodes in a NodeStore (primitive arrays)
+     * instead of the node objects, applied to trees created afterwards
+     */
+    public void setNodeStore(boolean nodeStore) {
+        this.nodeStore = nodeStore;
+    }
+
+    /**
+     * @return Storage for a new tree, null if the nodes keep their values themselves.
+     */
+    protected NodeStore createNodeStore() {
+        return nodeStore? new NodeStore(): null;
+    }
+
+    /**
+     * @return the capacity of the transposition table, 0 if not used
+     */
+    public int getTranspositionTableSize() {
+        return transpositionTableSize;
+    }
+
+    /**
+     * @param transpositionTableSize the capacity of the transposition table shared by nodes in the same state
+     * (0 to disable), applied to trees created afterwards
+     */
+    public void setTranspositionTableSize(int transpositionTableSize) {
+        this.transpositionTableSize = transpositionTableSize;
+        this.transpositionTable = null;
+        this.helperTranspositionTables.clear();
+    }
+
+    /**
+     * @return the transposition table of the MC-tree, null if not used
+     */
+    public TranspositionTable getTranspositionTable() {
+        return transpositionTable;
+    }
+
+    private TreeParallelSearch treeParallelSearch() {
+        if (treeParallelSearch==null||treeParallelSearch.getThreads()!=searchThreads
+                ||treeParallelSearch.getVirtualLoss()!=virtualLoss) {
+            if (treeParallelSearch!=null) {
+                treeParallelSearch.shutdown();
+            }
+            treeParallelSearch = new TreeParallelSearch(searchThreads, virtualLoss, guidedSimulator, ucbSelector, random);
+        }
+        return treeParallelSearch;
+    }
+
     public T mcTree() {
         return mctree;
     }
 
     protected abstract void updateTree(Game timeDue);
+    protected abstract T createTree(Game game, Selector selector, GuidedSimulator simulator);
+
+    /**
+     * (Re)initializes MC-tree (and helper trees of root-parallel search).
+     */
+    protected void initializeTrees(Game game) {
+        mctree = createTree(game, ucbSelector, guidedSimulator);
+        if (transpositionTableSize>0) {
+            /* states stay equivalent, so the table survives reinitialization */
+            if (transpositionTable==null) {
+                transpositionTable = new TranspositionTable(transpositionTableSize);
+            }
+            mctree.setTranspositionTable(transpositionTable);
+        }
+        helperTrees.clear();
+        for (int i=1; i<rootParallelTrees; i++) {
+            GuidedSimulator simulator = guidedSimulator.copy(new Random(random.nextLong()));
+            T tree = createTree(game, ucbSelector.copy(simulator), simulator);
+            if (transpositionTableSize>0) {
+                /* one table per helper slot, kept as the one of the MC-tree */
+                if (helperTranspositionTables.size()<i) {
+                    helperTranspositionTables.add(new TranspositionTable(transpositionTableSize));
+                }
+                tree.setTranspositionTable(helperTranspositionTables.get(i-1));
+            }
+            helperTrees.add(tree);
+        }
+    }
+
+    /**
+     * Advances MC-tree (and helper trees of root-parallel search).
+     */
+    protected void advanceTrees(MOVE last_pacman_move, EnumMap<GHOST, MOVE> last_ghosts_moves) {
+        mctree.advanceTree(last_pacman_move, last_ghosts_moves);
+        for (T tree: helperTrees) {
+            tree.advanceTree(last_pacman_move, last_ghosts_moves);
+        }
+    }
+
+    private List<MCNode> helperRoots() {
+        List<MCNode> roots = new ArrayList<MCNode>(helperTrees.size());
+        for (T tree: helperTrees) {
+            roots.add(tree.root());
+        }
+        return roots;
+    }
+
+    /**
+     * Searches MC-tree and all the helper trees in parallel until timeDue.
+     * @return Number of simulations of all trees.
+     */
+    private int rootParallelSearch(final long timeDue) {
+        if (rootParallelPool==null||rootParallelPool.getParallelism()!=helperTrees.size()+1) {
+            if (rootParallelPool!=null) {
+                rootParallelPool.shutdown();
+            }
+            rootParallelPool = new ForkJoinPool(helperTrees.size()+1);
+        }
+        if (rootParallelSimulations.length!=helperTrees.size()+1) {
+            rootParallelSimulations = new long[helperTrees.size()+1];
+        }
+
+        List<Callable<Integer>> searches = new ArrayList<Callable<Integer>>(helperTrees.size()+1);
+        List<T> trees = new ArrayList<T>(helperTrees.size()+1);
+        trees.add(mctree);
+        trees.addAll(helperTrees);
+        for (final T tree: trees) {
+            searches.add(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    int iterations = 0;
+                    do {
+                        if (!Double.isNaN(tree.iterate())) {
+                            iterations += tree.simulationsPerIteration();
+                        }
+                    } while ((System.currentTimeMillis()+Constants.MILLIS_TO_FINISH)<timeDue);
+                    return iterations;
+                }
+            });
+        }
+
+        int iterationCount = 0;
+        try {
+            List<Future<Integer>> results = rootParallelPool.invokeAll(searches);
+            for (int i=0; i<results.size(); i++) {
+                int iterations = results.get(i).get();
+                rootParallelSimulations[i] += iterations;
+                iterationCount += iterations;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)ex.getCause();
+            } else if (ex.getCause() instanceof Error) {
+                throw (Error)ex.getCause();
+            }
+            throw new RuntimeException(ex.getCause());
+        }
+        return iterationCount;
+    }
     protected abstract M cloneMove(M move);
 
     @Override
@@ -117,14 +384,24 @@ public abstract class PlainMCTSController<T extends MCTree<M>, M>
         updateTree(game);
 
         /* do the iteration until time/iterations limit reached */
-        do {
-            if (!Double.isNaN(mcTree().iterate())) {
-                iterationCount++;
-            }
-        } while ((System.currentTimeMillis()+Constants.MILLIS_TO_FINISH)<timeDue);
+        if (!helperTrees.isEmpty()) {
+            iterationCount = rootParallelSearch(timeDue);
+        } else if (searchThreads>1) {
+            iterationCount = treeParallelSearch().run(mcTree(), timeDue);
+        } else if (rolloutBatch>1) {
+            do {
+                iterationCount += mcTree().iterateBatch(ucbSelector, guidedSimulator, rolloutBatch, virtualLoss);
+            } while ((System.currentTimeMillis()+Constants.MILLIS_TO_FINISH)<timeDue);
+        } else {
+            do {
+                if (!Double.isNaN(mcTree().iterate())) {
+                    iterationCount += mcTree().simulationsPerIteration();
+                }
+            } while ((System.currentTimeMillis()+Constants.MILLIS_TO_FINISH)<timeDue);
+        }
 
         /* choose pacman's next move */
-        M move = mctree.bestMove(game);
+        M move = helperTrees.isEmpty()? mctree.bestMove(game): mctree.bestMove(game, helperRoots());
 
         /* update pacman's decision gap */
         if (mcTree().root().ticksToGo()==0) {
@@ -146,6 +423,11 @@ public abstract class PlainMCTSController<T extends MCTree<M>, M>
             System.out.printf("MOVE INFO [node_index=%d[%d;%d],gap=%d]: iterations: %d, computation time: %.3f s, move: %s, tree size: %d\n",
                     pacman_pos, game.getNodeXCood(pacman_pos), game.getNodeYCood(pacman_pos),
                     pacmanDecisionGap, iterationCount, computationTime, move, mcTree().size());
+            System.out.printf("TREE INFO: nodes created: %d, with received statistics: %d, heap saved: %.0f B/node\n",
+                    mcTree().nodesCreated(), mcTree().receivedNodes(), mcTree().receivedHeapSavedPerNode());
+            if (!helperTrees.isEmpty()) {
+                System.out.printf("ROOT-PARALLEL INFO: simulations per tree: %s\n", Arrays.toString(workerSimulations()));
+            }
 
             /* print MC-tree if pacman (or ghosts) has to choose a move */
             if (mcTree().root().ticksToGo()==0) {
@@ -171,8 +453,34 @@ public abstract class PlainMCTSController<T extends MCTree<M>, M>
     @Override public long totalSimulations() { return totalSimulations; }
     @Override public double simulationsPerSecond() { return totalSimulations/(0.001*totalTimeMillis); }
 
+    @Override
+    public long[] workerSimulations() {
+        if (rootParallelSimulations.length>0) {
+            return rootParallelSimulations.clone();
+        } else if (treeParallelSearch!=null) {
+            return treeParallelSearch.workerIterations();
+        } else {
+            return new long[] {totalSimulations};
+        }
+    }
+
 
     @Override public double averageDecisionSimulations() {
         return totalSimulations/(double)decisions;
     }
+
+    /**
+     * Shuts down the worker threads of the parallel searches, the controller is not to be used afterwards.
+     */
+    public void close() {
+        if (leafParallelPool!=null) {
+            leafParallelPool.shutdownNow();
+        }
+        if (rootParallelPool!=null) {
+            rootParallelPool.shutdownNow();
+        }
+        if (treeParallelSearch!=null) {
+            treeParallelSearch.shutdown();
+        }
+    }
 }
@@ -5,4 +5,6 @@ public interface SimulationsStat extends SimulationsCounter {
     public double millisPerMove();
     @Override public long totalSimulations();
     public double simulationsPerSecond();
+    /** Simulations calculated by each worker (search thread, root-parallel tree or agent) */
+    public long[] workerSimulations();
 }
@@ -0,0 +1,149 @@
+package mcts;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import pacman.game.Game;
+
+/**
+ * Transposition table of an MC-tree. Nodes reaching the same game state share an Entry:
+ * its statistics are updated by all of them and used for their UCB values, and the Decision
+ * (the advanced game) computed for the state is reused instead of copying and advancing the
+ * game again. Entries are found by the transition (state of the parent and the move) or by
+ * the resulting state, both maps are bounded and evict the least recently used entries.
+ *
+ * Used only by trees keeping the values in the node objects (not by NodeStore).
+ */
+public class TranspositionTable {
+    public static class Entry {
+        final long state_hash;
+        final long game_hash;
+        final Decision decision;
+        private int visit_count = 0;
+        private double value = 0;
+
+        Entry(long state_hash, long game_hash, Decision decision) {
+            this.state_hash = state_hash;
+            this.game_hash = game_hash;
+            this.decision = decision;
+        }
+
+        synchronized void update(double reward, int count) {
+            if (visit_count+count>0) {
+                value = Utils.addToAvg(value, visit_count, reward, count);
+            }
+            visit_count += count;
+        }
+
+        public synchronized int visitCount() {
+            return visit_count;
+        }
+
+        public synchronized double value() {
+            return value;
+        }
+    }
+
+    private final int capacity;
+    private final Map<Long, Entry> states;
+    private final Map<Long, Entry> transitions;
+    private long lookups = 0;
+    private long transition_hits = 0;
+    private long state_hits = 0;
+
+    /**
+     * @param capacity Maximal number of states (and of transitions) kept.
+     */
+    public TranspositionTable(final int capacity) {
+        assert capacity>0;
+        this.capacity = capacity;
+        this.states = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size()>capacity;
+            }
+        };
+        this.transitions = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size()>capacity;
+            }
+        };
+    }
+
+    /**
+     * @return Entry of the state reached by the transition, null if the transition is not known.
+     */
+    synchronized Entry lookup(long transition) {
+        lookups++;
+        Entry entry = transitions.get(transition);
+        if (entry!=null) {
+            transition_hits++;
+            states.get(entry.state_hash); /* refresh */
+        }
+        return entry;
+    }
+
+    /**
+     * Adds the transition leading to the decision (the state reached by another transition is shared).
+     * @return Entry of the reached state.
+     */
+    synchronized Entry insert(long transition, long game_hash, Decision decision) {
+        long state_hash = stateHash(game_hash, decision.pacman_decision_gap);
+        Entry entry = states.get(state_hash);
+        if (entry==null) {
+            entry = new Entry(state_hash, game_hash, decision);
+            states.put(state_hash, entry);
+        } else {
+            state_hits++;
+        }
+        transitions.put(transition, entry);
+        return entry;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int size() {
+        return states.size();
+    }
+
+    /**
+     * @return Ratio of the expansions which found a known transition or state.
+     */
+    public synchronized double hitRate() {
+        return lookups==0? 0: (transition_hits+state_hits)/(double)lookups;
+    }
+
+    /**
+     * @return Ratio of the expansions which reused a known decision (transition).
+     */
+    public synchronized double transitionHitRate() {
+        return lookups==0? 0: transition_hits/(double)lookups;
+    }
+
+    public synchronized double occupancy() {
+        return states.size()/(double)capacity;
+    }
+
+    static long mix(long hash, long value) {
+        hash ^= value;
+        hash *= 0x9E3779B97F4A7C15L;
+        return hash^(hash>>>29);
+    }
+
+    static long stateHash(long game_hash, int pacman_decision_gap) {
+        return mix(game_hash, pacman_decision_gap);
+    }
+
+    static long transitionKey(long game_hash, boolean pacman_move, int move, int pacman_decision_gap) {
+        return mix(mix(mix(game_hash, pacman_move? 1: 2), move), pacman_decision_gap);
+    }
+
+    /**
+     * @return 64-bit hash of everything in the game state the following play depends on.
+     */
+    static long gameHash(Game game) {
+        return game.stateHash();
+    }
+}
@@ -0,0 +1,129 @@
+package mcts;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import utils.DaemonThreadFactory;
+
+/**
+ * Tree-parallel search: several threads iterate one shared MC-tree.
+ * Nodes are locked one at a time during selection, expansion and backpropagation,
+ * so threads only contend on the nodes they visit at the same moment. Virtual loss
+ * added on the selected path keeps threads from descending into the same branch.
+ *
+ * The calling thread works as the first worker using the simulator and the selector
+ * of the controller, every other worker has its own copies with an own random generator.
+ */
+public class TreeParallelSearch {
+    private final int threads;
+    private final int virtualLoss;
+    private final GuidedSimulator simulator;
+    private final UCBSelector selector;
+    private final Random[] randoms;
+    private final ExecutorService executor;
+    private final long[] workerIterations;
+
+    private static class Worker implements Callable<Integer> {
+        private final MCTree<?> tree;
+        private final Selector selector;
+        private final GuidedSimulator simulator;
+        private final int virtualLoss;
+        private final long timeDue;
+
+        Worker(MCTree<?> tree, Selector selector, GuidedSimulator simulator, int virtualLoss, long timeDue) {
+            this.tree = tree;
+            this.selector = selector;
+            this.simulator = simulator;
+            this.virtualLoss = virtualLoss;
+            this.timeDue = timeDue;
+        }
+
+        @Override
+        public Integer call() {
+            int iterations = 0;
+            do {
+                if (!Double.isNaN(tree.iterateConcurrently(selector, simulator, virtualLoss))) {
+                    iterations += simulator.getBatchSize();
+                }
+            } while ((System.currentTimeMillis()+Constants.MILLIS_TO_FINISH)<timeDue);
+            return iterations;
+        }
+    }
+
+    /**
+     * @param simulator Simulator of the controller, its settings are copied to the workers before each search.
+     * @param selector Selector of the controller.
+     * @param random Generator used to seed the generators of the workers.
+     */
+    public TreeParallelSearch(int threads, int virtualLoss, GuidedSimulator simulator, UCBSelector selector, Random random) {
+        assert threads>1;
+        this.threads = threads;
+        this.virtualLoss = virtualLoss;
+        this.simulator = simulator;
+        this.selector = selector;
+        this.randoms = new Random[threads];
+        for (int i=1; i<threads; i++) {
+            randoms[i] = new Random(random.nextLong());
+        }
+        this.workerIterations = new long[threads];
+        this.executor = Executors.newFixedThreadPool(threads-1, new DaemonThreadFactory("tree-parallel-search"));
+    }
+
+    /**
+     * Iterates the tree by all threads until timeDue.
+     * @return Number of simulations of finished (non-terminal) iterations of all threads.
+     */
+    public int run(MCTree<?> tree, long timeDue) {
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>(threads-1);
+        for (int i=1; i<threads; i++) {
+            GuidedSimulator workerSimulator = simulator.copy(randoms[i]);
+            futures.add(executor.submit(new Worker(tree, selector.copy(workerSimulator), workerSimulator, virtualLoss, timeDue)));
+        }
+
+        int iterations = new Worker(tree, selector, simulator, virtualLoss, timeDue).call();
+        workerIterations[0] += iterations;
+
+        try {
+            for (int i=1; i<threads; i++) {
+                int workerIteration = futures.get(i-1).get();
+                workerIterations[i] += workerIteration;
+                iterations += workerIteration;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)ex.getCause();
+            } else if (ex.getCause() instanceof Error) {
+                throw (Error)ex.getCause();
+            }
+            throw new RuntimeException(ex.getCause());
+        }
+
+        return iterations;
+    }
+
+    /**
+     * @return Iterations finished by each thread during all searches
+     */
+    public long[] workerIterations() {
+        return workerIterations.clone();
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getVirtualLoss() {
+        return virtualLoss;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
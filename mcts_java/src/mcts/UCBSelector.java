@@ -19,11 +19,25 @@ public class UCBSelector implements Selector {
         this.trial_threshold = trial_threshold;
     }
 
+    /**
+     * @return Selector with the same threshold using another simulator (e.g. of another thread)
+     */
+    public UCBSelector copy(GuidedSimulator simulator) {
+        return new UCBSelector(simulator, trial_threshold);
+    }
+
     private Pair<MCNode,Action> best(MCNode node) {
         double best_val = Double.NEGATIVE_INFINITY;
         MCNode best = null;
 
-        if (node.pacmanOnTurn()) {
+        if (node.id!=NodeStore.NONE) {
+            best = node.storedChild(node.tree.store.bestUcbChild(node.id, node.tree.ucb1_coef));
+            if (best.isPacmanNode()) {
+                return new Pair<MCNode,Action>(best, new PacmanAction(((PacmanNode)best).pacman_move));
+            } else {
+                return new Pair<MCNode,Action>(best, new GhostAction(((GhostsNode)best).ghostsMoves()));
+            }
+        } else if (node.pacmanOnTurn()) {
             MOVE best_move = MOVE.NEUTRAL;
             for (MOVE move: node.pacman_children.keySet()) {
                 MCNode child = node.pacman_children.get(move);
@@ -37,18 +51,15 @@ public class UCBSelector implements Selector {
             }
             return new Pair<MCNode,Action>(best, new PacmanAction(best_move));
         } else {
-            EnumMap<GHOST,MOVE> best_move = Utils.NEUTRAL_GHOSTS_MOVES;
-            for (EnumMap<GHOST,MOVE> move: node.ghosts_children.keySet()) {
-                MCNode child = node.ghosts_children.get(move);
+            for (GhostsNode child: node.ghosts_children) {
                 double curr_val = child.ucbValue();
 
                 if (curr_val>best_val) {
                     best_val = curr_val;
                     best = child;
-                    best_move = move;
                 }
             }
-            return new Pair<MCNode,Action>(best, new GhostAction(best_move));
+            return new Pair<MCNode,Action>(best, new GhostAction(((GhostsNode)best).ghostsMoves()));
         }
     }
 
@@ -20,6 +20,15 @@ public class Utils {
         }
     }
 
+    /* single-move arrays by move ordinal, returned instead of allocating a new array */
+    private final static MOVE[][] SINGLE_MOVES = new MOVE[MOVE.values().length][];
+
+    static {
+        for (MOVE move: MOVE.values()) {
+            SINGLE_MOVES[move.ordinal()] = new MOVE[]{move};
+        }
+    }
+
     private Utils() {}
 
     public static double UCB1(double v_i, double n_p, double n_i, double coef) {
@@ -69,13 +78,13 @@ public class Utils {
 
         if (game.wasPowerPillEaten()) {
             if (last_move==MOVE.NEUTRAL) {
-                return new MOVE[]{MOVE.NEUTRAL};
+                return SINGLE_MOVES[MOVE.NEUTRAL.ordinal()];
             } else {
-                return new MOVE[]{last_move.opposite()};
+                return SINGLE_MOVES[last_move.opposite().ordinal()];
             }
         } else {
             MOVE[] possible_moves = game.getPossibleMoves(pos, last_move);
-            return possible_moves.length>0? possible_moves: new MOVE[]{MOVE.NEUTRAL};
+            return possible_moves.length>0? possible_moves: SINGLE_MOVES[MOVE.NEUTRAL.ordinal()];
         }
     }
 
@@ -178,8 +187,21 @@ public class Utils {
         return ghosts_moves;
     }
 
+    /**
+     * @return ghostsFollowRoads() packed by GhostsMovesCodec.
+     */
+    public static int ghostsFollowRoadsCode(Game game) {
+        int code = GhostsMovesCodec.NEUTRAL;
+        for (GHOST ghost: GHOST.values()) {
+            MOVE[] ghost_moves = getGhostsPossibleMoves(game, ghost);
+            assert ghost_moves.length==1;
+            code = GhostsMovesCodec.withMove(code, ghost, ghost_moves[0]);
+        }
+        return code;
+    }
+
     public static void followRoads(Game game) {
-        game.advanceGameWithPowerPillReverseOnly(pacmanFollowRoad(game), ghostsFollowRoads(game).clone());
+        game.advanceGameWithPowerPillReverseOnly(pacmanFollowRoad(game).ordinal(), ghostsFollowRoadsCode(game));
     }
 
     public static MOVE randomPacmanMove(Game game, Random random) {
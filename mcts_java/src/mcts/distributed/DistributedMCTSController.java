@@ -15,6 +15,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import mcts.Constants;
 import mcts.MCTSController;
+import mcts.MCTree;
 import mcts.SimulationsStat;
 import mcts.TreeSimulationsStat;
 import mcts.Utils;
@@ -67,8 +68,22 @@ public class DistributedMCTSController
         return this;
     }
 
+    public GhostAgent getAgent(GHOST ghost) {
+        return agents.get(ghost);
+    }
+
+    public long getChannelBufferSize() {
+        return channelBufferSize;
+    }
+
     public long currentMillis() { return totalTimeMillis+(startTime>=endTime? (System.currentTimeMillis()-startTime): 0); }
-    @Override public long currentVirtualMillis() { return currentMillis()/(multithreaded? 1: 4); }
+    @Override public long currentVirtualMillis() { return virtualMillis(currentMillis()); }
+
+    /**
+     * @return Virtual time of the given real time, a quarter of it outside the multithreaded
+     * mode as the four agents take turns on one thread.
+     */
+    public long virtualMillis(long millis) { return millis/(multithreaded? 1: 4); }
 
     @Override
     public EnumMap<GHOST, MOVE> getMove(Game game, long timeDue) {
@@ -128,6 +143,11 @@ public class DistributedMCTSController
             double computationTime = (System.currentTimeMillis()-startTime)/1000.0;
             System.out.printf("MOVE INFO [node_index=%d]: computation time: %.3f s, simulations: %s, move (no.%s): %s\n",
                     game.getPacmanCurrentNodeIndex(), computationTime, totalSimulationsCount, moveNumber, moves);
+            for (GHOST ghost: GHOST.values()) {
+                MCTree<?> tree = agents.get(ghost).getTree();
+                System.out.printf("TREE INFO [%s]: nodes created: %d, with received statistics: %d, heap saved: %.0f B/node\n",
+                        ghost, tree.nodesCreated(), tree.receivedNodes(), tree.receivedHeapSavedPerNode());
+            }
         }
 
         endTime = System.currentTimeMillis();
@@ -185,6 +205,16 @@ public class DistributedMCTSController
         return calculatedSimulations()/(0.001*totalTimeMillis());
     }
 
+    @Override
+    public long[] workerSimulations() {
+        long[] simulations = new long[agents.size()];
+        int i = 0;
+        for (GhostAgent agent: agents.values()) {
+            simulations[i++] = agent.calculatedSimulations();
+        }
+        return simulations;
+    }
+
     public double totalSimulationsPerSecond() {
         return totalSimulations()/(0.001*totalTimeMillis());
     }
@@ -0,0 +1,161 @@
+package mcts.distributed;
+
+import communication.LoopbackChannel;
+import communication.LoopbackNetwork;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.EnumMap;
+import mcts.Constants;
+import mcts.distributed.agents.GhostAgent;
+import pacman.game.Constants.GHOST;
+import pacman.game.Constants.MOVE;
+import pacman.game.Game;
+
+/**
+ * Runs a single agent of a distributed controller in a process of its own, the counterpart of
+ * ProcessGhostsController. The controller is built as usual (with all four agents, so that the
+ * agent knows its allies), but only the agent of the given ghost runs and it talks to its
+ * allies over LoopbackChannels.
+ *
+ * Protocol of the control connection (java.io.Data* encoding):
+ * agent: ghost name, port of its LoopbackNetwork;
+ * controller: ports of all the agents (in GHOST order);
+ * controller, every tick: tick number, game class, game state, time due;
+ * agent, every tick: move, full move (ordinals, -1 if none), then cumulative statistics
+ * (calculated and total simulations, bytes written and read, messages sent and received,
+ * encoding and decoding nanoseconds, GC count and GC milliseconds).
+ * The agent exits when the controller closes the connection.
+ */
+public class GhostAgentProcess {
+    private final DistributedMCTSController controller;
+    private final GhostAgent agent;
+    private final int controlPort;
+    private LoopbackNetwork network;
+    private Game game = null;
+
+    public GhostAgentProcess(DistributedMCTSController controller, GHOST ghost, int controlPort) {
+        this.controller = controller;
+        this.agent = controller.getAgent(ghost);
+        this.controlPort = controlPort;
+    }
+
+    private void connectAllies(DataInputStream in) throws IOException {
+        int ports[] = new int[GHOST.values().length];
+        for (int i=0; i<ports.length; i++) {
+            ports[i] = in.readInt();
+        }
+
+        /* agents connect to the ones after them and accept the ones before */
+        for (GHOST ally: GHOST.values()) {
+            if (ally.ordinal()>agent.ghost().ordinal()) {
+                network.connect(ally.name(), ports[ally.ordinal()]);
+            }
+        }
+        for (int i=0; i<agent.ghost().ordinal(); i++) {
+            network.accept();
+        }
+
+        for (GHOST ally: GHOST.values()) {
+            if (ally==agent.ghost()) continue;
+            LoopbackChannel channel = network.getChannels().get(ally.name());
+            agent.connectAlly(controller.getAgent(ally), channel, channel);
+        }
+    }
+
+    private Game readGame(DataInputStream in) throws IOException {
+        String gameClass = in.readUTF();
+        byte[] state = new byte[in.readInt()];
+        in.readFully(state);
+
+        if (game==null||!game.getClass().getName().equals(gameClass)) {
+            try {
+                game = (Game)Class.forName(gameClass).getConstructor(long.class).newInstance(0L);
+            } catch (Exception ex) {
+                throw new IOException("Cannot create game "+gameClass+": "+ex);
+            }
+        }
+        game.setGameState(new String(state, "UTF-8"));
+        return game;
+    }
+
+    private void writeResult(DataOutputStream out, MOVE move, EnumMap<GHOST, MOVE> fullMove) throws IOException {
+        out.writeInt(move==null? -1: move.ordinal());
+        for (GHOST ghost: GHOST.values()) {
+            MOVE ghostMove = fullMove==null? null: fullMove.get(ghost);
+            out.writeInt(ghostMove==null? -1: ghostMove.ordinal());
+        }
+
+        long bytesWritten = 0, bytesRead = 0, messagesSent = 0, messagesReceived = 0, encodingNanos = 0, decodingNanos = 0;
+        for (LoopbackChannel channel: network.getChannels().values()) {
+            bytesWritten += channel.bytesWritten();
+            bytesRead += channel.bytesRead();
+            messagesSent += channel.messagesSent();
+            messagesReceived += channel.messagesReceived();
+            encodingNanos += channel.encodingNanos();
+            decodingNanos += channel.decodingNanos();
+        }
+        long gcCount = 0, gcMillis = 0;
+        for (GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(gc.getCollectionCount(), 0);
+            gcMillis += Math.max(gc.getCollectionTime(), 0);
+        }
+
+        out.writeLong(agent.calculatedSimulations());
+        out.writeLong(agent.totalSimulations());
+        out.writeLong(bytesWritten);
+        out.writeLong(bytesRead);
+        out.writeLong(messagesSent);
+        out.writeLong(messagesReceived);
+        out.writeLong(encodingNanos);
+        out.writeLong(decodingNanos);
+        out.writeLong(gcCount);
+        out.writeLong(gcMillis);
+        out.flush();
+    }
+
+    public void run() throws IOException {
+        Socket control = new Socket(InetAddress.getByName(null), controlPort);
+        control.setTcpNoDelay(true);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(control.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(control.getOutputStream()));
+
+        network = new LoopbackNetwork(agent.ghostName(), controller.getNetwork().getChannelTransmissionSpeed(), controller.getChannelBufferSize());
+        out.writeUTF(agent.ghost().name());
+        out.writeInt(network.port());
+        out.flush();
+        connectAllies(in);
+
+        try {
+            while (true) {
+                long tick;
+                try {
+                    tick = in.readLong();
+                } catch (EOFException ex) {
+                    break; /* the game is over */
+                }
+                Game tickGame = readGame(in);
+                long timeDue = in.readLong();
+                long startTime = System.currentTimeMillis();
+
+                network.setEpoch(tick);
+                agent.putThreadData(tickGame, timeDue-Constants.MILLIS_TO_FINISH);
+                agent.run();
+                MOVE move = agent.getMove();
+
+                controller.totalTimeMillis += System.currentTimeMillis()-startTime;
+                writeResult(out, move, agent.getFullMove());
+            }
+        } finally {
+            network.close();
+            control.close();
+        }
+    }
+}
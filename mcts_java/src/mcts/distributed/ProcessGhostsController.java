@@ -0,0 +1,264 @@
+package mcts.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import mcts.Constants;
+import mcts.SimulationsStat;
+import mcts.Utils;
+import pacman.controllers.Controller;
+import pacman.game.Constants.GHOST;
+import pacman.game.Constants.MOVE;
+import pacman.game.Game;
+
+/**
+ * Ghosts controller running each agent of a distributed controller in a JVM of its own
+ * (see GhostAgentProcess). The agents exchange their messages over loopback sockets, the
+ * controller only hands them the game every tick and collects their moves.
+ *
+ * The processes are started before the first move by the command given, completed by the
+ * argument "GHOST:control_port" of each agent.
+ */
+public class ProcessGhostsController extends Controller<EnumMap<GHOST,MOVE>> implements SimulationsStat {
+    private final static int STATISTICS_COUNT = 10;
+    private final static int CALCULATED_SIMULATIONS = 0;
+    private final static int TOTAL_SIMULATIONS = 1;
+    private final static int BYTES_WRITTEN = 2;
+    private final static int MESSAGES_SENT = 4;
+    private final static int ENCODING_NANOS = 6;
+    private final static int DECODING_NANOS = 7;
+    private final static int GC_COUNT = 8;
+    private final static int GC_MILLIS = 9;
+
+    private final List<String> agentCommand;
+    private EnumMap<GHOST, Process> processes = new EnumMap<GHOST, Process>(GHOST.class);
+    private EnumMap<GHOST, Socket> sockets = new EnumMap<GHOST, Socket>(GHOST.class);
+    private EnumMap<GHOST, DataInputStream> inputs = new EnumMap<GHOST, DataInputStream>(GHOST.class);
+    private EnumMap<GHOST, DataOutputStream> outputs = new EnumMap<GHOST, DataOutputStream>(GHOST.class);
+    private EnumMap<GHOST, long[]> statistics = new EnumMap<GHOST, long[]>(GHOST.class);
+    private EnumMap<GHOST,MOVE> moves = new EnumMap<GHOST,MOVE>(GHOST.class);
+    private EnumMap<GHOST, EnumMap<GHOST,MOVE>> fullMoves = new EnumMap<GHOST, EnumMap<GHOST,MOVE>>(GHOST.class);
+
+    private long moveNumber = 0;
+    private long totalTimeMillis = 0;
+    private long totalDecisions = 0;
+    private long coordinatedDecisions = 0;
+
+    /**
+     * @param agentCommand Command starting an agent, without the agent's argument.
+     */
+    public ProcessGhostsController(List<String> agentCommand) {
+        this.agentCommand = new ArrayList<String>(agentCommand);
+        for (GHOST ghost: GHOST.values()) {
+            statistics.put(ghost, new long[STATISTICS_COUNT]);
+        }
+    }
+
+    /**
+     * @return Command starting the main class in a JVM with the options and the class path of this one.
+     */
+    public static List<String> javaCommand(Class<?> mainClass) {
+        List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home")+File.separator+"bin"+File.separator+"java");
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(mainClass.getName());
+        return command;
+    }
+
+    private static void forwardOutput(final InputStream output) {
+        Thread forwarder = new Thread() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[4096];
+                try {
+                    int read;
+                    while ((read = output.read(buffer))!=-1) {
+                        System.err.write(buffer, 0, read);
+                    }
+                } catch (IOException ex) {
+                    /* the process ended */
+                }
+            }
+        };
+        forwarder.setDaemon(true);
+        forwarder.start();
+    }
+
+    private void start() throws IOException {
+        ServerSocket server = new ServerSocket(0, GHOST.values().length, InetAddress.getByName(null));
+        int ports[] = new int[GHOST.values().length];
+
+        try {
+            for (GHOST ghost: GHOST.values()) {
+                List<String> command = new ArrayList<String>(agentCommand);
+                command.add(String.format("%s:%d", ghost.name(), server.getLocalPort()));
+                ProcessBuilder builder = new ProcessBuilder(command);
+                builder.redirectErrorStream(true);
+                Process process = builder.start();
+                forwardOutput(process.getInputStream());
+                processes.put(ghost, process);
+            }
+
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    for (Process process: processes.values()) {
+                        process.destroy();
+                    }
+                }
+            });
+
+            for (int i=0; i<GHOST.values().length; i++) {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                GHOST ghost = GHOST.valueOf(in.readUTF());
+                ports[ghost.ordinal()] = in.readInt();
+                sockets.put(ghost, socket);
+                inputs.put(ghost, in);
+                outputs.put(ghost, new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())));
+            }
+        } finally {
+            server.close();
+        }
+
+        for (DataOutputStream out: outputs.values()) {
+            for (int port: ports) {
+                out.writeInt(port);
+            }
+            out.flush();
+        }
+    }
+
+    private static EnumMap<GHOST,MOVE> readFullMove(DataInputStream in) throws IOException {
+        EnumMap<GHOST,MOVE> fullMove = new EnumMap<GHOST,MOVE>(GHOST.class);
+        for (GHOST ghost: GHOST.values()) {
+            int move = in.readInt();
+            if (move>=0) {
+                fullMove.put(ghost, MOVE.values()[move]);
+            }
+        }
+        return fullMove;
+    }
+
+    @Override
+    public EnumMap<GHOST, MOVE> getMove(Game game, long timeDue) {
+        if (timeDue==-1) {
+            /* prevent infinite decisions */
+            System.err.printf("Warning: timeDue not set\n");
+            timeDue = System.currentTimeMillis()+ Constants.DEFAULT_TIME_MILLIS;
+        }
+
+        long startTime = System.currentTimeMillis();
+        moveNumber++;
+
+        try {
+            if (processes.isEmpty()) {
+                start();
+            }
+
+            byte[] state = game.getGameState().getBytes("UTF-8");
+            for (DataOutputStream out: outputs.values()) {
+                out.writeLong(moveNumber);
+                out.writeUTF(game.getClass().getName());
+                out.writeInt(state.length);
+                out.write(state);
+                out.writeLong(timeDue);
+                out.flush();
+            }
+
+            for (GHOST ghost: GHOST.values()) {
+                DataInputStream in = inputs.get(ghost);
+                int move = in.readInt();
+                moves.put(ghost, move<0? MOVE.NEUTRAL: MOVE.values()[move]);
+                fullMoves.put(ghost, readFullMove(in));
+                long ghostStatistics[] = statistics.get(ghost);
+                for (int i=0; i<STATISTICS_COUNT; i++) {
+                    ghostStatistics[i] = in.readLong();
+                }
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        totalTimeMillis += System.currentTimeMillis()-startTime;
+        if (Utils.ghostsNeedAction(game)) {
+            totalDecisions++;
+            if (Utils.ghostMovesEqual(fullMoves.get(GHOST.BLINKY), fullMoves.get(GHOST.PINKY))
+                    &&Utils.ghostMovesEqual(fullMoves.get(GHOST.PINKY), fullMoves.get(GHOST.INKY))
+                    &&Utils.ghostMovesEqual(fullMoves.get(GHOST.INKY), fullMoves.get(GHOST.SUE))) {
+                coordinatedDecisions++;
+            }
+        }
+        return moves.clone();
+    }
+
+    /**
+     * Closes the connections to the agents, which makes them exit, and waits for them.
+     */
+    public void close() {
+        for (Socket socket: sockets.values()) {
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                /* closed anyway */
+            }
+        }
+        for (Process process: processes.values()) {
+            try {
+                process.waitFor();
+            } catch (InterruptedException ex) {
+                process.destroy();
+            }
+        }
+    }
+
+    private long sum(int statistic) {
+        long sum = 0;
+        for (long ghostStatistics[]: statistics.values()) {
+            sum += ghostStatistics[statistic];
+        }
+        return sum;
+    }
+
+    public double coordinatedDecisionsRatio() { return coordinatedDecisions/(double)Math.max(totalDecisions, 1); }
+
+    @Override public long totalTimeMillis() { return totalTimeMillis; }
+    @Override public double millisPerMove() { return totalTimeMillis()/(double)moveNumber; }
+    @Override public long totalSimulations() { return sum(TOTAL_SIMULATIONS); }
+    @Override public double simulationsPerSecond() { return sum(CALCULATED_SIMULATIONS)/(0.001*totalTimeMillis()); }
+    public double totalSimulationsPerSecond() { return totalSimulations()/(0.001*totalTimeMillis()); }
+
+    @Override
+    public long[] workerSimulations() {
+        long[] simulations = new long[statistics.size()];
+        int i = 0;
+        for (long ghostStatistics[]: statistics.values()) {
+            simulations[i++] = ghostStatistics[CALCULATED_SIMULATIONS];
+        }
+        return simulations;
+    }
+
+    /** @return Bytes written to the sockets per second and agent. */
+    public double bytesWrittenPerSecond() { return sum(BYTES_WRITTEN)/(statistics.size()*0.001*totalTimeMillis()); }
+    public double messagesSentPerSecond() { return sum(MESSAGES_SENT)/(statistics.size()*0.001*totalTimeMillis()); }
+    /** @return Microseconds spent encoding and decoding a message. */
+    public double codingMicrosPerMessage() { return 0.001*(sum(ENCODING_NANOS)+sum(DECODING_NANOS))/Math.max(sum(MESSAGES_SENT), 1); }
+    /** @return Garbage collections of all the agents' processes. */
+    public long gcCount() { return sum(GC_COUNT); }
+    /** @return Milliseconds spent in garbage collections by all the agents' processes. */
+    public long gcMillis() { return sum(GC_MILLIS); }
+}
@@ -1,23 +1,24 @@
 package mcts.distributed;
 
+import communication.messages.MessageCodec;
+import communication.messages.TreeCutMessage;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Set;
-import mcts.Utils;
+import mcts.MCNode;
 
 public abstract class TreeCut {
-    private final static int AGGREGATED_NODE_SIZE = 61; /* 5bits for children count (0-27), 8bits for move, 32 bits for value, 16 bits for visit count */
-
     TreeCutNode nodes;
     protected long bytesSize; /* bytes necessary to transmit whole cut */
+    protected long aggregatedBits; /* bits of the cut transmitted as a whole (TreeCutMessage), visit counts taken at the nodes' expansion */
     private long maxBytesSize;
     private int visitCountThreshold; /* Minimal visit count of node to be expanded in cut */
     protected Set<TreeCutIterator> iterators = new HashSet<TreeCutIterator>();
     protected long size;
 
     public long size() { return size; }
-    public long aggregatedByteSize() { return Utils.bitsToBytes(size*AGGREGATED_NODE_SIZE); } /* Byte size of cut transmitted as a whole, not node by node */
+    public long aggregatedByteSize() { return (aggregatedBits+7)/8; } /* Byte size of cut transmitted as a whole, not node by node */
     public long bytesSize() {return bytesSize;}
     public void setMaxBytesSize(long bytes) {this.maxBytesSize = bytes;}
     public long maxBytesSize() {return maxBytesSize;}
@@ -54,7 +55,28 @@ public abstract class TreeCut {
             bytesSize += n.toMessage().length();
         }
         this.size = size;
+        aggregatedBits = MessageCodec.bitLength(new TreeCutMessage(this));
+    }
+
+    /**
+     * @return Change of aggregatedBits made by the expansion of the node into the children.
+     */
+    protected static long aggregatedBitsDiff(TreeCutNode expanded, TreeCutNode firstChild, long childrenCount) {
+        long diff = MessageCodec.cutInnerBitLength(firstChild.path.getLast().type(), (int)childrenCount)
+                -MessageCodec.cutLeafBitLength(expanded.treeNode().calculatedVisitCount());
+        TreeCutNode child = firstChild;
+        for (long i=0; i<childrenCount; i++) {
+            diff += MessageCodec.cutLeafBitLength(child.treeNode().calculatedVisitCount());
+            child = child.next();
+        }
+        return diff;
     }
 
     public abstract void reexpand();
+
+    /**
+     * Tells the cut that an iteration went through the tree node: its calculated visit count and
+     * the ones of its ancestors grew.
+     */
+    public abstract void iterated(MCNode node);
 }
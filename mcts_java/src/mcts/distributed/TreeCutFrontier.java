@@ -0,0 +1,99 @@
+package mcts.distributed;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import mcts.MCNode;
+
+/**
+ * Nodes of a cut in a binary max-heap by their calculated visit counts. The nodes know their
+ * position in the heap, so the key of the one node an iteration went through is raised in
+ * O(log n) instead of scanning the cut for the best node.
+ */
+final class TreeCutFrontier {
+    private TreeCutNode[] heap = new TreeCutNode[16];
+    private int size = 0;
+    private final Map<MCNode, TreeCutNode> nodes = new IdentityHashMap<MCNode, TreeCutNode>();
+
+    int size() { return size; }
+
+    void add(TreeCutNode node) {
+        if (size==heap.length) {
+            TreeCutNode[] grown = new TreeCutNode[2*heap.length];
+            System.arraycopy(heap, 0, grown, 0, size);
+            heap = grown;
+        }
+        node.heapKey = node.treeNode().calculatedVisitCount();
+        node.heapIndex = size;
+        heap[size++] = node;
+        nodes.put(node.treeNode(), node);
+        siftUp(node.heapIndex);
+    }
+
+    /**
+     * @return Node with the highest calculated visit count, null if empty.
+     */
+    TreeCutNode max() {
+        return size==0? null: heap[0];
+    }
+
+    TreeCutNode removeMax() {
+        TreeCutNode max = heap[0];
+        nodes.remove(max.treeNode());
+        max.heapIndex = -1;
+        heap[0] = heap[--size];
+        heap[size] = null;
+        if (size>0) {
+            heap[0].heapIndex = 0;
+            siftDown(0);
+        }
+        return max;
+    }
+
+    /**
+     * Re-keys the node of the cut on the path from the root to the tree node, there is at most
+     * one as the nodes of a cut are not ancestors of each other.
+     */
+    void iterated(MCNode node) {
+        for (; node!=null; node = node.parent()) {
+            TreeCutNode cutNode = nodes.get(node);
+            if (cutNode!=null) {
+                int key = node.calculatedVisitCount();
+                assert key>=cutNode.heapKey;
+                cutNode.heapKey = key;
+                siftUp(cutNode.heapIndex);
+                return;
+            }
+        }
+    }
+
+    private void siftUp(int index) {
+        TreeCutNode node = heap[index];
+        while (index>0) {
+            int parent = (index-1)/2;
+            if (heap[parent].heapKey>=node.heapKey) break;
+            place(heap[parent], index);
+            index = parent;
+        }
+        place(node, index);
+    }
+
+    private void siftDown(int index) {
+        TreeCutNode node = heap[index];
+        while (true) {
+            int child = 2*index+1;
+            if (child>=size) break;
+            if (child+1<size&&heap[child+1].heapKey>heap[child].heapKey) {
+                child++;
+            }
+            if (heap[child].heapKey<=node.heapKey) break;
+            place(heap[child], index);
+            index = child;
+        }
+        place(node, index);
+    }
+
+    private void place(TreeCutNode node, int index) {
+        heap[index] = node;
+        node.heapIndex = index;
+    }
+}
@@ -8,6 +8,7 @@ import java.util.LinkedList;
 import java.util.List;
 import mcts.Action;
 import mcts.GhostAction;
+import mcts.GhostsNode;
 import mcts.MCNode;
 import mcts.MCTree;
 import mcts.PacmanAction;
@@ -21,6 +22,8 @@ public class TreeCutNode {
     private final MCNode node;
     final LinkedList<Action> path;
     private TreeCutNode previous, next;
+    int heapIndex = -1; /* position in TreeCutFrontier */
+    int heapKey; /* calculated visit count the node is ordered by in TreeCutFrontier */
 
     protected TreeCutNode(final MCNode node, final LinkedList<Action> path) {
         this.node = node;
@@ -46,7 +49,7 @@ public class TreeCutNode {
         if (!node.expanded()) return null;
         TreeCutNode curr = this;
         if (node.pacmanChildren()!=null) {
-            assert(node.ghostsChildren()==null);
+            assert(!node.ghostsOnTurn());
             for (MOVE move: node.pacmanChildren().keySet()) {
                 Action action = new PacmanAction(move);
                 LinkedList<Action> child_path = new LinkedList<Action>(path);
@@ -55,12 +58,12 @@ public class TreeCutNode {
                 byteSizeDiff += curr.toMessage().length();
                 sizeDiff++;
             }
-        } else if (node.ghostsChildren()!=null) {
-            for (EnumMap<GHOST,MOVE> move: node.ghostsChildren().keySet()) {
-                Action action = new GhostAction(move);
+        } else if (node.ghostsOnTurn()) {
+            for (MCNode child: node.children()) {
+                Action action = new GhostAction(((GhostsNode)child).ghostsMoves());
                 LinkedList<Action> child_path = new LinkedList<Action>(path);
                 child_path.add(action);
-                curr = curr.append(new TreeCutNode(node.ghostsChildren().get(move), child_path));
+                curr = curr.append(new TreeCutNode(child, child_path));
                 byteSizeDiff += curr.toMessage().length();
                 sizeDiff++;
             }
@@ -0,0 +1,206 @@
+package mcts.distributed;
+
+import communication.messages.TreeCutDeltaMessage;
+import communication.messages.TreeNodeMessage;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import mcts.Action;
+import mcts.GhostsMovesCodec;
+import mcts.PacmanAction;
+import pacman.game.Constants.MOVE;
+
+/**
+ * Immutable statistics of the nodes of a tree cut as sent to (or received from) an ally,
+ * keyed by the nodes' paths. Snapshots are the bases tree cut deltas are computed against
+ * and applied to.
+ */
+public final class TreeCutSnapshot {
+    public final static TreeCutSnapshot EMPTY = new TreeCutSnapshot(new HashMap<String, TreeNodeMessage>());
+    /* length of a delta with the smallest group of changes, a node one move below the root */
+    public final static long MIN_DELTA_BYTE_SIZE = new TreeCutDeltaMessage(0, 0,
+            Collections.singletonList(new TreeNodeMessage(Collections.<Action>singletonList(new PacmanAction(MOVE.UP)), 0, 1)),
+            Collections.<List<Action>>emptyList()).length();
+
+    private final Map<String, TreeNodeMessage> nodes;
+
+    private TreeCutSnapshot(Map<String, TreeNodeMessage> nodes) {
+        this.nodes = nodes;
+    }
+
+    public static TreeCutSnapshot of(TreeCut cut) {
+        Map<String, TreeNodeMessage> nodes = new HashMap<String, TreeNodeMessage>();
+        TreeCutNode node = cut.nodes();
+        do {
+            TreeNodeMessage message = node.toMessage();
+            nodes.put(pathKey(message.treeMoves()), message);
+            node = node.next();
+        } while (node!=cut.nodes());
+        return new TreeCutSnapshot(nodes);
+    }
+
+    /* one char per action: pacman move ordinal or ghosts moves code shifted behind them */
+    private static String pathKey(List<Action> path) {
+        StringBuilder key = new StringBuilder(path.size());
+        for (Action action: path) {
+            if (action.type()==Action.Type.PACMAN) {
+                key.append((char)action.pacmanMove().ordinal());
+            } else {
+                key.append((char)(256+GhostsMovesCodec.encode(action.ghostMove())));
+            }
+        }
+        return key.toString();
+    }
+
+    /* statistics are transmitted as float, smaller changes are lost anyway */
+    private static boolean sameStatistics(TreeNodeMessage a, TreeNodeMessage b) {
+        return a.count()==b.count()&&(float)a.simulationResult()==(float)b.simulationResult();
+    }
+
+    public int size() { return nodes.size(); }
+    public Collection<TreeNodeMessage> nodeMessages() { return Collections.unmodifiableCollection(nodes.values()); }
+
+    /**
+     * @return Delta turning this snapshot into the target: nodes of the target which are new
+     * or have other statistics, paths of the nodes missing in the target.
+     */
+    public TreeCutDeltaMessage deltaTo(TreeCutSnapshot target, int version, int baseVersion) {
+        return deltaTo(target, version, baseVersion, Long.MAX_VALUE);
+    }
+
+    /**
+     * Delta towards the target of at most (about) maxBytes, it turns this snapshot into one
+     * between this and the target. Changes are taken by groups closed under the ancestor
+     * relation (a removed node together with the nodes replacing it), so that the result is
+     * still a cut, groups carrying most simulations per byte first. At least one group is taken.
+     */
+    public TreeCutDeltaMessage deltaTo(TreeCutSnapshot target, int version, int baseVersion, long maxBytes) {
+        Map<String, TreeNodeMessage> updated = new HashMap<String, TreeNodeMessage>();
+        Map<String, TreeNodeMessage> removed = new HashMap<String, TreeNodeMessage>();
+
+        for (Map.Entry<String, TreeNodeMessage> entry: target.nodes.entrySet()) {
+            TreeNodeMessage node = nodes.get(entry.getKey());
+            if (node==null||!sameStatistics(node, entry.getValue())) {
+                updated.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (Map.Entry<String, TreeNodeMessage> entry: nodes.entrySet()) {
+            if (!target.nodes.containsKey(entry.getKey())) {
+                removed.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        TreeCutDeltaMessage whole = delta(updated.values(), removed.values(), version, baseVersion);
+        if (whole.length()<=maxBytes) {
+            return whole;
+        }
+
+        List<String> keys = new ArrayList<String>(updated.keySet());
+        keys.addAll(removed.keySet());
+
+        /* group structural changes: every changed node joins the changed nodes on its path */
+        Map<String, String> groupOf = new HashMap<String, String>();
+        for (String key: keys) {
+            groupOf.put(key, key);
+        }
+        for (String key: keys) {
+            for (int length=0; length<key.length(); length++) {
+                String prefix = key.substring(0, length);
+                if (groupOf.containsKey(prefix)) {
+                    union(groupOf, prefix, key);
+                }
+            }
+        }
+
+        final Map<String, ChangeGroup> groups = new HashMap<String, ChangeGroup>();
+        for (String key: keys) {
+            String root = find(groupOf, key);
+            ChangeGroup group = groups.get(root);
+            if (group==null) {
+                group = new ChangeGroup();
+                groups.put(root, group);
+            }
+            TreeNodeMessage node = updated.get(key);
+            if (node!=null) {
+                TreeNodeMessage old = nodes.get(key);
+                group.updated.add(node);
+                group.bytes += node.length();
+                group.simulations += node.count()-(old!=null? old.count(): 0);
+            } else {
+                node = removed.get(key);
+                group.removed.add(node.treeMoves());
+                group.bytes += node.length();
+                group.simulations -= node.count();
+            }
+        }
+
+        List<ChangeGroup> ordered = new ArrayList<ChangeGroup>(groups.values());
+        Collections.sort(ordered);
+        List<TreeNodeMessage> selectedUpdated = new ArrayList<TreeNodeMessage>();
+        List<List<Action>> selectedRemoved = new ArrayList<List<Action>>();
+        long bytes = new TreeCutDeltaMessage(version, baseVersion, selectedUpdated, selectedRemoved).length();
+        for (ChangeGroup group: ordered) {
+            if (bytes+group.bytes>maxBytes&&!(selectedUpdated.isEmpty()&&selectedRemoved.isEmpty())) {
+                continue;
+            }
+            selectedUpdated.addAll(group.updated);
+            selectedRemoved.addAll(group.removed);
+            bytes += group.bytes;
+        }
+
+        return new TreeCutDeltaMessage(version, baseVersion, selectedUpdated, selectedRemoved);
+    }
+
+    private static TreeCutDeltaMessage delta(Collection<TreeNodeMessage> updated, Collection<TreeNodeMessage> removed, int version, int baseVersion) {
+        List<List<Action>> removedPaths = new ArrayList<List<Action>>(removed.size());
+        for (TreeNodeMessage node: removed) {
+            removedPaths.add(node.treeMoves());
+        }
+        return new TreeCutDeltaMessage(version, baseVersion, new ArrayList<TreeNodeMessage>(updated), removedPaths);
+    }
+
+    private static String find(Map<String, String> groupOf, String key) {
+        String root = key;
+        while (!groupOf.get(root).equals(root)) {
+            root = groupOf.get(root);
+        }
+        groupOf.put(key, root);
+        return root;
+    }
+
+    private static void union(Map<String, String> groupOf, String a, String b) {
+        groupOf.put(find(groupOf, b), find(groupOf, a));
+    }
+
+    /* changes which have to be transmitted together */
+    private static class ChangeGroup implements Comparable<ChangeGroup> {
+        List<TreeNodeMessage> updated = new ArrayList<TreeNodeMessage>();
+        List<List<Action>> removed = new ArrayList<List<Action>>();
+        long bytes = 0;
+        long simulations = 0;
+
+        private double simulationsPerByte() { return Math.abs(simulations)/(double)Math.max(bytes, 1); }
+
+        @Override
+        public int compareTo(ChangeGroup other) {
+            return Double.compare(other.simulationsPerByte(), simulationsPerByte());
+        }
+    }
+
+    /**
+     * @return Snapshot the delta (computed against this one) turns this one into.
+     */
+    public TreeCutSnapshot apply(TreeCutDeltaMessage delta) {
+        Map<String, TreeNodeMessage> applied = new HashMap<String, TreeNodeMessage>(nodes);
+        for (List<Action> path: delta.removed()) {
+            applied.remove(pathKey(path));
+        }
+        for (TreeNodeMessage node: delta.updated()) {
+            applied.put(pathKey(node.treeMoves()), node);
+        }
+        return new TreeCutSnapshot(applied);
+    }
+}
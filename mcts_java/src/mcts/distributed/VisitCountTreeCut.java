@@ -2,16 +2,23 @@ package mcts.distributed;
 
 import java.util.LinkedList;
 import mcts.Action;
+import mcts.MCNode;
 import mcts.MCTree;
 import utils.Triplet;
 
 public final class VisitCountTreeCut extends TreeCut {
     boolean aggregated;
+    private final TreeCutFrontier frontier = new TreeCutFrontier();
 
     private VisitCountTreeCut(TreeCutNode nodes, long maxBytesSize, int visitCountThreshold, long size, boolean aggregated) {
         super(nodes, maxBytesSize, visitCountThreshold, size);
-        reexpand();
         this.aggregated = aggregated;
+        TreeCutNode node = nodes;
+        do {
+            frontier.add(node);
+            node = node.next();
+        } while (node!=nodes);
+        reexpand();
     }
 
     public static VisitCountTreeCut createRootCut(MCTree tree, long maxBytesSize, int visitCountThreshold, boolean aggregated) {
@@ -20,34 +27,33 @@ public final class VisitCountTreeCut extends TreeCut {
 
     public boolean isAggregated() { return aggregated; } /* indicated whether maxBytesSize refers to total size of nodes or aggregated size */
 
-    private TreeCutNode bestNode() {
-        assert(nodes!=null);
-        TreeCutNode best = nodes;
-        TreeCutNode curr = nodes.next();
-        while (curr!=nodes) {
-            if (curr.treeNode().calculatedVisitCount()>best.treeNode().calculatedVisitCount()) {
-                best = curr;
-            }
-            curr = curr.next();
-        }
-
-        return best;
-    }
-
     private long sizeToCompare() {
         return aggregated? aggregatedByteSize(): bytesSize;
     }
 
+    @Override
+    public void iterated(MCNode node) {
+        frontier.iterated(node);
+    }
+
     @Override
     public void reexpand() {
         while (maxBytesSize()>sizeToCompare()) {
-            TreeCutNode maxNode = bestNode();
+            TreeCutNode maxNode = frontier.max();
             if (maxNode.next()!=maxNode /* maxNode is not root (root is expanded immediately) */
                     && maxNode.treeNode().calculatedVisitCount()<visitCountThreshold()) break;
             Triplet<Long, Long, TreeCutNode> expanded = maxNode.expand();
             if (expanded==null) break; /* tree is yet too small */
             size += expanded.first;
             bytesSize += expanded.second;
+            aggregatedBits += aggregatedBitsDiff(maxNode, expanded.third, expanded.first+1);
+
+            frontier.removeMax();
+            TreeCutNode child = expanded.third;
+            for (long i=0; i<expanded.first+1; i++) {
+                frontier.add(child);
+                child = child.next();
+            }
 
             if (nodes==maxNode) {
                 nodes = expanded.third;
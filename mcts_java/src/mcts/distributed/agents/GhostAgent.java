@@ -84,6 +84,16 @@ public abstract class GhostAgent implements SimulationsCounter, MCTSEntity, Tree
         return this;
     }
 
+    /**
+     * Makes the agent talk to the ally over the sender and the receiver given, the ally's
+     * side is left alone (it runs in another process).
+     */
+    public GhostAgent connectAlly(GhostAgent ally, MessageSender sender, MessageReceiver receiver) {
+        messageSenders.put(ally, sender);
+        messageReceivers.put(ally, receiver);
+        return this;
+    }
+
     public void truncateNetworkBuffers() {
         for (MessageSender sender: messageSenders.values()) {
             sender.channel().flush();
@@ -95,7 +95,9 @@ public class TreeCutExchangingAgent extends FullMCTSGhostAgent {
     @Override
     public void step() {
         receiveMessages();
-        if (!Double.isNaN(mctree.iterate())) {
+        double reward = mctree.iterate();
+        treeCut.iterated(mctree.lastIterated());
+        if (!Double.isNaN(reward)) {
             if (verboseLevel.check(VerboseLevel.DEBUGGING)&&ghost==GHOST.BLINKY) {
                 System.err.printf("[ITERATION] %s", mctree.toString());
             }
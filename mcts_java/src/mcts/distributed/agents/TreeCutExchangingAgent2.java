@@ -3,18 +3,24 @@ package mcts.distributed.agents;
 import communication.MessageSender;
 import communication.Priority;
 import communication.messages.Message;
+import communication.messages.TreeCutAckMessage;
+import communication.messages.TreeCutDeltaMessage;
 import communication.messages.TreeCutMessage;
 import communication.messages.TreeNodeMessage;
 import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import mcts.Action;
 import mcts.MCNode;
 import mcts.distributed.DistributedMCTSController;
 import mcts.distributed.TreeCut;
 import mcts.distributed.TreeCutIterator;
 import mcts.distributed.TreeCutNode;
+import mcts.distributed.TreeCutSnapshot;
 import mcts.distributed.VisitCountTreeCut;
 import mcts.exceptions.InvalidActionListException;
 import pacman.game.Constants.GHOST;
@@ -27,6 +33,19 @@ public class TreeCutExchangingAgent2 extends FullMCTSGhostAgent {
     private long receivedSimulations = 0;
     private Map<GhostAgent, TreeCutMessage> last_message_received = new HashMap<GhostAgent, TreeCutMessage>();
 
+    /* delta mode: cuts are sent as TreeCutDeltaMessages against the last cut acknowledged by the ally */
+    private final static int MAX_UNACKNOWLEDGED_CUTS = 16;
+    private boolean deltaCuts = false;
+    private long maxDeltaByteSize = Long.MAX_VALUE;
+    private int nextVersion = 1;
+    private long deltasSent = 0;
+    private long deltaBytesSent = 0;
+    private Map<GhostAgent, Integer> acknowledged_version = new HashMap<GhostAgent, Integer>();
+    private Map<GhostAgent, TreeCutSnapshot> acknowledged_cut = new HashMap<GhostAgent, TreeCutSnapshot>();
+    private Map<GhostAgent, TreeMap<Integer, TreeCutSnapshot>> unacknowledged_cuts = new HashMap<GhostAgent, TreeMap<Integer, TreeCutSnapshot>>();
+    private Map<GhostAgent, TreeCutSnapshot> applied_cut = new HashMap<GhostAgent, TreeCutSnapshot>();
+    private Map<GhostAgent, TreeMap<Integer, TreeCutSnapshot>> received_cuts = new HashMap<GhostAgent, TreeMap<Integer, TreeCutSnapshot>>();
+
     private long removeReceivedSimulations(GhostAgent agent) {
         TreeCutMessage previous_message = last_message_received.get(agent);
         long removed = 0;
@@ -51,11 +70,23 @@ public class TreeCutExchangingAgent2 extends FullMCTSGhostAgent {
         for (GhostAgent agent: last_message_received.keySet()) {
             removeReceivedSimulations(agent);
         }
+        for (GhostAgent agent: applied_cut.keySet()) {
+            applyDelta(agent, applied_cut.get(agent).deltaTo(TreeCutSnapshot.EMPTY, 0, 0));
+        }
+    }
+
+    private void clearDeltaCuts() {
+        acknowledged_version.clear();
+        acknowledged_cut.clear();
+        unacknowledged_cuts.clear();
+        applied_cut.clear();
+        received_cuts.clear();
     }
 
     @Override
     protected void postTreeInit() {
         last_message_received.clear();
+        clearDeltaCuts();
     }
 
     @Override
@@ -63,9 +94,94 @@ public class TreeCutExchangingAgent2 extends FullMCTSGhostAgent {
         if (willAdvance) {
             removeAllReceivedSimulations();
             last_message_received.clear();
+            clearDeltaCuts();
+        }
+    }
+
+    /**
+     * Applies the difference of the cuts received from the agent to the tree, removed nodes first
+     * so that the received statistics never overlap.
+     */
+    private void applyDelta(GhostAgent agent, TreeCutDeltaMessage delta) {
+        try {
+            for (List<Action> path: delta.removed()) {
+                receivedSimulations -= mctree.applyTreeNode(agent.ghost(), path, 0, 0);
+            }
+            for (TreeNodeMessage node: delta.updated()) {
+                long maskedSimulations = mctree.applyTreeNode(agent.ghost(), node.treeMoves(), node.simulationResult(), node.count());
+                receivedSimulations += node.count() - maskedSimulations;
+            }
+        } catch (InvalidActionListException e) {
+            assert(false);
         }
     }
 
+    private void handleDelta(GhostAgent agent, TreeCutDeltaMessage delta) {
+        TreeMap<Integer, TreeCutSnapshot> cuts = received_cuts.get(agent);
+        if (cuts==null) {
+            cuts = new TreeMap<Integer, TreeCutSnapshot>();
+            received_cuts.put(agent, cuts);
+        }
+        TreeCutSnapshot base = delta.baseVersion()==0? TreeCutSnapshot.EMPTY: cuts.get(delta.baseVersion());
+        MessageSender sender = messageSenders.get(agent);
+
+        if (base==null) {
+            /* base unknown (e.g. after re-initialization), ask for the whole cut */
+            sender.sendFirst(Priority.HIGHEST, new TreeCutAckMessage(0));
+            return;
+        }
+
+        TreeCutSnapshot cut = base.apply(delta);
+        TreeCutSnapshot applied = applied_cut.get(agent);
+        applyDelta(agent, (applied!=null? applied: TreeCutSnapshot.EMPTY).deltaTo(cut, 0, 0));
+        applied_cut.put(agent, cut);
+
+        /* the sender's bases only move forward */
+        cuts.headMap(delta.baseVersion()).clear();
+        cuts.put(delta.version(), cut);
+        sender.sendFirst(Priority.HIGHEST, new TreeCutAckMessage(delta.version()));
+    }
+
+    private void handleAck(GhostAgent agent, TreeCutAckMessage ack) {
+        TreeMap<Integer, TreeCutSnapshot> sent = unacknowledged_cuts.get(agent);
+        Integer acknowledged = acknowledged_version.get(agent);
+
+        if (ack.version()==0) {
+            acknowledged_version.remove(agent);
+            acknowledged_cut.remove(agent);
+        } else if (sent!=null&&sent.containsKey(ack.version())&&(acknowledged==null||ack.version()>acknowledged)) {
+            acknowledged_version.put(agent, ack.version());
+            acknowledged_cut.put(agent, sent.get(ack.version()));
+            sent.headMap(ack.version()+1).clear();
+        }
+    }
+
+    private void sendDelta(GhostAgent ally, MessageSender sender, TreeCutSnapshot cut) {
+        TreeCutSnapshot base = acknowledged_cut.get(ally);
+        Integer baseVersion = acknowledged_version.get(ally);
+        if (base==null) {
+            base = TreeCutSnapshot.EMPTY;
+        }
+        TreeCutDeltaMessage delta = base.deltaTo(cut, nextVersion, baseVersion!=null? baseVersion: 0, maxDeltaByteSize);
+        if (delta.isEmpty()) {
+            return;
+        }
+
+        TreeMap<Integer, TreeCutSnapshot> sent = unacknowledged_cuts.get(ally);
+        if (sent==null) {
+            sent = new TreeMap<Integer, TreeCutSnapshot>();
+            unacknowledged_cuts.put(ally, sent);
+        }
+        sent.put(nextVersion++, base.apply(delta));
+        if (sent.size()>MAX_UNACKNOWLEDGED_CUTS) {
+            sent.remove(sent.firstKey());
+        }
+
+        sender.send(Priority.HIGHEST, delta);
+        deltasSent++;
+        deltaBytesSent += delta.length();
+    }
+
     public TreeCutExchangingAgent2(final DistributedMCTSController controller, final GHOST ghost) {
         super(controller, ghost);
 
@@ -95,15 +211,35 @@ public class TreeCutExchangingAgent2 extends FullMCTSGhostAgent {
                 last_message_received.put(agent, cut_message);
             }
         });
+
+        hookMessageHandler(TreeCutDeltaMessage.class, new MessageHandler() {
+            @Override public void handleMessage(GhostAgent agent, Message message) {
+                handleDelta(agent, (TreeCutDeltaMessage)message);
+            }
+        });
+
+        hookMessageHandler(TreeCutAckMessage.class, new MessageHandler() {
+            @Override public void handleMessage(GhostAgent agent, Message message) {
+                handleAck(agent, (TreeCutAckMessage)message);
+            }
+        });
     }
 
     private void sendMessages() {
+        TreeCutSnapshot cut = null;
         for (GhostAgent ally: messageSenders.keySet()) {
             MessageSender sender = messageSenders.get(ally);
             double secondsPerSimulation = 1/controller.simulationsPerSecond();
             if (sender.sendQueueLength()==0||sender.secondsToSendAll() <= secondsPerSimulation*3) {
-                TreeCutMessage msg = new TreeCutMessage(VisitCountTreeCut.createRootCut(mctree, maxBytesSize, 30, true));
-                sender.send(Priority.HIGHEST, msg);
+                if (deltaCuts) {
+                    if (cut==null) {
+                        cut = TreeCutSnapshot.of(VisitCountTreeCut.createRootCut(mctree, maxBytesSize, 30, true));
+                    }
+                    sendDelta(ally, sender, cut);
+                } else {
+                    TreeCutMessage msg = new TreeCutMessage(VisitCountTreeCut.createRootCut(mctree, maxBytesSize, 30, true));
+                    sender.send(Priority.HIGHEST, msg);
+                }
             }
         }
     }
@@ -151,4 +287,27 @@ public class TreeCutExchangingAgent2 extends FullMCTSGhostAgent {
     public long getCutByteSize() {
         return maxBytesSize;
     }
+
+    /**
+     * In delta mode the agent sends only the nodes of its cut which changed since the cut last
+     * acknowledged by the ally (TreeCutDeltaMessage) and acknowledges the cuts it receives.
+     */
+    public void setDeltaCuts(boolean deltaCuts) {
+        this.deltaCuts = deltaCuts;
+    }
+
+    public boolean deltaCuts() { return deltaCuts; }
+
+    /**
+     * Bounds the deltas, changes which do not fit are left for the following ones.
+     */
+    public void setDeltaByteSize(long bytes) {
+        maxDeltaByteSize = bytes;
+    }
+
+    public long getDeltaByteSize() {
+        return maxDeltaByteSize;
+    }
+    public long deltasSent() { return deltasSent; }
+    public long deltaBytesSent() { return deltaBytesSent; }
 }
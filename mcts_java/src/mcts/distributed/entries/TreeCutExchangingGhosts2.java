@@ -2,6 +2,7 @@ package mcts.distributed.entries;
 
 import mcts.Constants;
 import mcts.distributed.DistributedMCTSController;
+import mcts.distributed.TreeCutSnapshot;
 import mcts.distributed.agents.GhostAgent;
 import mcts.distributed.agents.TreeCutExchangingAgent2;
 import pacman.game.Constants.GHOST;
@@ -32,4 +33,53 @@ public class TreeCutExchangingGhosts2 extends DistributedMCTSController {
         assert(agents.containsKey(GHOST.BLINKY));
         return ((TreeCutExchangingAgent2)agents.get(GHOST.BLINKY)).getCutByteSize();
     }
+
+    public void setDeltaCuts(boolean deltaCuts) {
+        for (GhostAgent agent: agents.values()) {
+            ((TreeCutExchangingAgent2)agent).setDeltaCuts(deltaCuts);
+        }
+    }
+
+    /**
+     * Bounds the deltas by the bytes a channel carries in the virtual time of a tick, but never
+     * below the smallest delta (the agents send at least one group of changes anyway).
+     */
+    public void setDeltasSentByTick(double deltasSent, long tickLength, double channelSpeed) {
+        long bytes = (long)Math.floor(0.001*virtualMillis(tickLength)*channelSpeed/deltasSent);
+        setDeltaByteSize(Math.max(bytes, TreeCutSnapshot.MIN_DELTA_BYTE_SIZE));
+    }
+
+    public void setDeltaByteSize(long bytes) {
+        for (GhostAgent agent: agents.values()) {
+            ((TreeCutExchangingAgent2)agent).setDeltaByteSize(bytes);
+        }
+    }
+
+    public long deltaByteSize() {
+        assert(agents.containsKey(GHOST.BLINKY));
+        return ((TreeCutExchangingAgent2)agents.get(GHOST.BLINKY)).getDeltaByteSize();
+    }
+
+    public boolean deltaCuts() {
+        assert(agents.containsKey(GHOST.BLINKY));
+        return ((TreeCutExchangingAgent2)agents.get(GHOST.BLINKY)).deltaCuts();
+    }
+
+    public double deltasSentPerSecond() {
+        double sent = 0;
+        for (GhostAgent agent: agents.values()) {
+            sent += ((TreeCutExchangingAgent2)agent).deltasSent();
+        }
+        return 1000*sent/(agents.size()*currentVirtualMillis());
+    }
+
+    public double averageDeltaByteSize() {
+        long sent = 0, bytes = 0;
+        for (GhostAgent agent: agents.values()) {
+            TreeCutExchangingAgent2 cutAgent = (TreeCutExchangingAgent2)agent;
+            sent += cutAgent.deltasSent();
+            bytes += cutAgent.deltaBytesSent();
+        }
+        return bytes/(double)Math.max(sent, 1);
+    }
 }
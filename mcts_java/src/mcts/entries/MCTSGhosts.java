@@ -33,10 +33,11 @@ public class MCTSGhosts extends PlainMCTSController<GhostsTree, EnumMap<GHOST, M
 //        super(simulation_depth, ucb_coef, verbose, iterations);
 //    }
 
-    private void initializeTree(Game game) {
-        /* (re)initialize MC-tree and its components */
-        mctree = new GhostsTree(game, ucbSelector, guidedSimulator, backpropagator, getUcbCoef());
-        mctree.setOptimisticTurns(optimisticTurns);
+    @Override
+    protected GhostsTree createTree(Game game, Selector selector, GuidedSimulator simulator) {
+        GhostsTree tree = new GhostsTree(game, selector, simulator, backpropagator, getUcbCoef(), createNodeStore());
+        tree.setOptimisticTurns(optimisticTurns);
+        return tree;
     }
 
     @Override
@@ -50,7 +51,7 @@ public class MCTSGhosts extends PlainMCTSController<GhostsTree, EnumMap<GHOST, M
                 ||mctree.root().getTotalTicks()>guidedSimulator.getMaxDepth()/2 /* simulation is too much shortened */
                 ) {
             /* (re)initialize MC-tree and its components */
-            initializeTree(game);
+            initializeTrees(game);
 
             /* remember current level */
             currentLevel = game.getCurrentLevel();
@@ -59,9 +60,9 @@ public class MCTSGhosts extends PlainMCTSController<GhostsTree, EnumMap<GHOST, M
             EnumMap<GHOST, MOVE> last_ghosts_moves = Utils.lastGhostsDecisionMoves(game, previousGame);
 
             if (mcTree().root().ticksToGo()==0) {
-                initializeTree(game);
+                initializeTrees(game);
             } else {
-                mcTree().advanceTree(game.getPacmanLastMoveMade(), last_ghosts_moves);
+                advanceTrees(game.getPacmanLastMoveMade(), last_ghosts_moves);
             }
         }
         prevousMove = null;
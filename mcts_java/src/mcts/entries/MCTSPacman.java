@@ -35,19 +35,25 @@ public class MCTSPacman extends PlainMCTSController<PacmanTree, MOVE> {
                 ||mctree.root().getTotalTicks()>guidedSimulator.getMaxDepth()/2 /* simulation is too much shortened */
                 ) {
             /* (re)initialize MC-tree and its components */
-            mctree = new PacmanTree(game, ucbSelector, guidedSimulator, backpropagator, getUcbCoef());
-            mctree.setOptimisticTurns(optimisticTurns);
+            initializeTrees(game);
 
             /* remember current level */
             currentLevel = game.getCurrentLevel();
         } else {
             assert previousGame!=null;
             EnumMap<Constants.GHOST, Constants.MOVE> last_ghosts_moves = Utils.lastGhostsDecisionMoves(game, previousGame);
-            mcTree().advanceTree(game.getPacmanLastMoveMade(), last_ghosts_moves);
+            advanceTrees(game.getPacmanLastMoveMade(), last_ghosts_moves);
         }
         prevousMove = MOVE.NEUTRAL;
     }
 
+    @Override
+    protected PacmanTree createTree(Game game, Selector selector, GuidedSimulator simulator) {
+        PacmanTree tree = new PacmanTree(game, selector, simulator, backpropagator, getUcbCoef(), createNodeStore());
+        tree.setOptimisticTurns(optimisticTurns);
+        return tree;
+    }
+
     @Override
     protected MOVE cloneMove(MOVE move) {
         return move;
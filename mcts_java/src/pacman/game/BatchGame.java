@@ -0,0 +1,763 @@
+package pacman.game;
+
+import java.util.Random;
+import pacman.game.Constants.DM;
+import pacman.game.Constants.GHOST;
+import pacman.game.Constants.MOVE;
+import pacman.game.internal.Ghost;
+import pacman.game.internal.Maze;
+import pacman.game.internal.Node;
+import mcts.GhostsMovesCodec;
+
+import static pacman.game.Constants.*;
+
+/**
+ * Several SimplifiedGame states of the same maze stepped in lockstep, e.g. rollouts run
+ * together. The states are kept in slots of parallel primitive arrays (one array per variable,
+ * pills as bit words) and advance() steps all the running slots by the rules of
+ * SimplifiedGame.advanceGameWithPowerPillReverseOnly(int,int): a slot loaded from a game
+ * evolves exactly as the game does given the same moves. Only what the rules and the rollout
+ * policies read is kept: there is no Zobrist hash, undo log or game state string.
+ */
+public final class BatchGame
+{
+	private static final GHOST[] GHOST_TYPES=GHOST.values();
+	private static final MOVE[] MOVES=MOVE.values();
+	private static final int NUM_MOVES=MOVES.length;
+	private static final int NEUTRAL=MOVE.NEUTRAL.ordinal();
+	private static final int LEFT=MOVE.LEFT.ordinal();
+	private static final int[] OPPOSITE=new int[NUM_MOVES];
+
+	static
+	{
+		for(MOVE move : MOVES)
+			OPPOSITE[move.ordinal()]=move.opposite().ordinal();
+	}
+
+	//flags of a slot
+	private static final int GAME_OVER=1;
+	private static final int PACMAN_WAS_EATEN=2;
+	private static final int PILL_WAS_EATEN=4;
+	private static final int POWER_PILL_WAS_EATEN=8;
+	private static final int RUNNING=16;
+	private static final int GHOST_WAS_EATEN=32;										//shifted by the ghost ordinal
+
+	private final int capacity;
+	private int size;
+
+	//the maze shared by the slots and its graph flattened into arrays
+	private Maze maze;
+	private int[] neighbours;														//[nodeIndex*NUM_MOVES+move], -1 if none
+	private MOVE[][] possibleMoves;													//[nodeIndex*NUM_MOVES+lastMoveMade]
+	private int[] pillIndices, powerPillIndices;									//[nodeIndex], -1 if none
+	private int pillWords, powerPillWords;
+
+	//the variables of the games, [slot] or [slot*NUM_GHOSTS+ghost] or [slot*words+word]
+	private final int[] pacmanNode, pacmanLastMove, livesRemaining;
+	private final int[] ghostNode, ghostLastMove, ghostEdibleTime, ghostLairTime;
+	private final int[] score, currentLevelTime, totalTime, levelCount, ghostEatMultiplier, timeOfLastGlobalReversal;
+	private final int[] pillsLeft, gameLength, flags;
+	private long[] pills, powerPills;
+	private final Random[] rnd;
+
+	/**
+	 * Creates a batch of the given number of slots.
+	 *
+	 * @param capacity The maximum number of games in the batch
+	 */
+	public BatchGame(int capacity)
+	{
+		this.capacity=capacity;
+
+		pacmanNode=new int[capacity];
+		pacmanLastMove=new int[capacity];
+		livesRemaining=new int[capacity];
+		ghostNode=new int[capacity*NUM_GHOSTS];
+		ghostLastMove=new int[capacity*NUM_GHOSTS];
+		ghostEdibleTime=new int[capacity*NUM_GHOSTS];
+		ghostLairTime=new int[capacity*NUM_GHOSTS];
+		score=new int[capacity];
+		currentLevelTime=new int[capacity];
+		totalTime=new int[capacity];
+		levelCount=new int[capacity];
+		ghostEatMultiplier=new int[capacity];
+		timeOfLastGlobalReversal=new int[capacity];
+		pillsLeft=new int[capacity];
+		gameLength=new int[capacity];
+		flags=new int[capacity];
+		rnd=new Random[capacity];
+
+		for(int i=0;i<capacity;i++)
+			rnd[i]=new Random();
+	}
+
+	/**
+	 * Removes all the games, the batch may be filled by games of another maze afterwards.
+	 */
+	public void clear()
+	{
+		size=0;
+	}
+
+	/**
+	 * Loads the state of a game to the next free slot. The pseudo-random generator of the slot
+	 * starts afresh from the game's seed, as the one of game.copy() does.
+	 *
+	 * @param game The game to load
+	 * @return The slot of the game, -1 if it cannot join the batch (the batch is full, the game
+	 * is in another maze than the others or it reverses the ghosts at random)
+	 */
+	public int add(SimplifiedGame game)
+	{
+		if(size==capacity || game.random_reversal || (size>0 && game.currentMaze!=maze))
+			return -1;
+
+		if(game.currentMaze!=maze)
+			_setMaze(game.currentMaze);
+
+		int slot=size++;
+
+		pacmanNode[slot]=game.pacman.currentNodeIndex;
+		pacmanLastMove[slot]=game.pacman.lastMoveMade.ordinal();
+		livesRemaining[slot]=game.pacman.numberOfLivesRemaining;
+
+		for(GHOST ghostType : GHOST_TYPES)
+		{
+			int g=slot*NUM_GHOSTS+ghostType.ordinal();
+			Ghost ghost=game.ghosts.get(ghostType);
+
+			ghostNode[g]=ghost.currentNodeIndex;
+			ghostLastMove[g]=ghost.lastMoveMade.ordinal();
+			ghostEdibleTime[g]=ghost.edibleTime;
+			ghostLairTime[g]=ghost.lairTime;
+		}
+
+		score[slot]=game.score;
+		currentLevelTime[slot]=game.currentLevelTime;
+		totalTime[slot]=game.totalTime;
+		levelCount[slot]=game.levelCount;
+		ghostEatMultiplier[slot]=game.ghostEatMultiplier;
+		timeOfLastGlobalReversal[slot]=game.timeOfLastGlobalReversal;
+		gameLength[slot]=game.getGameLength();
+
+		for(int i=0;i<pillWords;i++)
+			pills[slot*pillWords+i]=0;
+		for(int i=game.pills.nextSetBit(0);i>=0;i=game.pills.nextSetBit(i+1))
+			pills[slot*pillWords+(i>>>6)]|=1L<<i;
+
+		for(int i=0;i<powerPillWords;i++)
+			powerPills[slot*powerPillWords+i]=0;
+		for(int i=game.powerPills.nextSetBit(0);i>=0;i=game.powerPills.nextSetBit(i+1))
+			powerPills[slot*powerPillWords+(i>>>6)]|=1L<<i;
+
+		pillsLeft[slot]=game.pills.cardinality()+game.powerPills.cardinality();
+
+		int slotFlags=RUNNING;
+		if(game.gameOver)			slotFlags|=GAME_OVER;
+		if(game.pacmanWasEaten)		slotFlags|=PACMAN_WAS_EATEN;
+		if(game.pillWasEaten)		slotFlags|=PILL_WAS_EATEN;
+		if(game.powerPillWasEaten)	slotFlags|=POWER_PILL_WAS_EATEN;
+		for(GHOST ghostType : GHOST_TYPES)
+			if(game.ghostsEaten.get(ghostType))
+				slotFlags|=GHOST_WAS_EATEN<<ghostType.ordinal();
+		flags[slot]=slotFlags;
+
+		rnd[slot].setSeed(game.seed);
+
+		return slot;
+	}
+
+	/**
+	 * _set maze.
+	 *
+	 * @param maze the maze of the games to come
+	 */
+	private void _setMaze(Maze maze)
+	{
+		this.maze=maze;
+
+		int numberOfNodes=maze.graph.length;
+		neighbours=new int[numberOfNodes*NUM_MOVES];
+		possibleMoves=new MOVE[numberOfNodes*NUM_MOVES][];
+		pillIndices=new int[numberOfNodes];
+		powerPillIndices=new int[numberOfNodes];
+
+		for(int i=0;i<numberOfNodes;i++)
+		{
+			Node node=maze.graph[i];
+
+			for(MOVE move : MOVES)
+			{
+				Integer neighbour=node.neighbourhood.get(move);
+				neighbours[i*NUM_MOVES+move.ordinal()]=neighbour==null ? -1 : neighbour;
+				possibleMoves[i*NUM_MOVES+move.ordinal()]=node.allPossibleMoves.get(move);
+			}
+
+			pillIndices[i]=node.pillIndex;
+			powerPillIndices[i]=node.powerPillIndex;
+		}
+
+		pillWords=(maze.pillIndices.length+63)>>>6;
+		powerPillWords=(maze.powerPillIndices.length+63)>>>6;
+		pills=new long[capacity*pillWords];
+		powerPills=new long[capacity*powerPillWords];
+	}
+
+	/////////////////////////////////////////////////////////////////////////////
+	/////////////////////////////  Game Play   //////////////////////////////////
+	/////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Advances every running slot by one time step, as advanceGameWithPowerPillReverseOnly(int,int)
+	 * advances a SimplifiedGame. Each phase of the time step is done for all the slots in turn.
+	 *
+	 * @param pacManMoves The ordinals of Ms Pac-Man's moves by slot
+	 * @param ghostMoves The moves of the ghosts by slot, packed by GhostsMovesCodec
+	 */
+	public void advance(int[] pacManMoves,int[] ghostMoves)
+	{
+		for(int slot=0;slot<size;slot++)
+			if((flags[slot]&RUNNING)!=0)
+			{
+				_updatePacMan(slot,pacManMoves[slot]);
+				_eatPill(slot);
+				_eatPowerPill(slot);
+			}
+
+		for(int slot=0;slot<size;slot++)
+			if((flags[slot]&RUNNING)!=0 && !_reverseGhosts(slot))
+				_updateGhosts(slot,ghostMoves[slot]);
+
+		for(int slot=0;slot<size;slot++)
+			if((flags[slot]&RUNNING)!=0)
+				_feast(slot);
+
+		for(int slot=0;slot<size;slot++)
+			if((flags[slot]&RUNNING)!=0)
+			{
+				_updateLairTimes(slot);
+
+				totalTime[slot]++;
+				currentLevelTime[slot]++;
+
+				_checkLevelState(slot);
+			}
+	}
+
+	/**
+	 * _update pac man.
+	 *
+	 * @param slot the slot
+	 * @param move the ordinal of the move
+	 */
+	private void _updatePacMan(int slot,int move)
+	{
+		int node=pacmanNode[slot];
+
+		//as SimplifiedGame._correctPacManDir(): the move if possible, else the last move if possible, else stay put
+		if(neighbours[node*NUM_MOVES+move]<0)
+			move=neighbours[node*NUM_MOVES+pacmanLastMove[slot]]<0 ? NEUTRAL : pacmanLastMove[slot];
+
+		pacmanLastMove[slot]=move;
+
+		if(move!=NEUTRAL)
+			pacmanNode[slot]=neighbours[node*NUM_MOVES+move];
+	}
+
+	/**
+	 * _eat pill.
+	 *
+	 * @param slot the slot
+	 */
+	private void _eatPill(int slot)
+	{
+		flags[slot]&=~PILL_WAS_EATEN;
+
+		int pillIndex=pillIndices[pacmanNode[slot]];
+
+		if(pillIndex>=0)
+		{
+			int word=slot*pillWords+(pillIndex>>>6);
+			long bit=1L<<pillIndex;
+
+			if((pills[word]&bit)!=0)
+			{
+				score[slot]+=PILL;
+				pills[word]&=~bit;
+				pillsLeft[slot]--;
+				flags[slot]|=PILL_WAS_EATEN;
+			}
+		}
+	}
+
+	/**
+	 * _eat power pill.
+	 *
+	 * @param slot the slot
+	 */
+	private void _eatPowerPill(int slot)
+	{
+		flags[slot]&=~POWER_PILL_WAS_EATEN;
+
+		int powerPillIndex=powerPillIndices[pacmanNode[slot]];
+
+		if(powerPillIndex>=0)
+		{
+			int word=slot*powerPillWords+(powerPillIndex>>>6);
+			long bit=1L<<powerPillIndex;
+
+			if((powerPills[word]&bit)!=0)
+			{
+				score[slot]+=POWER_PILL;
+				ghostEatMultiplier[slot]=1;
+				powerPills[word]&=~bit;
+				pillsLeft[slot]--;
+
+				int newEdibleTime=(int)(EDIBLE_TIME*(Math.pow(EDIBLE_TIME_REDUCTION,levelCount[slot]%LEVEL_RESET_REDUCTION)));
+
+				for(int g=slot*NUM_GHOSTS;g<(slot+1)*NUM_GHOSTS;g++)
+					ghostEdibleTime[g]=ghostLairTime[g]==0 ? newEdibleTime : 0;
+
+				flags[slot]|=POWER_PILL_WAS_EATEN;
+			}
+		}
+	}
+
+	/**
+	 * _reverse ghosts, without random global reversals.
+	 *
+	 * @param slot the slot
+	 * @return whether any ghost was reversed
+	 */
+	private boolean _reverseGhosts(int slot)
+	{
+		boolean reversed=false;
+
+		if(currentLevelTime[slot]>1 && (flags[slot]&POWER_PILL_WAS_EATEN)!=0)
+			for(int g=slot*NUM_GHOSTS;g<(slot+1)*NUM_GHOSTS;g++)
+				if(ghostLairTime[g]==0 && ghostLastMove[g]!=NEUTRAL)
+				{
+					ghostLastMove[g]=OPPOSITE[ghostLastMove[g]];
+					ghostNode[g]=neighbours[ghostNode[g]*NUM_MOVES+ghostLastMove[g]];
+					reversed=true;
+					timeOfLastGlobalReversal[slot]=totalTime[slot];
+				}
+
+		return reversed;
+	}
+
+	/**
+	 * _update ghosts.
+	 *
+	 * @param slot the slot
+	 * @param moves the moves packed by GhostsMovesCodec
+	 */
+	private void _updateGhosts(int slot,int moves)
+	{
+		for(GHOST ghostType : GHOST_TYPES)
+		{
+			int g=slot*NUM_GHOSTS+ghostType.ordinal();
+
+			if(ghostLairTime[g]==0 && (ghostEdibleTime[g]==0 || ghostEdibleTime[g]%GHOST_SPEED_REDUCTION!=0))
+			{
+				ghostLastMove[g]=_checkGhostDir(slot,g,GhostsMovesCodec.move(moves,ghostType).ordinal());
+				ghostNode[g]=neighbours[ghostNode[g]*NUM_MOVES+ghostLastMove[g]];
+			}
+		}
+	}
+
+	/**
+	 * _check ghost dir.
+	 *
+	 * @param slot the slot
+	 * @param g the index of the ghost in the ghost arrays
+	 * @param direction the ordinal of the direction
+	 * @return the ordinal of the move
+	 */
+	private int _checkGhostDir(int slot,int g,int direction)
+	{
+		int node=ghostNode[g];
+		int lastMove=ghostLastMove[g];
+
+		//The direction is possible and not opposite to the previous direction of that ghost
+		if(neighbours[node*NUM_MOVES+direction]>=0 && direction!=OPPOSITE[lastMove])
+			return direction;
+		else if(neighbours[node*NUM_MOVES+lastMove]>=0)
+			return lastMove;
+		else
+		{
+			MOVE[] moves=possibleMoves[node*NUM_MOVES+lastMove];
+			return moves[rnd[slot].nextInt(moves.length)].ordinal();
+		}
+	}
+
+	/**
+	 * _feast.
+	 *
+	 * @param slot the slot
+	 */
+	private void _feast(int slot)
+	{
+		flags[slot]&=~(PACMAN_WAS_EATEN|(((1<<NUM_GHOSTS)-1)*GHOST_WAS_EATEN));
+
+		for(int g=slot*NUM_GHOSTS;g<(slot+1)*NUM_GHOSTS;g++)
+		{
+			int distance=maze.distances.get(pacmanNode[slot],ghostNode[g]);
+
+			if(distance<=EAT_DISTANCE && distance!=-1)
+			{
+				if(ghostEdibleTime[g]>0)									//pac-man eats ghost
+				{
+					score[slot]+=GHOST_EAT_SCORE*ghostEatMultiplier[slot];
+					ghostEatMultiplier[slot]*=2;
+					ghostEdibleTime[g]=0;
+					ghostLairTime[g]=(int)(COMMON_LAIR_TIME*(Math.pow(LAIR_REDUCTION,levelCount[slot]%LEVEL_RESET_REDUCTION)));
+					ghostNode[g]=maze.lairNodeIndex;
+					ghostLastMove[g]=NEUTRAL;
+
+					flags[slot]|=GHOST_WAS_EATEN<<(g-slot*NUM_GHOSTS);
+				}
+				else														//ghost eats pac-man
+				{
+					livesRemaining[slot]--;
+					flags[slot]|=PACMAN_WAS_EATEN;
+
+					if(livesRemaining[slot]<=0)
+						flags[slot]|=GAME_OVER;
+					else
+						_levelReset(slot);
+
+					return;
+				}
+			}
+		}
+
+		for(int g=slot*NUM_GHOSTS;g<(slot+1)*NUM_GHOSTS;g++)
+			if(ghostEdibleTime[g]>0)
+				ghostEdibleTime[g]--;
+	}
+
+	/**
+	 * _level reset.
+	 *
+	 * @param slot the slot
+	 */
+	private void _levelReset(int slot)
+	{
+		ghostEatMultiplier[slot]=1;
+
+		for(GHOST ghostType : GHOST_TYPES)
+		{
+			int g=slot*NUM_GHOSTS+ghostType.ordinal();
+
+			ghostNode[g]=maze.lairNodeIndex;
+			ghostEdibleTime[g]=0;
+			ghostLairTime[g]=(int)(ghostType.initialLairTime*(Math.pow(LAIR_REDUCTION,levelCount[slot]%LEVEL_RESET_REDUCTION)));
+			ghostLastMove[g]=NEUTRAL;
+		}
+
+		pacmanNode[slot]=maze.initialPacManNodeIndex;
+		pacmanLastMove[slot]=LEFT;
+	}
+
+	/**
+	 * _update lair times.
+	 *
+	 * @param slot the slot
+	 */
+	private void _updateLairTimes(int slot)
+	{
+		for(int g=slot*NUM_GHOSTS;g<(slot+1)*NUM_GHOSTS;g++)
+			if(ghostLairTime[g]>0)
+				if(--ghostLairTime[g]==0)
+					ghostNode[g]=maze.initialGhostNodeIndex;
+	}
+
+	/**
+	 * _check level state.
+	 *
+	 * @param slot the slot
+	 */
+	private void _checkLevelState(int slot)
+	{
+		if(totalTime[slot]+1>gameLength[slot])
+		{
+			flags[slot]|=GAME_OVER;
+			score[slot]=2200;
+		}
+		else if(pillsLeft[slot]==0 || currentLevelTime[slot]>=LEVEL_LIMIT)
+			flags[slot]|=GAME_OVER;
+	}
+
+	/////////////////////////////////////////////////////////////////////////////
+	///////////////////  Query Methods (return only)  ///////////////////////////
+	/////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * @return The number of games in the batch
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return The maximum number of games in the batch
+	 */
+	public int capacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * Whether advance() still steps the slot (from add() until stop()).
+	 *
+	 * @param slot the slot
+	 * @return true if running
+	 */
+	public boolean isRunning(int slot)
+	{
+		return (flags[slot]&RUNNING)!=0;
+	}
+
+	/**
+	 * Freezes the slot: advance() steps it no more.
+	 *
+	 * @param slot the slot
+	 */
+	public void stop(int slot)
+	{
+		flags[slot]&=~RUNNING;
+	}
+
+	public boolean wasPacManEaten(int slot)
+	{
+		return (flags[slot]&PACMAN_WAS_EATEN)!=0;
+	}
+
+	public boolean wasGhostEaten(int slot,GHOST ghostType)
+	{
+		return (flags[slot]&(GHOST_WAS_EATEN<<ghostType.ordinal()))!=0;
+	}
+
+	public boolean wasPillEaten(int slot)
+	{
+		return (flags[slot]&PILL_WAS_EATEN)!=0;
+	}
+
+	public boolean wasPowerPillEaten(int slot)
+	{
+		return (flags[slot]&POWER_PILL_WAS_EATEN)!=0;
+	}
+
+	public boolean gameOver(int slot)
+	{
+		return (flags[slot]&GAME_OVER)!=0;
+	}
+
+	public int getTimeOfLastGlobalReversal(int slot)
+	{
+		return timeOfLastGlobalReversal[slot];
+	}
+
+	public int getCurrentLevel(int slot)
+	{
+		return levelCount[slot];
+	}
+
+	public int getScore(int slot)
+	{
+		return score[slot];
+	}
+
+	public int getTotalTime(int slot)
+	{
+		return totalTime[slot];
+	}
+
+	public int getCurrentLevelTime(int slot)
+	{
+		return currentLevelTime[slot];
+	}
+
+	public int getPacmanCurrentNodeIndex(int slot)
+	{
+		return pacmanNode[slot];
+	}
+
+	public MOVE getPacmanLastMoveMade(int slot)
+	{
+		return MOVES[pacmanLastMove[slot]];
+	}
+
+	public int getPacmanNumberOfLivesRemaining(int slot)
+	{
+		return livesRemaining[slot];
+	}
+
+	public int getGhostCurrentNodeIndex(int slot,GHOST ghostType)
+	{
+		return ghostNode[slot*NUM_GHOSTS+ghostType.ordinal()];
+	}
+
+	public MOVE getGhostLastMoveMade(int slot,GHOST ghostType)
+	{
+		return MOVES[ghostLastMove[slot*NUM_GHOSTS+ghostType.ordinal()]];
+	}
+
+	public int getGhostEdibleTime(int slot,GHOST ghostType)
+	{
+		return ghostEdibleTime[slot*NUM_GHOSTS+ghostType.ordinal()];
+	}
+
+	public boolean isGhostEdible(int slot,GHOST ghostType)
+	{
+		return ghostEdibleTime[slot*NUM_GHOSTS+ghostType.ordinal()]>0;
+	}
+
+	public int getGhostLairTime(int slot,GHOST ghostType)
+	{
+		return ghostLairTime[slot*NUM_GHOSTS+ghostType.ordinal()];
+	}
+
+	/**
+	 * As SimplifiedGame.doesGhostRequireAction(): the ghost is at a junction (or has just left
+	 * the lair) and moves in this time step.
+	 *
+	 * @param slot the slot
+	 * @param ghostType the ghost type
+	 * @return true, if successful
+	 */
+	public boolean doesGhostRequireAction(int slot,GHOST ghostType)
+	{
+		int g=slot*NUM_GHOSTS+ghostType.ordinal();
+
+		return (isJunction(ghostNode[g]) || (ghostLastMove[g]==NEUTRAL && ghostNode[g]==maze.initialGhostNodeIndex))
+				&& (ghostEdibleTime[g]==0 || ghostEdibleTime[g]%GHOST_SPEED_REDUCTION!=0);
+	}
+
+	public boolean isPillStillAvailable(int slot,int pillIndex)
+	{
+		return (pills[slot*pillWords+(pillIndex>>>6)]&(1L<<pillIndex))!=0;
+	}
+
+	public boolean isPowerPillStillAvailable(int slot,int powerPillIndex)
+	{
+		return (powerPills[slot*powerPillWords+(powerPillIndex>>>6)]&(1L<<powerPillIndex))!=0;
+	}
+
+	/////////////////////////////////////////////////////////////////////////////
+	///////////////////////  Maze queries (all slots)  //////////////////////////
+	/////////////////////////////////////////////////////////////////////////////
+
+	public Maze getCurrentMaze()
+	{
+		return maze;
+	}
+
+	public int[] getPowerPillIndices()
+	{
+		return maze.powerPillIndices;
+	}
+
+	public boolean isJunction(int nodeIndex)
+	{
+		return maze.graph[nodeIndex].numNeighbouringNodes>2;
+	}
+
+	public MOVE[] getPossibleMoves(int nodeIndex)
+	{
+		return possibleMoves[nodeIndex*NUM_MOVES+NEUTRAL];
+	}
+
+	public MOVE[] getPossibleMoves(int nodeIndex,MOVE lastMoveMade)
+	{
+		return possibleMoves[nodeIndex*NUM_MOVES+lastMoveMade.ordinal()];
+	}
+
+	public int getShortestPathDistance(int fromNodeIndex,int toNodeIndex)
+	{
+		return maze.distances.get(fromNodeIndex,toNodeIndex);
+	}
+
+	/**
+	 * As Game.getNextMoveTowardsTarget(int,int,DM).
+	 */
+	public MOVE getNextMoveTowardsTarget(int fromNodeIndex,int toNodeIndex,DM distanceMeasure)
+	{
+		return _greedyMove(fromNodeIndex,toNodeIndex,MOVE.NEUTRAL,distanceMeasure,false);
+	}
+
+	/**
+	 * As Game.getNextMoveAwayFromTarget(int,int,DM).
+	 */
+	public MOVE getNextMoveAwayFromTarget(int fromNodeIndex,int toNodeIndex,DM distanceMeasure)
+	{
+		return _greedyMove(fromNodeIndex,toNodeIndex,MOVE.NEUTRAL,distanceMeasure,true);
+	}
+
+	/**
+	 * As Game.getApproximateNextMoveTowardsTarget().
+	 */
+	public MOVE getApproximateNextMoveTowardsTarget(int fromNodeIndex,int toNodeIndex,MOVE lastMoveMade,DM distanceMeasure)
+	{
+		return _greedyMove(fromNodeIndex,toNodeIndex,lastMoveMade,distanceMeasure,false);
+	}
+
+	/**
+	 * As Game.getApproximateNextMoveAwayFromTarget().
+	 */
+	public MOVE getApproximateNextMoveAwayFromTarget(int fromNodeIndex,int toNodeIndex,MOVE lastMoveMade,DM distanceMeasure)
+	{
+		return _greedyMove(fromNodeIndex,toNodeIndex,lastMoveMade,distanceMeasure,true);
+	}
+
+	/**
+	 * The greedy loops of SimplifiedGame: the first neighbour (not reversing the last move made) with
+	 * the smallest, or largest, distance to the target, from the navigation table if the maze has it.
+	 */
+	private MOVE _greedyMove(int fromNodeIndex,int toNodeIndex,MOVE lastMoveMade,DM distanceMeasure,boolean away)
+	{
+		if(distanceMeasure==DM.PATH && maze.navigation!=null)
+			return away ? maze.navigation.away(fromNodeIndex,toNodeIndex,lastMoveMade)
+					: maze.navigation.towards(fromNodeIndex,toNodeIndex,lastMoveMade);
+
+		MOVE move=null;
+		double bestDistance=away ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+
+		Node node=maze.graph[fromNodeIndex];
+		MOVE[] moves=node.allPossibleMoves.get(lastMoveMade);
+		int[] neighbouringNodes=node.allNeighbouringNodes.get(lastMoveMade);
+
+		for(int i=0;i<moves.length;i++)
+		{
+			double distance=_distance(neighbouringNodes[i],toNodeIndex,distanceMeasure);
+
+			if(away ? distance>bestDistance : distance<bestDistance)
+			{
+				bestDistance=distance;
+				move=moves[i];
+			}
+		}
+
+		return move;
+	}
+
+	/**
+	 * As SimplifiedGame.getDistance(int,int,DM).
+	 */
+	private double _distance(int fromNodeIndex,int toNodeIndex,DM distanceMeasure)
+	{
+		Node from=maze.graph[fromNodeIndex];
+		Node to=maze.graph[toNodeIndex];
+
+		switch(distanceMeasure)
+		{
+			case PATH: return maze.distances.get(fromNodeIndex,toNodeIndex);
+			case EUCLID: return Math.sqrt(Math.pow(from.x-to.x,2)+Math.pow(from.y-to.y,2));
+			case MANHATTAN: return Math.abs(from.x-to.x)+Math.abs(from.y-to.y);
+		}
+
+		return -1;
+	}
+}
@@ -10,7 +10,9 @@ import pacman.game.internal.Ghost;
 import pacman.game.internal.Maze;
 import pacman.game.internal.Node;
 import pacman.game.internal.PacMan;
-import pacman.game.internal.PathsCache;
+import pacman.game.internal.MazeRegistry;
+import pacman.game.internal.Zobrist;
+import mcts.GhostsMovesCodec;
 
 import static pacman.game.Constants.*;
 
@@ -58,26 +60,14 @@ public final class FullGame implements Game
 
         public boolean random_reversal = true;
 
-	//mazes are only loaded once since they don't change over time
-	protected static Maze[] mazes=new Maze[NUM_MAZES];;
+	private static final GHOST[] GHOST_TYPES=GHOST.values();
+	private static final MOVE[] MOVES=MOVE.values();
 
+	//mazes are only loaded once since they don't change over time, all games share them (see MazeRegistry)
 	protected Maze currentMaze;
 
-	static
-	{
-		for(int i=0;i<mazes.length;i++)
-			mazes[i]=new Maze(i);
-	}
-
-	public static PathsCache[] caches=new PathsCache[NUM_MAZES];
-
-	static
-	{
-		for(int i=0;i<mazes.length;i++)
-		{
-			caches[i]=new PathsCache(i);
-		}
-	}
+	//Zobrist hash of the positions and pills, updated incrementally by the engine (see stateHash())
+	protected long hash;
 
 	protected Random rnd;
 	protected long seed;
@@ -142,10 +132,11 @@ public final class FullGame implements Game
 		for(GHOST ghost : GHOST.values())
 			ghostsEaten.put(ghost,false);
 
-		_setPills(currentMaze=mazes[mazeIndex]);
+		_setPills(currentMaze=MazeRegistry.maze(mazeIndex));
 		_initGhosts();
 
 		pacman=new PacMan(currentMaze.initialPacManNodeIndex,MOVE.LEFT,NUM_LIVES,false);
+		_rehash();
 	}
 
 	/**
@@ -155,7 +146,7 @@ public final class FullGame implements Game
 	{
 		mazeIndex=++mazeIndex%NUM_MAZES;
 		levelCount++;
-		currentMaze=mazes[mazeIndex];
+		currentMaze=MazeRegistry.maze(mazeIndex);
 
 		currentLevelTime=0;
 		ghostEatMultiplier=1;
@@ -175,6 +166,8 @@ public final class FullGame implements Game
 
 		pacman.currentNodeIndex=currentMaze.initialPacManNodeIndex;
 		pacman.lastMoveMade=MOVE.LEFT;
+
+		_rehash();
 	}
 
 	/**
@@ -190,6 +183,23 @@ public final class FullGame implements Game
 		powerPills.set(0,currentMaze.powerPillIndices.length);
 	}
 
+	/**
+	 * Recomputes the Zobrist hash of the positions and pills from scratch.
+	 */
+	protected void _rehash()
+	{
+		hash=Zobrist.pacman(pacman.currentNodeIndex,pacman.lastMoveMade);
+
+		for(Ghost ghost : ghosts.values())
+			hash^=Zobrist.ghost(ghost.type,ghost.currentNodeIndex,ghost.lastMoveMade);
+
+		for(int i=pills.nextSetBit(0);i>=0;i=pills.nextSetBit(i+1))
+			hash^=Zobrist.pill(i);
+
+		for(int i=powerPills.nextSetBit(0);i>=0;i=powerPills.nextSetBit(i+1))
+			hash^=Zobrist.powerPill(i);
+	}
+
 	/**
 	 * _init ghosts.
 	 */
@@ -282,7 +292,7 @@ public final class FullGame implements Game
 			ghosts.put(ghostType,new Ghost(ghostType,Integer.parseInt(values[index++]),Integer.parseInt(values[index++]),
 					Integer.parseInt(values[index++]),MOVE.valueOf(values[index++])));
 
-		_setPills(currentMaze=mazes[mazeIndex]);
+		_setPills(currentMaze=MazeRegistry.maze(mazeIndex));
 
 		for(int i=0;i<values[index].length();i++)
 			if(values[index].charAt(i)=='1')
@@ -308,6 +318,8 @@ public final class FullGame implements Game
 
 		pillWasEaten=Boolean.parseBoolean(values[++index]);
 		powerPillWasEaten=Boolean.parseBoolean(values[++index]);
+
+		_rehash();
 	}
 
 	/**
@@ -326,6 +338,7 @@ public final class FullGame implements Game
 		copy.currentMaze=currentMaze;
 		copy.pills=(BitSet)pills.clone();
 		copy.powerPills=(BitSet)powerPills.clone();
+		copy.hash=hash;
 		copy.mazeIndex=mazeIndex;
 		copy.levelCount=levelCount;
 		copy.currentLevelTime=currentLevelTime;
@@ -351,6 +364,28 @@ public final class FullGame implements Game
 		return copy;
 	}
 
+	/**
+	 * Returns a 64-bit hash of the game state: the incrementally kept Zobrist hash of the
+	 * positions and pills with the times, score, lives and ghost timers mixed in.
+	 *
+	 * @return The hash of the game state
+	 */
+    @Override
+	public long stateHash()
+	{
+		long stateHash=Zobrist.mix(hash,mazeIndex);
+		stateHash=Zobrist.mix(stateHash,levelCount);
+		stateHash=Zobrist.mix(stateHash,((long)totalTime<<32)|currentLevelTime);
+		stateHash=Zobrist.mix(stateHash,((long)score<<32)|ghostEatMultiplier);
+		stateHash=Zobrist.mix(stateHash,pacman.numberOfLivesRemaining);
+		stateHash=Zobrist.mix(stateHash,(gameOver ? 2 : 0)|(pacmanWasEaten ? 1 : 0));
+
+		for(Ghost ghost : ghosts.values())
+			stateHash=Zobrist.mix(stateHash,((long)ghost.edibleTime<<32)|ghost.lairTime);
+
+		return stateHash;
+	}
+
 	/////////////////////////////////////////////////////////////////////////////
 	///////////////////////////  Game-engine   //////////////////////////////////
 	/////////////////////////////////////////////////////////////////////////////
@@ -366,44 +401,67 @@ public final class FullGame implements Game
     @Override
 	public void advanceGame(MOVE pacManMove,EnumMap<GHOST,MOVE> ghostMoves)
 	{
-		updatePacMan(pacManMove);
+		advanceGame(_pacManMoveCode(pacManMove),_ghostMovesCode(ghostMoves));
+	}
+
+    @Override
+	public void advanceGameWithoutReverse(MOVE pacManMove,EnumMap<GHOST,MOVE> ghostMoves)
+	{
+		advanceGameWithoutReverse(_pacManMoveCode(pacManMove),_ghostMovesCode(ghostMoves));
+	}
+
+    @Override
+	public void advanceGameWithForcedReverse(MOVE pacManMove,EnumMap<GHOST,MOVE> ghostMoves)
+	{
+		advanceGameWithForcedReverse(_pacManMoveCode(pacManMove),_ghostMovesCode(ghostMoves));
+	}
+
+    @Override
+	public void advanceGameWithPowerPillReverseOnly(MOVE pacManMove,EnumMap<GHOST,MOVE> ghostMoves)
+	{
+		advanceGameWithPowerPillReverseOnly(_pacManMoveCode(pacManMove),_ghostMovesCode(ghostMoves));
+	}
+
+	/**
+	 * Primitive variant of advanceGame(): Ms Pac-Man's move is given by its ordinal and the ghosts'
+	 * moves are packed in an int by mcts.GhostsMovesCodec. The EnumMap variants convert their moves
+	 * and call these.
+	 *
+	 * @param pacManMove The ordinal of the move supplied by the Ms Pac-Man controller
+	 * @param ghostMoves The moves supplied by the ghosts controller, packed by GhostsMovesCodec
+	 */
+    @Override
+	public void advanceGame(int pacManMove,int ghostMoves)
+	{
+		updatePacMan(MOVES[pacManMove]);
 		updateGhosts(ghostMoves);
 		updateGame();
 	}
 
     @Override
-	public void advanceGameWithoutReverse(MOVE pacManMove,EnumMap<GHOST,MOVE> ghostMoves)
+	public void advanceGameWithoutReverse(int pacManMove,int ghostMoves)
 	{
-		updatePacMan(pacManMove);
+		updatePacMan(MOVES[pacManMove]);
 		updateGhostsWithoutReverse(ghostMoves);
 		updateGame();
 	}
 
     @Override
-	public void advanceGameWithForcedReverse(MOVE pacManMove,EnumMap<GHOST,MOVE> ghostMoves)
+	public void advanceGameWithForcedReverse(int pacManMove,int ghostMoves)
 	{
-		updatePacMan(pacManMove);
+		updatePacMan(MOVES[pacManMove]);
 		updateGhostsWithForcedReverse(ghostMoves);
 		updateGame();
 	}
 
     @Override
-	public void advanceGameWithPowerPillReverseOnly(MOVE pacManMove,EnumMap<GHOST,MOVE> ghostMoves)
+	public void advanceGameWithPowerPillReverseOnly(int pacManMove,int ghostMoves)
 	{
-            //advanceGame(pacManMove, ghostMoves);
-            random_reversal = false;
-            updatePacMan(pacManMove);
-            updateGhosts(ghostMoves);
-            updateGame();
-            random_reversal = true;
-//		updatePacMan(pacManMove);
-//
-//		if(powerPillWasEaten)
-//			updateGhostsWithForcedReverse(ghostMoves);
-//		else
-//			updateGhostsWithoutReverse(ghostMoves);
-//
-//		updateGame();
+		random_reversal = false;
+		updatePacMan(MOVES[pacManMove]);
+		updateGhosts(ghostMoves);
+		updateGame();
+		random_reversal = true;
 	}
 
 	/**
@@ -427,24 +485,38 @@ public final class FullGame implements Game
     @Override
 	public void updateGhosts(EnumMap<GHOST,MOVE> ghostMoves)
 	{
-		ghostMoves=_completeGhostMoves(ghostMoves);
+		updateGhosts(_ghostMovesCode(ghostMoves));
+	}
 
-		if(!_reverseGhosts(ghostMoves,false))
+    @Override
+	public void updateGhostsWithoutReverse(EnumMap<GHOST,MOVE> ghostMoves)
+	{
+		updateGhostsWithoutReverse(_ghostMovesCode(ghostMoves));
+	}
+
+    @Override
+	public void updateGhostsWithForcedReverse(EnumMap<GHOST,MOVE> ghostMoves)
+	{
+		updateGhostsWithForcedReverse(_ghostMovesCode(ghostMoves));
+	}
+
+    @Override
+	public void updateGhosts(int ghostMoves)
+	{
+		if(!_reverseGhosts(false))
 			_updateGhosts(ghostMoves);
 	}
 
     @Override
-	public void updateGhostsWithoutReverse(EnumMap<GHOST,MOVE> ghostMoves)
+	public void updateGhostsWithoutReverse(int ghostMoves)
 	{
-		ghostMoves=_completeGhostMoves(ghostMoves);
 		_updateGhosts(ghostMoves);
 	}
 
     @Override
-	public void updateGhostsWithForcedReverse(EnumMap<GHOST,MOVE> ghostMoves)
+	public void updateGhostsWithForcedReverse(int ghostMoves)
 	{
-		ghostMoves=_completeGhostMoves(ghostMoves);
-		_reverseGhosts(ghostMoves,true);
+		_reverseGhosts(true);
 	}
 
 	/**
@@ -496,7 +568,11 @@ public final class FullGame implements Game
 		for(Ghost ghost : ghosts.values())
 			if(ghost.lairTime>0)
 				if(--ghost.lairTime==0)
+				{
+					hash^=Zobrist.ghost(ghost.type,ghost.currentNodeIndex,ghost.lastMoveMade);
 					ghost.currentNodeIndex=currentMaze.initialGhostNodeIndex;
+					hash^=Zobrist.ghost(ghost.type,ghost.currentNodeIndex,ghost.lastMoveMade);
+				}
 	}
 
 	/**
@@ -518,9 +594,11 @@ public final class FullGame implements Game
 	 */
 	protected void _updatePacMan(MOVE move)
 	{
+		hash^=Zobrist.pacman(pacman.currentNodeIndex,pacman.lastMoveMade);
 		pacman.lastMoveMade=_correctPacManDir(move);
 		pacman.currentNodeIndex=pacman.lastMoveMade == MOVE.NEUTRAL ? pacman.currentNodeIndex :
 			currentMaze.graph[pacman.currentNodeIndex].neighbourhood.get(pacman.lastMoveMade);
+		hash^=Zobrist.pacman(pacman.currentNodeIndex,pacman.lastMoveMade);
 	}
 
 	/**
@@ -550,42 +628,58 @@ public final class FullGame implements Game
 	/**
 	 * _update ghosts.
 	 *
-	 * @param moves the moves
+	 * @param moves the moves packed by GhostsMovesCodec
 	 */
-	protected void _updateGhosts(EnumMap<GHOST,MOVE> moves)
+	protected void _updateGhosts(int moves)
 	{
-		for(Entry<GHOST,MOVE> entry : moves.entrySet())
+		for(GHOST ghostType : GHOST_TYPES)
 		{
-			Ghost ghost=ghosts.get(entry.getKey());
+			Ghost ghost=ghosts.get(ghostType);
 
 			if(ghost.lairTime==0)
 			{
 				if(ghost.edibleTime==0 || ghost.edibleTime%GHOST_SPEED_REDUCTION!=0)
 				{
-					ghost.lastMoveMade=_checkGhostDir(ghost,entry.getValue());
-					moves.put(entry.getKey(), ghost.lastMoveMade);
+					hash^=Zobrist.ghost(ghost.type,ghost.currentNodeIndex,ghost.lastMoveMade);
+					ghost.lastMoveMade=_checkGhostDir(ghost,GhostsMovesCodec.move(moves,ghostType));
 					ghost.currentNodeIndex=currentMaze.graph[ghost.currentNodeIndex].neighbourhood.get(ghost.lastMoveMade);
+					hash^=Zobrist.ghost(ghost.type,ghost.currentNodeIndex,ghost.lastMoveMade);
 				}
 			}
 		}
 	}
 
-	protected EnumMap<GHOST,MOVE> _completeGhostMoves(EnumMap<GHOST,MOVE> moves)
+	/**
+	 * The ordinal of Ms Pac-Man's move, null counting as MOVE.NEUTRAL (neither is ever taken).
+	 *
+	 * @param move the move
+	 * @return the ordinal
+	 */
+	protected static int _pacManMoveCode(MOVE move)
 	{
-		if(moves==null)
+		return (move==null ? MOVE.NEUTRAL : move).ordinal();
+	}
+
+	/**
+	 * Packs the ghosts' moves by GhostsMovesCodec: the last moves made if there are no moves at all,
+	 * MOVE.NEUTRAL for a ghost without a move.
+	 *
+	 * @param moves the moves
+	 * @return the moves packed
+	 */
+	protected int _ghostMovesCode(EnumMap<GHOST,MOVE> moves)
+	{
+		int code=GhostsMovesCodec.NEUTRAL;
+
+		for(GHOST ghostType : GHOST_TYPES)
 		{
-			moves=new EnumMap<GHOST,MOVE>(GHOST.class);
+			MOVE move=moves==null ? ghosts.get(ghostType).lastMoveMade : moves.get(ghostType);
 
-			for(GHOST ghostType : GHOST.values())
-				moves.put(ghostType,ghosts.get(ghostType).lastMoveMade);
+			if(move!=null)
+				code=GhostsMovesCodec.withMove(code,ghostType,move);
 		}
 
-		if(moves.size()<NUM_GHOSTS)
-			for(GHOST ghostType : GHOST.values())
-				if(!moves.containsKey(ghostType))
-					moves.put(ghostType,MOVE.NEUTRAL);
-
-		return moves;
+		return code;
 	}
 
 	/**
@@ -628,6 +722,7 @@ public final class FullGame implements Game
 		{
 			score+=PILL;
 			pills.clear(pillIndex);
+			hash^=Zobrist.pill(pillIndex);
 			pillWasEaten=true;
 		}
 	}
@@ -646,6 +741,7 @@ public final class FullGame implements Game
 			score+=POWER_PILL;
 			ghostEatMultiplier=1;
 			powerPills.clear(powerPillIndex);
+			hash^=Zobrist.powerPill(powerPillIndex);
 
 			int newEdibleTime=(int)(EDIBLE_TIME*(Math.pow(EDIBLE_TIME_REDUCTION,levelCount%LEVEL_RESET_REDUCTION)));
 
@@ -659,7 +755,7 @@ public final class FullGame implements Game
 		}
 	}
 
-	protected boolean _reverseGhosts(EnumMap<GHOST,MOVE> moves,boolean force)
+	protected boolean _reverseGhosts(boolean force)
 	{
 		boolean reversed=false;
 		boolean globalReverse=false;
@@ -667,16 +763,18 @@ public final class FullGame implements Game
 		if(random_reversal&&Math.random()<GHOST_REVERSAL)
 			globalReverse=true;
 
-		for(Entry<GHOST,MOVE> entry : moves.entrySet())
+		for(GHOST ghostType : GHOST_TYPES)
 		{
-			Ghost ghost=ghosts.get(entry.getKey());
+			Ghost ghost=ghosts.get(ghostType);
 
 			if(currentLevelTime>1 && ghost.lairTime==0 && ghost.lastMoveMade!=MOVE.NEUTRAL)
 			{
 				if(force || (powerPillWasEaten || globalReverse))
 				{
+					hash^=Zobrist.ghost(ghost.type,ghost.currentNodeIndex,ghost.lastMoveMade);
 					ghost.lastMoveMade=ghost.lastMoveMade.opposite();
 					ghost.currentNodeIndex=currentMaze.graph[ghost.currentNodeIndex].neighbourhood.get(ghost.lastMoveMade);
+					hash^=Zobrist.ghost(ghost.type,ghost.currentNodeIndex,ghost.lastMoveMade);
 					reversed=true;
 					timeOfLastGlobalReversal = totalTime;
 				}
@@ -708,8 +806,10 @@ public final class FullGame implements Game
 					ghostEatMultiplier*=2;
 					ghost.edibleTime=0;
 					ghost.lairTime=(int)(COMMON_LAIR_TIME*(Math.pow(LAIR_REDUCTION,levelCount%LEVEL_RESET_REDUCTION)));
+					hash^=Zobrist.ghost(ghost.type,ghost.currentNodeIndex,ghost.lastMoveMade);
 					ghost.currentNodeIndex=currentMaze.lairNodeIndex;
 					ghost.lastMoveMade=MOVE.NEUTRAL;
+					hash^=Zobrist.ghost(ghost.type,ghost.currentNodeIndex,ghost.lastMoveMade);
 
 					ghostsEaten.put(ghost.type, true);
 				}
@@ -1344,12 +1444,7 @@ public final class FullGame implements Game
     @Override
 	public int getShortestPathDistance(int fromNodeIndex,int toNodeIndex)
 	{
-		if(fromNodeIndex==toNodeIndex)
-			return 0;
-		else if(fromNodeIndex<toNodeIndex)
-			return currentMaze.shortestPathDistances[((toNodeIndex*(toNodeIndex+1))/2)+fromNodeIndex];
-		else
-			return currentMaze.shortestPathDistances[((fromNodeIndex*(fromNodeIndex+1))/2)+toNodeIndex];
+		return currentMaze.distances.get(fromNodeIndex,toNodeIndex);
 	}
 
 	/**
@@ -1492,6 +1587,10 @@ public final class FullGame implements Game
     @Override
 	public MOVE getNextMoveTowardsTarget(int fromNodeIndex,int toNodeIndex,DM distanceMeasure)
 	{
+		//O(1) from the maze's precomputed moves if the binary maze file has them
+		if(distanceMeasure==DM.PATH && currentMaze.navigation!=null)
+			return currentMaze.navigation.towards(fromNodeIndex,toNodeIndex,MOVE.NEUTRAL);
+
 		MOVE move=null;
 
 		double minDistance=Integer.MAX_VALUE;
@@ -1521,6 +1620,9 @@ public final class FullGame implements Game
     @Override
 	public MOVE getNextMoveAwayFromTarget(int fromNodeIndex,int toNodeIndex,DM distanceMeasure)
 	{
+		if(distanceMeasure==DM.PATH && currentMaze.navigation!=null)
+			return currentMaze.navigation.away(fromNodeIndex,toNodeIndex,MOVE.NEUTRAL);
+
 		MOVE move=null;
 
 		double maxDistance=Integer.MIN_VALUE;
@@ -1551,6 +1653,9 @@ public final class FullGame implements Game
     @Override
 	public MOVE getApproximateNextMoveTowardsTarget(int fromNodeIndex,int toNodeIndex,MOVE lastMoveMade, DM distanceMeasure)
 	{
+		if(distanceMeasure==DM.PATH && currentMaze.navigation!=null)
+			return currentMaze.navigation.towards(fromNodeIndex,toNodeIndex,lastMoveMade);
+
 		MOVE move=null;
 
 		double minDistance=Integer.MAX_VALUE;
@@ -1581,6 +1686,9 @@ public final class FullGame implements Game
     @Override
 	public MOVE getApproximateNextMoveAwayFromTarget(int fromNodeIndex,int toNodeIndex,MOVE lastMoveMade, DM distanceMeasure)
 	{
+		if(distanceMeasure==DM.PATH && currentMaze.navigation!=null)
+			return currentMaze.navigation.away(fromNodeIndex,toNodeIndex,lastMoveMade);
+
 		MOVE move=null;
 
 		double maxDistance=Integer.MIN_VALUE;
@@ -1686,7 +1794,7 @@ public final class FullGame implements Game
     @Override
 	public int[] getShortestPath(int fromNodeIndex,int toNodeIndex)
 	{
-		return caches[mazeIndex].getPathFromA2B(fromNodeIndex,toNodeIndex);
+		return MazeRegistry.paths(mazeIndex).getPathFromA2B(fromNodeIndex,toNodeIndex);
 	}
 
 	/**
@@ -1724,7 +1832,7 @@ public final class FullGame implements Game
 		if(currentMaze.graph[fromNodeIndex].neighbourhood.size()==0)//lair
 			return new int[0];
 
-		return caches[mazeIndex].getPathFromA2B(fromNodeIndex,toNodeIndex,lastMoveMade);
+		return MazeRegistry.paths(mazeIndex).getPathFromA2B(fromNodeIndex,toNodeIndex,lastMoveMade);
 	}
 
 	/**
@@ -1760,6 +1868,6 @@ public final class FullGame implements Game
 		if(currentMaze.graph[fromNodeIndex].neighbourhood.size()==0)//lair
 			return 0;
 
-		return caches[mazeIndex].getPathDistanceFromA2B(fromNodeIndex,toNodeIndex,lastMoveMade);
+		return MazeRegistry.paths(mazeIndex).getPathDistanceFromA2B(fromNodeIndex,toNodeIndex,lastMoveMade);
 	}
 }
\ No newline at end of file
@@ -32,6 +32,25 @@ public interface Game {
 
     void advanceGameWithoutReverse(MOVE pacManMove, EnumMap<GHOST, MOVE> ghostMoves);
 
+    /**
+     * Primitive variant of advanceGame(): Ms Pac-Man's move is given by its
+     * ordinal and the four ghosts' moves are packed in a single int by
+     * mcts.GhostsMovesCodec, so stepping the game needs no EnumMap. The
+     * EnumMap variants behave as if their moves were converted and passed here
+     * (a null map meaning the ghosts' last moves, a missing or null move
+     * meaning MOVE.NEUTRAL).
+     *
+     * @param pacManMove The ordinal of the move supplied by the Ms Pac-Man controller
+     * @param ghostMoves The moves supplied by the ghosts controller, packed by GhostsMovesCodec
+     */
+    void advanceGame(int pacManMove, int ghostMoves);
+
+    void advanceGameWithForcedReverse(int pacManMove, int ghostMoves);
+
+    void advanceGameWithPowerPillReverseOnly(int pacManMove, int ghostMoves);
+
+    void advanceGameWithoutReverse(int pacManMove, int ghostMoves);
+
     /**
      * Returns an exact copy of the game. This may be used for forward searches
      * such as minimax. The copying is relatively efficient.
@@ -215,6 +234,15 @@ public interface Game {
      */
     String getGameState();
 
+    /**
+     * Returns a 64-bit hash of the game state. The hash of the positions and pills is kept
+     * up to date incrementally as the game advances, so the call is cheap (unlike getGameState()).
+     * Equal states have equal hashes, also across processes and game copies.
+     *
+     * @return The hash of the game state
+     */
+    long stateHash();
+
     /**
      * Returns the current value awarded for eating a ghost.
      *
@@ -623,6 +651,18 @@ public interface Game {
 
     void updateGhostsWithoutReverse(EnumMap<GHOST, MOVE> ghostMoves);
 
+    /**
+     * Primitive variant of updateGhosts(), the moves are packed by
+     * mcts.GhostsMovesCodec.
+     *
+     * @param ghostMoves The moves supplied by the ghosts controller, packed by GhostsMovesCodec
+     */
+    void updateGhosts(int ghostMoves);
+
+    void updateGhostsWithForcedReverse(int ghostMoves);
+
+    void updateGhostsWithoutReverse(int ghostMoves);
+
     /**
      * Updates the state of Ms Pac-Man given the move returned by the controller.
      *
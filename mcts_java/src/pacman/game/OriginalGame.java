@@ -10,7 +10,9 @@ import pacman.game.internal.Ghost;
 import pacman.game.internal.Maze;
 import pacman.game.internal.Node;
 import pacman.game.internal.PacMan;
-import pacman.game.internal.PathsCache;
+import pacman.game.internal.MazeRegistry;
+import pacman.game.internal.Zobrist;
+import mcts.GhostsMovesCodec;
 
 import static pacman.game.Constants.*;
 
@@ -46,26 +48,11 @@ public final class OriginalGame implements Game
 	private PacMan pacman;
 	private EnumMap<GHOST, Ghost> ghosts;
 
-	//mazes are only loaded once since they don't change over time
-	private static Maze[] mazes=new Maze[NUM_MAZES];;
-
+	//mazes are only loaded once since they don't change over time, all games share them (see MazeRegistry)
 	private Maze currentMaze;
 
-	static
-	{
-		for(int i=0;i<mazes.length;i++)
-			mazes[i]=new Maze(i);
-	}
-
-	public static PathsCache[] caches=new PathsCache[NUM_MAZES];
-
-	static
-	{
-		for(int i=0;i<mazes.length;i++)
-		{
-			caches[i]=new PathsCache(i);
-		}
-	}
+	//Zobrist hash of the positions and pills, updated incrementally by the engine (see stateHash())
+	private long hash;
 
 	private Random rnd;
 	private long seed;
@@ -130,10 +117,11 @@ public final class OriginalGame implements Game
 		for(GHOST ghost : GHOST.values())
 			ghostsEaten.put(ghost,false);
 
-		_setPills(currentMaze=mazes[mazeIndex]);
+		_setPills(currentMaze=MazeRegistry.maze(mazeIndex));
 		_initGhosts();
 
 		pacman=new PacMan(currentMaze.initialPacManNodeIndex,MOVE.LEFT,NUM_LIVES,false);
+		_rehash();
 	}
 
 	/**
@@ -143,7 +131,7 @@ public final class OriginalGame implements Game
 	{
 		mazeIndex=++mazeIndex%NUM_MAZES;
 		levelCount++;
-		currentMaze=mazes[mazeIndex];
+		currentMaze=MazeRegistry.maze(mazeIndex);
 
 		currentLevelTime=0;
 		ghostEatMultiplier=1;
@@ -163,6 +151,8 @@ public final class OriginalGame implements Game
 
 		pacman.currentNodeIndex=currentMaze.initialPacManNodeIndex;
 		pacman.lastMoveMade=MOVE.LEFT;
+
+		_rehash();
 	}
 
 	/**
@@ -178,6 +168,23 @@ public final class OriginalGame implements Game
 		powerPills.set(0,currentMaze.powerPillIndices.length);
 	}
 
+	/**
+	 * Recomputes the Zobrist hash of the positions and pills from scratch.
+	 */
+	private void _rehash()
+	{
+		hash=Zobrist.pacman(pacman.currentNodeIndex,pacman.lastMoveMade);
+
+		for(Ghost ghost : ghosts.values())
+			hash^=Zobrist.ghost(ghost.type,ghost.currentNodeIndex,ghost.lastMoveMade);
+
+		for(int i=pills.nextSetBit(0);i>=0;i=pills.nextSetBit(i+1))
+			hash^=Zobrist.pill(i);
+
+		for(int i=powerPills.nextSetBit(0);i>=0;i=powerPills.nextSetBit(i+1))
+			hash^=Zobrist.powerPill(i);
+	}
+
 	/**
 	 * _init ghosts.
 	 */
@@ -268,7 +275,7 @@ public final class OriginalGame implements Game
 			ghosts.put(ghostType,new Ghost(ghostType,Integer.parseInt(values[index++]),Integer.parseInt(values[index++]),
 					Integer.parseInt(values[index++]),MOVE.valueOf(values[index++])));
 
-		_setPills(currentMaze=mazes[mazeIndex]);
+		_setPills(currentMaze=MazeRegistry.maze(mazeIndex));
 
 		for(int i=0;i<values[index].length();i++)
 			if(values[index].charAt(i)=='1')
@@ -294,6 +301,8 @@ public final class OriginalGame implements Game
 
 		pillWasEaten=Boolean.parseBoolean(values[++index]);
 		powerPillWasEaten=Boolean.parseBoolean(values[++index]);
+
+		_rehash();
 	}
 
 	/**
@@ -311,6 +320,7 @@ public final class OriginalGame implements Game
 		copy.currentMaze=currentMaze;
 		copy.pills=(BitSet)pills.clone();
 		copy.powerPills=(BitSet)powerPills.clone();
+		copy.hash=hash;
 		copy.mazeIndex=mazeIndex;
 		copy.levelCount=levelCount;
 		copy.currentLevelTime=currentLevelTime;
@@ -336,6 +346,28 @@ public final class OriginalGame implements Game
 		return copy;
 	}
 
+	/**
+	 * Returns a 64-bit hash of the game state: the incrementally kept Zobrist hash of the
+	 * positions and pills with the times, score, lives and ghost timers mixed in.
+	 *
+	 * @return The hash of the game state
+	 */
+    @Override
+	public long stateHash()
+	{
+		long stateHash=Zobrist.mix(hash,mazeIndex);
+		stateHash=Zobrist.mix(stateHash,levelCount);
+		stateHash=Zobrist.mix(stateHash,((long)totalTime<<32)|currentLevelTime);
+		stateHash=Zobrist.mix(stateHash,((long)score<<32)|ghostEatMultiplier);
+		stateHash=Zobrist.mix(stateHash,pacman.numberOfLivesRemaining);
+		stateHash=Zobrist.mix(stateHash,(gameOver ? 2 : 0)|(pacmanWasEaten ? 1 : 0));
+
+		for(Ghost ghost : ghosts.values())
+			stateHash=Zobrist.mix(stateHash,((long)ghost.edibleTime<<32)|ghost.lairTime);
+
+		return stateHash;
+	}
+
 	/////////////////////////////////////////////////////////////////////////////
 	///////////////////////////  Game-engine   //////////////////////////////////
 	/////////////////////////////////////////////////////////////////////////////
@@ -381,6 +413,29 @@ public final class OriginalGame implements Game
 		updateGame();
 	}
 
+	/*
+	 * The primitive variants decode the moves, this engine is kept as the original is.
+	 */
+	public void advanceGame(int pacManMove,int ghostMoves)
+	{
+		advanceGame(MOVE.values()[pacManMove],GhostsMovesCodec.decode(ghostMoves));
+	}
+
+	public void advanceGameWithoutReverse(int pacManMove,int ghostMoves)
+	{
+		advanceGameWithoutReverse(MOVE.values()[pacManMove],GhostsMovesCodec.decode(ghostMoves));
+	}
+
+	public void advanceGameWithForcedReverse(int pacManMove,int ghostMoves)
+	{
+		advanceGameWithForcedReverse(MOVE.values()[pacManMove],GhostsMovesCodec.decode(ghostMoves));
+	}
+
+	public void advanceGameWithPowerPillReverseOnly(int pacManMove,int ghostMoves)
+	{
+		advanceGameWithPowerPillReverseOnly(MOVE.values()[pacManMove],GhostsMovesCodec.decode(ghostMoves));
+	}
+
 	/**
 	 * Updates the state of Ms Pac-Man given the move returned by the controller.
 	 *
@@ -418,6 +473,21 @@ public final class OriginalGame implements Game
 		_reverseGhosts(ghostMoves,true);
 	}
 
+	public void updateGhosts(int ghostMoves)
+	{
+		updateGhosts(GhostsMovesCodec.decode(ghostMoves));
+	}
+
+	public void updateGhostsWithoutReverse(int ghostMoves)
+	{
+		updateGhostsWithoutReverse(GhostsMovesCodec.decode(ghostMoves));
+	}
+
+	public void updateGhostsWithForcedReverse(int ghostMoves)
+	{
+		updateGhostsWithForcedReverse(GhostsMovesCodec.decode(ghostMoves));
+	}
+
 	/**
 	 * Updates the game once the individual characters have been updated: check if anyone
 	 * can eat anyone else. Then update the lair times and check if Ms Pac-Man should be
@@ -465,7 +535,11 @@ public final class OriginalGame implements Game
 		for(Ghost ghost : ghosts.values())
 			if(ghost.lairTime>0)
 				if(--ghost.lairTime==0)
+				{
+					hash^=Zobrist.ghost(ghost.type,ghost.currentNodeIndex,ghost.lastMoveMade);
 					ghost.currentNodeIndex=currentMaze.initialGhostNodeIndex;
+					hash^=Zobrist.ghost(ghost.type,ghost.currentNodeIndex,ghost.lastMoveMade);
+				}
 	}
 
 	/**
@@ -487,9 +561,11 @@ public final class OriginalGame implements Game
 	 */
 	private void _updatePacMan(MOVE move)
 	{
+		hash^=Zobrist.pacman(pacman.currentNodeIndex,pacman.lastMoveMade);
 		pacman.lastMoveMade=_correctPacManDir(move);
 		pacman.currentNodeIndex=pacman.lastMoveMade == MOVE.NEUTRAL ? pacman.currentNodeIndex :
 			currentMaze.graph[pacman.currentNodeIndex].neighbourhood.get(pacman.lastMoveMade);
+		hash^=Zobrist.pacman(pacman.currentNodeIndex,pacman.lastMoveMade);
 	}
 
 	/**
@@ -531,9 +607,11 @@ public final class OriginalGame implements Game
 			{
 				if(ghost.edibleTime==0 || ghost.edibleTime%GHOST_SPEED_REDUCTION!=0)
 				{
+					hash^=Zobrist.ghost(ghost.type,ghost.currentNodeIndex,ghost.lastMoveMade);
 					ghost.lastMoveMade=_checkGhostDir(ghost,entry.getValue());
 					moves.put(entry.getKey(), ghost.lastMoveMade);
 					ghost.currentNodeIndex=currentMaze.graph[ghost.currentNodeIndex].neighbourhood.get(ghost.lastMoveMade);
+					hash^=Zobrist.ghost(ghost.type,ghost.currentNodeIndex,ghost.lastMoveMade);
 				}
 			}
 		}
@@ -597,6 +675,7 @@ public final class OriginalGame implements Game
 		{
 			score+=PILL;
 			pills.clear(pillIndex);
+			hash^=Zobrist.pill(pillIndex);
 			pillWasEaten=true;
 		}
 	}
@@ -615,6 +694,7 @@ public final class OriginalGame implements Game
 			score+=POWER_PILL;
 			ghostEatMultiplier=1;
 			powerPills.clear(powerPillIndex);
+			hash^=Zobrist.powerPill(powerPillIndex);
 
 			int newEdibleTime=(int)(EDIBLE_TIME*(Math.pow(EDIBLE_TIME_REDUCTION,levelCount%LEVEL_RESET_REDUCTION)));
 
@@ -644,8 +724,10 @@ public final class OriginalGame implements Game
 			{
 				if(force || (powerPillWasEaten || globalReverse))
 				{
+					hash^=Zobrist.ghost(ghost.type,ghost.currentNodeIndex,ghost.lastMoveMade);
 					ghost.lastMoveMade=ghost.lastMoveMade.opposite();
 					ghost.currentNodeIndex=currentMaze.graph[ghost.currentNodeIndex].neighbourhood.get(ghost.lastMoveMade);
+					hash^=Zobrist.ghost(ghost.type,ghost.currentNodeIndex,ghost.lastMoveMade);
 					reversed=true;
 					timeOfLastGlobalReversal = totalTime;
 				}
@@ -677,8 +759,10 @@ public final class OriginalGame implements Game
 					ghostEatMultiplier*=2;
 					ghost.edibleTime=0;
 					ghost.lairTime=(int)(COMMON_LAIR_TIME*(Math.pow(LAIR_REDUCTION,levelCount%LEVEL_RESET_REDUCTION)));
+					hash^=Zobrist.ghost(ghost.type,ghost.currentNodeIndex,ghost.lastMoveMade);
 					ghost.currentNodeIndex=currentMaze.lairNodeIndex;
 					ghost.lastMoveMade=MOVE.NEUTRAL;
+					hash^=Zobrist.ghost(ghost.type,ghost.currentNodeIndex,ghost.lastMoveMade);
 
 					ghostsEaten.put(ghost.type, true);
 				}
@@ -1265,12 +1349,7 @@ public final class OriginalGame implements Game
 	 */
 	public int getShortestPathDistance(int fromNodeIndex,int toNodeIndex)
 	{
-		if(fromNodeIndex==toNodeIndex)
-			return 0;
-		else if(fromNodeIndex<toNodeIndex)
-			return currentMaze.shortestPathDistances[((toNodeIndex*(toNodeIndex+1))/2)+fromNodeIndex];
-		else
-			return currentMaze.shortestPathDistances[((fromNodeIndex*(fromNodeIndex+1))/2)+toNodeIndex];
+		return currentMaze.distances.get(fromNodeIndex,toNodeIndex);
 	}
 
 	/**
@@ -1593,7 +1672,7 @@ public final class OriginalGame implements Game
 	 */
 	public int[] getShortestPath(int fromNodeIndex,int toNodeIndex)
 	{
-		return caches[mazeIndex].getPathFromA2B(fromNodeIndex,toNodeIndex);
+		return MazeRegistry.paths(mazeIndex).getPathFromA2B(fromNodeIndex,toNodeIndex);
 	}
 
 	/**
@@ -1629,7 +1708,7 @@ public final class OriginalGame implements Game
 		if(currentMaze.graph[fromNodeIndex].neighbourhood.size()==0)//lair
 			return new int[0];
 
-		return caches[mazeIndex].getPathFromA2B(fromNodeIndex,toNodeIndex,lastMoveMade);
+		return MazeRegistry.paths(mazeIndex).getPathFromA2B(fromNodeIndex,toNodeIndex,lastMoveMade);
 	}
 
 	/**
@@ -1663,6 +1742,6 @@ public final class OriginalGame implements Game
 		if(currentMaze.graph[fromNodeIndex].neighbourhood.size()==0)//lair
 			return 0;
 
-		return caches[mazeIndex].getPathDistanceFromA2B(fromNodeIndex,toNodeIndex,lastMoveMade);
+		return MazeRegistry.paths(mazeIndex).getPathDistanceFromA2B(fromNodeIndex,toNodeIndex,lastMoveMade);
 	}
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package pacman.game;
 
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.EnumMap;
 import java.util.Random;
@@ -10,7 +11,9 @@ import pacman.game.internal.Ghost;
 import pacman.game.internal.Maze;
 import pacman.game.internal.Node;
 import pacman.game.internal.PacMan;
-import pacman.game.internal.PathsCache;
+import pacman.game.internal.MazeRegistry;
+import pacman.game.internal.Zobrist;
+import mcts.GhostsMovesCodec;
 
 import static pacman.game.Constants.*;
 
@@ -30,26 +33,26 @@ public final class SimplifiedGame implements Game
         protected boolean random_reversal = false;
         private int gameLength = mcts.Constants.DEFAULT_GAME_LENGTH;
 
-	//mazes are only loaded once since they don't change over time
-	protected static Maze[] mazes=new Maze[NUM_MAZES];;
-
+	//mazes are only loaded once since they don't change over time, all games share them (see MazeRegistry)
 	protected Maze currentMaze;
 
-	static
-	{
-		for(int i=0;i<mazes.length;i++)
-			mazes[i]=new Maze(i);
-	}
+	//Zobrist hash of the positions and pills, updated incrementally by the engine (see stateHash())
+	protected long hash;
 
-	public static PathsCache[] caches=new PathsCache[NUM_MAZES];
+	//copy-on-write: copy() shares the pills and the ghost records (ghostsEaten included) with the copy, the first
+	//of the games to change them gets its own (see _ownPills() and _ownGhosts()). Node games of a search tree
+	//are never changed, so children share whatever an edge leaves unchanged with their parents.
+	protected boolean pillsShared, ghostsShared;
 
-	static
-	{
-		for(int i=0;i<mazes.length;i++)
-		{
-			caches[i]=new PathsCache(i);
-		}
-	}
+	//undo log of advance(): UNDO_RECORD ints per time step, see _pushUndo()
+	protected int[] undoLog;
+	protected int undoDepth;
+
+	private static final GHOST[] GHOST_TYPES=GHOST.values();
+	private static final MOVE[] MOVES=MOVE.values();
+	private static final int UNDO_PILL=3+4*NUM_GHOSTS+6;
+	private static final int UNDO_POWER_PILL=UNDO_PILL+1;
+	private static final int UNDO_RECORD=UNDO_POWER_PILL+3;
 
 	protected Random rnd;
 	protected long seed;
@@ -114,10 +117,11 @@ public final class SimplifiedGame implements Game
 		for(GHOST ghost : GHOST.values())
 			ghostsEaten.put(ghost,false);
 
-		_setPills(currentMaze=mazes[mazeIndex]);
+		_setPills(currentMaze=MazeRegistry.maze(mazeIndex));
 		_initGhosts();
 
 		pacman=new PacMan(currentMaze.initialPacManNodeIndex,MOVE.LEFT,1,false);
+		_rehash();
 	}
 
 	/**
@@ -128,7 +132,7 @@ public final class SimplifiedGame implements Game
             gameOver = true;
 //		mazeIndex=++mazeIndex%NUM_MAZES;
 //		levelCount++;
-//		currentMaze=mazes[mazeIndex];
+//		currentMaze=MazeRegistry.maze(mazeIndex);
 //
 //		currentLevelTime=0;
 //		ghostEatMultiplier=1;
@@ -148,6 +152,8 @@ public final class SimplifiedGame implements Game
 
 		pacman.currentNodeIndex=currentMaze.initialPacManNodeIndex;
 		pacman.lastMoveMade=MOVE.LEFT;
+
+		_rehash();
 	}
 
 	/**
@@ -157,17 +163,79 @@ public final class SimplifiedGame implements Game
 	 */
 	protected void _setPills(Maze maze)
 	{
+		pillsShared=false;
 		pills=new BitSet(currentMaze.pillIndices.length);
 		pills.set(0,currentMaze.pillIndices.length);
 		powerPills=new BitSet(currentMaze.powerPillIndices.length);
 		powerPills.set(0,currentMaze.powerPillIndices.length, false);
 	}
 
+	/**
+	 * Recomputes the Zobrist hash of the positions and pills from scratch.
+	 */
+	protected void _rehash()
+	{
+		hash=Zobrist.pacman(pacman.currentNodeIndex,pacman.lastMoveMade);
+
+		for(Ghost ghost : ghosts.values())
+			hash^=Zobrist.ghost(ghost.type,ghost.currentNodeIndex,ghost.lastMoveMade);
+
+		for(int i=pills.nextSetBit(0);i>=0;i=pills.nextSetBit(i+1))
+			hash^=Zobrist.pill(i);
+
+		for(int i=powerPills.nextSetBit(0);i>=0;i=powerPills.nextSetBit(i+1))
+			hash^=Zobrist.powerPill(i);
+	}
+
+	/**
+	 * Gives this game its own pills if it shares them with a copy.
+	 */
+	protected void _ownPills()
+	{
+		if(pillsShared)
+		{
+			pills=(BitSet)pills.clone();
+			powerPills=(BitSet)powerPills.clone();
+			pillsShared=false;
+		}
+	}
+
+	/**
+	 * Gives this game its own ghost records if it shares them with a copy. To be called before
+	 * the records are looked up for a change.
+	 */
+	protected void _ownGhosts()
+	{
+		if(ghostsShared)
+		{
+			EnumMap<GHOST,Ghost> shared=ghosts;
+			ghosts=new EnumMap<GHOST,Ghost>(GHOST.class);
+
+			for(GHOST ghostType : GHOST_TYPES)
+				ghosts.put(ghostType,shared.get(ghostType).copy());
+
+			ghostsEaten=new EnumMap<GHOST,Boolean>(ghostsEaten);
+			ghostsShared=false;
+		}
+	}
+
+	/**
+	 * The generator of the random ghost moves, created from the seed on first use (copies start it afresh).
+	 */
+	protected Random _rnd()
+	{
+		if(rnd==null)
+			rnd=new Random(seed);
+
+		return rnd;
+	}
+
         public void setShortLairTimes() {
             if (totalTime!=0) {
                 System.err.printf("Cannot change lair times because game is already running");
                 return;
             }
+            _ownGhosts();
             int i = 1;
             for (Ghost ghost: ghosts.values()) {
                 ghost.lairTime = 5*i;
@@ -267,7 +335,7 @@ public final class SimplifiedGame implements Game
 			ghosts.put(ghostType,new Ghost(ghostType,Integer.parseInt(values[index++]),Integer.parseInt(values[index++]),
 					Integer.parseInt(values[index++]),MOVE.valueOf(values[index++])));
 
-		_setPills(currentMaze=mazes[mazeIndex]);
+		_setPills(currentMaze=MazeRegistry.maze(mazeIndex));
 
 		for(int i=0;i<values[index].length();i++)
 			if(values[index].charAt(i)=='1')
@@ -287,17 +355,21 @@ public final class SimplifiedGame implements Game
 		pacmanWasEaten=Boolean.parseBoolean(values[++index]);
 
 		ghostsEaten=new EnumMap<GHOST,Boolean>(GHOST.class);
+		ghostsShared=false;												//the records and pills are all new
 
 		for(GHOST ghost : GHOST.values())
 			ghostsEaten.put(ghost,Boolean.parseBoolean(values[++index]));
 
 		pillWasEaten=Boolean.parseBoolean(values[++index]);
 		powerPillWasEaten=Boolean.parseBoolean(values[++index]);
+
+		_rehash();
 	}
 
 	/**
 	 * Returns an exact copy of the game. This may be used for forward searches
-	 * such as minimax. The copying is relatively efficient.
+	 * such as minimax. The copying is cheap: the copy shares the pills and the ghost
+	 * records with this game until either game changes them.
 	 *
 	 * @return the game
 	 */
@@ -307,10 +379,11 @@ public final class SimplifiedGame implements Game
 		SimplifiedGame copy=new SimplifiedGame();
 
 		copy.seed=seed;
-		copy.rnd=new Random(seed);
 		copy.currentMaze=currentMaze;
-		copy.pills=(BitSet)pills.clone();
-		copy.powerPills=(BitSet)powerPills.clone();
+		copy.pills=pills;
+		copy.powerPills=powerPills;
+		copy.pillsShared=pillsShared=true;
+		copy.hash=hash;
 		copy.mazeIndex=mazeIndex;
 		copy.levelCount=levelCount;
 		copy.currentLevelTime=currentLevelTime;
@@ -323,17 +396,247 @@ public final class SimplifiedGame implements Game
 		copy.pillWasEaten=pillWasEaten;
 		copy.powerPillWasEaten=powerPillWasEaten;
 		copy.pacman=pacman.copy();
+		copy.ghosts=ghosts;
+		copy.ghostsEaten=ghostsEaten;
+		copy.ghostsShared=ghostsShared=true;
 
-		copy.ghostsEaten=new EnumMap<GHOST,Boolean>(GHOST.class);
-		copy.ghosts=new EnumMap<GHOST,Ghost>(GHOST.class);
+		return copy;
+	}
 
-		for(GHOST ghostType : GHOST.values())
+	/**
+	 * Returns a 64-bit hash of the game state: the incrementally kept Zobrist hash of the
+	 * positions and pills with the times, score, lives and ghost timers mixed in.
+	 *
+	 * @return The hash of the game state
+	 */
+    @Override
+	public long stateHash()
+	{
+		long stateHash=Zobrist.mix(hash,mazeIndex);
+		stateHash=Zobrist.mix(stateHash,levelCount);
+		stateHash=Zobrist.mix(stateHash,((long)totalTime<<32)|currentLevelTime);
+		stateHash=Zobrist.mix(stateHash,((long)score<<32)|ghostEatMultiplier);
+		stateHash=Zobrist.mix(stateHash,pacman.numberOfLivesRemaining);
+		stateHash=Zobrist.mix(stateHash,(gameOver ? 2 : 0)|(pacmanWasEaten ? 1 : 0));
+
+		for(Ghost ghost : ghosts.values())
+			stateHash=Zobrist.mix(stateHash,((long)ghost.edibleTime<<32)|ghost.lairTime);
+
+		return stateHash;
+	}
+
+	/**
+	 * Sets this game to the state of the given game, reusing the pills and characters of
+	 * this game instead of allocating new ones. The result is the same as of game.copy(),
+	 * so a game may be used as a per-thread scratch copy. The undo log is cleared.
+	 *
+	 * @param game The game to copy the state from
+	 */
+	public void copyFrom(SimplifiedGame game)
+	{
+		seed=game.seed;
+		if(rnd==null)
+			rnd=new Random(seed);
+		else
+			rnd.setSeed(seed);
+
+		_ownPills();
+		_ownGhosts();
+
+		currentMaze=game.currentMaze;
+		pills.clear();
+		pills.or(game.pills);
+		powerPills.clear();
+		powerPills.or(game.powerPills);
+		hash=game.hash;
+		mazeIndex=game.mazeIndex;
+		levelCount=game.levelCount;
+		currentLevelTime=game.currentLevelTime;
+		totalTime=game.totalTime;
+		score=game.score;
+		ghostEatMultiplier=game.ghostEatMultiplier;
+		gameOver=game.gameOver;
+		timeOfLastGlobalReversal=game.timeOfLastGlobalReversal;
+		pacmanWasEaten=game.pacmanWasEaten;
+		pillWasEaten=game.pillWasEaten;
+		powerPillWasEaten=game.powerPillWasEaten;
+
+		pacman.currentNodeIndex=game.pacman.currentNodeIndex;
+		pacman.lastMoveMade=game.pacman.lastMoveMade;
+		pacman.numberOfLivesRemaining=game.pacman.numberOfLivesRemaining;
+		pacman.hasReceivedExtraLife=game.pacman.hasReceivedExtraLife;
+
+		for(GHOST ghostType : GHOST_TYPES)
 		{
-			copy.ghosts.put(ghostType,ghosts.get(ghostType).copy());
-			copy.ghostsEaten.put(ghostType,ghostsEaten.get(ghostType));
+			Ghost ghost=ghosts.get(ghostType);
+			Ghost source=game.ghosts.get(ghostType);
+			ghost.currentNodeIndex=source.currentNodeIndex;
+			ghost.edibleTime=source.edibleTime;
+			ghost.lairTime=source.lairTime;
+			ghost.lastMoveMade=source.lastMoveMade;
+			ghostsEaten.put(ghostType,game.ghostsEaten.get(ghostType));
 		}
 
-		return copy;
+		undoDepth=0;
+	}
+
+	/////////////////////////////////////////////////////////////////////////////
+	//////////////////////////  Make/unmake   ///////////////////////////////////
+	/////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Advances the game as advanceGameWithPowerPillReverseOnly() does, but first pushes
+	 * a record of the state to the undo log, so that undo() restores the exact prior state
+	 * (the pseudo-random generator excepted, it is not part of the state). Searches may thus
+	 * step a single game forward and back instead of copying it.
+	 *
+	 * @param pacManMove The move supplied by the Ms Pac-Man controller
+	 * @param ghostMoves The moves supplied by the ghosts controller
+	 */
+	public void advance(MOVE pacManMove,EnumMap<GHOST,MOVE> ghostMoves)
+	{
+		advance(_pacManMoveCode(pacManMove),_ghostMovesCode(ghostMoves));
+	}
+
+	/**
+	 * Primitive variant of advance(), the moves are given as by advanceGameWithPowerPillReverseOnly(int,int).
+	 *
+	 * @param pacManMove The ordinal of the move supplied by the Ms Pac-Man controller
+	 * @param ghostMoves The moves supplied by the ghosts controller, packed by GhostsMovesCodec
+	 */
+	public void advance(int pacManMove,int ghostMoves)
+	{
+		int record=_pushUndo();
+
+		updatePacMan(MOVES[pacManMove]);
+
+		//pills are never restored by a level reset here, so the eaten ones are all that needs to be undone
+		if(pillWasEaten)
+			undoLog[record+UNDO_PILL]=currentMaze.graph[pacman.currentNodeIndex].pillIndex;
+		if(powerPillWasEaten)
+			undoLog[record+UNDO_POWER_PILL]=currentMaze.graph[pacman.currentNodeIndex].powerPillIndex;
+
+		updateGhosts(ghostMoves);
+		updateGame();
+	}
+
+	/**
+	 * Restores the state before the last advance().
+	 */
+	public void undo()
+	{
+		assert undoDepth>0;
+
+		_ownGhosts();
+
+		int i=(--undoDepth)*UNDO_RECORD;
+
+		pacman.currentNodeIndex=undoLog[i++];
+		pacman.lastMoveMade=MOVES[undoLog[i++]];
+		pacman.numberOfLivesRemaining=undoLog[i++];
+
+		for(GHOST ghostType : GHOST_TYPES)
+		{
+			Ghost ghost=ghosts.get(ghostType);
+			ghost.currentNodeIndex=undoLog[i++];
+			ghost.edibleTime=undoLog[i++];
+			ghost.lairTime=undoLog[i++];
+			ghost.lastMoveMade=MOVES[undoLog[i++]];
+		}
+
+		score=undoLog[i++];
+		ghostEatMultiplier=undoLog[i++];
+		currentLevelTime=undoLog[i++];
+		totalTime=undoLog[i++];
+		timeOfLastGlobalReversal=undoLog[i++];
+
+		int flags=undoLog[i++];
+		gameOver=(flags&1)!=0;
+		pacmanWasEaten=(flags&2)!=0;
+		pillWasEaten=(flags&4)!=0;
+		powerPillWasEaten=(flags&8)!=0;
+
+		for(GHOST ghostType : GHOST_TYPES)
+			ghostsEaten.put(ghostType,(flags&(16<<ghostType.ordinal()))!=0);
+
+		int pillIndex=undoLog[i++];
+		int powerPillIndex=undoLog[i++];
+
+		if(pillIndex>=0 || powerPillIndex>=0)
+			_ownPills();
+		if(pillIndex>=0)
+			pills.set(pillIndex);
+		if(powerPillIndex>=0)
+			powerPills.set(powerPillIndex);
+
+		hash=((long)undoLog[i++]<<32)|(undoLog[i]&0xFFFFFFFFL);
+	}
+
+	/**
+	 * Undoes the time steps made by advance() since the undo log had the given depth.
+	 *
+	 * @param depth The depth returned by undoDepth() before advancing
+	 */
+	public void undoTo(int depth)
+	{
+		while(undoDepth>depth)
+			undo();
+	}
+
+	/**
+	 * @return The number of time steps that may be undone
+	 */
+	public int undoDepth()
+	{
+		return undoDepth;
+	}
+
+	/**
+	 * Pushes the current state to the undo log, the eaten pills are filled in by advance().
+	 *
+	 * @return Position of the record in the log
+	 */
+	protected int _pushUndo()
+	{
+		if(undoLog==null)
+			undoLog=new int[16*UNDO_RECORD];
+		else if((undoDepth+1)*UNDO_RECORD>undoLog.length)
+			undoLog=Arrays.copyOf(undoLog,2*undoLog.length);
+
+		int record=(undoDepth++)*UNDO_RECORD;
+		int i=record;
+
+		undoLog[i++]=pacman.currentNodeIndex;
+		undoLog[i++]=pacman.lastMoveMade.ordinal();
+		undoLog[i++]=pacman.numberOfLivesRemaining;
+
+		for(GHOST ghostType : GHOST_TYPES)
+		{
+			Ghost ghost=ghosts.get(ghostType);
+			undoLog[i++]=ghost.currentNodeIndex;
+			undoLog[i++]=ghost.edibleTime;
+			undoLog[i++]=ghost.lairTime;
+			undoLog[i++]=ghost.lastMoveMade.ordinal();
+		}
+
+		undoLog[i++]=score;
+		undoLog[i++]=ghostEatMultiplier;
+		undoLog[i++]=currentLevelTime;
+		undoLog[i++]=totalTime;
+		undoLog[i++]=timeOfLastGlobalReversal;
+
+		int flags=(gameOver ? 1 : 0)|(pacmanWasEaten ? 2 : 0)|(pillWasEaten ? 4 : 0)|(powerPillWasEaten ? 8 : 0);
+		for(GHOST ghostType : GHOST_TYPES)
+			if(ghostsEaten.get(ghostType))
+				flags|=16<<ghostType.ordinal();
+		undoLog[i++]=flags;
+
+		undoLog[i++]=-1;								//UNDO_PILL
+		undoLog[i++]=-1;								//UNDO_POWER_PILL
+		undoLog[i++]=(int)(hash>>>32);
+		undoLog[i]=(int)hash;
+
+		return record;
 	}
 
 	/////////////////////////////////////////////////////////////////////////////
@@ -351,44 +654,205 @@ public final class SimplifiedGame implements Game
     @Override
 	public void advanceGame(MOVE pacManMove,EnumMap<GHOST,MOVE> ghostMoves)
 	{
-		updatePacMan(pacManMove);
+		advanceGame(_pacManMoveCode(pacManMove),_ghostMovesCode(ghostMoves));
+	}
+
+    @Override
+	public void advanceGameWithoutReverse(MOVE pacManMove,EnumMap<GHOST,MOVE> ghostMoves)
+	{
+		advanceGameWithoutReverse(_pacManMoveCode(pacManMove),_ghostMovesCode(ghostMoves));
+	}
+
+    @Override
+	public void advanceGameWithForcedReverse(MOVE pacManMove,EnumMap<GHOST,MOVE> ghostMoves)
+	{
+		advanceGameWithForcedReverse(_pacManMoveCode(pacManMove),_ghostMovesCode(ghostMoves));
+	}
+
+    @Override
+	public void advanceGameWithPowerPillReverseOnly(MOVE pacManMove,EnumMap<GHOST,MOVE> ghostMoves)
+	{
+		advanceGameWithPowerPillReverseOnly(_pacManMoveCode(pacManMove),_ghostMovesCode(ghostMoves));
+	}
+
+	/**
+	 * Primitive variant of advanceGame(): Ms Pac-Man's move is given by its ordinal and the ghosts'
+	 * moves are packed in an int by mcts.GhostsMovesCodec. Unlike the EnumMap variants, which convert
+	 * their moves and call these, it allocates nothing, so rollouts stepped by it produce no garbage.
+	 *
+	 * @param pacManMove The ordinal of the move supplied by the Ms Pac-Man controller
+	 * @param ghostMoves The moves supplied by the ghosts controller, packed by GhostsMovesCodec
+	 */
+    @Override
+	public void advanceGame(int pacManMove,int ghostMoves)
+	{
+		updatePacMan(MOVES[pacManMove]);
 		updateGhosts(ghostMoves);
 		updateGame();
 	}
 
     @Override
-	public void advanceGameWithoutReverse(MOVE pacManMove,EnumMap<GHOST,MOVE> ghostMoves)
+	public void advanceGameWithoutReverse(int pacManMove,int ghostMoves)
 	{
-		updatePacMan(pacManMove);
+		updatePacMan(MOVES[pacManMove]);
 		updateGhostsWithoutReverse(ghostMoves);
 		updateGame();
 	}
 
     @Override
-	public void advanceGameWithForcedReverse(MOVE pacManMove,EnumMap<GHOST,MOVE> ghostMoves)
+	public void advanceGameWithForcedReverse(int pacManMove,int ghostMoves)
 	{
-		updatePacMan(pacManMove);
+		updatePacMan(MOVES[pacManMove]);
 		updateGhostsWithForcedReverse(ghostMoves);
 		updateGame();
 	}
 
+	//random reversals are off in simplified games, so this is advanceGame()
     @Override
-	public void advanceGameWithPowerPillReverseOnly(MOVE pacManMove,EnumMap<GHOST,MOVE> ghostMoves)
+	public void advanceGameWithPowerPillReverseOnly(int pacManMove,int ghostMoves)
 	{
-            //advanceGame(pacManMove, ghostMoves);
-//            random_reversal = false;
-            updatePacMan(pacManMove);
-            updateGhosts(ghostMoves);
-            updateGame();
-//            random_reversal = true;
-//		updatePacMan(pacManMove);
-//
-//		if(powerPillWasEaten)
-//			updateGhostsWithForcedReverse(ghostMoves);
-//		else
-//			updateGhostsWithoutReverse(ghostMoves);
-//
-//		updateGame();
+		updatePacMan(MOVES[pacManMove]);
+		updateGhosts(ghostMoves);
+		updateGame();
+	}
+
+	/**
+	 * The number of time steps from now in which nobody has a choice and nothing interacts: Ms Pac-Man and
+	 * the moving ghosts follow their roads (see RoadSegments), Ms Pac-Man neither steps next to an available
+	 * power pill nor eats the last pill, no ghost leaves the lair, no ghost gets close enough to meet
+	 * Ms Pac-Man and the level and game go on. advanceAlongRoads() may advance the game by these steps.
+	 * The count is conservative: it may stop earlier than the first actual choice or interaction.
+	 *
+	 * @param maxTicks The maximum number of time steps wanted
+	 * @return The number of time steps, 0 if there is a choice or interaction now
+	 */
+	public int roadTicks(int maxTicks)
+	{
+		if(random_reversal || gameOver || pacmanWasEaten || powerPillWasEaten)
+			return 0;
+
+		int ticks=Math.min(maxTicks,Math.min(gameLength-totalTime-1,LEVEL_LIMIT-currentLevelTime-1));
+
+		if(powerPills.isEmpty())
+			ticks=Math.min(ticks,pills.cardinality()-1);
+
+		//Ms Pac-Man: the road and the power pills next to it (ahead or behind)
+		int roadSteps=currentMaze.roads.stepsToRoadEnd(pacman.currentNodeIndex,pacman.lastMoveMade);
+		int node=pacman.currentNodeIndex;
+		MOVE lastMoveMade=pacman.lastMoveMade;
+
+		ticks=Math.min(ticks,roadSteps);
+
+		for(int i=0;i<ticks;i++)
+		{
+			for(int neighbour : currentMaze.graph[node].allNeighbouringNodes.get(MOVE.NEUTRAL))
+			{
+				int powerPillIndex=currentMaze.graph[neighbour].powerPillIndex;
+
+				if(powerPillIndex>=0 && powerPills.get(powerPillIndex))
+					ticks=i;
+			}
+
+			int next=currentMaze.graph[node].allNeighbouringNodes.get(lastMoveMade)[0];
+			lastMoveMade=currentMaze.graph[node].allPossibleMoves.get(lastMoveMade)[0];
+			node=next;
+		}
+
+		for(GHOST ghostType : GHOST_TYPES)
+		{
+			Ghost ghost=ghosts.get(ghostType);
+
+			if(ghostsEaten.get(ghostType))
+				return 0;
+
+			//the ghost stays in the lair
+			if(ghost.lairTime>0)
+			{
+				ticks=Math.min(ticks,ghost.lairTime-1);
+				continue;
+			}
+
+			//each step brings Ms Pac-Man and the ghost at most 2 nodes closer
+			int distance=getShortestPathDistance(pacman.currentNodeIndex,ghost.currentNodeIndex);
+
+			if(distance<0)
+				return 0;
+
+			ticks=Math.min(ticks,(distance-EAT_DISTANCE-1)/2);
+
+			//the ghost follows its road, it chooses at the road's end in the first step it moves
+			roadSteps=currentMaze.roads.stepsToRoadEnd(ghost.currentNodeIndex,ghost.lastMoveMade);
+
+			for(int i=0,moves=0;i<ticks;i++)
+			{
+				int edibleTime=Math.max(0,ghost.edibleTime-i);
+
+				if(edibleTime==0 || edibleTime%GHOST_SPEED_REDUCTION!=0)
+				{
+					if(moves==roadSteps)
+						ticks=i;
+
+					moves++;
+				}
+			}
+		}
+
+		return Math.max(ticks,0);
+	}
+
+	/**
+	 * Advances the game by time steps counted by roadTicks(): each step has the outcome of
+	 * advanceGameWithPowerPillReverseOnly() with everybody following the road, but the choices and
+	 * interactions ruled out by roadTicks() are not checked.
+	 *
+	 * @param ticks The number of time steps, at most roadTicks(ticks)
+	 * @param undoable Whether to push the steps to the undo log as advance() does
+	 */
+	public void advanceAlongRoads(int ticks,boolean undoable)
+	{
+		_ownGhosts();
+
+		for(int t=0;t<ticks;t++)
+		{
+			int record=undoable ? _pushUndo() : -1;
+
+			Node node=currentMaze.graph[pacman.currentNodeIndex];
+			hash^=Zobrist.pacman(pacman.currentNodeIndex,pacman.lastMoveMade);
+			pacman.currentNodeIndex=node.allNeighbouringNodes.get(pacman.lastMoveMade)[0];
+			pacman.lastMoveMade=node.allPossibleMoves.get(pacman.lastMoveMade)[0];
+			hash^=Zobrist.pacman(pacman.currentNodeIndex,pacman.lastMoveMade);
+
+			_eatPill();
+			powerPillWasEaten=false;
+
+			if(undoable && pillWasEaten)
+				undoLog[record+UNDO_PILL]=currentMaze.graph[pacman.currentNodeIndex].pillIndex;
+
+			for(GHOST ghostType : GHOST_TYPES)
+			{
+				Ghost ghost=ghosts.get(ghostType);
+
+				if(ghost.lairTime==0 && (ghost.edibleTime==0 || ghost.edibleTime%GHOST_SPEED_REDUCTION!=0))
+				{
+					node=currentMaze.graph[ghost.currentNodeIndex];
+					hash^=Zobrist.ghost(ghost.type,ghost.currentNodeIndex,ghost.lastMoveMade);
+					ghost.currentNodeIndex=node.allNeighbouringNodes.get(ghost.lastMoveMade)[0];
+					ghost.lastMoveMade=node.allPossibleMoves.get(ghost.lastMoveMade)[0];
+					hash^=Zobrist.ghost(ghost.type,ghost.currentNodeIndex,ghost.lastMoveMade);
+				}
+
+				//what is left of _feast() without meetings
+				if(ghost.edibleTime>0)
+					ghost.edibleTime--;
+			}
+
+			_updateLairTimes();
+
+			totalTime++;
+			currentLevelTime++;
+
+			_checkLevelState();
+		}
 	}
 
 	/**
@@ -412,24 +876,38 @@ public final class SimplifiedGame implements Game
     @Override
 	public void updateGhosts(EnumMap<GHOST,MOVE> ghostMoves)
 	{
-		ghostMoves=_completeGhostMoves(ghostMoves);
+		updateGhosts(_ghostMovesCode(ghostMoves));
+	}
+
+    @Override
+	public void updateGhostsWithoutReverse(EnumMap<GHOST,MOVE> ghostMoves)
+	{
+		updateGhostsWithoutReverse(_ghostMovesCode(ghostMoves));
+	}
+
+    @Override
+	public void updateGhostsWithForcedReverse(EnumMap<GHOST,MOVE> ghostMoves)
+	{
+		updateGhostsWithForcedReverse(_ghostMovesCode(ghostMoves));
+	}
 
-		if(!_reverseGhosts(ghostMoves,false))
+    @Override
+	public void updateGhosts(int ghostMoves)
+	{
+		if(!_reverseGhosts(false))
 			_updateGhosts(ghostMoves);
 	}
 
     @Override
-	public void updateGhostsWithoutReverse(EnumMap<GHOST,MOVE> ghostMoves)
+	public void updateGhostsWithoutReverse(int ghostMoves)
 	{
-		ghostMoves=_completeGhostMoves(ghostMoves);
 		_updateGhosts(ghostMoves);
 	}
 
     @Override
-	public void updateGhostsWithForcedReverse(EnumMap<GHOST,MOVE> ghostMoves)
+	public void updateGhostsWithForcedReverse(int ghostMoves)
 	{
-		ghostMoves=_completeGhostMoves(ghostMoves);
-		_reverseGhosts(ghostMoves,true);
+		_reverseGhosts(true);
 	}
 
 	/**
@@ -478,10 +956,20 @@ public final class SimplifiedGame implements Game
 	 */
 	protected void _updateLairTimes()
 	{
-		for(Ghost ghost : ghosts.values())
+		_ownGhosts();
+
+		for(GHOST ghostType : GHOST_TYPES)
+		{
+			Ghost ghost=ghosts.get(ghostType);
+
 			if(ghost.lairTime>0)
 				if(--ghost.lairTime==0)
+				{
+					hash^=Zobrist.ghost(ghost.type,ghost.currentNodeIndex,ghost.lastMoveMade);
 					ghost.currentNodeIndex=currentMaze.initialGhostNodeIndex;
+					hash^=Zobrist.ghost(ghost.type,ghost.currentNodeIndex,ghost.lastMoveMade);
+				}
+		}
 	}
 
 	/**
@@ -503,9 +991,11 @@ public final class SimplifiedGame implements Game
 	 */
 	protected void _updatePacMan(MOVE move)
 	{
+		hash^=Zobrist.pacman(pacman.currentNodeIndex,pacman.lastMoveMade);
 		pacman.lastMoveMade=_correctPacManDir(move);
 		pacman.currentNodeIndex=pacman.lastMoveMade == MOVE.NEUTRAL ? pacman.currentNodeIndex :
 			currentMaze.graph[pacman.currentNodeIndex].neighbourhood.get(pacman.lastMoveMade);
+		hash^=Zobrist.pacman(pacman.currentNodeIndex,pacman.lastMoveMade);
 	}
 
 	/**
@@ -535,42 +1025,71 @@ public final class SimplifiedGame implements Game
 	/**
 	 * _update ghosts.
 	 *
-	 * @param moves the moves
+	 * @param moves the moves packed by GhostsMovesCodec
 	 */
-	protected void _updateGhosts(EnumMap<GHOST,MOVE> moves)
+	protected void _updateGhosts(int moves)
 	{
-		for(Entry<GHOST,MOVE> entry : moves.entrySet())
-		{
-			Ghost ghost=ghosts.get(entry.getKey());
+		_ownGhosts();
 
-			if(ghost.lairTime==0)
+		for(GHOST ghostType : GHOST_TYPES)
+			_updateGhost(ghosts.get(ghostType),GhostsMovesCodec.move(moves,ghostType));
+	}
+
+	/**
+	 * _update ghost.
+	 *
+	 * @param ghost the ghost
+	 * @param move the move
+	 * @return whether the ghost moved (by its corrected lastMoveMade)
+	 */
+	protected boolean _updateGhost(Ghost ghost,MOVE move)
+	{
+		if(ghost.lairTime==0)
+		{
+			if(ghost.edibleTime==0 || ghost.edibleTime%GHOST_SPEED_REDUCTION!=0)
 			{
-				if(ghost.edibleTime==0 || ghost.edibleTime%GHOST_SPEED_REDUCTION!=0)
-				{
-					ghost.lastMoveMade=_checkGhostDir(ghost,entry.getValue());
-					moves.put(entry.getKey(), ghost.lastMoveMade);
-					ghost.currentNodeIndex=currentMaze.graph[ghost.currentNodeIndex].neighbourhood.get(ghost.lastMoveMade);
-				}
+				hash^=Zobrist.ghost(ghost.type,ghost.currentNodeIndex,ghost.lastMoveMade);
+				ghost.lastMoveMade=_checkGhostDir(ghost,move);
+				ghost.currentNodeIndex=currentMaze.graph[ghost.currentNodeIndex].neighbourhood.get(ghost.lastMoveMade);
+				hash^=Zobrist.ghost(ghost.type,ghost.currentNodeIndex,ghost.lastMoveMade);
+				return true;
 			}
 		}
+
+		return false;
 	}
 
-	protected EnumMap<GHOST,MOVE> _completeGhostMoves(EnumMap<GHOST,MOVE> moves)
+	/**
+	 * The ordinal of Ms Pac-Man's move, null counting as MOVE.NEUTRAL (neither is ever taken).
+	 *
+	 * @param move the move
+	 * @return the ordinal
+	 */
+	protected static int _pacManMoveCode(MOVE move)
 	{
-		if(moves==null)
+		return (move==null ? MOVE.NEUTRAL : move).ordinal();
+	}
+
+	/**
+	 * Packs the ghosts' moves by GhostsMovesCodec: the last moves made if there are no moves at all,
+	 * MOVE.NEUTRAL for a ghost without a move (it then keeps going as a null move would).
+	 *
+	 * @param moves the moves
+	 * @return the moves packed
+	 */
+	protected int _ghostMovesCode(EnumMap<GHOST,MOVE> moves)
+	{
+		int code=GhostsMovesCodec.NEUTRAL;
+
+		for(GHOST ghostType : GHOST_TYPES)
 		{
-			moves=new EnumMap<GHOST,MOVE>(GHOST.class);
+			MOVE move=moves==null ? ghosts.get(ghostType).lastMoveMade : moves.get(ghostType);
 
-			for(GHOST ghostType : GHOST.values())
-				moves.put(ghostType,ghosts.get(ghostType).lastMoveMade);
+			if(move!=null)
+				code=GhostsMovesCodec.withMove(code,ghostType,move);
 		}
 
-		if(moves.size()<NUM_GHOSTS)
-			for(GHOST ghostType : GHOST.values())
-				if(!moves.containsKey(ghostType))
-					moves.put(ghostType,MOVE.NEUTRAL);
-
-		return moves;
+		return code;
 	}
 
 	/**
@@ -595,7 +1114,7 @@ public final class SimplifiedGame implements Game
 			else
 			{
 				MOVE[] moves=node.allPossibleMoves.get(ghost.lastMoveMade);
-				return moves[rnd.nextInt(moves.length)];
+				return moves[_rnd().nextInt(moves.length)];
 			}
 		}
 	}
@@ -611,8 +1130,10 @@ public final class SimplifiedGame implements Game
 
 		if(pillIndex>=0 && pills.get(pillIndex))
 		{
+			_ownPills();
 			score+=PILL;
 			pills.clear(pillIndex);
+			hash^=Zobrist.pill(pillIndex);
 			pillWasEaten=true;
 		}
 	}
@@ -628,40 +1149,51 @@ public final class SimplifiedGame implements Game
 
 		if(powerPillIndex>=0 && powerPills.get(powerPillIndex))
 		{
+			_ownPills();
+			_ownGhosts();
 			score+=POWER_PILL;
 			ghostEatMultiplier=1;
 			powerPills.clear(powerPillIndex);
+			hash^=Zobrist.powerPill(powerPillIndex);
 
 			int newEdibleTime=(int)(EDIBLE_TIME*(Math.pow(EDIBLE_TIME_REDUCTION,levelCount%LEVEL_RESET_REDUCTION)));
 
-			for(Ghost ghost : ghosts.values())
+			for(GHOST ghostType : GHOST_TYPES)
+			{
+				Ghost ghost=ghosts.get(ghostType);
+
 				if(ghost.lairTime==0)
 					ghost.edibleTime=newEdibleTime;
 				else
 					ghost.edibleTime=0;
+			}
 
 			powerPillWasEaten=true;
 		}
 	}
 
-	protected boolean _reverseGhosts(EnumMap<GHOST,MOVE> moves,boolean force)
+	protected boolean _reverseGhosts(boolean force)
 	{
+		_ownGhosts();
+
 		boolean reversed=false;
 		boolean globalReverse=false;
 
 		if(random_reversal&&Math.random()<GHOST_REVERSAL)
 			globalReverse=true;
 
-		for(Entry<GHOST,MOVE> entry : moves.entrySet())
+		for(GHOST ghostType : GHOST_TYPES)
 		{
-			Ghost ghost=ghosts.get(entry.getKey());
+			Ghost ghost=ghosts.get(ghostType);
 
 			if(currentLevelTime>1 && ghost.lairTime==0 && ghost.lastMoveMade!=MOVE.NEUTRAL)
 			{
 				if(force || (powerPillWasEaten || globalReverse))
 				{
+					hash^=Zobrist.ghost(ghost.type,ghost.currentNodeIndex,ghost.lastMoveMade);
 					ghost.lastMoveMade=ghost.lastMoveMade.opposite();
 					ghost.currentNodeIndex=currentMaze.graph[ghost.currentNodeIndex].neighbourhood.get(ghost.lastMoveMade);
+					hash^=Zobrist.ghost(ghost.type,ghost.currentNodeIndex,ghost.lastMoveMade);
 					reversed=true;
 					timeOfLastGlobalReversal = totalTime;
 				}
@@ -676,13 +1208,16 @@ public final class SimplifiedGame implements Game
 	 */
 	protected void _feast()
 	{
+		_ownGhosts();
+
 		pacmanWasEaten=false;
 
-		for(GHOST ghost : GHOST.values())
-			ghostsEaten.put(ghost,false);
+		for(GHOST ghostType : GHOST_TYPES)
+			ghostsEaten.put(ghostType,false);
 
-		for(Ghost ghost : ghosts.values())
+		for(GHOST ghostType : GHOST_TYPES)
 		{
+			Ghost ghost=ghosts.get(ghostType);
 			int distance=getShortestPathDistance(pacman.currentNodeIndex, ghost.currentNodeIndex);
 
 			if(distance<=EAT_DISTANCE && distance!=-1)
@@ -693,8 +1228,10 @@ public final class SimplifiedGame implements Game
 					ghostEatMultiplier*=2;
 					ghost.edibleTime=0;
 					ghost.lairTime=(int)(COMMON_LAIR_TIME*(Math.pow(LAIR_REDUCTION,levelCount%LEVEL_RESET_REDUCTION)));
+					hash^=Zobrist.ghost(ghost.type,ghost.currentNodeIndex,ghost.lastMoveMade);
 					ghost.currentNodeIndex=currentMaze.lairNodeIndex;
 					ghost.lastMoveMade=MOVE.NEUTRAL;
+					hash^=Zobrist.ghost(ghost.type,ghost.currentNodeIndex,ghost.lastMoveMade);
 
 					ghostsEaten.put(ghost.type, true);
 				}
@@ -713,9 +1250,13 @@ public final class SimplifiedGame implements Game
 			}
 		}
 
-		for(Ghost ghost : ghosts.values())
+		for(GHOST ghostType : GHOST_TYPES)
+		{
+			Ghost ghost=ghosts.get(ghostType);
+
 			if(ghost.edibleTime>0)
 				ghost.edibleTime--;
+		}
 	}
 
 	/**
@@ -1333,12 +1874,7 @@ public final class SimplifiedGame implements Game
     @Override
 	public int getShortestPathDistance(int fromNodeIndex,int toNodeIndex)
 	{
-		if(fromNodeIndex==toNodeIndex)
-			return 0;
-		else if(fromNodeIndex<toNodeIndex)
-			return currentMaze.shortestPathDistances[((toNodeIndex*(toNodeIndex+1))/2)+fromNodeIndex];
-		else
-			return currentMaze.shortestPathDistances[((fromNodeIndex*(fromNodeIndex+1))/2)+toNodeIndex];
+		return currentMaze.distances.get(fromNodeIndex,toNodeIndex);
 	}
 
 	/**
@@ -1481,18 +2017,27 @@ public final class SimplifiedGame implements Game
     @Override
 	public MOVE getNextMoveTowardsTarget(int fromNodeIndex,int toNodeIndex,DM distanceMeasure)
 	{
+		//O(1) from the maze's precomputed moves if the binary maze file has them
+		if(distanceMeasure==DM.PATH && currentMaze.navigation!=null)
+			return currentMaze.navigation.towards(fromNodeIndex,toNodeIndex,MOVE.NEUTRAL);
+
 		MOVE move=null;
 
 		double minDistance=Integer.MAX_VALUE;
 
-		for(Entry<MOVE,Integer> entry : currentMaze.graph[fromNodeIndex].neighbourhood.entrySet())
+		//the arrays list the moves and neighbours in the order of the neighbourhood EnumMaps without allocating an iterator
+		Node node=currentMaze.graph[fromNodeIndex];
+		MOVE[] moves=node.allPossibleMoves.get(MOVE.NEUTRAL);
+		int[] neighbours=node.allNeighbouringNodes.get(MOVE.NEUTRAL);
+
+		for(int i=0;i<moves.length;i++)
 		{
-			double distance=getDistance(entry.getValue(),toNodeIndex,distanceMeasure);
+			double distance=getDistance(neighbours[i],toNodeIndex,distanceMeasure);
 
 			if(distance<minDistance)
 			{
 				minDistance=distance;
-				move=entry.getKey();
+				move=moves[i];
 			}
 		}
 
@@ -1510,18 +2055,25 @@ public final class SimplifiedGame implements Game
     @Override
 	public MOVE getNextMoveAwayFromTarget(int fromNodeIndex,int toNodeIndex,DM distanceMeasure)
 	{
+		if(distanceMeasure==DM.PATH && currentMaze.navigation!=null)
+			return currentMaze.navigation.away(fromNodeIndex,toNodeIndex,MOVE.NEUTRAL);
+
 		MOVE move=null;
 
 		double maxDistance=Integer.MIN_VALUE;
 
-		for(Entry<MOVE,Integer> entry : currentMaze.graph[fromNodeIndex].neighbourhood.entrySet())
+		Node node=currentMaze.graph[fromNodeIndex];
+		MOVE[] moves=node.allPossibleMoves.get(MOVE.NEUTRAL);
+		int[] neighbours=node.allNeighbouringNodes.get(MOVE.NEUTRAL);
+
+		for(int i=0;i<moves.length;i++)
 		{
-			double distance=getDistance(entry.getValue(),toNodeIndex,distanceMeasure);
+			double distance=getDistance(neighbours[i],toNodeIndex,distanceMeasure);
 
 			if(distance>maxDistance)
 			{
 				maxDistance=distance;
-				move=entry.getKey();
+				move=moves[i];
 			}
 		}
 
@@ -1540,18 +2092,25 @@ public final class SimplifiedGame implements Game
     @Override
 	public MOVE getApproximateNextMoveTowardsTarget(int fromNodeIndex,int toNodeIndex,MOVE lastMoveMade, DM distanceMeasure)
 	{
+		if(distanceMeasure==DM.PATH && currentMaze.navigation!=null)
+			return currentMaze.navigation.towards(fromNodeIndex,toNodeIndex,lastMoveMade);
+
 		MOVE move=null;
 
 		double minDistance=Integer.MAX_VALUE;
 
-		for(Entry<MOVE,Integer> entry : currentMaze.graph[fromNodeIndex].allNeighbourhoods.get(lastMoveMade).entrySet())
+		Node node=currentMaze.graph[fromNodeIndex];
+		MOVE[] moves=node.allPossibleMoves.get(lastMoveMade);
+		int[] neighbours=node.allNeighbouringNodes.get(lastMoveMade);
+
+		for(int i=0;i<moves.length;i++)
 		{
-			double distance=getDistance(entry.getValue(),toNodeIndex,distanceMeasure);
+			double distance=getDistance(neighbours[i],toNodeIndex,distanceMeasure);
 
 			if(distance<minDistance)
 			{
 				minDistance=distance;
-				move=entry.getKey();
+				move=moves[i];
 			}
 		}
 
@@ -1570,18 +2129,25 @@ public final class SimplifiedGame implements Game
     @Override
 	public MOVE getApproximateNextMoveAwayFromTarget(int fromNodeIndex,int toNodeIndex,MOVE lastMoveMade, DM distanceMeasure)
 	{
+		if(distanceMeasure==DM.PATH && currentMaze.navigation!=null)
+			return currentMaze.navigation.away(fromNodeIndex,toNodeIndex,lastMoveMade);
+
 		MOVE move=null;
 
 		double maxDistance=Integer.MIN_VALUE;
 
-		for(Entry<MOVE,Integer> entry : currentMaze.graph[fromNodeIndex].allNeighbourhoods.get(lastMoveMade).entrySet())
+		Node node=currentMaze.graph[fromNodeIndex];
+		MOVE[] moves=node.allPossibleMoves.get(lastMoveMade);
+		int[] neighbours=node.allNeighbouringNodes.get(lastMoveMade);
+
+		for(int i=0;i<moves.length;i++)
 		{
-			double distance=getDistance(entry.getValue(),toNodeIndex,distanceMeasure);
+			double distance=getDistance(neighbours[i],toNodeIndex,distanceMeasure);
 
 			if(distance>maxDistance)
 			{
 				maxDistance=distance;
-				move=entry.getKey();
+				move=moves[i];
 			}
 		}
 
@@ -1675,7 +2241,7 @@ public final class SimplifiedGame implements Game
     @Override
 	public int[] getShortestPath(int fromNodeIndex,int toNodeIndex)
 	{
-		return caches[mazeIndex].getPathFromA2B(fromNodeIndex,toNodeIndex);
+		return MazeRegistry.paths(mazeIndex).getPathFromA2B(fromNodeIndex,toNodeIndex);
 	}
 
 	/**
@@ -1713,7 +2279,7 @@ public final class SimplifiedGame implements Game
 		if(currentMaze.graph[fromNodeIndex].neighbourhood.size()==0)//lair
 			return new int[0];
 
-		return caches[mazeIndex].getPathFromA2B(fromNodeIndex,toNodeIndex,lastMoveMade);
+		return MazeRegistry.paths(mazeIndex).getPathFromA2B(fromNodeIndex,toNodeIndex,lastMoveMade);
 	}
 
 	/**
@@ -1749,7 +2315,7 @@ public final class SimplifiedGame implements Game
 		if(currentMaze.graph[fromNodeIndex].neighbourhood.size()==0)//lair
 			return 0;
 
-		return caches[mazeIndex].getPathDistanceFromA2B(fromNodeIndex,toNodeIndex,lastMoveMade);
+		return MazeRegistry.paths(mazeIndex).getPathDistanceFromA2B(fromNodeIndex,toNodeIndex,lastMoveMade);
 	}
 
     /**
@@ -1,9 +1,6 @@
 package pacman.game.internal;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.EnumMap;
-import java.util.PriorityQueue;
+import java.util.Arrays;
 
 import pacman.game.Game;
 import pacman.game.Constants.MOVE;
@@ -13,183 +10,253 @@ import pacman.game.Constants.MOVE;
  * a simple look-up table. Instead, we use the pre-computed shortest path distances as an admissable
  * heuristic. Although AStar needs to be run every time a path is to be found, it is very quick and does
  * not expand too many nodes beyond those on the optimal path.
+ *
+ * The graph is immutable and the search state lives in primitive arrays confined to the calling thread, so
+ * searches of different threads run concurrently without locking. The open set is a binary heap with the
+ * sift order of java.util.PriorityQueue, which keeps the paths (ties included) of the former object version.
  */
 public class AStar
 {
-	private N[] graph;
+	private static final MOVE[] MOVES=MOVE.values();
 
-	public void createGraph(Node[] nodes)
+	private int[][] adjacentNodes;
+	private int[][] adjacentMoves;
+
+	private final ThreadLocal<Search> searches=new ThreadLocal<Search>()
 	{
-		graph=new N[nodes.length];
+		@Override
+		protected Search initialValue()
+		{
+			return new Search(adjacentNodes.length);
+		}
+	};
 
-		//create graph
-		for(int i=0;i<nodes.length;i++)
-			graph[i]=new N(nodes[i].nodeIndex);
+	public void createGraph(Node[] nodes)
+	{
+		adjacentNodes=new int[nodes.length][];
+		adjacentMoves=new int[nodes.length][];
 
-		//add neighbours
 		for(int i=0;i<nodes.length;i++)
 		{
-			EnumMap<MOVE,Integer> neighbours=nodes[i].neighbourhood;
-			MOVE[] moves=MOVE.values();
+			MOVE[] moves=nodes[i].allPossibleMoves.get(MOVE.NEUTRAL);
+
+			adjacentNodes[i]=nodes[i].allNeighbouringNodes.get(MOVE.NEUTRAL);
+			adjacentMoves[i]=new int[moves.length];
 
 			for(int j=0;j<moves.length;j++)
-				if(neighbours.containsKey(moves[j]))
-					graph[i].adj.add(new E(graph[neighbours.get(moves[j])],moves[j],1));
+				adjacentMoves[i][j]=moves[j].ordinal();
 		}
 	}
 
-	public synchronized int[] computePathsAStar(int s, int t, MOVE lastMoveMade, Game game)
+	public int[] computePathsAStar(int s, int t, MOVE lastMoveMade, Game game)
     {
-		N start=graph[s];
-		N target=graph[t];
-
-        PriorityQueue<N> open = new PriorityQueue<N>();
-        ArrayList<N> closed = new ArrayList<N>();
-
-        start.g = 0;
-        start.h = game.getShortestPathDistance(start.index, target.index);
-
-        start.reached=lastMoveMade;
+		Search search=searches.get();
+		search.begin();
 
-        open.add(start);
+		search.open(s, 0, game.getShortestPathDistance(s, t), -1, lastMoveMade.ordinal());
 
-        while(!open.isEmpty())
+        while(!search.isOpenEmpty())
         {
-            N currentNode = open.poll();
-            closed.add(currentNode);
+            int currentNode = search.poll();
 
-            if (currentNode.isEqual(target))
+            if (currentNode == t)
                 break;
 
-            for(E next : currentNode.adj)
+            int reverse = MOVES[search.reached[currentNode]].opposite().ordinal();
+            int[] nodes = adjacentNodes[currentNode];
+            int[] moves = adjacentMoves[currentNode];
+
+            for(int i=0;i<nodes.length;i++)
             {
-            	if(next.move!=currentNode.reached.opposite())
+            	if(moves[i]!=reverse)
             	{
-	                double currentDistance = next.cost;
+	                int next = nodes[i];
+	                int g = search.g[currentNode] + 1;
 
-	                if (!open.contains(next.node) && !closed.contains(next.node))
+	                if (!search.isSeen(next))
 	                {
-	                    next.node.g = currentDistance + currentNode.g;
-	                    next.node.h = game.getShortestPathDistance(next.node.index, target.index);
-	                    next.node.parent = currentNode;
-
-	                    next.node.reached=next.move;
-
-	                    open.add(next.node);
+	                    search.open(next, g, game.getShortestPathDistance(next, t), currentNode, moves[i]);
 	                }
-	                else if (currentDistance + currentNode.g < next.node.g)
+	                else if (g < search.g[next])
 	                {
-	                    next.node.g = currentDistance + currentNode.g;
-	                    next.node.parent = currentNode;
-
-	                    next.node.reached=next.move;
-
-	                    if (open.contains(next.node))
-	                        open.remove(next.node);
-
-	                    if (closed.contains(next.node))
-	                        closed.remove(next.node);
-
-	                    open.add(next.node);
+	                    search.reopen(next, g, currentNode, moves[i]);
 	                }
 	            }
             }
         }
 
-        return extractPath(target);
+        return search.extractPath(t);
     }
 
-	public synchronized int[] computePathsAStar(int s, int t, Game game)
+	public int[] computePathsAStar(int s, int t, Game game)
     {
 		return computePathsAStar(s, t, MOVE.NEUTRAL, game);
     }
 
-    private synchronized int[] extractPath(N target)
+    /*
+     * The open and closed sets and the per-node g, h, parent and move reached of one thread. The per-node values
+     * belong to the current search only if the node's stamp is the search's, which saves clearing the arrays.
+     */
+    private static final class Search
     {
-    	ArrayList<Integer> route = new ArrayList<Integer>();
-        N current = target;
-        route.add(current.index);
+    	final int[] g, f, parent, reached;
+    	final int[] stamp;
+    	final int[] heap, heapPosition;				//open set, heapPosition -1 if closed
+    	int size, currentStamp;
 
-        while (current.parent != null)
-        {
-            route.add(current.parent.index);
-            current = current.parent;
-        }
+    	Search(int numberOfNodes)
+    	{
+    		g=new int[numberOfNodes];
+    		f=new int[numberOfNodes];
+    		parent=new int[numberOfNodes];
+    		reached=new int[numberOfNodes];
+    		stamp=new int[numberOfNodes];
+    		heap=new int[numberOfNodes];
+    		heapPosition=new int[numberOfNodes];
+    	}
 
-        Collections.reverse(route);
+    	void begin()
+    	{
+    		size=0;
 
-        int[] routeArray=new int[route.size()];
+    		if(++currentStamp==0)
+    		{
+    			Arrays.fill(stamp, 0);
+    			currentStamp=1;
+    		}
+    	}
 
-        for(int i=0;i<routeArray.length;i++)
-        	routeArray[i]=route.get(i);
+    	//in the open or closed set
+    	boolean isSeen(int node)
+    	{
+    		return stamp[node]==currentStamp;
+    	}
 
-        return routeArray;
-    }
+    	boolean isOpenEmpty()
+    	{
+    		return size==0;
+    	}
 
-    public void resetGraph()
-    {
-    	for(N node : graph)
+    	void open(int node, int g, int h, int parent, int move)
     	{
-    		node.g=0;
-    		node.h=0;
-    		node.parent=null;
-    		node.reached=null;
+    		stamp[node]=currentStamp;
+    		this.g[node]=g;
+    		this.f[node]=g+h;
+    		this.parent[node]=parent;
+    		reached[node]=move;
+
+    		siftUp(size++, node);
     	}
-    }
-}
 
-class N implements Comparable<N>
-{
-    public N parent;
-    public double g, h;
-    public boolean visited = false;
-    public ArrayList<E> adj;
-    public int index;
-    public MOVE reached=null;
-
-    public N(int index)
-    {
-        adj = new ArrayList<E>();
-        this.index=index;
-    }
+    	//a shorter path to a node in the open or closed set, the node is (re)added to the open set
+    	void reopen(int node, int g, int parent, int move)
+    	{
+    		f[node]+=g-this.g[node];
+    		this.g[node]=g;
+    		this.parent[node]=parent;
+    		reached[node]=move;
 
-    public N(double g, double h)
-    {
-        this.g = g;
-        this.h = h;
-    }
+    		if(heapPosition[node]>=0)
+    			removeAt(heapPosition[node]);
 
-    public boolean isEqual(N another)
-    {
-        return index == another.index;
-    }
+    		siftUp(size++, node);
+    	}
 
-    public String toString()
-    {
-        return ""+index;
-    }
+    	int poll()
+    	{
+    		int result=heap[0];
+    		int last=heap[--size];
 
-	public int compareTo(N another)
-	{
-      if ((g + h) < (another.g + another.h))
-    	  return -1;
-      else  if ((g + h) > (another.g + another.h))
-    	  return 1;
+    		if(size>0)
+    			siftDown(0, last);
 
-		return 0;
-	}
-}
+    		heapPosition[result]=-1;
+    		return result;
+    	}
 
-class E
-{
-	public N node;
-	public MOVE move;
-	public double cost;
+    	private void removeAt(int i)
+    	{
+    		int removed=heap[i];
+    		int s=--size;
 
-	public E(N node,MOVE move,double cost)
-	{
-		this.node=node;
-		this.move=move;
-		this.cost=cost;
-	}
-}
\ No newline at end of file
+    		if(s!=i)
+    		{
+    			int moved=heap[s];
+    			siftDown(i, moved);
+
+    			if(heap[i]==moved)
+    				siftUp(i, moved);
+    		}
+
+    		heapPosition[removed]=-1;
+    	}
+
+    	private void siftUp(int k, int node)
+    	{
+    		while(k>0)
+    		{
+    			int parent=(k-1)>>>1;
+    			int e=heap[parent];
+
+    			if(f[node]>=f[e])
+    				break;
+
+    			place(k, e);
+    			k=parent;
+    		}
+
+    		place(k, node);
+    	}
+
+    	private void siftDown(int k, int node)
+    	{
+    		int half=size>>>1;
+
+    		while(k<half)
+    		{
+    			int child=(k<<1)+1;
+    			int c=heap[child];
+    			int right=child+1;
+
+    			if(right<size && f[c]>f[heap[right]])
+    				c=heap[child=right];
+
+    			if(f[node]<=f[c])
+    				break;
+
+    			place(k, c);
+    			k=child;
+    		}
+
+    		place(k, node);
+    	}
+
+    	private void place(int k, int node)
+    	{
+    		heap[k]=node;
+    		heapPosition[node]=k;
+    	}
+
+    	int[] extractPath(int target)
+    	{
+    		int length=1;
+
+    		if(isSeen(target))
+    			for(int node=target;parent[node]>=0;node=parent[node])
+    				length++;
+
+    		int[] path=new int[length];
+    		int node=target;
+
+    		for(int i=length-1;i>=0;i--)
+    		{
+    			path[i]=node;
+
+    			if(i>0)
+    				node=parent[node];
+    		}
+
+    		return path;
+    	}
+    }
+}
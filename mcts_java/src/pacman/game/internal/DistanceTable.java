@@ -0,0 +1,96 @@
+package pacman.game.internal;
+
+import java.util.Arrays;
+import pacman.game.Constants.MOVE;
+
+/*
+ * The shortest path distances of a maze in a triangular table of shorts (half the size of the int table of the
+ * distance files). The nodes are renumbered internally in breadth-first order, so nodes close to each other in the
+ * maze have close rows and distances between nearby nodes share cache lines; the node indices used by the games are
+ * translated by get(). Unreachable pairs (the lair) keep the distance -1 of the distance files.
+ */
+public final class DistanceTable
+{
+	private final int[] rank;															//position of each node in the breadth-first order
+	private final short[] distances;													//[(r*(r+1))/2+s] for ranks s<=r
+
+	/*
+	 * Creates the table from the distances in the layout of the distance files: [(to*(to+1))/2+from] for from<=to.
+	 */
+	public DistanceTable(Node[] graph,int startNodeIndex,int[] shortestPathDistances)
+	{
+		this.rank=breadthFirstRanks(graph,startNodeIndex);
+		this.distances=new short[shortestPathDistances.length];
+
+		for(int to=0;to<graph.length;to++)
+			for(int from=0;from<=to;from++)
+				distances[index(rank[from],rank[to])]=(short)shortestPathDistances[((to*(to+1))/2)+from];
+	}
+
+	/*
+	 * The shortest path distance between two nodes, -1 if there is no path.
+	 */
+	public int get(int fromNodeIndex,int toNodeIndex)
+	{
+		return distances[index(rank[fromNodeIndex],rank[toNodeIndex])];
+	}
+
+	/*
+	 * The distances in the layout of the distance files (see the constructor).
+	 */
+	public int[] toArray()
+	{
+		int[] shortestPathDistances=new int[distances.length];
+
+		for(int to=0;to<rank.length;to++)
+			for(int from=0;from<=to;from++)
+				shortestPathDistances[((to*(to+1))/2)+from]=get(from,to);
+
+		return shortestPathDistances;
+	}
+
+	public boolean sameAs(DistanceTable other)
+	{
+		return other!=null && Arrays.equals(toArray(),other.toArray());
+	}
+
+	private static int index(int r,int s)
+	{
+		return r>=s ? ((r*(r+1))/2)+s : ((s*(s+1))/2)+r;
+	}
+
+	//nodes not reachable from the start node follow in index order
+	private static int[] breadthFirstRanks(Node[] graph,int startNodeIndex)
+	{
+		int[] rank=new int[graph.length];
+		int[] queue=new int[graph.length];
+		int head=0,tail=0;
+
+		Arrays.fill(rank,-1);
+
+		for(int i=-1;i<graph.length;i++)
+		{
+			int root=i<0 ? startNodeIndex : i;
+
+			if(rank[root]>=0)
+				continue;
+
+			rank[root]=tail;
+			queue[tail++]=root;
+
+			while(head<tail)
+			{
+				int[] neighbours=graph[queue[head++]].allNeighbouringNodes.get(MOVE.NEUTRAL);
+
+				for(int j=0;j<neighbours.length;j++)
+					if(rank[neighbours[j]]<0)
+					{
+						rank[neighbours[j]]=tail;
+						queue[tail++]=neighbours[j];
+					}
+			}
+		}
+
+		return rank;
+	}
+}
@@ -1,11 +1,18 @@
 package pacman.game.internal;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import pacman.game.Constants.MOVE;
 //import java.util.EnumMap;
-//import pacman.game.Constants.MOVE;
 
 import static pacman.game.Constants.*;
 
@@ -18,10 +25,18 @@ import static pacman.game.Constants.*;
 public final class Maze
 {
 	public AStar astar;
-	public int[] shortestPathDistances,pillIndices,powerPillIndices,junctionIndices;	//Information for the controllers
+	public int[] pillIndices,powerPillIndices,junctionIndices;							//Information for the controllers
+	public DistanceTable distances;														//Shortest path distances
 	public int initialPacManNodeIndex,lairNodeIndex,initialGhostNodeIndex;				//Maze-specific information
 	public Node[] graph;																//The actual maze, stored as a graph (set of nodes)
 	public String name;																	//Name of the Maze
+	public NavigationTable navigation;													//PATH moves, only if stored in the binary file
+	public RoadSegments roads;															//Roads between the junctions
+
+	//binary maze files: header, nodes and the distances as unsigned 16-bit numbers (see writeBinary())
+	private static final int BINARY_MAGIC=0x504D5A31;									//"PMZ1"
+	private static final String BINARY_EXTENSION=".bin";
+	private static final char UNREACHABLE=Character.MAX_VALUE;							//distance -1 (nodes in the lair)
 	
 	/*
 	 * Each maze is stored as a (connected) graph: all nodes have neighbours, stored in an array of length 4. The
@@ -32,12 +47,18 @@ public final class Maze
 	 */		
 	public Maze(int index)
 	{
-		loadNodes(nodeNames[index]);
-		loadDistances(distNames[index]);
+		//a binary file older than the text files was converted from other mazes
+		if(!binaryUpToDate(index) || !loadBinary(binaryFile(index)))
+		{
+			loadNodes(nodeNames[index]);
+			loadDistances(distNames[index]);
+		}
 		
 		//create A* graph for shortest paths for the ghosts
 		astar=new AStar();
 		astar.createGraph(graph);
+
+		roads=new RoadSegments(graph);
 	}
 	
 	//Loads all the nodes from files and initialises all maze-specific information.
@@ -100,7 +121,7 @@ public final class Maze
 	 */
 	private void loadDistances(String fileName)
 	{
-		this.shortestPathDistances=new int[((graph.length*(graph.length-1))/2)+graph.length];
+		int[] shortestPathDistances=new int[((graph.length*(graph.length-1))/2)+graph.length];
 		
         try
         {
@@ -119,5 +140,192 @@ public final class Maze
         {
             ioe.printStackTrace();
         }
+
+		this.distances=new DistanceTable(graph,initialPacManNodeIndex,shortestPathDistances);
+	}
+
+	/*
+	 * The binary file of the maze, created from the text files by exec.ExecConvertMazes.
+	 */
+	public static File binaryFile(int index)
+	{
+		return new File(pathMazes,nodeNames[index]+BINARY_EXTENSION);
+	}
+
+	/*
+	 * Whether the binary file of the maze exists and is not older than the text files it is converted from.
+	 */
+	public static boolean binaryUpToDate(int index)
+	{
+		File binary=binaryFile(index);
+		File nodes=new File(pathMazes,nodeNames[index]+".txt");
+		File distances=new File(pathDistances,distNames[index]);
+
+		return binary.exists() && binary.lastModified()>=Math.max(nodes.lastModified(),distances.lastModified());
+	}
+
+	/*
+	 * Loads the nodes and distances from the binary file through a memory-mapped buffer, which avoids parsing
+	 * the text files (the distance file alone has about 830k lines). Returns false if the file is not a valid
+	 * binary maze, the text files are loaded then.
+	 */
+	private boolean loadBinary(File file)
+	{
+		try
+		{
+			FileInputStream in=new FileInputStream(file);
+
+			try
+			{
+				FileChannel channel=in.getChannel();
+				ByteBuffer buffer=channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+
+				if(buffer.getInt()!=BINARY_MAGIC)
+					return false;
+
+				this.initialPacManNodeIndex=buffer.getInt();
+				this.lairNodeIndex=buffer.getInt();
+				this.initialGhostNodeIndex=buffer.getInt();
+				this.graph=new Node[buffer.getInt()];
+				this.pillIndices=new int[buffer.getInt()];
+				this.powerPillIndices=new int[buffer.getInt()];
+				this.junctionIndices=new int[buffer.getInt()];
+
+				byte[] nameBytes=new byte[buffer.getShort()];
+				buffer.get(nameBytes);
+				this.name=new String(nameBytes,"UTF-8");
+
+				int pillIndex=0;
+				int powerPillIndex=0;
+				int junctionIndex=0;
+
+				for(int nodeIndex=0;nodeIndex<graph.length;nodeIndex++)
+				{
+					int x=buffer.getInt();
+					int y=buffer.getInt();
+					int[] neighbourhood={buffer.getInt(),buffer.getInt(),buffer.getInt(),buffer.getInt()};
+
+					Node node=new Node(nodeIndex,x,y,buffer.getInt(),buffer.getInt(),neighbourhood);
+
+					graph[nodeIndex]=node;
+
+					if(node.pillIndex>=0)
+						pillIndices[pillIndex++]=node.nodeIndex;
+					else if(node.powerPillIndex>=0)
+						powerPillIndices[powerPillIndex++]=node.nodeIndex;
+
+					if(node.numNeighbouringNodes>2)
+						junctionIndices[junctionIndex++]=node.nodeIndex;
+				}
+
+				int[] shortestPathDistances=new int[((graph.length*(graph.length-1))/2)+graph.length];
+
+				CharBuffer table=buffer.asCharBuffer();
+
+				int navigationSize=table.remaining()-shortestPathDistances.length;
+
+				if(navigationSize!=0 && navigationSize!=NavigationTable.size(graph.length))
+					return false;
+
+				for(int i=0;i<shortestPathDistances.length;i++)
+				{
+					char distance=table.get();
+					shortestPathDistances[i]=distance==UNREACHABLE ? -1 : distance;
+				}
+
+				this.distances=new DistanceTable(graph,initialPacManNodeIndex,shortestPathDistances);
+
+				if(navigationSize>0)
+					this.navigation=NavigationTable.read(graph.length,table);
+
+				return true;
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch(IOException ioe)
+		{
+			ioe.printStackTrace();
+			return false;
+		}
+		catch(RuntimeException re)
+		{
+			//truncated file
+			return false;
+		}
+	}
+
+	/*
+	 * Writes the maze to the binary file read by loadBinary(). All numbers are big-endian:
+	 * magic, initial Ms Pac-Man node, lair node, initial ghost node, numbers of nodes, pills, power pills
+	 * and junctions (ints), name (short length and UTF-8 bytes), per node x, y, the neighbours up, right,
+	 * down, left, pill and power pill index (ints), the triangular distance table (chars, -1 stored
+	 * as 0xFFFF) and the navigation table if there is one. The file is written under a temporary name and renamed,
+	 * a game never maps a partial file.
+	 */
+	public void writeBinary(File file) throws IOException
+	{
+		File partial=new File(file.getPath()+".part");
+		DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partial)));
+
+		try
+		{
+			out.writeInt(BINARY_MAGIC);
+			out.writeInt(initialPacManNodeIndex);
+			out.writeInt(lairNodeIndex);
+			out.writeInt(initialGhostNodeIndex);
+			out.writeInt(graph.length);
+			out.writeInt(pillIndices.length);
+			out.writeInt(powerPillIndices.length);
+			out.writeInt(junctionIndices.length);
+
+			byte[] nameBytes=name.getBytes("UTF-8");
+			out.writeShort(nameBytes.length);
+			out.write(nameBytes);
+
+			MOVE[] moves={MOVE.UP,MOVE.RIGHT,MOVE.DOWN,MOVE.LEFT};
+
+			for(Node node : graph)
+			{
+				out.writeInt(node.x);
+				out.writeInt(node.y);
+
+				for(MOVE move : moves)
+				{
+					Integer neighbour=node.neighbourhood.get(move);
+					out.writeInt(neighbour==null ? -1 : neighbour);
+				}
+
+				out.writeInt(node.pillIndex);
+				out.writeInt(node.powerPillIndex);
+			}
+
+			int[] shortestPathDistances=distances.toArray();
+
+			for(int i=0;i<shortestPathDistances.length;i++)
+			{
+				int distance=shortestPathDistances[i];
+
+				if(distance<-1 || distance>=UNREACHABLE)
+					throw new IOException("Distance "+distance+" does not fit in 16 bits");
+
+				out.writeChar(distance==-1 ? UNREACHABLE : distance);
+			}
+
+			if(navigation!=null)
+				navigation.write(out);
+		}
+		finally
+		{
+			out.close();
+		}
+
+		if(!partial.renameTo(file))
+		{
+			partial.delete();
+			throw new IOException("Cannot rename "+partial+" to "+file);
+		}
 	}
-}
\ No newline at end of file
+}
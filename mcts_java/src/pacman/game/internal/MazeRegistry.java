@@ -0,0 +1,35 @@
+package pacman.game.internal;
+
+import static pacman.game.Constants.*;
+
+/*
+ * The mazes and their paths caches, shared by all the game implementations. They are loaded once
+ * per JVM (from the binary maze files if present, see Maze) instead of once per game class.
+ */
+public final class MazeRegistry
+{
+	private static final Maze[] mazes=new Maze[NUM_MAZES];
+	private static final PathsCache[] caches=new PathsCache[NUM_MAZES];
+
+	static
+	{
+		for(int i=0;i<mazes.length;i++)
+			mazes[i]=new Maze(i);
+
+		//the caches create games of the mazes above, so the mazes must be registered first
+		for(int i=0;i<caches.length;i++)
+			caches[i]=new PathsCache(i);
+	}
+
+	private MazeRegistry(){}
+
+	public static Maze maze(int mazeIndex)
+	{
+		return mazes[mazeIndex];
+	}
+
+	public static PathsCache paths(int mazeIndex)
+	{
+		return caches[mazeIndex];
+	}
+}
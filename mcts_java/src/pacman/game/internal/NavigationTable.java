@@ -0,0 +1,158 @@
+package pacman.game.internal;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import pacman.game.Constants.MOVE;
+
+/*
+ * The PATH moves towards and away from every node of a maze, from every other node. A query with a last move made
+ * excludes the reverse of the last move, so per (from,to) pair the table keeps the best and the second best move
+ * (3 bits each) for both directions in a char. The second best is taken when the best is the reverse. The moves are
+ * those the greedy loops of the games choose: the first neighbour (in MOVE order) with the smallest, or largest,
+ * shortest path distance to the target.
+ */
+public final class NavigationTable
+{
+	private static final int BITS=3;
+	private static final int MASK=(1<<BITS)-1;
+	private static final int NONE=MASK;											//no move (the node has no neighbours left)
+	private static final MOVE[] MOVES=MOVE.values();
+
+	private final int numberOfNodes;
+	private final char[] entries;													//[fromNodeIndex*numberOfNodes+toNodeIndex]
+
+	private NavigationTable(int numberOfNodes,char[] entries)
+	{
+		this.numberOfNodes=numberOfNodes;
+		this.entries=entries;
+	}
+
+	/*
+	 * Computes the table of a maze from its graph and distances.
+	 */
+	public static NavigationTable build(Maze maze)
+	{
+		int numberOfNodes=maze.graph.length;
+		char[] entries=new char[numberOfNodes*numberOfNodes];
+
+		for(int from=0;from<numberOfNodes;from++)
+		{
+			Node node=maze.graph[from];
+			MOVE[] moves=node.allPossibleMoves.get(MOVE.NEUTRAL);
+			int[] neighbours=node.allNeighbouringNodes.get(MOVE.NEUTRAL);
+			int[] distances=new int[moves.length];
+
+			for(int to=0;to<numberOfNodes;to++)
+			{
+				for(int i=0;i<moves.length;i++)
+					distances[i]=maze.distances.get(neighbours[i],to);
+
+				int towards=closest(distances,-1);
+				int away=farthest(distances,-1);
+
+				entries[from*numberOfNodes+to]=(char)(ordinal(moves,towards)
+						|(ordinal(moves,closest(distances,towards))<<BITS)
+						|(ordinal(moves,away)<<(2*BITS))
+						|(ordinal(moves,farthest(distances,away))<<(3*BITS)));
+			}
+		}
+
+		return new NavigationTable(numberOfNodes,entries);
+	}
+
+	/*
+	 * Reads the table of a maze with the given number of nodes, as written by write().
+	 */
+	public static NavigationTable read(int numberOfNodes,CharBuffer buffer)
+	{
+		char[] entries=new char[numberOfNodes*numberOfNodes];
+		buffer.get(entries);
+
+		return new NavigationTable(numberOfNodes,entries);
+	}
+
+	/*
+	 * The number of chars read by read().
+	 */
+	public static int size(int numberOfNodes)
+	{
+		return numberOfNodes*numberOfNodes;
+	}
+
+	public void write(DataOutput out) throws IOException
+	{
+		for(int i=0;i<entries.length;i++)
+			out.writeChar(entries[i]);
+	}
+
+	public boolean sameAs(NavigationTable other)
+	{
+		return other!=null && numberOfNodes==other.numberOfNodes && Arrays.equals(entries,other.entries);
+	}
+
+	/*
+	 * The move from the node that gets closest to the target, not reversing the last move made (NEUTRAL for any move).
+	 */
+	public MOVE towards(int fromNodeIndex,int toNodeIndex,MOVE lastMoveMade)
+	{
+		return move(entries[fromNodeIndex*numberOfNodes+toNodeIndex],0,lastMoveMade);
+	}
+
+	/*
+	 * The move from the node that gets farthest from the target, not reversing the last move made (NEUTRAL for any move).
+	 */
+	public MOVE away(int fromNodeIndex,int toNodeIndex,MOVE lastMoveMade)
+	{
+		return move(entries[fromNodeIndex*numberOfNodes+toNodeIndex],2*BITS,lastMoveMade);
+	}
+
+	private static MOVE move(int entry,int shift,MOVE lastMoveMade)
+	{
+		int best=(entry>>>shift)&MASK;
+
+		//the reverse of NEUTRAL is NEUTRAL, which is never a move to a neighbour
+		if(best==lastMoveMade.opposite().ordinal())
+			best=(entry>>>(shift+BITS))&MASK;
+
+		return best==NONE ? null : MOVES[best];
+	}
+
+	private static int ordinal(MOVE[] moves,int index)
+	{
+		return index<0 ? NONE : moves[index].ordinal();
+	}
+
+	//index of the first smallest distance, skipping the excluded index
+	private static int closest(int[] distances,int excluded)
+	{
+		int minDistance=Integer.MAX_VALUE;
+		int index=-1;
+
+		for(int i=0;i<distances.length;i++)
+			if(i!=excluded && distances[i]<minDistance)
+			{
+				minDistance=distances[i];
+				index=i;
+			}
+
+		return index;
+	}
+
+	//index of the first largest distance, skipping the excluded index
+	private static int farthest(int[] distances,int excluded)
+	{
+		int maxDistance=Integer.MIN_VALUE;
+		int index=-1;
+
+		for(int i=0;i<distances.length;i++)
+			if(i!=excluded && distances[i]>maxDistance)
+			{
+				maxDistance=distances[i];
+				index=i;
+			}
+
+		return index;
+	}
+}
@@ -205,7 +205,6 @@ public class PathsCache
 				{
 					int neighbour = game.getNeighbour(indices[q],possibleMoves[i]);
 					int[] p = m.astar.computePathsAStar(neighbour,indices[z], possibleMoves[i], game);
-					m.astar.resetGraph();
 
 					junctions[q].addPath(z, possibleMoves[i], p);
 				}
@@ -0,0 +1,61 @@
+package pacman.game.internal;
+
+import pacman.game.Constants.MOVE;
+
+/*
+ * The roads between the junctions of a maze: for every node and last move made, the number of steps a character
+ * following the road (it may neither reverse nor choose) makes before it stands on a node where the road ends,
+ * i.e. a junction or a node with no single move left. The engine uses it to advance characters several steps
+ * without any choice in between.
+ */
+public final class RoadSegments
+{
+	private static final int MAX_STEPS=Short.MAX_VALUE;
+	private static final int NUM_MOVES=MOVE.values().length;
+
+	private final short[] steps;														//[nodeIndex*NUM_MOVES+lastMoveMade]
+
+	public RoadSegments(Node[] graph)
+	{
+		steps=new short[graph.length*NUM_MOVES];
+
+		for(int i=0;i<graph.length;i++)
+			for(MOVE move : MOVE.values())
+			{
+				int node=i;
+				MOVE lastMoveMade=move;
+				int count=0;
+
+				while(!isRoadEnd(graph[node],lastMoveMade) && count<MAX_STEPS)
+				{
+					int next=graph[node].allNeighbouringNodes.get(lastMoveMade)[0];
+					lastMoveMade=graph[node].allPossibleMoves.get(lastMoveMade)[0];
+					node=next;
+					count++;
+				}
+
+				steps[i*NUM_MOVES+move.ordinal()]=(short)count;
+			}
+	}
+
+	/*
+	 * The number of steps along the road from the node, 0 if the node ends the road.
+	 */
+	public int stepsToRoadEnd(int nodeIndex,MOVE lastMoveMade)
+	{
+		return steps[nodeIndex*NUM_MOVES+lastMoveMade.ordinal()];
+	}
+
+	/*
+	 * The road ends at junctions and where the move is not given by the last move (NEUTRAL included).
+	 */
+	public static boolean isRoadEnd(Node node,MOVE lastMoveMade)
+	{
+		if(node.numNeighbouringNodes>2 || lastMoveMade==MOVE.NEUTRAL)
+			return true;
+
+		MOVE[] moves=node.allPossibleMoves.get(lastMoveMade);
+
+		return moves==null || moves.length!=1;
+	}
+}
@@ -0,0 +1,80 @@
+package pacman.game.internal;
+
+import java.util.Random;
+import pacman.game.Constants.GHOST;
+import pacman.game.Constants.MOVE;
+
+/*
+ * Zobrist keys of the game features: a random 64-bit key per position and last move of
+ * every character and per pill. The hash of a state is the XOR of the keys of its features,
+ * so the games update it incrementally by XOR-ing out the old feature and XOR-ing in the new one.
+ * The keys are generated from a fixed seed, hashes of the same state thus agree across processes.
+ */
+public final class Zobrist
+{
+	public static final int MAX_NODES=1<<11;
+	public static final int MAX_PILLS=1<<9;
+
+	private static final long[] PACMAN_NODE=new long[MAX_NODES];
+	private static final long[] PACMAN_MOVE=new long[MOVE.values().length];
+	private static final long[][] GHOST_NODE=new long[GHOST.values().length][MAX_NODES];
+	private static final long[][] GHOST_MOVE=new long[GHOST.values().length][MOVE.values().length];
+	private static final long[] PILL=new long[MAX_PILLS];
+	private static final long[] POWER_PILL=new long[MAX_PILLS];
+
+	static
+	{
+		Random rnd=new Random(0x5EEDL);
+
+		fill(PACMAN_NODE,rnd);
+		fill(PACMAN_MOVE,rnd);
+
+		for(int i=0;i<GHOST_NODE.length;i++)
+		{
+			fill(GHOST_NODE[i],rnd);
+			fill(GHOST_MOVE[i],rnd);
+		}
+
+		fill(PILL,rnd);
+		fill(POWER_PILL,rnd);
+	}
+
+	private Zobrist(){}
+
+	private static void fill(long[] keys,Random rnd)
+	{
+		for(int i=0;i<keys.length;i++)
+			keys[i]=rnd.nextLong();
+	}
+
+	public static long pacman(int nodeIndex,MOVE lastMoveMade)
+	{
+		return PACMAN_NODE[nodeIndex]^PACMAN_MOVE[lastMoveMade.ordinal()];
+	}
+
+	public static long ghost(GHOST ghostType,int nodeIndex,MOVE lastMoveMade)
+	{
+		return GHOST_NODE[ghostType.ordinal()][nodeIndex]^GHOST_MOVE[ghostType.ordinal()][lastMoveMade.ordinal()];
+	}
+
+	public static long pill(int pillIndex)
+	{
+		return PILL[pillIndex];
+	}
+
+	public static long powerPill(int powerPillIndex)
+	{
+		return POWER_PILL[powerPillIndex];
+	}
+
+	/*
+	 * Mixes a scalar (time, score, ...) into the hash. Used for the features changing every
+	 * time step, which are cheaper to mix in on demand than to keep keys for.
+	 */
+	public static long mix(long hash,long value)
+	{
+		hash^=value;
+		hash*=0x9E3779B97F4A7C15L;
+		return hash^(hash>>>29);
+	}
+}
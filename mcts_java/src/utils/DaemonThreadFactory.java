@@ -0,0 +1,23 @@
+package utils;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates daemon threads, so that idle worker pools never keep the JVM
+ * alive after the experiment is finished.
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+    private final String name;
+    private int created = 0;
+
+    public DaemonThreadFactory(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public synchronized Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, String.format("%s-%d", name, created++));
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,218 @@
+package communication;
+
+import communication.messages.Message;
+import communication.messages.MessageCodec;
+import communication.messages.SimulationResultMessage;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import mcts.Action;
+import mcts.GhostAction;
+import mcts.PacmanAction;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import pacman.game.Constants.GHOST;
+import pacman.game.Constants.MOVE;
+import test_utils.TestUtils;
+
+/**
+ * The channel reads from one end of a real loopback socket pair, the test writes
+ * raw frames (int payload length, long epoch, payload) to the other end.
+ */
+public class LoopbackChannelTest {
+    private static final int TIMEOUT_MILLIS = 5000;
+
+    private SocketChannel peer;
+    private LoopbackChannel channel;
+
+    private void connect() throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+            peer = SocketChannel.open(server.socket().getLocalSocketAddress());
+            channel = new LoopbackChannel(new Network(1000000), "channel", server.accept(), 1000000, 1<<20);
+        } finally {
+            server.close();
+        }
+    }
+
+    private void disconnect() throws IOException {
+        channel.close();
+        peer.close();
+    }
+
+    private static List<Action> path(int length) {
+        EnumMap<GHOST, MOVE> ghosts_moves = new EnumMap<GHOST, MOVE>(GHOST.class);
+        for (GHOST ghost: GHOST.values()) {
+            ghosts_moves.put(ghost, MOVE.values()[ghost.ordinal()]);
+        }
+        List<Action> path = new ArrayList<Action>();
+        for (int i=0; i<length; i++) {
+            path.add(i%2==0? new PacmanAction(MOVE.values()[i%4]): new GhostAction(ghosts_moves));
+        }
+        return path;
+    }
+
+    private static ByteBuffer frame(Message message, long epoch) {
+        ByteBuffer frame = ByteBuffer.allocate(12+(int)message.length());
+        frame.putInt((int)message.length());
+        frame.putLong(epoch);
+        new MessageCodec().encode(message, frame);
+        frame.flip();
+        return frame;
+    }
+
+    /* writes the bytes of the frame from its position to the limit given */
+    private void write(ByteBuffer frame, int limit) throws IOException {
+        ByteBuffer part = frame.duplicate();
+        part.limit(limit);
+        while (part.hasRemaining()) {
+            peer.write(part);
+        }
+        frame.position(limit);
+    }
+
+    private void write(ByteBuffer frame) throws IOException {
+        write(frame, frame.limit());
+    }
+
+    private SimulationResultMessage receive() {
+        long end = System.currentTimeMillis()+TIMEOUT_MILLIS;
+        while (System.currentTimeMillis()<end) {
+            Message message = channel.receive();
+            if (message!=null) {
+                return (SimulationResultMessage)message;
+            }
+            TestUtils.sleep(1);
+        }
+        fail("No message received");
+        return null;
+    }
+
+    /* nothing arrives for a while */
+    private void assertNothingReceived() {
+        TestUtils.sleep(50);
+        assertTrue(channel.receiveQueueEmpty());
+        assertEquals(null, channel.receive());
+    }
+
+    @Test
+    public void testFrameSplitAcrossReads() throws IOException {
+        connect();
+        try {
+            ByteBuffer frame = frame(new SimulationResultMessage(path(40), 0.25), 0);
+            write(frame, 5); /* part of the header */
+            assertNothingReceived();
+            write(frame, 12+3); /* header and part of the payload */
+            assertNothingReceived();
+            write(frame);
+
+            SimulationResultMessage message = receive();
+            assertEquals(0.25, message.simulationResult(), 0);
+            assertEquals(40, message.treeMoves().size());
+            assertEquals(1, channel.messagesReceived());
+            assertEquals(frame.limit(), channel.bytesRead());
+        } finally {
+            disconnect();
+        }
+    }
+
+    @Test
+    public void testFrameLargerThanBuffer() throws IOException {
+        connect();
+        try {
+            SimulationResultMessage large = new SimulationResultMessage(path(100000), 0.5);
+            assertTrue(large.length()>1<<16);
+            final ByteBuffer frame = frame(large, 0);
+            final ByteBuffer next = frame(new SimulationResultMessage(path(2), 0.75), 0);
+
+            /* the socket buffers would not take the whole frame before the channel reads */
+            Thread writer = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        write(frame);
+                        write(next);
+                    } catch (IOException ex) {
+                        /* the reader fails then */
+                    }
+                }
+            };
+            writer.start();
+
+            SimulationResultMessage message = receive();
+            assertEquals(0.5, message.simulationResult(), 0);
+            assertEquals(100000, message.treeMoves().size());
+            assertEquals(MOVE.UP, message.treeMoves().get(0).pacmanMove());
+            assertEquals(0.75, receive().simulationResult(), 0);
+            writer.join();
+        } catch (InterruptedException ex) {
+            fail(ex.getMessage());
+        } finally {
+            disconnect();
+        }
+    }
+
+    @Test
+    public void testEpochs() throws IOException {
+        connect();
+        try {
+            channel.setEpoch(5);
+            write(frame(new SimulationResultMessage(path(2), 0.375), 4));
+            write(frame(new SimulationResultMessage(path(2), 0.5), 5));
+            write(frame(new SimulationResultMessage(path(2), 0.625), 6));
+            write(frame(new SimulationResultMessage(path(2), 0.75), 7));
+
+            /* the older frame is dropped, the newer ones wait for their epochs */
+            assertEquals(0.5, receive().simulationResult(), 0);
+            assertNothingReceived();
+            assertEquals(4, channel.messagesReceived());
+            assertEquals(0, channel.receiveQueueItemsCount());
+
+            channel.setEpoch(6);
+            assertEquals(1, channel.receiveQueueItemsCount());
+            assertEquals(0.625, receive().simulationResult(), 0);
+            assertNothingReceived();
+
+            /* skipped epochs are dropped */
+            channel.setEpoch(8);
+            assertNothingReceived();
+            write(frame(new SimulationResultMessage(path(2), 0.875), 8));
+            assertEquals(0.875, receive().simulationResult(), 0);
+        } finally {
+            disconnect();
+        }
+    }
+
+    @Test
+    public void testSentFramesCarryEpoch() throws IOException {
+        connect();
+        try {
+            channel.setEpoch(3);
+            SimulationResultMessage sent = new SimulationResultMessage(path(6), 0.125);
+            channel.send(Priority.MEDIUM, sent);
+            long end = System.currentTimeMillis()+TIMEOUT_MILLIS;
+            while (!channel.sendQueueEmpty()&&System.currentTimeMillis()<end) {
+                TestUtils.sleep(1);
+            }
+            assertTrue(channel.sendQueueEmpty());
+
+            ByteBuffer frame = ByteBuffer.allocate(12+(int)sent.length());
+            while (frame.hasRemaining()) {
+                peer.read(frame);
+            }
+            frame.flip();
+            assertEquals(sent.length(), frame.getInt());
+            assertEquals(3, frame.getLong());
+            assertEquals(0.125, ((SimulationResultMessage)new MessageCodec().decode(frame)).simulationResult(), 0);
+        } finally {
+            disconnect();
+        }
+    }
+}
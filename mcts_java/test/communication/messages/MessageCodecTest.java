@@ -0,0 +1,218 @@
+package communication.messages;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import mcts.Action;
+import mcts.GhostAction;
+import mcts.PacmanAction;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import pacman.game.Constants.GHOST;
+import pacman.game.Constants.MOVE;
+
+public class MessageCodecTest {
+    private static EnumMap<GHOST, MOVE> ghostsMoves(MOVE blinky, MOVE pinky, MOVE inky, MOVE sue) {
+        EnumMap<GHOST, MOVE> moves = new EnumMap<GHOST, MOVE>(GHOST.class);
+        moves.put(GHOST.BLINKY, blinky);
+        moves.put(GHOST.PINKY, pinky);
+        moves.put(GHOST.INKY, inky);
+        moves.put(GHOST.SUE, sue);
+        return moves;
+    }
+
+    private static List<Action> path() {
+        List<Action> path = new ArrayList<Action>();
+        path.add(new PacmanAction(MOVE.LEFT));
+        path.add(new GhostAction(ghostsMoves(MOVE.UP, MOVE.NEUTRAL, MOVE.DOWN, MOVE.LEFT)));
+        path.add(new PacmanAction(MOVE.UP));
+        path.add(new GhostAction(ghostsMoves(MOVE.NEUTRAL, MOVE.NEUTRAL, MOVE.NEUTRAL, MOVE.RIGHT)));
+        return path;
+    }
+
+    private static void assertPathEquals(List<Action> expected, List<Action> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i=0; i<expected.size(); i++) {
+            assertEquals(expected.get(i).type(), actual.get(i).type());
+            assertEquals(expected.get(i).pacmanMove(), actual.get(i).pacmanMove());
+            assertEquals(expected.get(i).ghostMove(), actual.get(i).ghostMove());
+        }
+    }
+
+    /**
+     * Encodes the message between other bytes and checks the encoded size.
+     */
+    private static Message roundTrip(Message message) {
+        MessageCodec codec = new MessageCodec();
+        ByteBuffer buffer = ByteBuffer.allocate(3+(int)message.length());
+        buffer.put((byte)0x5a);
+        codec.encode(message, buffer);
+        assertEquals(1+message.length(), buffer.position());
+        buffer.put((byte)0xa5).put((byte)0xff);
+
+        buffer.flip();
+        assertEquals(0x5a, buffer.get());
+        Message decoded = codec.decode(buffer);
+        assertEquals(1+message.length(), buffer.position());
+        assertEquals((byte)0xa5, buffer.get());
+        assertEquals(message.length(), decoded.length());
+        assertEquals(message.getClass(), decoded.getClass());
+        return decoded;
+    }
+
+    @Test
+    public void testMoveMessage() {
+        MoveMessage message = new MoveMessage(ghostsMoves(MOVE.LEFT, MOVE.NEUTRAL, MOVE.UP, MOVE.RIGHT));
+        assertEquals(2, message.length());
+
+        MoveMessage decoded = (MoveMessage)roundTrip(message);
+        assertEquals(message.moves(), decoded.moves());
+    }
+
+    @Test
+    public void testRootMessage() {
+        EnumMap<MOVE, Map<EnumMap<GHOST, MOVE>, Long>> roots = new EnumMap<MOVE, Map<EnumMap<GHOST, MOVE>, Long>>(MOVE.class);
+        Map<EnumMap<GHOST, MOVE>, Long> left = new HashMap<EnumMap<GHOST, MOVE>, Long>();
+        left.put(ghostsMoves(MOVE.UP, MOVE.NEUTRAL, MOVE.NEUTRAL, MOVE.NEUTRAL), 17L);
+        left.put(ghostsMoves(MOVE.DOWN, MOVE.NEUTRAL, MOVE.NEUTRAL, MOVE.NEUTRAL), 0xfffffffeL);
+        roots.put(MOVE.LEFT, left);
+        roots.put(MOVE.NEUTRAL, new HashMap<EnumMap<GHOST, MOVE>, Long>());
+        RootMessage message = new RootMessage(roots);
+        assertEquals((3+3+(3+8+2*42)+(3+8)+7)/8, message.length());
+
+        RootMessage decoded = (RootMessage)roundTrip(message);
+        assertEquals(message.getRoots(), decoded.getRoots());
+    }
+
+    @Test
+    public void testSimulationResultMessage() {
+        SimulationResultMessage message = new SimulationResultMessage(path(), 0.375);
+        assertEquals((3+32+1+2*4+2*12+7)/8, message.length());
+
+        SimulationResultMessage decoded = (SimulationResultMessage)roundTrip(message);
+        assertEquals(message.simulationResult(), decoded.simulationResult(), 0);
+        assertPathEquals(message.treeMoves(), decoded.treeMoves());
+    }
+
+    @Test
+    public void testTreeNodeMessage() {
+        TreeNodeMessage message = new TreeNodeMessage(path(), 0.25, 1234);
+        assertEquals((3+32+16+1+2*4+2*12+7)/8, message.length());
+
+        TreeNodeMessage decoded = (TreeNodeMessage)roundTrip(message);
+        assertEquals(message.simulationResult(), decoded.simulationResult(), 0);
+        assertEquals(message.count(), decoded.count());
+        assertPathEquals(message.treeMoves(), decoded.treeMoves());
+
+        TreeNodeMessage rootMessage = new TreeNodeMessage(new ArrayList<Action>(), 0.5, 100000);
+        assertEquals((3+32+48+1+7)/8, rootMessage.length());
+
+        TreeNodeMessage decodedRoot = (TreeNodeMessage)roundTrip(rootMessage);
+        assertEquals(100000, decodedRoot.count());
+        assertTrue(decodedRoot.treeMoves().isEmpty());
+    }
+
+    @Test
+    public void testTreeCutMessage() {
+        /* cut of paths P/LEFT G/x P/UP G/y, P/LEFT G/x P/DOWN, P/LEFT G/z and P/RIGHT, depth-first */
+        List<Action> deep = path();
+        List<Action> sibling = new ArrayList<Action>(path().subList(0, 2));
+        sibling.add(new PacmanAction(MOVE.DOWN));
+        List<Action> ghosts = new ArrayList<Action>(path().subList(0, 1));
+        ghosts.add(new GhostAction(ghostsMoves(MOVE.DOWN, MOVE.DOWN, MOVE.DOWN, MOVE.DOWN)));
+        List<Action> right = new ArrayList<Action>();
+        right.add(new PacmanAction(MOVE.RIGHT));
+
+        List<TreeNodeMessage> nodes = new ArrayList<TreeNodeMessage>();
+        nodes.add(new TreeNodeMessage(deep, 0.125, 70000));
+        nodes.add(new TreeNodeMessage(sibling, 1, 0));
+        nodes.add(new TreeNodeMessage(ghosts, 0.5, 1));
+        nodes.add(new TreeNodeMessage(right, 0.75, 3));
+        TreeCutMessage message = new TreeCutMessage(nodes);
+        long inner = 2+3+2*2 /* root */ + 2+3+2*10 /* P/LEFT */ + 2+3+2*2 /* G/x */ + 2+1+10 /* P/UP */;
+        long leaves = (1+16+5+16)+(1+16+5)+(1+16+5)+(1+16+5+1);
+        assertEquals(3+inner+leaves, MessageCodec.bitLength(message));
+        assertEquals((3+inner+leaves+7)/8, message.length());
+
+        TreeCutMessage decoded = (TreeCutMessage)roundTrip(message);
+        assertEquals(nodes.size(), decoded.nodeMessages().size());
+        for (int i=0; i<nodes.size(); i++) {
+            TreeNodeMessage node = nodes.get(i);
+            TreeNodeMessage decodedNode = decoded.nodeMessages().get(i);
+            assertEquals(node.simulationResult(), decodedNode.simulationResult(), 1.0/65535);
+            assertEquals(node.count(), decodedNode.count());
+            assertPathEquals(node.treeMoves(), decodedNode.treeMoves());
+        }
+
+        TreeCutMessage rootCut = (TreeCutMessage)roundTrip(new TreeCutMessage(rootOnly()));
+        assertEquals(1, rootCut.nodeMessages().size());
+        assertTrue(rootCut.nodeMessages().get(0).treeMoves().isEmpty());
+        assertEquals(12345, rootCut.nodeMessages().get(0).count());
+    }
+
+    private static List<TreeNodeMessage> rootOnly() {
+        List<TreeNodeMessage> nodes = new ArrayList<TreeNodeMessage>();
+        nodes.add(new TreeNodeMessage(new ArrayList<Action>(), 0.3, 12345));
+        return nodes;
+    }
+
+    @Test
+    public void testTreeCutDeltaMessage() {
+        List<TreeNodeMessage> updated = new ArrayList<TreeNodeMessage>();
+        updated.add(new TreeNodeMessage(path(), 0.125, 70000));
+        List<List<Action>> removed = new ArrayList<List<Action>>();
+        removed.add(path().subList(0, 1));
+        removed.add(new ArrayList<Action>());
+        TreeCutDeltaMessage message = new TreeCutDeltaMessage(7, 0x80000001, updated, removed);
+        assertEquals((3+32+32+16+(80+33)+16+5+1+7)/8, message.length());
+
+        TreeCutDeltaMessage decoded = (TreeCutDeltaMessage)roundTrip(message);
+        assertEquals(7, decoded.version());
+        assertEquals(0x80000001, decoded.baseVersion());
+        assertEquals(1, decoded.updated().size());
+        assertEquals(70000, decoded.updated().get(0).count());
+        assertPathEquals(path(), decoded.updated().get(0).treeMoves());
+        assertEquals(2, decoded.removed().size());
+        assertPathEquals(path().subList(0, 1), decoded.removed().get(0));
+        assertTrue(decoded.removed().get(1).isEmpty());
+
+        TreeCutDeltaMessage empty = (TreeCutDeltaMessage)roundTrip(new TreeCutDeltaMessage(1, 0, new ArrayList<TreeNodeMessage>(), new ArrayList<List<Action>>()));
+        assertTrue(empty.isEmpty());
+    }
+
+    @Test
+    public void testTreeCutAckMessage() {
+        TreeCutAckMessage message = new TreeCutAckMessage(123456789);
+        assertEquals(5, message.length());
+        assertEquals(123456789, ((TreeCutAckMessage)roundTrip(message)).version());
+    }
+
+    @Test
+    public void testConsecutiveMessages() {
+        MessageCodec codec = new MessageCodec();
+        Message messages[] = {
+            new TreeNodeMessage(path(), 0.75, 5),
+            new MoveMessage(ghostsMoves(MOVE.UP, MOVE.UP, MOVE.UP, MOVE.UP)),
+            new SimulationResultMessage(path(), 0.5),
+        };
+        long length = 0;
+        for (Message message: messages) {
+            length += message.length();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int)length);
+        for (Message message: messages) {
+            codec.encode(message, buffer);
+        }
+        assertFalse(buffer.hasRemaining());
+
+        buffer.flip();
+        assertEquals(5, ((TreeNodeMessage)codec.decode(buffer)).count());
+        assertEquals(MOVE.UP, ((MoveMessage)codec.decode(buffer)).moves().get(GHOST.SUE));
+        assertEquals(0.5, ((SimulationResultMessage)codec.decode(buffer)).simulationResult(), 0);
+        assertFalse(buffer.hasRemaining());
+    }
+}
@@ -0,0 +1,43 @@
+package exec;
+
+import java.io.File;
+import java.io.IOException;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import pacman.game.internal.Maze;
+import static pacman.game.Constants.NUM_MAZES;
+
+public class ExecConvertMazesTest {
+    @Test
+    public void testBinaryWithoutNavigationIsReconverted() throws IOException {
+        File backups[] = new File[NUM_MAZES];
+        for (int i=0; i<NUM_MAZES; i++) {
+            File binary = Maze.binaryFile(i);
+            if (binary.exists()) {
+                backups[i] = new File(binary.getPath()+".test");
+                assertTrue(binary.renameTo(backups[i]));
+            }
+        }
+        try {
+            ExecConvertMazes.main(new String[] {"--no-navigation"});
+            assertTrue(Maze.binaryUpToDate(0));
+            assertNull(new Maze(0).navigation);
+
+            /* up to date but without the requested table */
+            ExecConvertMazes.main(new String[0]);
+            assertTrue(Maze.binaryUpToDate(0));
+            assertNotNull(new Maze(0).navigation);
+            long modified = Maze.binaryFile(0).lastModified();
+
+            ExecConvertMazes.main(new String[0]);
+            assertEquals(modified, Maze.binaryFile(0).lastModified());
+        } finally {
+            for (int i=0; i<NUM_MAZES; i++) {
+                Maze.binaryFile(i).delete();
+                if (backups[i]!=null) {
+                    backups[i].renameTo(Maze.binaryFile(i));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package mcts;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import pacman.game.Constants.GHOST;
+import pacman.game.Constants.MOVE;
+import pacman.game.FullGame;
+import pacman.game.Game;
+import static test_utils.TestUtils.gameWithPowerPills;
+
+public class DecisionCacheTest {
+    private static final int GAMES = 6;
+
+    private static MOVE randomMove(MOVE moves[], Random random) {
+        return moves[random.nextInt(moves.length)];
+    }
+
+    private static void advance(Game game, Random random) {
+        int pacman = game.getPacmanCurrentNodeIndex();
+        MOVE pacman_move = randomMove(game.getPossibleMoves(pacman, game.getPacmanLastMoveMade()), random);
+        EnumMap<GHOST, MOVE> ghosts_moves = new EnumMap<GHOST, MOVE>(GHOST.class);
+        for (GHOST ghost: GHOST.values()) {
+            MOVE move = MOVE.NEUTRAL;
+            if (game.doesGhostRequireAction(ghost)) {
+                move = randomMove(game.getPossibleMoves(game.getGhostCurrentNodeIndex(ghost), game.getGhostLastMoveMade(ghost)), random);
+            }
+            ghosts_moves.put(ghost, move);
+        }
+        game.advanceGameWithPowerPillReverseOnly(pacman_move, ghosts_moves);
+    }
+
+    private static void assertDecisionEquals(Decision expected, Decision actual) {
+        assertEquals(expected.ticks, actual.ticks);
+        assertEquals(expected.decision_needed_from, actual.decision_needed_from);
+        assertEquals(expected.pacman_decision_gap, actual.pacman_decision_gap);
+        assertEquals(expected.pacman_decision_cause, actual.pacman_decision_cause);
+        assertTrue(Arrays.equals(expected.pacman_possible_moves, actual.pacman_possible_moves));
+        assertEquals(expected.ghosts_possible_moves.keySet(), actual.ghosts_possible_moves.keySet());
+        for (GHOST ghost: expected.ghosts_possible_moves.keySet()) {
+            assertTrue(Arrays.equals(expected.ghosts_possible_moves.get(ghost), actual.ghosts_possible_moves.get(ghost)));
+        }
+        assertEquals(expected.game.getGameState(), actual.game.getGameState());
+    }
+
+    /* decision without the cache, then with it twice (stored, then found) */
+    private static void checkDecisions(Game game, int pacman_decision_gap, int cache_capacity) {
+        String state = game.getGameState();
+        long hash = game.stateHash();
+
+        Decision.setCacheCapacity(0);
+        Decision expected = Decision.nextDecision(game, pacman_decision_gap);
+        String expected_state = expected.game.getGameState();
+        assertEquals(state, game.getGameState());
+
+        Decision.setCacheCapacity(cache_capacity);
+        for (int i=0; i<2; i++) {
+            Decision decision = Decision.nextDecision(game, pacman_decision_gap);
+            assertDecisionEquals(expected, decision);
+            assertEquals(state, game.getGameState());
+            assertEquals(hash, game.stateHash());
+        }
+        /* the decisions given out are left unchanged */
+        assertEquals(expected_state, expected.game.getGameState());
+    }
+
+    @Test
+    public void testCachedDecisionsEqualUncached() {
+        Random random = new Random(11);
+        try {
+            for (int g=0; g<GAMES; g++) {
+                Game games[] = { gameWithPowerPills(g), new FullGame(g) };
+                for (Game game: games) {
+                    for (int tick=0; tick<600&&!game.gameOver(); tick++) {
+                        checkDecisions(game, random.nextInt(Decision.PACMAN_DECISION_GAP), 1000);
+                        advance(game, random);
+                    }
+                }
+            }
+            assertTrue(Decision.cache().hits()>0);
+        } finally {
+            Decision.setCacheCapacity(Constants.DEFAULT_DECISION_CACHE_CAPACITY);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package mcts;
+
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import pacman.game.Game;
+import pacman.game.SimplifiedGame;
+import static test_utils.TestUtils.gameWithPowerPills;
+
+public class GuidedSimulatorTest {
+    private static final int GAMES = 16;
+    private static final int MAX_DEPTH = 300;
+
+    private static GuidedSimulator simulator(long seed) {
+        return simulator(seed, true);
+    }
+
+    private static GuidedSimulator simulator(long seed, boolean primitive_rollouts) {
+        GuidedSimulator simulator = new GuidedSimulator(new Random(seed));
+        simulator.setMaxDepth(MAX_DEPTH);
+        simulator.setPrimitiveRollouts(primitive_rollouts);
+        return simulator;
+    }
+
+    @Test
+    public void testPrimitiveRolloutsEqualObjectOnes() {
+        GuidedSimulator stepper = simulator(11);
+        for (int i=0; i<GAMES; i++) {
+            SimplifiedGame game = gameWithPowerPills(200+i);
+            for (int tick=0; tick<10*i&&!game.wasPacManEaten(); tick++) {
+                stepper.gameStep(game);
+            }
+            String state = game.getGameState();
+            double expected = simulator(2000+i, false).simulate(game, 15*i);
+            assertEquals(state, game.getGameState());
+            assertEquals(expected, simulator(2000+i, true).simulate(game, 15*i), 0);
+            assertEquals(state, game.getGameState());
+        }
+    }
+
+    @Test
+    public void testBatchedSimulationsEqualSingleOnes() {
+        /* start states some way into the games */
+        GuidedSimulator stepper = simulator(7);
+        Game games[] = new Game[GAMES];
+        long depths[] = new long[GAMES];
+        for (int i=0; i<GAMES; i++) {
+            SimplifiedGame game = gameWithPowerPills(100+i);
+            for (int tick=0; tick<10*i&&!game.wasPacManEaten(); tick++) {
+                stepper.gameStep(game);
+            }
+            games[i] = game;
+            depths[i] = 15*i;
+        }
+
+        double expected[] = new double[GAMES];
+        Random randoms[] = new Random[GAMES];
+        for (int i=0; i<GAMES; i++) {
+            expected[i] = simulator(1000+i).simulate(games[i], depths[i]);
+            randoms[i] = new Random(1000+i);
+        }
+
+        double rewards[] = new double[GAMES];
+        simulator(0).simulate(games, depths, GAMES, rewards, randoms);
+        for (int i=0; i<GAMES; i++) {
+            assertEquals(expected[i], rewards[i], 0);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package mcts.distributed;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import mcts.AvgBackpropagator;
+import mcts.GuidedSimulator;
+import mcts.MCNode;
+import mcts.PacmanTree;
+import mcts.UCBSelector;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import pacman.game.SimplifiedGame;
+
+public class TreeCutFrontierTest {
+    private static final int ITERATIONS = 2000;
+    private static final int EXPAND_EVERY = 100;
+
+    /* the heap must agree with the linear scan over the cut it replaced */
+    private static void assertMax(TreeCutFrontier frontier, List<TreeCutNode> cut) {
+        assertEquals(cut.size(), frontier.size());
+        int max = Integer.MIN_VALUE;
+        for (TreeCutNode node: cut) {
+            max = Math.max(max, node.treeNode().calculatedVisitCount());
+        }
+        assertTrue(cut.contains(frontier.max()));
+        assertEquals(max, frontier.max().treeNode().calculatedVisitCount());
+    }
+
+    @Test
+    public void testMaxEqualsLinearScan() {
+        GuidedSimulator simulator = new GuidedSimulator(new Random(0));
+        simulator.setMaxDepth(100);
+        PacmanTree tree = new PacmanTree(new SimplifiedGame(0), new UCBSelector(simulator), simulator,
+                AvgBackpropagator.getInstance(), 0.3);
+        tree.iterate();
+
+        TreeCutFrontier frontier = new TreeCutFrontier();
+        List<TreeCutNode> cut = new ArrayList<TreeCutNode>();
+        TreeCutNode root = new TreeCutNode(tree.root(), null);
+        frontier.add(root);
+        cut.add(root);
+        assertMax(frontier, cut);
+
+        for (int i=1; i<=ITERATIONS; i++) {
+            tree.iterate();
+            frontier.iterated(tree.lastIterated());
+            assertMax(frontier, cut);
+
+            /* replace the best node of the cut by its children */
+            if (i%EXPAND_EVERY==0&&frontier.max().treeNode().expanded()) {
+                TreeCutNode max = frontier.removeMax();
+                cut.remove(max);
+                if (!cut.isEmpty()) {
+                    assertMax(frontier, cut);
+                }
+                for (MCNode child: max.treeNode().children()) {
+                    TreeCutNode node = new TreeCutNode(child, null);
+                    frontier.add(node);
+                    cut.add(node);
+                }
+                assertMax(frontier, cut);
+            }
+        }
+        assertTrue(cut.size()>1);
+    }
+}
@@ -0,0 +1,46 @@
+package mcts.distributed.entries;
+
+import java.util.EnumMap;
+import mcts.distributed.TreeCutSnapshot;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import pacman.game.Constants.GHOST;
+import pacman.game.Constants.MOVE;
+import pacman.game.Game;
+import pacman.game.SimplifiedGame;
+
+public class TreeCutExchangingGhosts2Test {
+    private static final long TICK_MILLIS = 40;
+    private static final long CHANNEL_SPEED = 8192;
+    private static final double DELTAS_PER_TICK = 2;
+
+    private static TreeCutExchangingGhosts2 controller(long channelSpeed) {
+        TreeCutExchangingGhosts2 controller = new TreeCutExchangingGhosts2();
+        controller.getNetwork().setChannelTransmissionSpeed(channelSpeed);
+        controller.setMultithreaded(false);
+        controller.setDeltaCuts(true);
+        controller.setDeltasSentByTick(DELTAS_PER_TICK, TICK_MILLIS, channelSpeed);
+        return controller;
+    }
+
+    @Test
+    public void testDeltaByteSize() {
+        /* the agents take turns, a channel carries a quarter of a tick's bytes */
+        assertEquals((long)(0.001*TICK_MILLIS/4*CHANNEL_SPEED/DELTAS_PER_TICK), controller(CHANNEL_SPEED).deltaByteSize());
+        assertEquals(TreeCutSnapshot.MIN_DELTA_BYTE_SIZE, controller(1024).deltaByteSize());
+    }
+
+    @Test
+    public void testDeltasDeliveredWithoutThreads() {
+        TreeCutExchangingGhosts2 controller = controller(CHANNEL_SPEED);
+        Game game = new SimplifiedGame(0);
+        for (int i=0; i<50&&!game.gameOver(); i++) {
+            EnumMap<GHOST,MOVE> ghostMove = controller.getMove(game, System.currentTimeMillis()+TICK_MILLIS);
+            game.advanceGame(MOVE.NEUTRAL, ghostMove);
+        }
+        assertTrue(controller.deltasSentPerSecond()>0);
+        assertTrue(controller.transmittedSuccessfullyPerSecond()>0);
+        /* the deltas fit in the bytes a channel carries before the buffers are truncated at the next tick */
+        assertTrue(controller.averageDeltaByteSize()<=0.001*controller.virtualMillis(TICK_MILLIS)*CHANNEL_SPEED);
+    }
+}
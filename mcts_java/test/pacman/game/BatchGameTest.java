@@ -0,0 +1,120 @@
+package pacman.game;
+
+import java.util.EnumMap;
+import java.util.Random;
+import mcts.GhostsMovesCodec;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import static test_utils.TestUtils.gameWithPowerPills;
+import pacman.game.Constants.DM;
+import pacman.game.Constants.GHOST;
+import pacman.game.Constants.MOVE;
+
+public class BatchGameTest {
+    private static final int GAMES = 12;
+
+    /* heads for the power pills and chases the edible ghosts, so that every event happens now and then */
+    private static int pacmanMove(SimplifiedGame game, Random random) {
+        int pacman = game.getPacmanCurrentNodeIndex();
+        for (GHOST ghost: GHOST.values()) {
+            if (game.isGhostEdible(ghost)) {
+                return game.getNextMoveTowardsTarget(pacman, game.getGhostCurrentNodeIndex(ghost), DM.PATH).ordinal();
+            }
+        }
+        int power_pills[] = game.getActivePowerPillsIndices();
+        if (power_pills.length>0&&random.nextInt(10)>0) {
+            int target = game.getClosestNodeIndexFromNodeIndex(pacman, power_pills, DM.PATH);
+            return game.getNextMoveTowardsTarget(pacman, target, DM.PATH).ordinal();
+        }
+        MOVE moves[] = game.getPossibleMoves(pacman, game.getPacmanLastMoveMade());
+        return moves[random.nextInt(moves.length)].ordinal();
+    }
+
+    private static int ghostsMoves(SimplifiedGame game, Random random) {
+        EnumMap<GHOST, MOVE> moves = new EnumMap<GHOST, MOVE>(GHOST.class);
+        for (GHOST ghost: GHOST.values()) {
+            MOVE move = MOVE.NEUTRAL;
+            if (game.doesGhostRequireAction(ghost)) {
+                MOVE possible[] = game.getPossibleMoves(game.getGhostCurrentNodeIndex(ghost), game.getGhostLastMoveMade(ghost));
+                move = possible[random.nextInt(possible.length)];
+            }
+            moves.put(ghost, move);
+        }
+        return GhostsMovesCodec.encode(moves);
+    }
+
+    private static void assertSlotEquals(SimplifiedGame game, BatchGame batch, int slot) {
+        assertEquals(game.gameOver(), batch.gameOver(slot));
+        assertEquals(game.wasPacManEaten(), batch.wasPacManEaten(slot));
+        assertEquals(game.wasPillEaten(), batch.wasPillEaten(slot));
+        assertEquals(game.wasPowerPillEaten(), batch.wasPowerPillEaten(slot));
+        assertEquals(game.getTimeOfLastGlobalReversal(), batch.getTimeOfLastGlobalReversal(slot));
+        assertEquals(game.getCurrentLevel(), batch.getCurrentLevel(slot));
+        assertEquals(game.getScore(), batch.getScore(slot));
+        assertEquals(game.getTotalTime(), batch.getTotalTime(slot));
+        assertEquals(game.getCurrentLevelTime(), batch.getCurrentLevelTime(slot));
+        assertEquals(game.getPacmanCurrentNodeIndex(), batch.getPacmanCurrentNodeIndex(slot));
+        assertEquals(game.getPacmanLastMoveMade(), batch.getPacmanLastMoveMade(slot));
+        assertEquals(game.getPacmanNumberOfLivesRemaining(), batch.getPacmanNumberOfLivesRemaining(slot));
+        for (GHOST ghost: GHOST.values()) {
+            assertEquals(game.wasGhostEaten(ghost), batch.wasGhostEaten(slot, ghost));
+            assertEquals(game.getGhostCurrentNodeIndex(ghost), batch.getGhostCurrentNodeIndex(slot, ghost));
+            assertEquals(game.getGhostLastMoveMade(ghost), batch.getGhostLastMoveMade(slot, ghost));
+            assertEquals(game.getGhostEdibleTime(ghost), batch.getGhostEdibleTime(slot, ghost));
+            assertEquals(game.isGhostEdible(ghost), batch.isGhostEdible(slot, ghost));
+            assertEquals(game.getGhostLairTime(ghost), batch.getGhostLairTime(slot, ghost));
+            assertEquals(game.doesGhostRequireAction(ghost), batch.doesGhostRequireAction(slot, ghost));
+        }
+        for (int i=0; i<game.getPillIndices().length; i++) {
+            assertEquals(game.isPillStillAvailable(i), batch.isPillStillAvailable(slot, i));
+        }
+        for (int i=0; i<game.getPowerPillIndices().length; i++) {
+            assertEquals(game.isPowerPillStillAvailable(i), batch.isPowerPillStillAvailable(slot, i));
+        }
+    }
+
+    @Test
+    public void testSlotsFollowGames() {
+        Random random = new Random(42);
+        SimplifiedGame games[] = new SimplifiedGame[GAMES];
+        BatchGame batch = new BatchGame(GAMES);
+        for (int i=0; i<GAMES; i++) {
+            games[i] = gameWithPowerPills(1000+i);
+            assertEquals(i, batch.add(games[i]));
+            assertSlotEquals(games[i], batch, i);
+        }
+
+        int pacman_moves[] = new int[GAMES];
+        int ghosts_moves[] = new int[GAMES];
+        int running = GAMES;
+        int power_pills = 0, ghosts_eaten = 0, pacman_eaten = 0;
+        while (running>0) {
+            for (int i=0; i<GAMES; i++) {
+                if (batch.isRunning(i)) {
+                    pacman_moves[i] = pacmanMove(games[i], random);
+                    ghosts_moves[i] = ghostsMoves(games[i], random);
+                    games[i].advanceGameWithPowerPillReverseOnly(pacman_moves[i], ghosts_moves[i]);
+                }
+            }
+            batch.advance(pacman_moves, ghosts_moves);
+
+            for (int i=0; i<GAMES; i++) {
+                if (!batch.isRunning(i)) {
+                    continue;
+                }
+                assertSlotEquals(games[i], batch, i);
+                if (games[i].wasPowerPillEaten()) power_pills++;
+                if (games[i].getNumGhostsEaten()>0) ghosts_eaten++;
+                if (games[i].wasPacManEaten()) pacman_eaten++;
+                if (games[i].gameOver()) {
+                    batch.stop(i);
+                    running--;
+                }
+            }
+        }
+
+        assertTrue(power_pills>0);
+        assertTrue(ghosts_eaten>0);
+        assertTrue(pacman_eaten>0);
+    }
+}
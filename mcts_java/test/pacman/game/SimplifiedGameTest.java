@@ -0,0 +1,149 @@
+package pacman.game;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Random;
+import mcts.GhostsMovesCodec;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import pacman.game.Constants.DM;
+import pacman.game.Constants.GHOST;
+import pacman.game.Constants.MOVE;
+import static test_utils.TestUtils.gameWithPowerPills;
+
+public class SimplifiedGameTest {
+    private static final int GAMES = 20;
+    private static final int BRANCHES = 6;
+
+    private int pills = 0, power_pills = 0, feasts = 0, lair_entries = 0, lair_exits = 0;
+
+    /* reversals included, the power pills and the edible ghosts are chased most of the time */
+    private static int pacmanMove(SimplifiedGame game, Random random) {
+        int pacman = game.getPacmanCurrentNodeIndex();
+        if (random.nextInt(4)>0) {
+            for (GHOST ghost: GHOST.values()) {
+                if (game.isGhostEdible(ghost)) {
+                    return game.getNextMoveTowardsTarget(pacman, game.getGhostCurrentNodeIndex(ghost), DM.PATH).ordinal();
+                }
+            }
+            int targets[] = game.getActivePowerPillsIndices();
+            if (targets.length>0) {
+                int target = game.getClosestNodeIndexFromNodeIndex(pacman, targets, DM.PATH);
+                return game.getNextMoveTowardsTarget(pacman, target, DM.PATH).ordinal();
+            }
+        }
+        MOVE moves[] = game.getPossibleMoves(pacman);
+        return moves[random.nextInt(moves.length)].ordinal();
+    }
+
+    private static int ghostsMoves(SimplifiedGame game, Random random) {
+        EnumMap<GHOST, MOVE> moves = new EnumMap<GHOST, MOVE>(GHOST.class);
+        for (GHOST ghost: GHOST.values()) {
+            MOVE possible[] = game.getPossibleMoves(game.getGhostCurrentNodeIndex(ghost), game.getGhostLastMoveMade(ghost));
+            moves.put(ghost, game.doesGhostRequireAction(ghost)? possible[random.nextInt(possible.length)]: MOVE.NEUTRAL);
+        }
+        return GhostsMovesCodec.encode(moves);
+    }
+
+    private void countEvents(SimplifiedGame before, SimplifiedGame game) {
+        if (game.wasPillEaten()) pills++;
+        if (game.wasPowerPillEaten()) power_pills++;
+        for (GHOST ghost: GHOST.values()) {
+            if (game.wasGhostEaten(ghost)) feasts++;
+            if (before.getGhostLairTime(ghost)==0&&game.getGhostLairTime(ghost)>0) lair_entries++;
+            if (before.getGhostLairTime(ghost)>0&&game.getGhostLairTime(ghost)==0) lair_exits++;
+        }
+    }
+
+    /**
+     * Advances the game at random till its end, undoes it to random earlier depths checking
+     * the states met on the way there, then takes another way from there.
+     */
+    @Test
+    public void testUndoRestoresStates() {
+        Random random = new Random(3);
+        for (int g=0; g<GAMES; g++) {
+            SimplifiedGame initial = gameWithPowerPills(g);
+            String initial_state = initial.getGameState();
+            long initial_hash = initial.stateHash();
+
+            /* the copy shares the pills and ghosts with the initial game until it changes them */
+            SimplifiedGame game = initial.copy();
+            List<String> states = new ArrayList<String>();
+            List<Long> hashes = new ArrayList<Long>();
+            for (int branch=0; branch<BRANCHES; branch++) {
+                while (!game.gameOver()) {
+                    states.add(game.getGameState());
+                    hashes.add(game.stateHash());
+                    SimplifiedGame before = game.copy();
+                    game.advance(pacmanMove(game, random), ghostsMoves(game, random));
+                    countEvents(before, game);
+                    assertEquals(states.size(), game.undoDepth());
+                }
+
+                int target = branch<BRANCHES-1? random.nextInt(states.size()): 0;
+                int depth = states.size();
+                while (depth>target) {
+                    depth = Math.max(target, depth-1-random.nextInt(5));
+                    game.undoTo(depth);
+                    assertEquals(depth, game.undoDepth());
+                    assertEquals(states.get(depth), game.getGameState());
+                    assertEquals(hashes.get(depth).longValue(), game.stateHash());
+                }
+                states.subList(depth, states.size()).clear();
+                hashes.subList(depth, hashes.size()).clear();
+            }
+            assertEquals(0, game.undoDepth());
+            assertEquals(initial_state, game.getGameState());
+            assertEquals(initial_hash, game.stateHash());
+            assertEquals(initial_state, initial.getGameState());
+            assertEquals(initial_hash, initial.stateHash());
+        }
+
+        assertTrue(pills>0);
+        assertTrue(power_pills>0);
+        assertTrue(feasts>0);
+        assertTrue(lair_entries>0);
+        assertTrue(lair_exits>0);
+    }
+
+    /**
+     * A jump along the roads gives the state of stepping the game tick by tick with everybody
+     * following the road, and the undoable jump is undone to the state before it.
+     */
+    @Test
+    public void testRoadJumpEqualsSteps() {
+        Random random = new Random(5);
+        int jumps = 0;
+        for (int g=0; g<GAMES; g++) {
+            SimplifiedGame game = gameWithPowerPills(100+g);
+            while (!game.gameOver()) {
+                int ticks = game.roadTicks(1+random.nextInt(60));
+                if (ticks>0) {
+                    SimplifiedGame jumped = game.copy();
+                    jumped.advanceAlongRoads(ticks, false);
+
+                    SimplifiedGame stepped = game.copy();
+                    for (int i=0; i<ticks; i++) {
+                        MOVE road[] = stepped.getPossibleMoves(stepped.getPacmanCurrentNodeIndex(), stepped.getPacmanLastMoveMade());
+                        assertEquals(1, road.length);
+                        stepped.advanceGameWithPowerPillReverseOnly(road[0].ordinal(), GhostsMovesCodec.NEUTRAL);
+                    }
+                    assertEquals(stepped.getGameState(), jumped.getGameState());
+                    assertEquals(stepped.stateHash(), jumped.stateHash());
+
+                    SimplifiedGame undone = game.copy();
+                    undone.advanceAlongRoads(ticks, true);
+                    assertEquals(jumped.getGameState(), undone.getGameState());
+                    undone.undoTo(0);
+                    assertEquals(game.getGameState(), undone.getGameState());
+                    assertEquals(game.stateHash(), undone.stateHash());
+                    jumps++;
+                }
+                game.advanceGameWithPowerPillReverseOnly(pacmanMove(game, random), ghostsMoves(game, random));
+            }
+        }
+        assertTrue(jumps>1000);
+    }
+}
@@ -0,0 +1,55 @@
+package pacman.game.internal;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import pacman.game.Constants.MOVE;
+import pacman.game.SimplifiedGame;
+
+public class NavigationTableTest {
+    /* every seventh target keeps the A* searches short */
+    private static final int TARGET_STEP = 7;
+
+    @Test
+    public void testMovesFollowShortestPaths() {
+        SimplifiedGame game = new SimplifiedGame(0);
+        Maze maze = game.getCurrentMaze();
+        NavigationTable table = NavigationTable.build(maze);
+
+        for (int from=0; from<maze.graph.length; from++) {
+            Node node = maze.graph[from];
+            for (int to=from%TARGET_STEP; to<maze.graph.length; to+=TARGET_STEP) {
+                int distance = maze.distances.get(from, to);
+                if (from==to||distance<0) {
+                    continue;
+                }
+                int path[] = maze.astar.computePathsAStar(from, to, game);
+                assertEquals(distance+1, path.length);
+                assertEquals(distance-1, maze.distances.get(path[1], to));
+
+                MOVE towards = table.towards(from, to, MOVE.NEUTRAL);
+                assertEquals(distance-1, maze.distances.get(node.neighbourhood.get(towards), to));
+
+                for (MOVE last_move: node.allPossibleMoves.keySet()) {
+                    assertEquals(greedyMove(maze, from, to, last_move, true), table.towards(from, to, last_move));
+                    assertEquals(greedyMove(maze, from, to, last_move, false), table.away(from, to, last_move));
+                }
+            }
+        }
+    }
+
+    /* the loops of the games without a table: first neighbour with the smallest (largest) distance */
+    private static MOVE greedyMove(Maze maze, int from, int to, MOVE last_move, boolean towards) {
+        MOVE moves[] = maze.graph[from].allPossibleMoves.get(last_move);
+        int neighbours[] = maze.graph[from].allNeighbouringNodes.get(last_move);
+        MOVE best = null;
+        int best_distance = towards? Integer.MAX_VALUE: Integer.MIN_VALUE;
+        for (int i=0; i<moves.length; i++) {
+            int distance = maze.distances.get(neighbours[i], to);
+            if (towards? distance<best_distance: distance>best_distance) {
+                best_distance = distance;
+                best = moves[i];
+            }
+        }
+        return best;
+    }
+}
@@ -1,5 +1,6 @@
 package test_utils;
 
+import pacman.game.SimplifiedGame;
 import static org.junit.Assert.*;
 
 public class TestUtils {
@@ -13,6 +14,26 @@ public class TestUtils {
         return System.currentTimeMillis()-now;
     }
 
+    /**
+     * Simplified games start without power pills, the game state string puts them back.
+     */
+    static public SimplifiedGame gameWithPowerPills(long seed) {
+        SimplifiedGame game = new SimplifiedGame(seed);
+        String values[] = game.getGameState().split(",");
+        StringBuilder power_pills = new StringBuilder();
+        for (int i=0; i<game.getPowerPillIndices().length; i++) {
+            power_pills.append('1');
+        }
+        /* maze, times, score, level, Ms Pac-Man (5), ghosts (4 each) and pills come first */
+        values[9+4*4+1] = power_pills.toString();
+        StringBuilder state = new StringBuilder(values[0]);
+        for (int i=1; i<values.length; i++) {
+            state.append(',').append(values[i]);
+        }
+        game.setGameState(state.toString());
+        return game;
+    }
+
     static public void todo() {
         fail("TODO");
     }